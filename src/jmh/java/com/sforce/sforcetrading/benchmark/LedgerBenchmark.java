@@ -0,0 +1,91 @@
+package com.sforce.sforcetrading.benchmark;
+
+import com.sforce.sforcetrading.trading.Ledger;
+import com.sforce.sforcetrading.trading.RiskCheck;
+import com.sforce.sforcetrading.trading.Side;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the pre-trade check of an order and the settlement of a trade on a
+ * {@link Ledger} holding a million accounts, each with a position in every
+ * symbol, for accounts picked at random so most lookups miss the CPU caches.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+public class LedgerBenchmark {
+
+    private static final int SYMBOLS = 5;
+    private static final int ORDERS = 1 << 20;
+
+    @Param({ "1000000" })
+    public int accounts;
+
+    private final long[] userIds = new long[ORDERS];
+    private final long[] counterparts = new long[ORDERS];
+    private final int[] symbolIds = new int[ORDERS];
+    private final Side[] sides = new Side[ORDERS];
+    private final long[] prices = new long[ORDERS];
+    private final long[] quantities = new long[ORDERS];
+    private Ledger ledger;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        ledger = new Ledger(SYMBOLS, 100_000_000_000L, 1_000_000_000L, 10_000_000_000L, accounts);
+        // Opens every account with a resting order and a position in each symbol
+        for (long userId = 1; userId <= accounts; userId++) {
+            for (int symbolId = 0; symbolId < SYMBOLS; symbolId++) {
+                ledger.reserve(userId, symbolId, Side.BUY, 10_000, 10);
+                ledger.fill(userId, userId % accounts + 1, symbolId, 10_000, 5);
+            }
+        }
+        Random random = new Random(42);
+        for (int i = 0; i < ORDERS; i++) {
+            userIds[i] = 1 + random.nextInt(accounts);
+            counterparts[i] = 1 + random.nextInt(accounts);
+            symbolIds[i] = random.nextInt(SYMBOLS);
+            sides[i] = random.nextBoolean() ? Side.BUY : Side.SELL;
+            prices[i] = 9_900 + random.nextInt(200);
+            quantities[i] = 1 + random.nextInt(100);
+        }
+    }
+
+    @Benchmark
+    public RiskCheck check() {
+        int i = next();
+        return ledger.check(userIds[i], symbolIds[i], sides[i], prices[i] * quantities[i], quantities[i]);
+    }
+
+    @Benchmark
+    public void settle() {
+        int i = next();
+        // A resting order of the first user trades with an incoming order of the second one
+        ledger.release(userIds[i], symbolIds[i], Side.BUY, prices[i], quantities[i]);
+        ledger.fill(userIds[i], counterparts[i], symbolIds[i], prices[i], quantities[i]);
+    }
+
+    private int next() {
+        int i = next;
+        next = (i + 1) & (ORDERS - 1);
+        return i;
+    }
+}
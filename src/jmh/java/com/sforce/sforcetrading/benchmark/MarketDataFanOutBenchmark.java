@@ -0,0 +1,146 @@
+package com.sforce.sforcetrading.benchmark;
+
+import com.sforce.sforcetrading.dto.OrderRequestDTO;
+import com.sforce.sforcetrading.trading.MarketDataHub;
+import com.sforce.sforcetrading.trading.MatchingEngine;
+import com.sforce.sforcetrading.trading.OrderType;
+import com.sforce.sforcetrading.trading.Side;
+import com.sforce.sforcetrading.trading.WaitStrategy;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the time from an order changing the best bid of a book to the new
+ * top of book being written to every subscriber of the symbol, for thousands
+ * of subscribers of which some never take data. Orders alternately raise the
+ * best bid and trade it away, so the book keeps a steady size and every order
+ * changes the top.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+public class MarketDataFanOutBenchmark {
+
+    private static final BigDecimal TICK_SIZE = new BigDecimal("0.01");
+    private static final BigDecimal UNLIMITED = new BigDecimal("1000000000000");
+
+    @Param({ "1000", "10000" })
+    public int subscribers;
+
+    /**
+     * Share of the subscribers whose connection is full, in percent. They only
+     * keep the latest frame pending.
+     */
+    @Param({ "0", "10" })
+    public int slowPercent;
+
+    private final AtomicLong written = new AtomicLong();
+    private MarketDataHub hub;
+    private MatchingEngine engine;
+    private OrderRequestDTO raise;
+    private OrderRequestDTO hit;
+    private long fastSubscribers;
+    private long expected;
+    private boolean raised;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        hub = new MarketDataHub(TICK_SIZE, 10, 65536, subscribers, 60_000);
+        engine = new MatchingEngine(List.of("BENCH"), TICK_SIZE, 1_000_000, UNLIMITED, Long.MAX_VALUE, UNLIMITED,
+                65536, 256, WaitStrategy.YIELD, hub, null);
+        engine.submit(1, order(Side.BUY, OrderType.LIMIT, "100.00", 1_000_000)).join();
+        // New subscribers then get this top of book on subscription
+        while (hub.getStats().get("framesEncoded") < 2) {
+            Thread.yield();
+        }
+        int slow = subscribers * slowPercent / 100;
+        for (int i = 0; i < subscribers; i++) {
+            hub.subscribe("user" + i, List.of("BENCH"), EnumSet.of(MarketDataHub.Channel.TOP), null,
+                    new CountingSink(i >= slow));
+        }
+        fastSubscribers = subscribers - slow;
+        raise = order(Side.BUY, OrderType.LIMIT, "100.01", 1);
+        hit = order(Side.SELL, OrderType.IOC, "100.01", 1);
+        expected = written.get();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        engine.shutdown();
+        hub.shutdown();
+    }
+
+    @Benchmark
+    public long fanOutTopOfBook() {
+        expected += fastSubscribers;
+        engine.submit(2, raised ? hit : raise).join();
+        raised = !raised;
+        return awaitWritten(expected);
+    }
+
+    private long awaitWritten(long count) {
+        long current;
+        while ((current = written.get()) < count) {
+            // Leaves the core to the hub thread on small machines
+            Thread.yield();
+        }
+        return current;
+    }
+
+    private static OrderRequestDTO order(Side side, OrderType type, String price, long quantity) {
+        OrderRequestDTO request = new OrderRequestDTO();
+        request.setSymbol("BENCH");
+        request.setSide(side);
+        request.setType(type);
+        request.setPrice(new BigDecimal(price));
+        request.setQuantity(quantity);
+        return request;
+    }
+
+    /**
+     * Connection counting the frames written to it, or never taking any.
+     */
+    private final class CountingSink implements MarketDataHub.Sink {
+
+        private final boolean ready;
+
+        CountingSink(boolean ready) {
+            this.ready = ready;
+        }
+
+        @Override
+        public boolean isReady() {
+            return ready;
+        }
+
+        @Override
+        public void write(byte[] frame) {
+            written.incrementAndGet();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
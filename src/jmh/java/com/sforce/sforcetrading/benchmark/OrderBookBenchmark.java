@@ -0,0 +1,122 @@
+package com.sforce.sforcetrading.benchmark;
+
+import com.sforce.sforcetrading.trading.Order;
+import com.sforce.sforcetrading.trading.OrderBook;
+import com.sforce.sforcetrading.trading.OrderBookListener;
+import com.sforce.sforcetrading.trading.OrderType;
+import com.sforce.sforcetrading.trading.Side;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the order events one {@link OrderBook} processes per second on a
+ * single thread, replaying a generated flow: limit orders around a fixed mid
+ * price, some of them crossing the spread, cancels of rested orders, and
+ * market and IOC orders. Cancels take the oldest rested orders while more than
+ * {@value #LIVE_ORDERS} may still rest, and recent ones otherwise, so the book
+ * keeps a steady size.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+public class OrderBookBenchmark {
+
+    private static final int EVENTS = 1 << 20;
+    private static final int RESTED = 1 << 14;
+    private static final int LIVE_ORDERS = RESTED / 2;
+    private static final long MID_PRICE = 10_000;
+
+    private static final byte LIMIT = 0;
+    private static final byte CANCEL = 1;
+    private static final byte MARKET = 2;
+    private static final byte IOC = 3;
+
+    private final byte[] kinds = new byte[EVENTS];
+    private final Side[] sides = new Side[EVENTS];
+    private final long[] prices = new long[EVENTS];
+    private final long[] quantities = new long[EVENTS];
+    private final int[] offsets = new int[EVENTS];
+
+    private final long[] rested = new long[RESTED];
+    private int restedCount;
+    private int cancelCount;
+
+    private OrderBook book;
+    private OrderBookListener listener;
+    private long lastOrderId;
+    private int next;
+
+    @Setup
+    public void setup() {
+        book = new OrderBook(0, "BENCH");
+        listener = new OrderBookListener() {
+            @Override
+            public void onRested(Order order) {
+                rested[restedCount++ & (RESTED - 1)] = order.getId();
+            }
+        };
+        Random random = new Random(42);
+        for (int i = 0; i < EVENTS; i++) {
+            int roll = random.nextInt(100);
+            Side side = random.nextBoolean() ? Side.BUY : Side.SELL;
+            // Mostly passive prices, a few ticks through the mid price cross the spread
+            long offset = random.nextInt(24) - 3;
+            sides[i] = side;
+            prices[i] = side == Side.BUY ? MID_PRICE - offset : MID_PRICE + offset;
+            quantities[i] = 1 + random.nextInt(100);
+            // Recent order picked by a cancel when the book is thin
+            offsets[i] = random.nextInt(LIVE_ORDERS);
+            if (roll < 45) {
+                kinds[i] = LIMIT;
+            } else if (roll < 90) {
+                kinds[i] = CANCEL;
+            } else if (roll < 95) {
+                kinds[i] = MARKET;
+            } else {
+                kinds[i] = IOC;
+            }
+        }
+        // Start from a populated book rather than an empty one
+        for (int i = 0; i < EVENTS; i++) {
+            processEvent();
+        }
+    }
+
+    @Benchmark
+    public long processEvent() {
+        int i = next;
+        next = (i + 1) & (EVENTS - 1);
+        switch (kinds[i]) {
+            case CANCEL:
+                // Some of the orders picked were filled meanwhile, and are not cancelled
+                long orderId;
+                if (restedCount - cancelCount > LIVE_ORDERS) {
+                    orderId = rested[cancelCount++ & (RESTED - 1)];
+                } else {
+                    orderId = rested[(restedCount - 1 - offsets[i]) & (RESTED - 1)];
+                }
+                return book.cancel(orderId, 1, listener) ? 1 : 0;
+            case MARKET:
+                return book.submit(++lastOrderId, 1, sides[i], OrderType.MARKET, 0, quantities[i], listener);
+            case IOC:
+                return book.submit(++lastOrderId, 1, sides[i], OrderType.IOC, prices[i], quantities[i], listener);
+            default:
+                return book.submit(++lastOrderId, 1, sides[i], OrderType.LIMIT, prices[i], quantities[i], listener);
+        }
+    }
+}
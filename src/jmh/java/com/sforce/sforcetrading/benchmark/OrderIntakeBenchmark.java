@@ -0,0 +1,169 @@
+package com.sforce.sforcetrading.benchmark;
+
+import com.sforce.sforcetrading.dto.OrderRequestDTO;
+import com.sforce.sforcetrading.dto.OrderResultDTO;
+import com.sforce.sforcetrading.trading.MatchingEngine;
+import com.sforce.sforcetrading.trading.Order;
+import com.sforce.sforcetrading.trading.OrderBook;
+import com.sforce.sforcetrading.trading.OrderBookListener;
+import com.sforce.sforcetrading.trading.OrderType;
+import com.sforce.sforcetrading.trading.Side;
+import com.sforce.sforcetrading.trading.WaitStrategy;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.ResponseEntity;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares order intake from several request threads through the
+ * {@link MatchingEngine} sequencer, where each thread publishes its order and
+ * waits for the response the order endpoint chains on the reply, with a plain
+ * {@code synchronized} baseline where each thread locks the book and matches
+ * the order itself. Both build the same response for each order, and report
+ * throughput and the latency distribution of a single order.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+public class OrderIntakeBenchmark {
+
+    private static final BigDecimal TICK_SIZE = new BigDecimal("0.01");
+    private static final BigDecimal UNLIMITED = new BigDecimal("1000000000000");
+
+    /**
+     * Engine fed through its sequencer.
+     */
+    @State(Scope.Benchmark)
+    public static class Sequenced {
+
+        @Param({ "BUSY_SPIN", "YIELD", "PARK" })
+        public WaitStrategy waitStrategy;
+
+        private MatchingEngine engine;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            engine = new MatchingEngine(List.of("BENCH"), TICK_SIZE, 1_000_000, UNLIMITED, Long.MAX_VALUE, UNLIMITED,
+                    65536, 256, waitStrategy, null, null);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            engine.shutdown();
+        }
+    }
+
+    /**
+     * Book locked by the request threads.
+     */
+    @State(Scope.Benchmark)
+    public static class Synchronized {
+
+        private final OrderBook book = new OrderBook(0, "BENCH");
+        private long lastOrderId;
+    }
+
+    /**
+     * Orders of one request thread: limit orders around a fixed mid price, and
+     * IOC orders crossing it, so the book keeps a steady size.
+     */
+    @State(Scope.Thread)
+    public static class Flow {
+
+        private static final int ORDERS = 1 << 16;
+
+        private final OrderRequestDTO[] requests = new OrderRequestDTO[ORDERS];
+        private final long[] prices = new long[ORDERS];
+        private int next;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            Random random = new Random(Thread.currentThread().getId());
+            for (int i = 0; i < ORDERS; i++) {
+                OrderRequestDTO request = new OrderRequestDTO();
+                Side side = random.nextBoolean() ? Side.BUY : Side.SELL;
+                boolean crossing = random.nextInt(2) == 0;
+                long offset = crossing ? -random.nextInt(10) : 1 + random.nextInt(10);
+                prices[i] = side == Side.BUY ? 10_000 - offset : 10_000 + offset;
+                request.setSymbol("BENCH");
+                request.setSide(side);
+                request.setType(crossing ? OrderType.IOC : OrderType.LIMIT);
+                request.setPrice(BigDecimal.valueOf(prices[i], 2));
+                request.setQuantity(1L + random.nextInt(100));
+                requests[i] = request;
+            }
+        }
+
+        int next() {
+            int i = next;
+            next = (i + 1) & (ORDERS - 1);
+            return i;
+        }
+    }
+
+    @Benchmark
+    public ResponseEntity<Object> sequencer(Sequenced sequenced, Flow flow) {
+        // Chained like the order endpoint, so the mapping runs where the reply is completed
+        return sequenced.engine.submit(1, flow.requests[flow.next()])
+                .thenApply(OrderIntakeBenchmark::toResponse)
+                .join();
+    }
+
+    @Benchmark
+    public ResponseEntity<Object> synchronizedBaseline(Synchronized baseline, Flow flow) {
+        int i = flow.next();
+        OrderRequestDTO request = flow.requests[i];
+        long quantity = request.getQuantity();
+        synchronized (baseline.book) {
+            long orderId = ++baseline.lastOrderId;
+            OrderResultDTO result = new OrderResultDTO(orderId, "BENCH", request.getSide(), request.getType(),
+                    request.getPrice(), quantity);
+            baseline.book.submit(orderId, 1, request.getSide(), request.getType(), flow.prices[i], quantity,
+                    new OrderBookListener() {
+                        @Override
+                        public void onTrade(long takerOrderId, long takerUserId, long makerOrderId,
+                                long makerUserId, Side takerSide, long price, long quantity) {
+                            result.addFill(TICK_SIZE.multiply(BigDecimal.valueOf(price)), quantity);
+                        }
+
+                        @Override
+                        public void onRested(Order order) {
+                            result.setStatus(OrderResultDTO.Status.RESTING, order.getRemaining());
+                        }
+
+                        @Override
+                        public void onCancelled(long orderId, long userId, long quantity) {
+                            result.setStatus(OrderResultDTO.Status.CANCELLED, quantity);
+                        }
+                    });
+            return toResponse(result);
+        }
+    }
+
+    // Same mapping as OrderController.submitOrder
+    private static ResponseEntity<Object> toResponse(OrderResultDTO result) {
+        return result.getStatus() == OrderResultDTO.Status.REJECTED
+                ? ResponseEntity.unprocessableEntity().body(result)
+                : ResponseEntity.ok(result);
+    }
+}
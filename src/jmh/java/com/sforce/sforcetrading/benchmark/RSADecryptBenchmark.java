@@ -0,0 +1,68 @@
+package com.sforce.sforcetrading.benchmark;
+
+import com.sforce.sforcetrading.util.RSACipherEngine;
+import com.sforce.sforcetrading.util.RSAUtil;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the per-login cost of decrypting an RSA encrypted password, with a
+ * new cipher per call (the previous login path) and with the reusable
+ * {@link RSACipherEngine}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RSADecryptBenchmark {
+
+    private KeyPair keyPair;
+    private RSACipherEngine engine;
+    private byte[] encryptedPassword;
+    private byte[][] encryptedBatch;
+
+    @Setup
+    public void setup() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        keyPair = generator.generateKeyPair();
+        engine = new RSACipherEngine(keyPair.getPrivate(), RSACipherEngine.Padding.PKCS1);
+        encryptedPassword = RSAUtil.encrypt("testpassword", keyPair.getPublic());
+        encryptedBatch = new byte[64][];
+        for (int i = 0; i < encryptedBatch.length; i++) {
+            encryptedBatch[i] = RSAUtil.encrypt("password" + i, keyPair.getPublic());
+        }
+    }
+
+    @Benchmark
+    public String newCipherPerLogin() throws Exception {
+        return RSAUtil.decrypt(encryptedPassword, keyPair.getPrivate());
+    }
+
+    @Benchmark
+    public byte[] reusedCipher() throws Exception {
+        return engine.decrypt(encryptedPassword);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(64)
+    public byte[][] reusedCipherBatch() {
+        return engine.decryptAll(encryptedBatch);
+    }
+}
@@ -0,0 +1,129 @@
+package com.sforce.sforcetrading.benchmark;
+
+import com.sforce.sforcetrading.dto.UserDTO;
+import com.sforce.sforcetrading.model.User;
+import com.sforce.sforcetrading.repository.UserRepository;
+import com.sforce.sforcetrading.service.UserService;
+
+import org.hibernate.FlushMode;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.cfg.Configuration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Compares the user read paths against an in-memory H2 database: loading
+ * managed {@link User} entities and copying them with
+ * {@link UserService#convertToDTO(User)} (the previous path), and selecting the
+ * DTO columns straight into {@link UserDTO} in a read-only session.
+ * Run with {@code -prof gc} to compare allocations per operation as well.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UserReadPathBenchmark {
+
+    @Param({ "1000" })
+    public int users;
+
+    private SessionFactory sessionFactory;
+    private UserService userService;
+    private String username;
+
+    @Setup
+    public void setup() {
+        sessionFactory = new Configuration()
+                .addAnnotatedClass(User.class)
+                .setProperty(AvailableSettings.JAKARTA_JDBC_URL, "jdbc:h2:mem:read-path;DB_CLOSE_DELAY=-1")
+                .setProperty(AvailableSettings.JAKARTA_JDBC_USER, "sa")
+                .setProperty(AvailableSettings.HBM2DDL_AUTO, "create-drop")
+                .buildSessionFactory();
+        sessionFactory.inTransaction(session -> {
+            for (int i = 0; i < users; i++) {
+                User user = new User();
+                user.setFirstName("First" + i);
+                user.setLastName("Last" + i);
+                user.setEmail("user" + i + "@example.com");
+                user.setUsername("user" + i);
+                user.setPassword("$2a$10$abcdefghijklmnopqrstuuN0vYb1vBr0Yk0f7fQ5Mqv8oVQ2j3m3a");
+                user.setCity("City" + i);
+                user.setCountry("Country");
+                session.persist(user);
+            }
+        });
+        // convertToDTO does not touch the collaborators
+        userService = new UserService(null, null, null, null, null, null);
+        username = "user" + (users / 2);
+    }
+
+    @TearDown
+    public void tearDown() {
+        sessionFactory.close();
+    }
+
+    @Benchmark
+    public UserDTO findByUsernameEntity() {
+        return sessionFactory.fromTransaction(session -> userService.convertToDTO(session
+                .createSelectionQuery("from User u where u.username = :username", User.class)
+                .setParameter("username", username)
+                .getSingleResult()));
+    }
+
+    @Benchmark
+    public UserDTO findByUsernameProjection() {
+        return readOnly(session -> session
+                .createSelectionQuery(UserRepository.USER_DTO_PROJECTION + " where u.username = :username",
+                        UserDTO.class)
+                .setParameter("username", username)
+                .getSingleResult());
+    }
+
+    @Benchmark
+    public List<UserDTO> listAllEntity() {
+        return sessionFactory.fromTransaction(session -> session
+                .createSelectionQuery("from User u order by u.id", User.class)
+                .getResultList()
+                .stream()
+                .map(userService::convertToDTO)
+                .collect(Collectors.toList()));
+    }
+
+    @Benchmark
+    public List<UserDTO> listAllProjection() {
+        return readOnly(session -> session
+                .createSelectionQuery(UserRepository.USER_DTO_PROJECTION + " order by u.id", UserDTO.class)
+                .getResultList());
+    }
+
+    /**
+     * Runs the work the way a {@code @Transactional(readOnly = true)} method
+     * does: no flush and no dirty-checking snapshots.
+     */
+    private <T> T readOnly(Function<Session, T> work) {
+        return sessionFactory.fromTransaction(session -> {
+            session.setDefaultReadOnly(true);
+            session.setHibernateFlushMode(FlushMode.MANUAL);
+            return work.apply(session);
+        });
+    }
+}
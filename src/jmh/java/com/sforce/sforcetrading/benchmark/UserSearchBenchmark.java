@@ -0,0 +1,91 @@
+package com.sforce.sforcetrading.benchmark;
+
+import com.sforce.sforcetrading.dto.UserDTO;
+import com.sforce.sforcetrading.dto.UserSummaryDTO;
+import com.sforce.sforcetrading.service.UserSearchIndex;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures typeahead searches on {@link UserSearchIndex} filled with generated
+ * users, from a single letter, which matches a large share of the users, to a
+ * full username and a two word query.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx4g")
+public class UserSearchBenchmark {
+
+    private static final String[] FIRST_NAMES = { "James", "Mary", "John", "Patricia", "Robert", "Jennifer",
+            "Michael", "Linda", "William", "Elizabeth", "David", "Barbara", "Richard", "Susan", "Joseph", "Jessica",
+            "Thomas", "Sarah", "Charles", "Karen", "Mary-Ann", "Jean-Luc", "Ana", "Li", "Yusuf", "Zoe" };
+    private static final String[] LAST_NAMES = { "Smith", "Johnson", "Williams", "Brown", "Jones", "Garcia",
+            "Miller", "Davis", "Rodriguez", "Martinez", "Hernandez", "Lopez", "Gonzalez", "Wilson", "Anderson",
+            "Thomas", "Taylor", "Moore", "Jackson", "Martin", "Lee", "Perez", "Thompson", "White", "Harris" };
+
+    @Param({ "1000000" })
+    public int users;
+
+    private UserSearchIndex index;
+    private String username;
+
+    @Setup
+    public void setup() {
+        // Built from generated users rather than from a database here
+        index = new UserSearchIndex(null, null);
+        Random random = new Random(42);
+        List<UserDTO> all = new ArrayList<>(users);
+        for (int i = 0; i < users; i++) {
+            String firstName = FIRST_NAMES[random.nextInt(FIRST_NAMES.length)];
+            String lastName = LAST_NAMES[random.nextInt(LAST_NAMES.length)];
+            all.add(new UserDTO((long) i + 1, firstName, lastName, firstName + "." + lastName + i + "@example.com",
+                    firstName.charAt(0) + lastName + Integer.toString(i, 36), null, null, null, null, null, null,
+                    null, 0L));
+        }
+        index.rebuild(all.stream());
+        username = all.get(users / 2).getUsername();
+    }
+
+    @Benchmark
+    public List<UserSummaryDTO> searchOneLetter() {
+        return index.search("j", 10);
+    }
+
+    @Benchmark
+    public List<UserSummaryDTO> searchThreeLetters() {
+        return index.search("mar", 10);
+    }
+
+    @Benchmark
+    public List<UserSummaryDTO> searchUsername() {
+        return index.search(username, 10);
+    }
+
+    @Benchmark
+    public List<UserSummaryDTO> searchTwoWords() {
+        return index.search("john sm", 10);
+    }
+
+    @Benchmark
+    public List<UserSummaryDTO> searchNoMatch() {
+        return index.search("qqq", 10);
+    }
+}
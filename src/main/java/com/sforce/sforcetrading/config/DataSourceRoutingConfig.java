@@ -0,0 +1,86 @@
+package com.sforce.sforcetrading.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+
+/**
+ * Configuration splitting database access between a primary and a read
+ * replica, enabled when {@code datasource.replica.jdbc-url} is set.
+ * The primary keeps the usual {@code spring.datasource.*} settings, with its
+ * pool configured under {@code spring.datasource.hikari.*}; the replica has its
+ * own pool, configured under {@code datasource.replica.*} with the Hikari
+ * property names. Read-only transactions go to the replica, see
+ * {@link ReplicaRoutingDataSource}.
+ */
+@Configuration
+@ConditionalOnExpression("!'${datasource.replica.jdbc-url:}'.isEmpty()")
+public class DataSourceRoutingConfig {
+
+    /**
+     * Creates the connection pool of the primary database.
+     *
+     * @param properties the {@code spring.datasource.*} properties
+     * @return the primary data source
+     */
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource primaryDataSource(DataSourceProperties properties) {
+        HikariDataSource dataSource = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        dataSource.setPoolName("primary");
+        return dataSource;
+    }
+
+    /**
+     * Creates the connection pool of the replica.
+     *
+     * @return the replica data source
+     */
+    @Bean
+    @ConfigurationProperties("datasource.replica")
+    public HikariDataSource replicaDataSource() {
+        HikariDataSource dataSource = new HikariDataSource();
+        dataSource.setPoolName("replica");
+        dataSource.setReadOnly(true);
+        return dataSource;
+    }
+
+    /**
+     * Creates the data source choosing between the primary and the replica.
+     *
+     * @param primaryDataSource  the primary data source
+     * @param replicaDataSource  the replica data source
+     * @param lagToleranceMillis how long after a write read-only transactions
+     *                           stay on the primary
+     * @return the routing data source
+     */
+    @Bean
+    public ReplicaRoutingDataSource replicaRoutingDataSource(HikariDataSource primaryDataSource,
+            HikariDataSource replicaDataSource,
+            @Value("${datasource.replica-lag-tolerance-ms:1000}") long lagToleranceMillis) {
+        return new ReplicaRoutingDataSource(primaryDataSource, replicaDataSource, lagToleranceMillis);
+    }
+
+    /**
+     * Exposes the routing data source to JPA and JDBC. Connections are only
+     * fetched when the first statement runs, once the transaction's read-only
+     * flag is known.
+     *
+     * @param replicaRoutingDataSource the routing data source
+     * @return the application data source
+     */
+    @Bean
+    @Primary
+    public DataSource dataSource(ReplicaRoutingDataSource replicaRoutingDataSource) {
+        return new LazyConnectionDataSourceProxy(replicaRoutingDataSource);
+    }
+}
@@ -1,5 +1,7 @@
 package com.sforce.sforcetrading.config;
 
+import com.sforce.sforcetrading.util.RSACipherEngine;
+
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -22,6 +24,9 @@ public class RSAKeyConfig {
     @Value("${rsa.private.key.path}")
     private String privateKeyPath;
 
+    @Value("${rsa.cipher.padding:PKCS1}")
+    private RSACipherEngine.Padding padding;
+
     /**
      * Loads the RSA private key from the specified file path.
      *
@@ -49,4 +54,15 @@ public class RSAKeyConfig {
         KeyFactory kf = KeyFactory.getInstance("RSA");
         return kf.generatePrivate(spec);
     }
+
+    /**
+     * Creates the reusable cipher engine used to decrypt login passwords.
+     *
+     * @param privateKey the RSA private key
+     * @return the RSA cipher engine
+     */
+    @Bean
+    public RSACipherEngine rsaCipherEngine(PrivateKey privateKey) {
+        return new RSACipherEngine(privateKey, padding);
+    }
 }
@@ -0,0 +1,134 @@
+package com.sforce.sforcetrading.config;
+
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.security.authentication.AnonymousAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import javax.sql.DataSource;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Data source sending read-only transactions to a replica and everything else
+ * to the primary.
+ * The replica lags behind the primary, so for a configurable time after a
+ * client's write transaction commits, that client's read-only transactions
+ * stay on the primary as well: a client reading right after its own update
+ * sees it, while the reads of other clients keep going to the replica. Clients
+ * are told apart by their authenticated principal, or by their IP address for
+ * anonymous requests, e.g. a login right after a registration; work done
+ * outside of a request counts as a single client. The choice is made when a
+ * transaction first needs a connection, so this data source must be wrapped
+ * in a {@link org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy}
+ * for the read-only flag of the transaction to be known by then.
+ */
+public class ReplicaRoutingDataSource extends AbstractRoutingDataSource {
+
+    private enum Target {
+        PRIMARY, REPLICA
+    }
+
+    private final long lagToleranceNanos;
+    // Last write commit of each client, dropped once older than the lag tolerance
+    private final Map<String, Long> lastWriteCommitNanos = new ConcurrentHashMap<>();
+    private final AtomicLong nextSweepAt;
+    private final LongAdder primaryConnections = new LongAdder();
+    private final LongAdder replicaConnections = new LongAdder();
+    private final LongAdder readsKeptOnPrimary = new LongAdder();
+
+    /**
+     * Constructs a new ReplicaRoutingDataSource.
+     *
+     * @param primary            the data source of the primary database
+     * @param replica            the data source of the replica
+     * @param lagToleranceMillis how long after a client's write commits its
+     *                           read-only transactions keep using the primary;
+     *                           should exceed the usual replication lag
+     */
+    public ReplicaRoutingDataSource(DataSource primary, DataSource replica, long lagToleranceMillis) {
+        Map<Object, Object> targets = new LinkedHashMap<>();
+        targets.put(Target.PRIMARY, primary);
+        targets.put(Target.REPLICA, replica);
+        setTargetDataSources(targets);
+        setDefaultTargetDataSource(primary);
+        this.lagToleranceNanos = TimeUnit.MILLISECONDS.toNanos(lagToleranceMillis);
+        this.nextSweepAt = new AtomicLong(System.nanoTime() + lagToleranceNanos);
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        String client = clientKey();
+        if (TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+            Long lastWrite = lastWriteCommitNanos.get(client);
+            if (lastWrite == null || System.nanoTime() - lastWrite >= lagToleranceNanos) {
+                replicaConnections.increment();
+                return Target.REPLICA;
+            }
+            readsKeptOnPrimary.increment();
+        } else if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    long now = System.nanoTime();
+                    lastWriteCommitNanos.put(client, now);
+                    sweepIfDue(now);
+                }
+            });
+        }
+        primaryConnections.increment();
+        return Target.PRIMARY;
+    }
+
+    /**
+     * Returns the routing counters.
+     *
+     * @return a map with the number of connections handed out by the primary and
+     *         by the replica, the number of read-only transactions kept on the
+     *         primary because their client had just written, and the number of
+     *         clients tracked
+     */
+    public Map<String, Long> getStats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("primaryConnections", primaryConnections.sum());
+        stats.put("replicaConnections", replicaConnections.sum());
+        stats.put("readsKeptOnPrimary", readsKeptOnPrimary.sum());
+        stats.put("recentWriters", (long) lastWriteCommitNanos.size());
+        return stats;
+    }
+
+    /**
+     * Forgets the clients whose last write is older than the lag tolerance, at
+     * most once per lag tolerance; only the thread winning the compare-and-set
+     * sweeps.
+     */
+    private void sweepIfDue(long now) {
+        long dueAt = nextSweepAt.get();
+        if (now - dueAt >= 0 && nextSweepAt.compareAndSet(dueAt, now + Math.max(lagToleranceNanos, 1))) {
+            lastWriteCommitNanos.values().removeIf(lastWrite -> now - lastWrite >= lagToleranceNanos);
+        }
+    }
+
+    private static String clientKey() {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication != null && authentication.isAuthenticated()
+                && !(authentication instanceof AnonymousAuthenticationToken)) {
+            return "user:" + authentication.getName();
+        }
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if (attributes instanceof ServletRequestAttributes servletAttributes) {
+            return "ip:" + servletAttributes.getRequest().getRemoteAddr();
+        }
+        return "";
+    }
+}
@@ -1,25 +1,44 @@
 package com.sforce.sforcetrading.config;
 
+import com.sforce.sforcetrading.exception.PasswordHashingOverloadedException;
 import com.sforce.sforcetrading.filter.JwtRequestFilter;
+import com.sforce.sforcetrading.filter.RateLimitingFilter;
 import com.sforce.sforcetrading.service.CustomUserDetailsService;
+import com.sforce.sforcetrading.service.PasswordHashingService;
+import com.sforce.sforcetrading.service.PooledPasswordAuthenticationProvider;
+import com.sforce.sforcetrading.service.UserDirectory;
+import com.sforce.sforcetrading.util.BCryptCalibrator;
+import com.sforce.sforcetrading.util.CharBufferBCryptPasswordEncoder;
 
+import jakarta.servlet.DispatcherType;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.security.authentication.AuthenticationManager;
-import org.springframework.security.config.Customizer;
-import org.springframework.security.config.annotation.authentication.builders.AuthenticationManagerBuilder;
+import org.springframework.security.authentication.ProviderManager;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.config.http.SessionCreationPolicy;
 import org.springframework.security.core.userdetails.User;
 import org.springframework.security.core.userdetails.UserDetails;
-import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.DelegatingPasswordEncoder;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.security.provisioning.InMemoryUserDetailsManager;
+import org.springframework.security.web.AuthenticationEntryPoint;
 import org.springframework.security.web.SecurityFilterChain;
 import org.springframework.security.web.authentication.UsernamePasswordAuthenticationFilter;
+import org.springframework.security.web.authentication.www.BasicAuthenticationEntryPoint;
+import org.springframework.security.web.authentication.www.BasicAuthenticationFilter;
+
+import java.util.Map;
 
 /**
  * Configuration class for Spring Security.
@@ -28,19 +47,38 @@ import org.springframework.security.web.authentication.UsernamePasswordAuthentic
 @EnableWebSecurity
 public class SecurityConfiguration {
 
+    private static final Logger logger = LoggerFactory.getLogger(SecurityConfiguration.class);
+    private static final String BCRYPT_ID = "bcrypt";
+
     private final CustomUserDetailsService customUserDetailsService;
     private final JwtRequestFilter jwtRequestFilter;
+    private final RateLimitingFilter rateLimitingFilter;
+
+    @Value("${security.password.bcrypt-strength:0}")
+    private int bcryptStrength;
+
+    @Value("${security.password.target-latency-ms:250}")
+    private long targetLatencyMillis;
+
+    @Value("${security.password.min-strength:10}")
+    private int minStrength;
+
+    @Value("${security.password.max-strength:16}")
+    private int maxStrength;
 
     /**
      * Constructor to inject CustomUserDetailsService.
      *
      * @param customUserDetailsService the custom user details service
      * @param jwtRequestFilter         the jwt request filter service
+     * @param rateLimitingFilter       the per-client rate limiting filter
      */
     @Autowired
-    public SecurityConfiguration(CustomUserDetailsService customUserDetailsService, JwtRequestFilter jwtRequestFilter) {
+    public SecurityConfiguration(CustomUserDetailsService customUserDetailsService, JwtRequestFilter jwtRequestFilter,
+            RateLimitingFilter rateLimitingFilter) {
         this.customUserDetailsService = customUserDetailsService;
         this.jwtRequestFilter = jwtRequestFilter;
+        this.rateLimitingFilter = rateLimitingFilter;
     }
 
     /**
@@ -57,15 +95,23 @@ public class SecurityConfiguration {
             throws Exception {
         http.csrf(csrf -> csrf.disable())
                 .authorizeHttpRequests(authorize -> authorize
-                        .requestMatchers("/h2-console/**", "/api/users/register", "/api/users/login", "/api/public-key")
+                        // Streamed and asynchronous responses were authorized on their initial
+                        // dispatch; the JWT filter does not run again on the async dispatch
+                        .dispatcherTypeMatchers(DispatcherType.ASYNC).permitAll()
+                        .requestMatchers("/h2-console/**", "/api/users/register", "/api/users/login", "/api/public-key",
+                                "/api/users/token/refresh", "/.well-known/jwks.json")
                         .permitAll()
+                        .requestMatchers("/api/users/import", "/api/audit/**", "/api/accounts/*", "/api/metrics/**")
+                        .hasRole("ADMIN")
                         .anyRequest().authenticated())
                 .sessionManagement(session -> session.sessionCreationPolicy(SessionCreationPolicy.STATELESS))
                 .formLogin(form -> form.permitAll())
                 .headers(headers -> headers.frameOptions(frameOptions -> frameOptions.disable()))
-                .httpBasic(Customizer.withDefaults())
+                .httpBasic(basic -> basic.authenticationEntryPoint(basicAuthenticationEntryPoint()))
                 .authenticationManager(authManager)
-                .addFilterBefore(jwtRequestFilter, UsernamePasswordAuthenticationFilter.class);
+                .addFilterBefore(jwtRequestFilter, UsernamePasswordAuthenticationFilter.class)
+                // Rate limit once the principal is known, so clients are keyed by user
+                .addFilterAfter(rateLimitingFilter, BasicAuthenticationFilter.class);
 
         return http.build();
     }
@@ -87,54 +133,78 @@ public class SecurityConfiguration {
     }
 
     /**
-     * Configures a BCrypt password encoder.
+     * Configures a delegating password encoder that stores hashes as
+     * {@code {bcrypt}<hash>}.
+     * Unless a strength is configured, the BCrypt strength is calibrated on the
+     * current host so hashing takes about the target latency. Hashes without a
+     * prefix (written before this format) or with a lower strength are still
+     * accepted and reported by {@link PasswordEncoder#upgradeEncoding(String)} so
+     * they can be rehashed on the next login. Passwords held in a
+     * {@link java.nio.CharBuffer} are hashed without being copied to a String.
      *
      * @return the configured PasswordEncoder
      */
     @Bean
     public PasswordEncoder passwordEncoder() {
-        return new BCryptPasswordEncoder();
+        int strength = bcryptStrength;
+        if (strength <= 0) {
+            strength = BCryptCalibrator.calibrate(targetLatencyMillis, minStrength, maxStrength);
+            logger.info("Calibrated BCrypt strength {} for a target latency of {} ms", strength, targetLatencyMillis);
+        }
+        BCryptPasswordEncoder bcrypt = new CharBufferBCryptPasswordEncoder(strength);
+        DelegatingPasswordEncoder encoder = new DelegatingPasswordEncoder(BCRYPT_ID, Map.of(BCRYPT_ID, bcrypt));
+        encoder.setDefaultPasswordEncoderForMatches(bcrypt);
+        return encoder;
     }
 
     /**
-     * Configures the authentication manager with both custom and in-memory user
-     * details services.
+     * Configures the authentication manager with the user directory covering both
+     * the in-memory and the application users. Passwords are verified on the
+     * password hashing pool, so HTTP Basic requests share its admission control
+     * with the login endpoint. The manager has no parent: the global one
+     * delegates back to this bean, so a rejected password would loop.
      *
-     * @param http the HttpSecurity object to configure
+     * @param passwordHashingService the service verifying passwords
      * @return the configured AuthenticationManager
-     * @throws Exception if an error occurs while configuring the authentication
-     *                   manager
      */
     @Bean
-    public AuthenticationManager authManager(HttpSecurity http) throws Exception {
-        AuthenticationManagerBuilder authenticationManagerBuilder = http
-                .getSharedObject(AuthenticationManagerBuilder.class);
-
-        authenticationManagerBuilder.userDetailsService(customUserDetailsService).passwordEncoder(passwordEncoder());
-        authenticationManagerBuilder.userDetailsService(inMemoryUserDetailsManager(passwordEncoder()))
-                .passwordEncoder(passwordEncoder());
-
-        return authenticationManagerBuilder.build();
+    public AuthenticationManager authManager(PasswordHashingService passwordHashingService) {
+        return new ProviderManager(new PooledPasswordAuthenticationProvider(
+                userDetailsService(inMemoryUserDetailsManager(passwordEncoder())), passwordHashingService));
     }
 
     /**
-     * Configures a composite user details service that tries the custom user
-     * details service first, and falls back to
-     * the in-memory user details manager if the user is not found.
+     * Configures the user directory that checks the in-memory administrator
+     * accounts first and then the application users, without relying on
+     * exceptions to fall back from one to the other.
      *
      * @param inMemoryUserDetailsManager the in-memory user details manager
-     * @return the configured UserDetailsService
+     * @return the configured UserDirectory
      */
     @Bean
-    public UserDetailsService userDetailsService(InMemoryUserDetailsManager inMemoryUserDetailsManager) {
-        return username -> {
-            UserDetails userDetails;
-            try {
-                userDetails = customUserDetailsService.loadUserByUsername(username);
-            } catch (Exception e) {
-                userDetails = inMemoryUserDetailsManager.loadUserByUsername(username);
+    public UserDirectory userDetailsService(InMemoryUserDetailsManager inMemoryUserDetailsManager) {
+        return new UserDirectory(inMemoryUserDetailsManager, customUserDetailsService);
+    }
+
+    /**
+     * Creates the HTTP Basic entry point, answering 503 with a Retry-After header
+     * like the login endpoint when the password hashing pool is saturated, and
+     * the usual Basic challenge otherwise.
+     *
+     * @return the entry point
+     */
+    private static AuthenticationEntryPoint basicAuthenticationEntryPoint() {
+        BasicAuthenticationEntryPoint challenge = new BasicAuthenticationEntryPoint();
+        challenge.setRealmName("Realm");
+        return (request, response, authException) -> {
+            if (authException.getCause() instanceof PasswordHashingOverloadedException overloaded) {
+                response.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+                response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(overloaded.getRetryAfterSeconds()));
+                response.setContentType(MediaType.TEXT_PLAIN_VALUE);
+                response.getWriter().write(overloaded.getMessage());
+                return;
             }
-            return userDetails;
+            challenge.commence(request, response, authException);
         };
     }
 }
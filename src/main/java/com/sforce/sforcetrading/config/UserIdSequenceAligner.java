@@ -0,0 +1,59 @@
+package com.sforce.sforcetrading.config;
+
+import com.sforce.sforcetrading.model.User;
+
+import jakarta.persistence.EntityManagerFactory;
+
+import org.hibernate.dialect.Dialect;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * Moves the user ID sequence past the highest existing user ID at startup.
+ * User IDs used to come from an identity column, and rows loaded with explicit
+ * IDs (such as {@code scripts/soql/load_users.sql}) do not advance the
+ * sequence either, so without this the first inserts could reuse taken IDs.
+ */
+@Component
+public class UserIdSequenceAligner implements ApplicationRunner {
+
+    private static final Logger logger = LoggerFactory.getLogger(UserIdSequenceAligner.class);
+
+    private final JdbcTemplate jdbcTemplate;
+    private final Dialect dialect;
+
+    /**
+     * Constructs a new UserIdSequenceAligner.
+     *
+     * @param jdbcTemplate         the JDBC template
+     * @param entityManagerFactory the entity manager factory providing the SQL
+     *                             dialect
+     */
+    @Autowired
+    public UserIdSequenceAligner(JdbcTemplate jdbcTemplate, EntityManagerFactory entityManagerFactory) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.dialect = entityManagerFactory.unwrap(SessionFactoryImplementor.class).getJdbcServices().getDialect();
+    }
+
+    @Override
+    public void run(ApplicationArguments args) throws Exception {
+        Long maxId = jdbcTemplate.queryForObject("select max(id) from users", Long.class);
+        if (maxId == null) {
+            return;
+        }
+        Long next = jdbcTemplate.queryForObject(
+                dialect.getSequenceSupport().getSequenceNextValString(User.ID_SEQUENCE), Long.class);
+        // The pooled optimizer hands out the block of IDs ending at the value read
+        if (next != null && next - User.ID_ALLOCATION_SIZE < maxId) {
+            long restartWith = maxId + User.ID_ALLOCATION_SIZE + 1;
+            jdbcTemplate.execute("alter sequence " + User.ID_SEQUENCE + " restart with " + restartWith);
+            logger.info("Moved sequence {} past the highest user ID {}", User.ID_SEQUENCE, maxId);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.sforce.sforcetrading.config;
+
+import com.sforce.sforcetrading.model.User;
+
+import jakarta.persistence.EntityManagerFactory;
+
+import org.hibernate.Cache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fills in the normalized email and username of users stored before these
+ * lookup columns existed, at startup. Rows are processed in ID order and in
+ * batches, normalized with {@link User#normalizeLookupKey(String)} so they
+ * match the values written by the application. When two users only differ by
+ * the case of their email or username, the oldest one keeps the lookup key and
+ * the others are logged so they can be resolved by hand.
+ */
+@Component
+public class UserLookupKeyBackfill implements ApplicationRunner {
+
+    private static final Logger logger = LoggerFactory.getLogger(UserLookupKeyBackfill.class);
+
+    private static final int BATCH_SIZE = 500;
+
+    private static final String SELECT_PENDING = "select id, email, username from users"
+            + " where (email_normalized is null or username_normalized is null) and id > ? order by id";
+
+    private static final String UPDATE_KEYS = "update users set email_normalized = ?, username_normalized = ?"
+            + " where id = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final EntityManagerFactory entityManagerFactory;
+
+    /**
+     * Constructs a new UserLookupKeyBackfill.
+     *
+     * @param jdbcTemplate         the JDBC template
+     * @param entityManagerFactory the entity manager factory whose second-level
+     *                             cache is cleared once users are updated
+     */
+    @Autowired
+    public UserLookupKeyBackfill(JdbcTemplate jdbcTemplate, EntityManagerFactory entityManagerFactory) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.entityManagerFactory = entityManagerFactory;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) throws Exception {
+        long afterId = 0;
+        int filled = 0;
+        List<Object[]> batch;
+        do {
+            batch = findPending(afterId);
+            if (batch.isEmpty()) {
+                break;
+            }
+            filled += update(batch);
+            afterId = (Long) batch.get(batch.size() - 1)[2];
+        } while (batch.size() == BATCH_SIZE);
+        if (filled > 0) {
+            // The updates bypass Hibernate, which cannot tell its cached users are stale
+            entityManagerFactory.getCache().unwrap(Cache.class).evictAllRegions();
+            logger.info("Filled in the lookup email and username of {} users", filled);
+        }
+    }
+
+    /**
+     * Reads the next batch of users missing a lookup key, as the update
+     * parameters: normalized email, normalized username and ID.
+     */
+    private List<Object[]> findPending(long afterId) {
+        List<Object[]> batch = new ArrayList<>(BATCH_SIZE);
+        jdbcTemplate.query(connection -> {
+            PreparedStatement statement = connection.prepareStatement(SELECT_PENDING);
+            statement.setLong(1, afterId);
+            statement.setMaxRows(BATCH_SIZE);
+            return statement;
+        }, resultSet -> {
+            batch.add(new Object[] {
+                    User.normalizeLookupKey(resultSet.getString("email")),
+                    User.normalizeLookupKey(resultSet.getString("username")),
+                    resultSet.getLong("id") });
+        });
+        return batch;
+    }
+
+    private int update(List<Object[]> batch) {
+        try {
+            jdbcTemplate.batchUpdate(UPDATE_KEYS, batch);
+            return batch.size();
+        } catch (DataIntegrityViolationException e) {
+            // Some users differ only by case; update one by one to single them out
+            int updated = 0;
+            for (Object[] row : batch) {
+                try {
+                    updated += jdbcTemplate.update(UPDATE_KEYS, row);
+                } catch (DataIntegrityViolationException duplicate) {
+                    logger.error("User {} has the same email or username as an older user, ignoring case;"
+                            + " it cannot be looked up until one of them is changed", row[2]);
+                }
+            }
+            return updated;
+        }
+    }
+}
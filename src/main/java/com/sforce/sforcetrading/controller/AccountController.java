@@ -0,0 +1,84 @@
+package com.sforce.sforcetrading.controller;
+
+import com.sforce.sforcetrading.filter.JwtRequestFilter;
+import com.sforce.sforcetrading.model.User;
+import com.sforce.sforcetrading.service.UserService;
+import com.sforce.sforcetrading.trading.MatchingEngine;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.Authentication;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestAttribute;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * REST controller reading the trading accounts of the ledger: cash, cash
+ * reserved by resting buy orders, and positions. Users read their own account,
+ * administrators any account. Accounts are read by the matching thread, so
+ * they reflect every order applied before the request.
+ */
+@RestController
+@RequestMapping("/api/accounts")
+public class AccountController {
+
+    private final MatchingEngine matchingEngine;
+    private final UserService userService;
+
+    /**
+     * Constructs a new AccountController.
+     *
+     * @param matchingEngine the engine owning the ledger
+     * @param userService    the user service resolving users authenticated
+     *                       without a user ID in their token
+     */
+    @Autowired
+    public AccountController(MatchingEngine matchingEngine, UserService userService) {
+        this.matchingEngine = matchingEngine;
+        this.userService = userService;
+    }
+
+    /**
+     * Retrieves the account of the authenticated user.
+     *
+     * @param tokenUserId    the ID of the user from the JWT token, if it has one
+     * @param authentication the authenticated user
+     * @return a future ResponseEntity containing the account, or a forbidden
+     *         status if the authenticated account is not a registered user
+     */
+    @GetMapping
+    public CompletableFuture<ResponseEntity<Object>> getOwnAccount(
+            @RequestAttribute(name = JwtRequestFilter.USER_ID_ATTRIBUTE, required = false) Long tokenUserId,
+            Authentication authentication) {
+        Optional<Long> userId = tokenUserId != null ? Optional.of(tokenUserId)
+                : userService.getUserByUsername(authentication.getName()).map(User::getId);
+        if (userId.isEmpty()) {
+            return CompletableFuture.completedFuture(
+                    ResponseEntity.status(HttpStatus.FORBIDDEN).body("Only registered users have an account"));
+        }
+        return matchingEngine.getAccount(userId.get()).thenApply(ResponseEntity::ok);
+    }
+
+    /**
+     * Retrieves the account of a user. Restricted to administrators.
+     *
+     * @param userId the ID of the user
+     * @return a future ResponseEntity containing the account, or a not found
+     *         status if there is no such user
+     */
+    @GetMapping("/{userId}")
+    public CompletableFuture<ResponseEntity<Object>> getAccount(@PathVariable long userId) {
+        try {
+            userService.getUserById(userId);
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.NOT_FOUND).body(e.getMessage()));
+        }
+        return matchingEngine.getAccount(userId).thenApply(ResponseEntity::ok);
+    }
+}
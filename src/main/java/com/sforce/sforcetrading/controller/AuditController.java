@@ -0,0 +1,63 @@
+package com.sforce.sforcetrading.controller;
+
+import com.sforce.sforcetrading.dto.AuditEventDTO;
+import com.sforce.sforcetrading.service.AuditJournal;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.time.Instant;
+
+/**
+ * REST controller querying the audit journal of account events. Restricted to
+ * administrators.
+ */
+@RestController
+@RequestMapping("/api/audit")
+public class AuditController {
+
+    private static final int DEFAULT_EVENTS = 100;
+    private static final int MAX_EVENTS = 1000;
+
+    private final AuditJournal auditJournal;
+
+    /**
+     * Constructs a new AuditController.
+     *
+     * @param auditJournal the journal of account events
+     */
+    @Autowired
+    public AuditController(AuditJournal auditJournal) {
+        this.auditJournal = auditJournal;
+    }
+
+    /**
+     * Retrieves the latest account events matching the filters. The journal is
+     * read from disk, so events recorded in the last few milliseconds may not
+     * be listed yet.
+     *
+     * @param userId the ID of the user, omitted for any user
+     * @param type   the kind of event, omitted for any kind
+     * @param from   the ISO-8601 time from which events are listed, inclusive
+     * @param to     the ISO-8601 time until which events are listed, exclusive
+     * @param limit  the maximum number of events, at most {@value #MAX_EVENTS}
+     * @return a ResponseEntity containing the matching events, newest first, or
+     *         a bad request status if the limit is invalid
+     */
+    @GetMapping
+    public ResponseEntity<Object> getEvents(@RequestParam(required = false) Long userId,
+            @RequestParam(required = false) AuditEventDTO.Type type,
+            @RequestParam(required = false) Instant from,
+            @RequestParam(required = false) Instant to,
+            @RequestParam(defaultValue = "" + DEFAULT_EVENTS) int limit) {
+        if (limit < 1 || limit > MAX_EVENTS) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Limit must be between 1 and " + MAX_EVENTS);
+        }
+        return ResponseEntity.ok(auditJournal.query(userId, type, from, to, limit));
+    }
+}
@@ -0,0 +1,46 @@
+package com.sforce.sforcetrading.controller;
+
+import com.sforce.sforcetrading.util.JwtKeyManager;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * REST controller to expose the public keys verifying JWT tokens as a JSON Web
+ * Key Set.
+ */
+@RestController
+@RequestMapping("/.well-known/jwks.json")
+public class JwksController {
+
+    private final JwtKeyManager jwtKeyManager;
+
+    /**
+     * Constructs a new JwksController.
+     *
+     * @param jwtKeyManager the JWT key manager
+     */
+    @Autowired
+    public JwksController(JwtKeyManager jwtKeyManager) {
+        this.jwtKeyManager = jwtKeyManager;
+    }
+
+    /**
+     * Retrieves the JSON Web Key Set.
+     *
+     * @return a ResponseEntity containing every public key that can still verify
+     *         issued tokens, cacheable by clients for a few minutes
+     */
+    @GetMapping
+    public ResponseEntity<Map<String, Object>> getJwks() {
+        return ResponseEntity.ok()
+                .cacheControl(CacheControl.maxAge(5, TimeUnit.MINUTES).cachePublic())
+                .body(jwtKeyManager.getJwks());
+    }
+}
@@ -0,0 +1,217 @@
+package com.sforce.sforcetrading.controller;
+
+import com.sforce.sforcetrading.filter.JwtRequestFilter;
+import com.sforce.sforcetrading.trading.MarketDataHub;
+
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.Authentication;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestAttribute;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * REST controller streaming market data as server-sent events. Streams are
+ * written with non-blocking servlet IO, so an open stream holds no request
+ * thread and a slow client never holds up the others.
+ */
+@RestController
+@RequestMapping("/api/market-data")
+public class MarketDataController {
+
+    private static final Logger logger = LoggerFactory.getLogger(MarketDataController.class);
+
+    private final MarketDataHub marketDataHub;
+
+    /**
+     * Constructs a new MarketDataController.
+     *
+     * @param marketDataHub the hub streaming the market data
+     */
+    @Autowired
+    public MarketDataController(MarketDataHub marketDataHub) {
+        this.marketDataHub = marketDataHub;
+    }
+
+    /**
+     * Opens a stream of the market data of some symbols. Each event is named
+     * after its channel: {@code top} carries the best bid and ask,
+     * {@code depth} the best price levels and {@code trades} the trade prints.
+     * The current top and depth are sent first, then every change; a client
+     * that cannot keep up skips intermediate states. The stream ends when the
+     * token that opened it expires.
+     *
+     * @param symbols        the symbols to stream
+     * @param channels       the channels to stream, all of them by default
+     * @param expiration     the expiration date of the JWT token, if the
+     *                       request was authenticated by one
+     * @param authentication the authenticated user
+     * @param request        the request
+     * @param response       the response the stream is written to
+     * @return nothing once the stream is open, a bad request status if a
+     *         symbol or channel is unknown, or a service unavailable status if
+     *         too many streams are open
+     * @throws IOException if the stream cannot be opened
+     */
+    @GetMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<Object> stream(@RequestParam List<String> symbols,
+            @RequestParam(required = false) List<String> channels,
+            @RequestAttribute(name = JwtRequestFilter.TOKEN_EXPIRATION_ATTRIBUTE, required = false) Date expiration,
+            Authentication authentication, HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        Set<MarketDataHub.Channel> streamed;
+        try {
+            streamed = toChannels(channels);
+            marketDataHub.checkSymbols(symbols);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).contentType(MediaType.TEXT_PLAIN)
+                    .body(e.getMessage());
+        }
+
+        AsyncContext asyncContext = request.startAsync();
+        asyncContext.setTimeout(0);
+        response.setContentType(MediaType.TEXT_EVENT_STREAM_VALUE);
+        response.setHeader("Cache-Control", "no-cache");
+        // Keeps reverse proxies from buffering the stream
+        response.setHeader("X-Accel-Buffering", "no");
+        ServletSink sink = new ServletSink(asyncContext, response.getOutputStream());
+        asyncContext.addListener(sink);
+        // The write listener must be set before the first frame is written
+        response.getOutputStream().setWriteListener(sink);
+        try {
+            sink.subscription = marketDataHub.subscribe(authentication.getName(), symbols, streamed,
+                    expiration == null ? null : expiration.toInstant(), sink);
+            // The container may have called back before the subscription was known
+            sink.onWritePossible();
+        } catch (IllegalStateException e) {
+            response.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+            asyncContext.complete();
+        }
+        // The response is written by the stream, not by the dispatcher
+        return null;
+    }
+
+    private static Set<MarketDataHub.Channel> toChannels(List<String> channels) {
+        if (channels == null || channels.isEmpty()) {
+            return EnumSet.allOf(MarketDataHub.Channel.class);
+        }
+        Set<MarketDataHub.Channel> streamed = EnumSet.noneOf(MarketDataHub.Channel.class);
+        for (String channel : channels) {
+            try {
+                streamed.add(MarketDataHub.Channel.valueOf(channel.trim().toUpperCase(Locale.ROOT)));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown channel: " + channel);
+            }
+        }
+        return streamed;
+    }
+
+    /**
+     * Stream written to the output stream of an asynchronous response. The
+     * container calls it back when the connection can take more data, and
+     * when the connection ends.
+     */
+    private static final class ServletSink implements MarketDataHub.Sink, WriteListener, AsyncListener {
+
+        private final AsyncContext asyncContext;
+        private final ServletOutputStream out;
+        private volatile MarketDataHub.Subscription subscription;
+        private volatile boolean completed;
+
+        ServletSink(AsyncContext asyncContext, ServletOutputStream out) {
+            this.asyncContext = asyncContext;
+            this.out = out;
+        }
+
+        @Override
+        public boolean isReady() {
+            return out.isReady();
+        }
+
+        @Override
+        public void write(byte[] frame) throws IOException {
+            out.write(frame);
+            // Once the stream is not ready, the container sends the rest as the client reads
+            if (out.isReady()) {
+                out.flush();
+            }
+        }
+
+        @Override
+        public void close() {
+            if (completed) {
+                return;
+            }
+            completed = true;
+            try {
+                asyncContext.complete();
+            } catch (IllegalStateException e) {
+                // Already completed by the container
+            }
+        }
+
+        @Override
+        public void onWritePossible() {
+            MarketDataHub.Subscription current = subscription;
+            if (current != null) {
+                current.onWritePossible();
+            }
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            logger.debug("Market data stream failed: {}", t.toString());
+            end();
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            completed = true;
+            end();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            end();
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            end();
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+
+        private void end() {
+            MarketDataHub.Subscription current = subscription;
+            if (current != null) {
+                current.close();
+            } else {
+                close();
+            }
+        }
+    }
+}
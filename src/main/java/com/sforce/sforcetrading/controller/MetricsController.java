@@ -0,0 +1,234 @@
+package com.sforce.sforcetrading.controller;
+
+import com.sforce.sforcetrading.config.ReplicaRoutingDataSource;
+import com.sforce.sforcetrading.dto.MarketDataSubscriberDTO;
+import com.sforce.sforcetrading.filter.RateLimitingFilter;
+import com.sforce.sforcetrading.service.AuditJournal;
+import com.sforce.sforcetrading.service.CustomUserDetailsService;
+import com.sforce.sforcetrading.service.PasswordHashingService;
+import com.sforce.sforcetrading.service.UserSearchIndex;
+import com.sforce.sforcetrading.trading.MarketDataHub;
+import com.sforce.sforcetrading.trading.MatchingEngine;
+import com.sforce.sforcetrading.trading.OrderJournal;
+import com.sforce.sforcetrading.util.JwtUtil;
+import com.sforce.sforcetrading.util.LruCacheRegionFactory;
+
+import jakarta.persistence.EntityManagerFactory;
+
+import org.hibernate.cache.spi.RegionFactory;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * REST controller exposing internal counters used to size caches and pools.
+ */
+@RestController
+@RequestMapping("/api/metrics")
+public class MetricsController {
+
+    private final JwtUtil jwtUtil;
+    private final CustomUserDetailsService customUserDetailsService;
+    private final PasswordHashingService passwordHashingService;
+    private final RateLimitingFilter rateLimitingFilter;
+    private final ObjectProvider<ReplicaRoutingDataSource> replicaRoutingDataSource;
+    private final EntityManagerFactory entityManagerFactory;
+    private final UserSearchIndex userSearchIndex;
+    private final AuditJournal auditJournal;
+    private final MatchingEngine matchingEngine;
+    private final MarketDataHub marketDataHub;
+    private final OrderJournal orderJournal;
+
+    /**
+     * Constructs a new MetricsController.
+     *
+     * @param jwtUtil                  the JWT utility holding the verified token
+     *                                 cache
+     * @param customUserDetailsService the user details service holding the user
+     *                                 details cache
+     * @param passwordHashingService   the service owning the password hashing
+     *                                 pool
+     * @param rateLimitingFilter       the filter owning the rate limit buckets
+     * @param replicaRoutingDataSource the data source routing reads to the
+     *                                 replica, if one is configured
+     * @param entityManagerFactory     the entity manager factory owning the
+     *                                 second-level cache
+     * @param userSearchIndex          the in-memory user search index
+     * @param auditJournal             the journal of account events
+     * @param matchingEngine           the engine matching orders
+     * @param marketDataHub            the hub streaming market data
+     * @param orderJournal             the journal of the matching engine
+     */
+    @Autowired
+    public MetricsController(JwtUtil jwtUtil, CustomUserDetailsService customUserDetailsService,
+            PasswordHashingService passwordHashingService, RateLimitingFilter rateLimitingFilter,
+            ObjectProvider<ReplicaRoutingDataSource> replicaRoutingDataSource,
+            EntityManagerFactory entityManagerFactory, UserSearchIndex userSearchIndex,
+            AuditJournal auditJournal, MatchingEngine matchingEngine, MarketDataHub marketDataHub,
+            OrderJournal orderJournal) {
+        this.jwtUtil = jwtUtil;
+        this.customUserDetailsService = customUserDetailsService;
+        this.passwordHashingService = passwordHashingService;
+        this.rateLimitingFilter = rateLimitingFilter;
+        this.replicaRoutingDataSource = replicaRoutingDataSource;
+        this.entityManagerFactory = entityManagerFactory;
+        this.userSearchIndex = userSearchIndex;
+        this.auditJournal = auditJournal;
+        this.matchingEngine = matchingEngine;
+        this.marketDataHub = marketDataHub;
+        this.orderJournal = orderJournal;
+    }
+
+    /**
+     * Retrieves the counters of the verified JWT token cache.
+     *
+     * @return a ResponseEntity containing the size, hits, misses and evictions
+     */
+    @GetMapping("/jwt-cache")
+    public ResponseEntity<Map<String, Long>> getJwtCacheStats() {
+        return ResponseEntity.ok(jwtUtil.getVerifiedTokenCache().getStats());
+    }
+
+    /**
+     * Retrieves the counters of the user details cache.
+     *
+     * @return a ResponseEntity containing the size, hits, misses and evictions
+     */
+    @GetMapping("/user-details-cache")
+    public ResponseEntity<Map<String, Long>> getUserDetailsCacheStats() {
+        return ResponseEntity.ok(customUserDetailsService.getCacheStats());
+    }
+
+    /**
+     * Retrieves the counters of the password hashing pool.
+     *
+     * @return a ResponseEntity containing the queue depth, rejections, and the
+     *         average queue wait and hash time
+     */
+    @GetMapping("/password-hashing")
+    public ResponseEntity<Map<String, Long>> getPasswordHashingStats() {
+        return ResponseEntity.ok(passwordHashingService.getStats());
+    }
+
+    /**
+     * Retrieves the counters of the rate limiter.
+     *
+     * @return a ResponseEntity containing the number of tracked clients, the
+     *         rejected requests and the clients rejected most often
+     */
+    @GetMapping("/rate-limits")
+    public ResponseEntity<Map<String, Object>> getRateLimitStats() {
+        return ResponseEntity.ok(rateLimitingFilter.getStats());
+    }
+
+    /**
+     * Retrieves the counters of the primary and replica data source routing.
+     *
+     * @return a ResponseEntity containing the connections handed out by each
+     *         database, or a not found status if no replica is configured
+     */
+    @GetMapping("/datasource-routing")
+    public ResponseEntity<Map<String, Long>> getDataSourceRoutingStats() {
+        ReplicaRoutingDataSource routing = replicaRoutingDataSource.getIfAvailable();
+        if (routing == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(routing.getStats());
+    }
+
+    /**
+     * Retrieves the counters of the second-level cache regions.
+     *
+     * @return a ResponseEntity containing the size, capacity, evictions, hits,
+     *         misses and puts of each region, or a not found status if the
+     *         second-level cache is disabled
+     */
+    @GetMapping("/second-level-cache")
+    public ResponseEntity<Map<String, Map<String, Long>>> getSecondLevelCacheStats() {
+        RegionFactory regionFactory = entityManagerFactory.unwrap(SessionFactoryImplementor.class).getCache()
+                .getRegionFactory();
+        if (!(regionFactory instanceof LruCacheRegionFactory lruCacheRegionFactory)) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(lruCacheRegionFactory.getStats());
+    }
+
+    /**
+     * Retrieves the counters of the user search index.
+     *
+     * @return a ResponseEntity containing the number of users and words
+     *         indexed, the number of searches and their average time, and the
+     *         time the index took to build
+     */
+    @GetMapping("/user-search")
+    public ResponseEntity<Map<String, Long>> getUserSearchStats() {
+        return ResponseEntity.ok(userSearchIndex.getStats());
+    }
+
+    /**
+     * Retrieves the counters of the audit journal.
+     *
+     * @return a ResponseEntity containing the events queued, recorded, dropped
+     *         and written, the recordings that waited for room, the flushes to
+     *         disk and the current segment
+     */
+    @GetMapping("/audit-journal")
+    public ResponseEntity<Map<String, Long>> getAuditJournalStats() {
+        return ResponseEntity.ok(auditJournal.getStats());
+    }
+
+    /**
+     * Retrieves the counters of the matching engine.
+     *
+     * @return a ResponseEntity containing the books and resting orders, and the
+     *         orders submitted and cancelled, trades and quantity traded
+     */
+    @GetMapping("/matching-engine")
+    public ResponseEntity<Map<String, Long>> getMatchingEngineStats() {
+        return ResponseEntity.ok(matchingEngine.getStats());
+    }
+
+    /**
+     * Retrieves the counters of the order journal.
+     *
+     * @return a ResponseEntity containing the commands and fills journaled,
+     *         the flushes to disk, the snapshots written, and the commands
+     *         replayed on startup and how long the recovery took
+     */
+    @GetMapping("/order-journal")
+    public ResponseEntity<Map<String, Long>> getOrderJournalStats() {
+        return ResponseEntity.ok(orderJournal.getStats());
+    }
+
+    /**
+     * Retrieves the counters of the market data hub.
+     *
+     * @return a ResponseEntity containing the open streams, those behind and
+     *         the longest lag, the book updates published and dropped, and the
+     *         frames encoded, sent and conflated
+     */
+    @GetMapping("/market-data")
+    public ResponseEntity<Map<String, Long>> getMarketDataStats() {
+        return ResponseEntity.ok(marketDataHub.getStats());
+    }
+
+    /**
+     * Retrieves the delivery state of the market data streams furthest behind.
+     *
+     * @param limit the maximum number of streams listed
+     * @return a ResponseEntity containing the streams, longest lag first
+     */
+    @GetMapping("/market-data/subscribers")
+    public ResponseEntity<List<MarketDataSubscriberDTO>> getMarketDataSubscribers(
+            @RequestParam(defaultValue = "100") int limit) {
+        return ResponseEntity.ok(marketDataHub.getSubscribers(Math.max(0, limit)));
+    }
+}
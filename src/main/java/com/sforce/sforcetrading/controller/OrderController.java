@@ -0,0 +1,173 @@
+package com.sforce.sforcetrading.controller;
+
+import com.sforce.sforcetrading.dto.OrderRequestDTO;
+import com.sforce.sforcetrading.dto.OrderResultDTO;
+import com.sforce.sforcetrading.filter.JwtRequestFilter;
+import com.sforce.sforcetrading.model.User;
+import com.sforce.sforcetrading.service.UserService;
+import com.sforce.sforcetrading.trading.MatchingEngine;
+
+import jakarta.validation.Valid;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.Authentication;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestAttribute;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * REST controller placing, looking up and cancelling orders on the matching
+ * engine. Orders belong to the authenticated user, so users only see and cancel
+ * their own. Responses are sent once the matching thread has applied the
+ * request, and the request thread is released meanwhile.
+ */
+@RestController
+@RequestMapping("/api/orders")
+public class OrderController {
+
+    private static final int DEFAULT_DEPTH = 10;
+    private static final int MAX_DEPTH = 100;
+
+    private final MatchingEngine matchingEngine;
+    private final UserService userService;
+
+    /**
+     * Constructs a new OrderController.
+     *
+     * @param matchingEngine the engine matching the orders
+     * @param userService    the user service resolving users authenticated
+     *                       without a user ID in their token
+     */
+    @Autowired
+    public OrderController(MatchingEngine matchingEngine, UserService userService) {
+        this.matchingEngine = matchingEngine;
+        this.userService = userService;
+    }
+
+    /**
+     * Places an order for the authenticated user.
+     *
+     * @param orderRequestDTO the order
+     * @param tokenUserId     the ID of the user from the JWT token, if it has one
+     * @param authentication  the authenticated user
+     * @return a future ResponseEntity containing the state of the order and its
+     *         trades, an unprocessable entity status with the state of the
+     *         order if it failed the pre-trade checks, a bad request status if
+     *         the order is invalid, or a forbidden status if the authenticated
+     *         account is not a registered user
+     */
+    @PostMapping
+    public CompletableFuture<ResponseEntity<Object>> submitOrder(
+            @Valid @RequestBody OrderRequestDTO orderRequestDTO,
+            @RequestAttribute(name = JwtRequestFilter.USER_ID_ATTRIBUTE, required = false) Long tokenUserId,
+            Authentication authentication) {
+        Optional<Long> userId = resolveUserId(tokenUserId, authentication);
+        if (userId.isEmpty()) {
+            return CompletableFuture.completedFuture(
+                    ResponseEntity.status(HttpStatus.FORBIDDEN).body("Only registered users can place orders"));
+        }
+        try {
+            return matchingEngine.submit(userId.get(), orderRequestDTO)
+                    .thenApply(result -> result.getStatus() == OrderResultDTO.Status.REJECTED
+                            ? ResponseEntity.unprocessableEntity().body(result)
+                            : ResponseEntity.ok(result));
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.completedFuture(
+                    ResponseEntity.status(HttpStatus.BAD_REQUEST).body(e.getMessage()));
+        }
+    }
+
+    /**
+     * Retrieves an order of the authenticated user resting on the book.
+     *
+     * @param symbol         the symbol of the order
+     * @param orderId        the ID of the order
+     * @param tokenUserId    the ID of the user from the JWT token, if it has one
+     * @param authentication the authenticated user
+     * @return a future ResponseEntity containing the order, or a not found
+     *         status if the user has no such order resting, because it never
+     *         existed, was filled or was cancelled
+     */
+    @GetMapping("/{symbol}/{orderId}")
+    public CompletableFuture<ResponseEntity<Object>> getOrder(@PathVariable String symbol,
+            @PathVariable long orderId,
+            @RequestAttribute(name = JwtRequestFilter.USER_ID_ATTRIBUTE, required = false) Long tokenUserId,
+            Authentication authentication) {
+        return resolveUserId(tokenUserId, authentication)
+                .map(userId -> matchingEngine.getOrder(userId, symbol, orderId))
+                .orElseGet(() -> CompletableFuture.completedFuture(Optional.empty()))
+                .thenApply(order -> orderOrNotFound(order, orderId));
+    }
+
+    /**
+     * Cancels an order of the authenticated user resting on the book.
+     *
+     * @param symbol         the symbol of the order
+     * @param orderId        the ID of the order
+     * @param tokenUserId    the ID of the user from the JWT token, if it has one
+     * @param authentication the authenticated user
+     * @return a future ResponseEntity containing the cancelled order, or a not
+     *         found status if the user has no such order resting
+     */
+    @DeleteMapping("/{symbol}/{orderId}")
+    public CompletableFuture<ResponseEntity<Object>> cancelOrder(@PathVariable String symbol,
+            @PathVariable long orderId,
+            @RequestAttribute(name = JwtRequestFilter.USER_ID_ATTRIBUTE, required = false) Long tokenUserId,
+            Authentication authentication) {
+        return resolveUserId(tokenUserId, authentication)
+                .map(userId -> matchingEngine.cancel(userId, symbol, orderId))
+                .orElseGet(() -> CompletableFuture.completedFuture(Optional.empty()))
+                .thenApply(order -> orderOrNotFound(order, orderId));
+    }
+
+    /**
+     * Retrieves the best price levels of the book of a symbol.
+     *
+     * @param symbol the symbol of the book
+     * @param depth  the maximum number of levels per side, at most
+     *               {@value #MAX_DEPTH}
+     * @return a future ResponseEntity containing the levels, a bad request
+     *         status if the depth is invalid, or a not found status if the
+     *         symbol is not traded
+     */
+    @GetMapping("/book")
+    public CompletableFuture<ResponseEntity<Object>> getBook(@RequestParam String symbol,
+            @RequestParam(defaultValue = "" + DEFAULT_DEPTH) int depth) {
+        if (depth < 1 || depth > MAX_DEPTH) {
+            return CompletableFuture.completedFuture(
+                    ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Depth must be between 1 and " + MAX_DEPTH));
+        }
+        return matchingEngine.getDepth(symbol, depth)
+                .thenApply(levels -> levels.<ResponseEntity<Object>>map(ResponseEntity::ok)
+                        .orElseGet(() -> ResponseEntity.status(HttpStatus.NOT_FOUND)
+                                .body("Unknown symbol: " + symbol)));
+    }
+
+    private static ResponseEntity<Object> orderOrNotFound(Optional<OrderResultDTO> order, long orderId) {
+        return order.<ResponseEntity<Object>>map(ResponseEntity::ok)
+                .orElseGet(() -> ResponseEntity.status(HttpStatus.NOT_FOUND).body("Order not found: " + orderId));
+    }
+
+    /**
+     * Resolves the ID of the authenticated user. Tokens issued at login carry
+     * it; other principals are looked up by username, and accounts that are
+     * not registered users, such as the in-memory administrators, have none.
+     */
+    private Optional<Long> resolveUserId(Long tokenUserId, Authentication authentication) {
+        if (tokenUserId != null) {
+            return Optional.of(tokenUserId);
+        }
+        return userService.getUserByUsername(authentication.getName()).map(User::getId);
+    }
+}
@@ -1,29 +1,48 @@
 package com.sforce.sforcetrading.controller;
 
 import com.sforce.sforcetrading.dto.PasswordUpdateDTO;
+import com.sforce.sforcetrading.dto.TokenRefreshDTO;
 import com.sforce.sforcetrading.dto.UserCreateDTO;
 import com.sforce.sforcetrading.dto.UserDTO;
+import com.sforce.sforcetrading.dto.UserImportResultDTO;
+import com.sforce.sforcetrading.dto.UserPageDTO;
+import com.sforce.sforcetrading.dto.UserPatchDTO;
+import com.sforce.sforcetrading.exception.PasswordHashingOverloadedException;
 import com.sforce.sforcetrading.model.User;
+import com.sforce.sforcetrading.service.TokenVersionService;
+import com.sforce.sforcetrading.service.UserImportService;
 import com.sforce.sforcetrading.service.UserService;
 import com.sforce.sforcetrading.util.JwtUtil;
-import com.sforce.sforcetrading.util.RSAUtil;
+import com.sforce.sforcetrading.util.RSACipherEngine;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtException;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import jakarta.validation.Valid;
 import java.util.regex.Pattern;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
-import java.util.stream.Collectors;
 import java.util.Base64;
-
-import java.security.PrivateKey;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * REST controller for managing users.
@@ -32,45 +51,136 @@ import java.security.PrivateKey;
 @RequestMapping("/api/users")
 public class UserController {
 
+    /**
+     * Response header carrying the refresh token issued on login.
+     */
+    public static final String REFRESH_TOKEN_HEADER = "X-Refresh-Token";
+
+    /**
+     * Media type of the streamed user list: one JSON object per line.
+     */
+    public static final String APPLICATION_NDJSON = "application/x-ndjson";
+
+    /**
+     * Media type of JSON merge patches (RFC 7396), accepted by the partial
+     * update along with plain JSON.
+     */
+    public static final String APPLICATION_MERGE_PATCH_JSON = "application/merge-patch+json";
+
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    private static final int MAX_PAGE_SIZE = 1000;
+    private static final int STREAM_FLUSH_INTERVAL = 500;
+    private static final int DEFAULT_SEARCH_RESULTS = 10;
+    private static final int MAX_SEARCH_RESULTS = 50;
+    private static final int MAX_SEARCH_QUERY_LENGTH = 100;
+
     private final UserService userService;
     private final JwtUtil jwtUtil;
-    private final PrivateKey privateKey;
+    private final RSACipherEngine rsaCipherEngine;
+    private final TokenVersionService tokenVersionService;
+    private final ObjectWriter userWriter;
+    private final UserImportService userImportService;
 
     /**
-     * Constructs a new UserController with the specified UserService, JwtUtil, and
-     * PrivateKey.
+     * Constructs a new UserController with the specified UserService, JwtUtil,
+     * RSACipherEngine, TokenVersionService, ObjectMapper and UserImportService.
      *
-     * @param userService the user service to use for user operations
-     * @param jwtUtil     the JWT utility to use for generating tokens
-     * @param privateKey  the RSA private key for decrypting passwords
+     * @param userService         the user service to use for user operations
+     * @param jwtUtil             the JWT utility to use for generating tokens
+     * @param rsaCipherEngine     the RSA cipher engine for decrypting passwords
+     * @param tokenVersionService the service checking whether tokens are revoked
+     * @param objectMapper        the object mapper used to stream users
+     * @param userImportService   the service importing users in bulk
      */
     @Autowired
-    public UserController(UserService userService, JwtUtil jwtUtil, PrivateKey privateKey) {
+    public UserController(UserService userService, JwtUtil jwtUtil, RSACipherEngine rsaCipherEngine,
+            TokenVersionService tokenVersionService, ObjectMapper objectMapper,
+            UserImportService userImportService) {
         this.userService = userService;
         this.jwtUtil = jwtUtil;
-        this.privateKey = privateKey;
+        this.rsaCipherEngine = rsaCipherEngine;
+        this.tokenVersionService = tokenVersionService;
+        this.userWriter = objectMapper.writerFor(UserDTO.class);
+        this.userImportService = userImportService;
     }
 
     private static final Pattern EMAIL_PATTERN = Pattern.compile("^[A-Za-z0-9._%+-]+@[A-Za-z0-9.-]+\\.[A-Za-z]{2,6}$");
 
     /**
-     * Retrieves a list of all users.
+     * Retrieves the users.
+     * Without paging parameters every user is returned at once. With a limit or
+     * a cursor a single page is returned instead; pages are sought with a cursor
+     * on the user ID rather than an offset, so every page costs the same however
+     * deep into the list it is.
      *
-     * @return a ResponseEntity containing the list of users or a not found status
-     *         if no users are found
+     * @param limit  the maximum number of users of a page, at most
+     *               {@value #MAX_PAGE_SIZE}
+     * @param cursor the cursor returned with the previous page, omitted for the
+     *               first page
+     * @return a ResponseEntity containing the list of users, or the page of users
+     *         and the cursor of the next page; a not found status if no users are
+     *         found, or a bad request status if the cursor or limit is invalid
      */
     @GetMapping("/listAll")
-    public ResponseEntity<Object> getAllUsers() {
-        List<User> users = userService.getAllUsers();
-        if (users.isEmpty()) {
+    public ResponseEntity<Object> getAllUsers(@RequestParam(required = false) Integer limit,
+            @RequestParam(required = false) String cursor) {
+        if (limit != null || cursor != null) {
+            return getUsersPage(limit != null ? limit : DEFAULT_PAGE_SIZE, cursor);
+        }
+        List<UserDTO> userDTOs = userService.getAllUserDTOs();
+        if (userDTOs.isEmpty()) {
             return ResponseEntity.status(HttpStatus.NOT_FOUND).body("No users found");
         }
-        List<UserDTO> userDTOs = users.stream()
-                .map(userService::convertToDTO)
-                .collect(Collectors.toList());
         return ResponseEntity.ok(userDTOs);
     }
 
+    private ResponseEntity<Object> getUsersPage(int limit, String cursor) {
+        if (limit < 1 || limit > MAX_PAGE_SIZE) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .body("Limit must be between 1 and " + MAX_PAGE_SIZE);
+        }
+        long afterId;
+        try {
+            afterId = cursor == null ? 0L : decodeCursor(cursor);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Invalid cursor");
+        }
+        List<UserDTO> users = userService.getUsersAfter(afterId, limit);
+        String nextCursor = users.size() < limit ? null : encodeCursor(users.get(users.size() - 1).getId());
+        return ResponseEntity.ok(new UserPageDTO(users, nextCursor));
+    }
+
+    /**
+     * Streams every user as newline-delimited JSON, ordered by ID.
+     * Users are read from a database cursor and written as they arrive, so the
+     * memory used does not depend on the number of users.
+     *
+     * @return a ResponseEntity streaming one JSON user per line
+     */
+    @GetMapping(value = "/listAll", params = "stream=true")
+    public ResponseEntity<StreamingResponseBody> streamAllUsers() {
+        StreamingResponseBody body = out -> {
+            int[] written = { 0 };
+            try {
+                userService.streamUsers(userDTO -> {
+                    try {
+                        out.write(userWriter.writeValueAsBytes(userDTO));
+                        out.write('\n');
+                        if (++written[0] % STREAM_FLUSH_INTERVAL == 0) {
+                            out.flush();
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause(); // client went away
+            }
+            out.flush();
+        };
+        return ResponseEntity.ok().contentType(MediaType.parseMediaType(APPLICATION_NDJSON)).body(body);
+    }
+
     /**
      * Retrieves a user by their email.
      *
@@ -84,9 +194,9 @@ public class UserController {
             return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Email should be valid");
         }
         email = email.trim().toLowerCase();
-        Optional<User> userOptional = userService.getUserByEmail(email);
+        Optional<UserDTO> userOptional = userService.getUserDTOByEmail(email);
         if (userOptional.isPresent()) {
-            return ResponseEntity.ok(userService.convertToDTO(userOptional.get()));
+            return ResponseEntity.ok(userOptional.get());
         } else {
             return ResponseEntity.status(HttpStatus.NOT_FOUND)
                     .body("User not found with email: " + email);
@@ -102,15 +212,42 @@ public class UserController {
      */
     @GetMapping("/getUser")
     public ResponseEntity<Object> getUserByUsername(@RequestParam String username) {
-        Optional<User> userOptional = userService.getUserByUsername(username);
+        Optional<UserDTO> userOptional = userService.getUserDTOByUsername(username);
         if (userOptional.isPresent()) {
-            return ResponseEntity.ok(userService.convertToDTO(userOptional.get()));
+            return ResponseEntity.ok(userOptional.get());
         } else {
             return ResponseEntity.status(HttpStatus.NOT_FOUND)
                     .body("User not found with username: " + username);
         }
     }
 
+    /**
+     * Searches users as they type, on their username, email, first name and
+     * last name, ignoring case. Users are found when one of these starts with
+     * the query, or when each word of the query starts one of them, and are
+     * ranked by the closest completion first. Served from an in-memory index
+     * without querying the database.
+     *
+     * @param q     the text typed so far
+     * @param limit the maximum number of users to return, at most
+     *              {@value #MAX_SEARCH_RESULTS}
+     * @return a ResponseEntity containing the matching users, best first, or a
+     *         bad request status if the query or limit is invalid
+     */
+    @GetMapping("/search")
+    public ResponseEntity<Object> searchUsers(@RequestParam String q,
+            @RequestParam(defaultValue = "" + DEFAULT_SEARCH_RESULTS) int limit) {
+        if (q.isBlank() || q.length() > MAX_SEARCH_QUERY_LENGTH) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .body("Query must have between 1 and " + MAX_SEARCH_QUERY_LENGTH + " characters");
+        }
+        if (limit < 1 || limit > MAX_SEARCH_RESULTS) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .body("Limit must be between 1 and " + MAX_SEARCH_RESULTS);
+        }
+        return ResponseEntity.ok(userService.searchUsers(q, limit));
+    }
+
     /**
      * Registers a new user.
      *
@@ -141,6 +278,8 @@ public class UserController {
 
             User savedUser = userService.saveUser(user);
             return ResponseEntity.status(HttpStatus.CREATED).body(userService.convertToDTO(savedUser));
+        } catch (PasswordHashingOverloadedException e) {
+            throw e; // answered with 503 by the GlobalExceptionHandler
         } catch (DataIntegrityViolationException e) {
             return ResponseEntity.status(HttpStatus.CONFLICT)
                     .body("A user with the same email or username already exists.");
@@ -149,47 +288,120 @@ public class UserController {
         }
     }
 
+    /**
+     * Imports users in bulk from a CSV file with a header row, or from
+     * newline-delimited JSON with one user per line.
+     * Rows that are invalid or whose email or username is already taken are
+     * reported individually; the other rows are imported.
+     *
+     * @param input the request body
+     * @param csv   whether the body is CSV rather than NDJSON, from its content
+     *              type
+     * @return a ResponseEntity containing the number of imported users and the
+     *         errors of the rejected rows
+     * @throws IOException if the request body cannot be read
+     */
+    @PostMapping(value = "/import", consumes = { "text/csv", APPLICATION_NDJSON })
+    public ResponseEntity<UserImportResultDTO> importUsers(InputStream input,
+            @RequestHeader("Content-Type") String contentType) throws IOException {
+        UserImportService.Format format = MediaType.parseMediaType(contentType).isCompatibleWith(
+                MediaType.parseMediaType("text/csv")) ? UserImportService.Format.CSV
+                        : UserImportService.Format.NDJSON;
+        return ResponseEntity.ok(userImportService.importUsers(input, format));
+    }
+
     /**
      * Authenticates a user.
      *
      * @param loginRequest the user login request containing the username and
      *                     password
-     * @return a ResponseEntity containing a JWT token or an unauthorized status if
-     *         authentication fails
+     * @return a future ResponseEntity containing a short-lived JWT access token,
+     *         with a refresh token in the {@value #REFRESH_TOKEN_HEADER} header,
+     *         or an unauthorized status if authentication fails; the password is
+     *         verified on the password hashing pool so the request thread is
+     *         released meanwhile
      */
     @PostMapping("/login")
-    public ResponseEntity<String> loginUser(@RequestBody User loginRequest) {
+    public CompletableFuture<ResponseEntity<String>> loginUser(@RequestBody User loginRequest) {
         if (loginRequest.getUsername() == null || loginRequest.getUsername().trim().isEmpty() ||
                 loginRequest.getPassword() == null || loginRequest.getPassword().trim().isEmpty()) {
-            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Username and password must not be null");
+            return CompletableFuture.completedFuture(
+                    ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Username and password must not be null"));
         }
+        CharBuffer password;
         try {
-            // Decrypt the password
-            String decryptedPassword = RSAUtil.decrypt(Base64.getDecoder().decode(loginRequest.getPassword()),
-                    privateKey);
-            loginRequest.setPassword(decryptedPassword);
+            // Decrypt the password into characters rather than a String, so it can be cleared once verified
+            byte[] decryptedPassword = rsaCipherEngine.decrypt(Base64.getDecoder().decode(loginRequest.getPassword()));
+            password = StandardCharsets.UTF_8.decode(ByteBuffer.wrap(decryptedPassword));
+            Arrays.fill(decryptedPassword, (byte) 0);
         } catch (Exception e) {
-            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Invalid password encryption");
+            return CompletableFuture.completedFuture(
+                    ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Invalid password encryption"));
         }
 
-        Optional<User> userOptional = userService.authenticateUser(loginRequest.getUsername(),
-                loginRequest.getPassword());
-        if (userOptional.isPresent()) {
-            // Convert User to UserDetails
-            UserDetails userDetails = userService.convertToUserDetails(userOptional.get());
-            String token = jwtUtil.generateToken(userDetails);
-            return ResponseEntity.ok(token);
-        } else {
-            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body("Invalid username or password");
+        CompletableFuture<Optional<User>> authentication;
+        try {
+            authentication = userService.authenticateUserAsync(loginRequest.getUsername(), password);
+        } catch (PasswordHashingOverloadedException e) {
+            Arrays.fill(password.array(), '\0');
+            throw e;
+        }
+        return authentication
+                .whenComplete((userOptional, e) -> Arrays.fill(password.array(), '\0'))
+                .thenApply(userOptional -> {
+                    if (userOptional.isPresent()) {
+                        // Convert User to UserDetails
+                        User user = userOptional.get();
+                        UserDetails userDetails = userService.convertToUserDetails(user);
+                        String token = jwtUtil.generateToken(userDetails, user.getId(), user.getTokenVersion());
+                        String refreshToken = jwtUtil.generateRefreshToken(userDetails, user.getId(),
+                                user.getTokenVersion());
+                        return ResponseEntity.ok()
+                                .header(REFRESH_TOKEN_HEADER, refreshToken)
+                                .body(token);
+                    } else {
+                        return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body("Invalid username or password");
+                    }
+                });
+    }
+
+    /**
+     * Issues a new access token from a refresh token.
+     * Unlike a login this only checks the token signature and the in-memory
+     * token version, skipping the RSA password decryption and BCrypt
+     * verification.
+     *
+     * @param tokenRefreshDTO the DTO object that holds the refresh token
+     * @return a ResponseEntity containing a new JWT access token or an
+     *         unauthorized status if the refresh token is invalid, expired or
+     *         revoked
+     */
+    @PostMapping("/token/refresh")
+    public ResponseEntity<String> refreshToken(@Valid @RequestBody TokenRefreshDTO tokenRefreshDTO) {
+        try {
+            Claims claims = jwtUtil.verifyToken(tokenRefreshDTO.getRefreshToken());
+            Long userId = jwtUtil.extractUserId(claims);
+            if (!jwtUtil.isRefreshToken(claims) || userId == null
+                    || !tokenVersionService.isCurrentInDatabase(userId, jwtUtil.extractTokenVersion(claims))) {
+                return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body("Invalid refresh token");
+            }
+            return ResponseEntity.ok(jwtUtil.refreshToken(claims));
+        } catch (JwtException | IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body("Invalid refresh token");
         }
     }
 
     /**
      * Updates an existing user.
+     * When the request carries the version of the user it was based on, and the
+     * user has changed since, the update is rejected with a conflict status whose
+     * body is the current user, so the client can reapply its changes on the
+     * current version without reading the user again.
      *
-     * @param user the user details to update
-     * @return a ResponseEntity containing the updated user or an error status if
-     *         update fails
+     * @param userDTO the user details to update
+     * @return a ResponseEntity containing the updated user, the current user with
+     *         a conflict status if it was changed in the meantime, or an error
+     *         status if update fails
      */
     @PutMapping("/update")
     public ResponseEntity<Object> updateUser(@Valid @RequestBody UserDTO userDTO) {
@@ -197,15 +409,11 @@ public class UserController {
             return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("User ID must not be null");
         }
         try {
-            // Fetch the existing user from the database
-            User existingUser = userService.getUserById(userDTO.getId());
-            if (existingUser == null) {
-                return ResponseEntity.status(HttpStatus.NOT_FOUND).body("User not found with ID: " + userDTO.getId());
-            }
-
-            // Update the user details
-            User updatedUser = userService.updateUserDetails(existingUser, userDTO);
+            User updatedUser = userService.updateUserDetails(userDTO.getId(), userDTO);
             return ResponseEntity.ok(userService.convertToDTO(updatedUser));
+        } catch (OptimisticLockingFailureException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                    .body(userService.convertToDTO(userService.getUserById(userDTO.getId())));
         } catch (DataIntegrityViolationException e) {
             return ResponseEntity.status(HttpStatus.CONFLICT)
                     .body("A user with the same email or username already exists.");
@@ -217,6 +425,38 @@ public class UserController {
         }
     }
 
+    /**
+     * Partially updates an existing user.
+     * Only the fields present in the body are changed, and only the columns
+     * whose value actually changes are written. A body that changes nothing is
+     * answered with a not modified status without writing anything.
+     *
+     * @param userId the ID of the user to update
+     * @param patch  the fields to change, with optionally the version of the user
+     *               they are based on
+     * @return a ResponseEntity containing the updated user, a not modified status
+     *         if nothing changed, the current user with a conflict status if it
+     *         was changed in the meantime, or an error status if update fails
+     */
+    @PatchMapping(value = "/{userId}", consumes = { MediaType.APPLICATION_JSON_VALUE, APPLICATION_MERGE_PATCH_JSON })
+    public ResponseEntity<Object> patchUser(@PathVariable Long userId, @Valid @RequestBody UserPatchDTO patch) {
+        try {
+            Optional<User> patchedUser = userService.patchUser(userId, patch);
+            if (patchedUser.isEmpty()) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED).build();
+            }
+            return ResponseEntity.ok(userService.convertToDTO(patchedUser.get()));
+        } catch (OptimisticLockingFailureException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                    .body(userService.convertToDTO(userService.getUserById(userId)));
+        } catch (DataIntegrityViolationException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                    .body("A user with the same email or username already exists.");
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(e.getMessage());
+        }
+    }
+
     /**
      * Updates the user password
      * 
@@ -233,6 +473,8 @@ public class UserController {
             userService.updatePassword(userId, passwordUpdateDTO.getCurrentPassword(),
                     passwordUpdateDTO.getNewPassword());
             return ResponseEntity.ok("Password updated successfully");
+        } catch (PasswordHashingOverloadedException e) {
+            throw e; // answered with 503 by the GlobalExceptionHandler
         } catch (IllegalArgumentException e) {
             return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(e.getMessage());
         } catch (Exception e) {
@@ -256,4 +498,14 @@ public class UserController {
             return ResponseEntity.status(HttpStatus.NOT_FOUND).body("User not found with ID: " + userId);
         }
     }
+
+    private static String encodeCursor(long lastId) {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(Long.toString(lastId).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static long decodeCursor(String cursor) {
+        // NumberFormatException is an IllegalArgumentException as well
+        return Long.parseLong(new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.US_ASCII));
+    }
 }
@@ -0,0 +1,137 @@
+package com.sforce.sforcetrading.dto;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Data Transfer Object for the cash and positions of a trading account.
+ */
+public class AccountDTO {
+
+    private final long userId;
+    private final BigDecimal cash;
+    private final BigDecimal reservedCash;
+    private final List<Position> positions = new ArrayList<>();
+
+    /**
+     * Constructs a new AccountDTO.
+     *
+     * @param userId       the ID of the user owning the account
+     * @param cash         the cash of the account
+     * @param reservedCash the cash reserved by resting buy orders
+     */
+    public AccountDTO(long userId, BigDecimal cash, BigDecimal reservedCash) {
+        this.userId = userId;
+        this.cash = cash;
+        this.reservedCash = reservedCash;
+    }
+
+    /**
+     * Gets the ID of the user owning the account.
+     *
+     * @return the user's ID
+     */
+    public long getUserId() {
+        return userId;
+    }
+
+    /**
+     * Gets the cash of the account.
+     *
+     * @return the cash
+     */
+    public BigDecimal getCash() {
+        return cash;
+    }
+
+    /**
+     * Gets the cash reserved by the resting buy orders of the account.
+     *
+     * @return the reserved cash
+     */
+    public BigDecimal getReservedCash() {
+        return reservedCash;
+    }
+
+    /**
+     * Gets the cash available to new buy orders.
+     *
+     * @return the cash not reserved
+     */
+    public BigDecimal getBuyingPower() {
+        return cash.subtract(reservedCash);
+    }
+
+    /**
+     * Gets the positions of the account, in symbol configuration order.
+     *
+     * @return the positions
+     */
+    public List<Position> getPositions() {
+        return positions;
+    }
+
+    /**
+     * Quantity held in one symbol, and the quantity of the resting orders on
+     * it.
+     */
+    public static class Position {
+
+        private final String symbol;
+        private final long quantity;
+        private final long openBuyQuantity;
+        private final long openSellQuantity;
+
+        /**
+         * Constructs a new Position.
+         *
+         * @param symbol           the symbol
+         * @param quantity         the quantity held, negative when short
+         * @param openBuyQuantity  the quantity of the resting buy orders
+         * @param openSellQuantity the quantity of the resting sell orders
+         */
+        public Position(String symbol, long quantity, long openBuyQuantity, long openSellQuantity) {
+            this.symbol = symbol;
+            this.quantity = quantity;
+            this.openBuyQuantity = openBuyQuantity;
+            this.openSellQuantity = openSellQuantity;
+        }
+
+        /**
+         * Gets the symbol.
+         *
+         * @return the symbol
+         */
+        public String getSymbol() {
+            return symbol;
+        }
+
+        /**
+         * Gets the quantity held.
+         *
+         * @return the quantity, negative when short
+         */
+        public long getQuantity() {
+            return quantity;
+        }
+
+        /**
+         * Gets the quantity of the resting buy orders.
+         *
+         * @return the open buy quantity
+         */
+        public long getOpenBuyQuantity() {
+            return openBuyQuantity;
+        }
+
+        /**
+         * Gets the quantity of the resting sell orders.
+         *
+         * @return the open sell quantity
+         */
+        public long getOpenSellQuantity() {
+            return openSellQuantity;
+        }
+    }
+}
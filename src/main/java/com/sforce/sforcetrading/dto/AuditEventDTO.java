@@ -0,0 +1,114 @@
+package com.sforce.sforcetrading.dto;
+
+import java.time.Instant;
+
+/**
+ * Data Transfer Object for an account event read from the audit journal.
+ */
+public class AuditEventDTO {
+
+    /**
+     * Kinds of account events. The journal stores their code, which must never
+     * change nor be reused; kinds may be reordered freely.
+     */
+    public enum Type {
+        REGISTERED(0),
+        IMPORTED(1),
+        LOGIN_SUCCEEDED(2),
+        LOGIN_FAILED(3),
+        UPDATED(4),
+        PASSWORD_CHANGED(5),
+        DELETED(6);
+
+        private static final Type[] BY_CODE = new Type[Byte.MAX_VALUE + 1];
+
+        static {
+            for (Type type : values()) {
+                BY_CODE[type.code] = type;
+            }
+        }
+
+        private final int code;
+
+        Type(int code) {
+            this.code = code;
+        }
+
+        /**
+         * Gets the code stored in the journal for this kind.
+         *
+         * @return the code, between 0 and 127
+         */
+        public int getCode() {
+            return code;
+        }
+
+        /**
+         * Finds the kind stored in the journal with a code.
+         *
+         * @param code the code
+         * @return the kind, or {@code null} if the code is unknown, e.g. written
+         *         by a newer version
+         */
+        public static Type fromCode(int code) {
+            return code >= 0 && code < BY_CODE.length ? BY_CODE[code] : null;
+        }
+    }
+
+    private final Instant time;
+    private final Type type;
+    private final Long userId;
+    private final String username;
+
+    /**
+     * Constructs a new AuditEventDTO.
+     *
+     * @param time     when the event happened
+     * @param type     the kind of event
+     * @param userId   the ID of the user, {@code null} for a failed login with
+     *                 an unknown username
+     * @param username the username of the user, as given for a failed login
+     */
+    public AuditEventDTO(Instant time, Type type, Long userId, String username) {
+        this.time = time;
+        this.type = type;
+        this.userId = userId;
+        this.username = username;
+    }
+
+    /**
+     * Gets the time of the event.
+     *
+     * @return when the event happened
+     */
+    public Instant getTime() {
+        return time;
+    }
+
+    /**
+     * Gets the kind of event.
+     *
+     * @return the kind of event
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Gets the ID of the user.
+     *
+     * @return the user's ID, or {@code null} if unknown
+     */
+    public Long getUserId() {
+        return userId;
+    }
+
+    /**
+     * Gets the username of the user.
+     *
+     * @return the user's username
+     */
+    public String getUsername() {
+        return username;
+    }
+}
@@ -0,0 +1,118 @@
+package com.sforce.sforcetrading.dto;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Data Transfer Object for the delivery state of a market data stream.
+ */
+public class MarketDataSubscriberDTO {
+
+    private final long id;
+    private final String username;
+    private final List<String> symbols;
+    private final Instant connectedAt;
+    private final int pendingFrames;
+    private final long lagMillis;
+    private final long framesSent;
+    private final long framesConflated;
+
+    /**
+     * Constructs a new MarketDataSubscriberDTO.
+     *
+     * @param id              the ID of the stream
+     * @param username        the username of the subscriber
+     * @param symbols         the symbols streamed
+     * @param connectedAt     when the stream was opened
+     * @param pendingFrames   the frames waiting for the connection to accept
+     *                        more data
+     * @param lagMillis       how long the oldest pending frame has waited
+     * @param framesSent      the frames written to the connection
+     * @param framesConflated the pending frames replaced by a newer one before
+     *                        they could be written
+     */
+    public MarketDataSubscriberDTO(long id, String username, List<String> symbols, Instant connectedAt,
+            int pendingFrames, long lagMillis, long framesSent, long framesConflated) {
+        this.id = id;
+        this.username = username;
+        this.symbols = symbols;
+        this.connectedAt = connectedAt;
+        this.pendingFrames = pendingFrames;
+        this.lagMillis = lagMillis;
+        this.framesSent = framesSent;
+        this.framesConflated = framesConflated;
+    }
+
+    /**
+     * Gets the ID of the stream.
+     *
+     * @return the stream ID
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * Gets the username of the subscriber.
+     *
+     * @return the username
+     */
+    public String getUsername() {
+        return username;
+    }
+
+    /**
+     * Gets the symbols streamed.
+     *
+     * @return the symbols
+     */
+    public List<String> getSymbols() {
+        return symbols;
+    }
+
+    /**
+     * Gets when the stream was opened.
+     *
+     * @return the connection time
+     */
+    public Instant getConnectedAt() {
+        return connectedAt;
+    }
+
+    /**
+     * Gets the number of frames waiting for the connection to accept more
+     * data.
+     *
+     * @return the pending frames, at most one per symbol and channel
+     */
+    public int getPendingFrames() {
+        return pendingFrames;
+    }
+
+    /**
+     * Gets how long the oldest pending frame has waited.
+     *
+     * @return the lag in milliseconds, 0 if nothing is pending
+     */
+    public long getLagMillis() {
+        return lagMillis;
+    }
+
+    /**
+     * Gets the number of frames written to the connection.
+     *
+     * @return the frames sent
+     */
+    public long getFramesSent() {
+        return framesSent;
+    }
+
+    /**
+     * Gets the number of pending frames replaced by a newer one.
+     *
+     * @return the frames conflated away
+     */
+    public long getFramesConflated() {
+        return framesConflated;
+    }
+}
@@ -0,0 +1,101 @@
+package com.sforce.sforcetrading.dto;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Data Transfer Object for the best price levels of an order book.
+ */
+public class OrderBookDTO {
+
+    private final String symbol;
+    private final List<Level> bids = new ArrayList<>();
+    private final List<Level> asks = new ArrayList<>();
+
+    /**
+     * Constructs a new OrderBookDTO.
+     *
+     * @param symbol the symbol traded on the book
+     */
+    public OrderBookDTO(String symbol) {
+        this.symbol = symbol;
+    }
+
+    /**
+     * Gets the symbol traded on the book.
+     *
+     * @return the symbol
+     */
+    public String getSymbol() {
+        return symbol;
+    }
+
+    /**
+     * Gets the buy levels, highest price first.
+     *
+     * @return the bid levels
+     */
+    public List<Level> getBids() {
+        return bids;
+    }
+
+    /**
+     * Gets the sell levels, lowest price first.
+     *
+     * @return the ask levels
+     */
+    public List<Level> getAsks() {
+        return asks;
+    }
+
+    /**
+     * Orders resting at one price.
+     */
+    public static class Level {
+
+        private final BigDecimal price;
+        private final long quantity;
+        private final int orders;
+
+        /**
+         * Constructs a new Level.
+         *
+         * @param price    the price of the level
+         * @param quantity the total quantity resting at the price
+         * @param orders   the number of orders resting at the price
+         */
+        public Level(BigDecimal price, long quantity, int orders) {
+            this.price = price;
+            this.quantity = quantity;
+            this.orders = orders;
+        }
+
+        /**
+         * Gets the price of the level.
+         *
+         * @return the price
+         */
+        public BigDecimal getPrice() {
+            return price;
+        }
+
+        /**
+         * Gets the total quantity resting at the price.
+         *
+         * @return the quantity
+         */
+        public long getQuantity() {
+            return quantity;
+        }
+
+        /**
+         * Gets the number of orders resting at the price.
+         *
+         * @return the number of orders
+         */
+        public int getOrders() {
+            return orders;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.sforce.sforcetrading.dto;
+
+import com.sforce.sforcetrading.trading.OrderType;
+import com.sforce.sforcetrading.trading.Side;
+
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Positive;
+
+import java.math.BigDecimal;
+
+/**
+ * Data Transfer Object for an order submitted to the matching engine.
+ */
+public class OrderRequestDTO {
+
+    @NotBlank(message = "Symbol is mandatory")
+    private String symbol;
+
+    @NotNull(message = "Side is mandatory")
+    private Side side;
+
+    private OrderType type = OrderType.LIMIT;
+
+    @Positive(message = "Price must be positive")
+    private BigDecimal price;
+
+    @NotNull(message = "Quantity is mandatory")
+    @Positive(message = "Quantity must be positive")
+    private Long quantity;
+
+    /**
+     * Gets the symbol to trade.
+     *
+     * @return the symbol
+     */
+    public String getSymbol() {
+        return symbol;
+    }
+
+    /**
+     * Sets the symbol to trade.
+     *
+     * @param symbol the symbol
+     */
+    public void setSymbol(String symbol) {
+        this.symbol = symbol;
+    }
+
+    /**
+     * Gets the side of the order.
+     *
+     * @return the side
+     */
+    public Side getSide() {
+        return side;
+    }
+
+    /**
+     * Sets the side of the order.
+     *
+     * @param side the side
+     */
+    public void setSide(Side side) {
+        this.side = side;
+    }
+
+    /**
+     * Gets the kind of order.
+     *
+     * @return the kind of order, {@link OrderType#LIMIT} unless set
+     */
+    public OrderType getType() {
+        return type;
+    }
+
+    /**
+     * Sets the kind of order.
+     *
+     * @param type the kind of order
+     */
+    public void setType(OrderType type) {
+        this.type = type;
+    }
+
+    /**
+     * Gets the limit price of the order.
+     *
+     * @return the price, {@code null} for a market order
+     */
+    public BigDecimal getPrice() {
+        return price;
+    }
+
+    /**
+     * Sets the limit price of the order. Required for limit and IOC orders, and
+     * must be a whole number of ticks.
+     *
+     * @param price the price
+     */
+    public void setPrice(BigDecimal price) {
+        this.price = price;
+    }
+
+    /**
+     * Gets the quantity of the order.
+     *
+     * @return the quantity
+     */
+    public Long getQuantity() {
+        return quantity;
+    }
+
+    /**
+     * Sets the quantity of the order.
+     *
+     * @param quantity the quantity
+     */
+    public void setQuantity(Long quantity) {
+        this.quantity = quantity;
+    }
+}
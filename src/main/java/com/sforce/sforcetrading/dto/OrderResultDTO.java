@@ -0,0 +1,242 @@
+package com.sforce.sforcetrading.dto;
+
+import com.sforce.sforcetrading.trading.OrderType;
+import com.sforce.sforcetrading.trading.RiskCheck;
+import com.sforce.sforcetrading.trading.Side;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Data Transfer Object for the state of an order after it was submitted,
+ * cancelled or looked up.
+ */
+public class OrderResultDTO {
+
+    /**
+     * States of an order.
+     */
+    public enum Status {
+        /**
+         * The whole quantity was traded.
+         */
+        FILLED,
+        /**
+         * The quantity not traded yet rests on the book.
+         */
+        RESTING,
+        /**
+         * The quantity not traded was cancelled.
+         */
+        CANCELLED,
+        /**
+         * The order failed the pre-trade checks and never reached the book.
+         */
+        REJECTED
+    }
+
+    private final long orderId;
+    private final String symbol;
+    private final Side side;
+    private final OrderType type;
+    private final BigDecimal price;
+    private final long quantity;
+    private long filledQuantity;
+    private long remainingQuantity;
+    private Status status;
+    private RiskCheck rejectReason;
+    private final List<Fill> fills = new ArrayList<>();
+
+    /**
+     * Constructs a new OrderResultDTO.
+     *
+     * @param orderId  the ID of the order
+     * @param symbol   the symbol traded
+     * @param side     the side of the order
+     * @param type     the kind of order
+     * @param price    the limit price, {@code null} for a market order
+     * @param quantity the quantity the order was placed with
+     */
+    public OrderResultDTO(long orderId, String symbol, Side side, OrderType type, BigDecimal price, long quantity) {
+        this.orderId = orderId;
+        this.symbol = symbol;
+        this.side = side;
+        this.type = type;
+        this.price = price;
+        this.quantity = quantity;
+        this.remainingQuantity = quantity;
+    }
+
+    /**
+     * Records a trade of the order.
+     *
+     * @param price    the price of the trade
+     * @param quantity the quantity traded
+     */
+    public void addFill(BigDecimal price, long quantity) {
+        fills.add(new Fill(price, quantity));
+        filledQuantity += quantity;
+        remainingQuantity -= quantity;
+    }
+
+    /**
+     * Sets the state of the order.
+     *
+     * @param status            the state
+     * @param remainingQuantity the quantity not traded, resting or cancelled
+     */
+    public void setStatus(Status status, long remainingQuantity) {
+        this.status = status;
+        this.remainingQuantity = remainingQuantity;
+        this.filledQuantity = quantity - remainingQuantity;
+    }
+
+    /**
+     * Rejects the order before it reaches the book.
+     *
+     * @param reason the check the order failed
+     */
+    public void reject(RiskCheck reason) {
+        setStatus(Status.REJECTED, quantity);
+        this.rejectReason = reason;
+    }
+
+    /**
+     * Gets the ID of the order.
+     *
+     * @return the order's ID
+     */
+    public long getOrderId() {
+        return orderId;
+    }
+
+    /**
+     * Gets the symbol traded.
+     *
+     * @return the symbol
+     */
+    public String getSymbol() {
+        return symbol;
+    }
+
+    /**
+     * Gets the side of the order.
+     *
+     * @return the side
+     */
+    public Side getSide() {
+        return side;
+    }
+
+    /**
+     * Gets the kind of order.
+     *
+     * @return the kind of order
+     */
+    public OrderType getType() {
+        return type;
+    }
+
+    /**
+     * Gets the limit price of the order.
+     *
+     * @return the price, or {@code null} for a market order
+     */
+    public BigDecimal getPrice() {
+        return price;
+    }
+
+    /**
+     * Gets the quantity the order was placed with.
+     *
+     * @return the original quantity
+     */
+    public long getQuantity() {
+        return quantity;
+    }
+
+    /**
+     * Gets the quantity traded.
+     *
+     * @return the filled quantity
+     */
+    public long getFilledQuantity() {
+        return filledQuantity;
+    }
+
+    /**
+     * Gets the quantity not traded.
+     *
+     * @return the quantity resting on the book or cancelled
+     */
+    public long getRemainingQuantity() {
+        return remainingQuantity;
+    }
+
+    /**
+     * Gets the state of the order.
+     *
+     * @return the state
+     */
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * Gets the pre-trade check a rejected order failed.
+     *
+     * @return the check, or {@code null} if the order was not rejected
+     */
+    public RiskCheck getRejectReason() {
+        return rejectReason;
+    }
+
+    /**
+     * Gets the trades of the order when it was submitted, in the order they
+     * were matched. Empty for an order that was looked up or cancelled.
+     *
+     * @return the trades
+     */
+    public List<Fill> getFills() {
+        return fills;
+    }
+
+    /**
+     * Trade of an incoming order against a resting one.
+     */
+    public static class Fill {
+
+        private final BigDecimal price;
+        private final long quantity;
+
+        /**
+         * Constructs a new Fill.
+         *
+         * @param price    the price of the trade
+         * @param quantity the quantity traded
+         */
+        public Fill(BigDecimal price, long quantity) {
+            this.price = price;
+            this.quantity = quantity;
+        }
+
+        /**
+         * Gets the price of the trade.
+         *
+         * @return the price
+         */
+        public BigDecimal getPrice() {
+            return price;
+        }
+
+        /**
+         * Gets the quantity traded.
+         *
+         * @return the quantity
+         */
+        public long getQuantity() {
+            return quantity;
+        }
+    }
+}
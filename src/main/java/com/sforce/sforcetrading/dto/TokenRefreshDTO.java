@@ -0,0 +1,18 @@
+package com.sforce.sforcetrading.dto;
+
+import jakarta.validation.constraints.NotBlank;
+
+public class TokenRefreshDTO {
+    @NotBlank(message = "Refresh token must not be blank")
+    private String refreshToken;
+
+    // Getters and setters
+
+    public String getRefreshToken() {
+        return refreshToken;
+    }
+
+    public void setRefreshToken(String refreshToken) {
+        this.refreshToken = refreshToken;
+    }
+}
@@ -0,0 +1,78 @@
+package com.sforce.sforcetrading.dto;
+
+import java.math.BigDecimal;
+
+/**
+ * Data Transfer Object for the best bid and ask of an order book.
+ */
+public class TopOfBookDTO {
+
+    private final String symbol;
+    private final BigDecimal bidPrice;
+    private final long bidQuantity;
+    private final BigDecimal askPrice;
+    private final long askQuantity;
+
+    /**
+     * Constructs a new TopOfBookDTO.
+     *
+     * @param symbol      the symbol traded on the book
+     * @param bidPrice    the highest buy price, {@code null} without bids
+     * @param bidQuantity the quantity resting at the highest buy price
+     * @param askPrice    the lowest sell price, {@code null} without asks
+     * @param askQuantity the quantity resting at the lowest sell price
+     */
+    public TopOfBookDTO(String symbol, BigDecimal bidPrice, long bidQuantity, BigDecimal askPrice,
+            long askQuantity) {
+        this.symbol = symbol;
+        this.bidPrice = bidPrice;
+        this.bidQuantity = bidQuantity;
+        this.askPrice = askPrice;
+        this.askQuantity = askQuantity;
+    }
+
+    /**
+     * Gets the symbol traded on the book.
+     *
+     * @return the symbol
+     */
+    public String getSymbol() {
+        return symbol;
+    }
+
+    /**
+     * Gets the highest buy price.
+     *
+     * @return the best bid price, or {@code null} without bids
+     */
+    public BigDecimal getBidPrice() {
+        return bidPrice;
+    }
+
+    /**
+     * Gets the quantity resting at the highest buy price.
+     *
+     * @return the best bid quantity, 0 without bids
+     */
+    public long getBidQuantity() {
+        return bidQuantity;
+    }
+
+    /**
+     * Gets the lowest sell price.
+     *
+     * @return the best ask price, or {@code null} without asks
+     */
+    public BigDecimal getAskPrice() {
+        return askPrice;
+    }
+
+    /**
+     * Gets the quantity resting at the lowest sell price.
+     *
+     * @return the best ask quantity, 0 without asks
+     */
+    public long getAskQuantity() {
+        return askQuantity;
+    }
+}
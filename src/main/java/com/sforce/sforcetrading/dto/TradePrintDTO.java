@@ -0,0 +1,82 @@
+package com.sforce.sforcetrading.dto;
+
+import com.sforce.sforcetrading.trading.Side;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+
+/**
+ * Data Transfer Object for a trade published as market data, without the
+ * orders or users involved.
+ */
+public class TradePrintDTO {
+
+    private final String symbol;
+    private final BigDecimal price;
+    private final long quantity;
+    private final Side takerSide;
+    private final Instant time;
+
+    /**
+     * Constructs a new TradePrintDTO.
+     *
+     * @param symbol    the symbol traded
+     * @param price     the price of the trade
+     * @param quantity  the quantity traded
+     * @param takerSide the side of the incoming order
+     * @param time      when the trade was matched
+     */
+    public TradePrintDTO(String symbol, BigDecimal price, long quantity, Side takerSide, Instant time) {
+        this.symbol = symbol;
+        this.price = price;
+        this.quantity = quantity;
+        this.takerSide = takerSide;
+        this.time = time;
+    }
+
+    /**
+     * Gets the symbol traded.
+     *
+     * @return the symbol
+     */
+    public String getSymbol() {
+        return symbol;
+    }
+
+    /**
+     * Gets the price of the trade.
+     *
+     * @return the price
+     */
+    public BigDecimal getPrice() {
+        return price;
+    }
+
+    /**
+     * Gets the quantity traded.
+     *
+     * @return the quantity
+     */
+    public long getQuantity() {
+        return quantity;
+    }
+
+    /**
+     * Gets the side of the incoming order, buying or selling at the resting
+     * order's price.
+     *
+     * @return the taker side
+     */
+    public Side getTakerSide() {
+        return takerSide;
+    }
+
+    /**
+     * Gets when the trade was matched.
+     *
+     * @return the time of the trade
+     */
+    public Instant getTime() {
+        return time;
+    }
+}
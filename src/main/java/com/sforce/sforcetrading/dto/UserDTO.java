@@ -17,6 +17,49 @@ public class UserDTO {
     private String state;
     private String zipCode;
     private String country;
+    private Long version;
+
+    /**
+     * Constructs an empty UserDTO.
+     */
+    public UserDTO() {
+    }
+
+    /**
+     * Constructs a UserDTO with every field set, used by the repository to
+     * project users straight into DTOs.
+     *
+     * @param id           the user's ID
+     * @param firstName    the user's first name
+     * @param lastName     the user's last name
+     * @param email        the user's email
+     * @param username     the user's username
+     * @param phone        the user's phone number
+     * @param addressLine1 the first line of the user's address
+     * @param addressLine2 the second line of the user's address
+     * @param city         the city of the user's address
+     * @param state        the state of the user's address
+     * @param zipCode      the zip code of the user's address
+     * @param country      the country of the user's address
+     * @param version      the user's version
+     */
+    public UserDTO(Long id, String firstName, String lastName, String email, String username, String phone,
+            String addressLine1, String addressLine2, String city, String state, String zipCode, String country,
+            Long version) {
+        this.id = id;
+        this.firstName = firstName;
+        this.lastName = lastName;
+        this.email = email;
+        this.username = username;
+        this.phone = phone;
+        this.addressLine1 = addressLine1;
+        this.addressLine2 = addressLine2;
+        this.city = city;
+        this.state = state;
+        this.zipCode = zipCode;
+        this.country = country;
+        this.version = version;
+    }
 
     /**
      * Gets the ID of the user.
@@ -233,4 +276,23 @@ public class UserDTO {
     public void setCountry(String country) {
         this.country = country;
     }
+
+    /**
+     * Gets the version of the user.
+     * 
+     * @return the user's version
+     */
+    public Long getVersion() {
+        return version;
+    }
+
+    /**
+     * Sets the version of the user. On update, the version the changes are
+     * based on; the update is rejected if the user has changed since.
+     * 
+     * @param version the user's version
+     */
+    public void setVersion(Long version) {
+        this.version = version;
+    }
 }
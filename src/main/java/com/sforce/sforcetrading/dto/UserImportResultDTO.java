@@ -0,0 +1,112 @@
+package com.sforce.sforcetrading.dto;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Data Transfer Object for the outcome of a bulk user import.
+ */
+public class UserImportResultDTO {
+
+    private long imported;
+    private long rejected;
+    private final List<RowError> errors = new ArrayList<>();
+    private final int maxErrors;
+
+    /**
+     * Constructs a new UserImportResultDTO.
+     *
+     * @param maxErrors the maximum number of row errors listed; further rejected
+     *                  rows are only counted
+     */
+    public UserImportResultDTO(int maxErrors) {
+        this.maxErrors = maxErrors;
+    }
+
+    /**
+     * Records imported rows.
+     *
+     * @param count the number of imported rows
+     */
+    public void addImported(long count) {
+        imported += count;
+    }
+
+    /**
+     * Records a rejected row.
+     *
+     * @param line    the line number of the row in the imported file
+     * @param message why the row was rejected
+     */
+    public void reject(long line, String message) {
+        rejected++;
+        if (errors.size() < maxErrors) {
+            errors.add(new RowError(line, message));
+        }
+    }
+
+    /**
+     * Gets the number of imported users.
+     *
+     * @return the number of imported users
+     */
+    public long getImported() {
+        return imported;
+    }
+
+    /**
+     * Gets the number of rejected rows.
+     *
+     * @return the number of rejected rows
+     */
+    public long getRejected() {
+        return rejected;
+    }
+
+    /**
+     * Gets the errors of the rejected rows, in the order they were found.
+     *
+     * @return the row errors
+     */
+    public List<RowError> getErrors() {
+        return errors;
+    }
+
+    /**
+     * Why a row of the imported file was rejected.
+     */
+    public static class RowError {
+
+        private final long line;
+        private final String message;
+
+        /**
+         * Constructs a new RowError.
+         *
+         * @param line    the line number of the row in the imported file
+         * @param message why the row was rejected
+         */
+        public RowError(long line, String message) {
+            this.line = line;
+            this.message = message;
+        }
+
+        /**
+         * Gets the line number of the row in the imported file.
+         *
+         * @return the line number
+         */
+        public long getLine() {
+            return line;
+        }
+
+        /**
+         * Gets why the row was rejected.
+         *
+         * @return the error message
+         */
+        public String getMessage() {
+            return message;
+        }
+    }
+}
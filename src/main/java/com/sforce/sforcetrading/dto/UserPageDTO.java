@@ -0,0 +1,43 @@
+package com.sforce.sforcetrading.dto;
+
+import java.util.List;
+
+/**
+ * Data Transfer Object for a page of users.
+ */
+public class UserPageDTO {
+
+    private List<UserDTO> users;
+    private String nextCursor;
+
+    /**
+     * Constructs a new UserPageDTO.
+     *
+     * @param users      the users of the page
+     * @param nextCursor the cursor of the next page, or {@code null} if this is
+     *                   the last page
+     */
+    public UserPageDTO(List<UserDTO> users, String nextCursor) {
+        this.users = users;
+        this.nextCursor = nextCursor;
+    }
+
+    /**
+     * Gets the users of the page.
+     *
+     * @return the users of the page
+     */
+    public List<UserDTO> getUsers() {
+        return users;
+    }
+
+    /**
+     * Gets the cursor to pass to fetch the next page.
+     *
+     * @return the cursor of the next page, or {@code null} if this is the last
+     *         page
+     */
+    public String getNextCursor() {
+        return nextCursor;
+    }
+}
@@ -0,0 +1,272 @@
+package com.sforce.sforcetrading.dto;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import jakarta.validation.constraints.AssertTrue;
+import jakarta.validation.constraints.Email;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Data Transfer Object for a partial update of a user.
+ * Only the fields present in the request are changed: a field that is absent
+ * is left as it is, while a field explicitly set to {@code null} is cleared.
+ * The first name, last name, email and username cannot be cleared.
+ */
+public class UserPatchDTO {
+
+    /**
+     * Profile fields a patch can change.
+     */
+    public enum Field {
+        FIRST_NAME, LAST_NAME, EMAIL, USERNAME, PHONE, ADDRESS_LINE1, ADDRESS_LINE2, CITY, STATE, ZIP_CODE, COUNTRY
+    }
+
+    private final Map<Field, String> fields = new EnumMap<>(Field.class);
+    private Long version;
+
+    /**
+     * Gets the fields present in the patch with their new values.
+     *
+     * @return the present fields, a {@code null} value clearing the field
+     */
+    @JsonIgnore
+    public Map<Field, String> getFields() {
+        return Collections.unmodifiableMap(fields);
+    }
+
+    /**
+     * Checks that the patch does not clear a mandatory field.
+     *
+     * @return true if every mandatory field present in the patch has a value
+     */
+    @JsonIgnore
+    @AssertTrue(message = "First name, last name, email and username cannot be cleared")
+    public boolean isMandatoryFieldsKept() {
+        return keeps(Field.FIRST_NAME) && keeps(Field.LAST_NAME) && keeps(Field.EMAIL) && keeps(Field.USERNAME);
+    }
+
+    private boolean keeps(Field field) {
+        return !fields.containsKey(field) || (fields.get(field) != null && !fields.get(field).isBlank());
+    }
+
+    /**
+     * Gets the new first name of the user.
+     *
+     * @return the user's first name
+     */
+    public String getFirstName() {
+        return fields.get(Field.FIRST_NAME);
+    }
+
+    /**
+     * Sets the new first name of the user.
+     *
+     * @param firstName the user's first name
+     */
+    public void setFirstName(String firstName) {
+        fields.put(Field.FIRST_NAME, firstName);
+    }
+
+    /**
+     * Gets the new last name of the user.
+     *
+     * @return the user's last name
+     */
+    public String getLastName() {
+        return fields.get(Field.LAST_NAME);
+    }
+
+    /**
+     * Sets the new last name of the user.
+     *
+     * @param lastName the user's last name
+     */
+    public void setLastName(String lastName) {
+        fields.put(Field.LAST_NAME, lastName);
+    }
+
+    /**
+     * Gets the new email of the user.
+     *
+     * @return the user's email
+     */
+    @Email(message = "Email should be valid")
+    public String getEmail() {
+        return fields.get(Field.EMAIL);
+    }
+
+    /**
+     * Sets the new email of the user.
+     *
+     * @param email the user's email
+     */
+    public void setEmail(String email) {
+        fields.put(Field.EMAIL, email);
+    }
+
+    /**
+     * Gets the new username of the user.
+     *
+     * @return the user's username
+     */
+    public String getUsername() {
+        return fields.get(Field.USERNAME);
+    }
+
+    /**
+     * Sets the new username of the user.
+     *
+     * @param username the user's username
+     */
+    public void setUsername(String username) {
+        fields.put(Field.USERNAME, username);
+    }
+
+    /**
+     * Gets the new phone number of the user.
+     *
+     * @return the user's phone number
+     */
+    public String getPhone() {
+        return fields.get(Field.PHONE);
+    }
+
+    /**
+     * Sets the new phone number of the user.
+     *
+     * @param phone the user's phone number
+     */
+    public void setPhone(String phone) {
+        fields.put(Field.PHONE, phone);
+    }
+
+    /**
+     * Gets the new first line of the user's address.
+     *
+     * @return the first line of the user's address
+     */
+    public String getAddressLine1() {
+        return fields.get(Field.ADDRESS_LINE1);
+    }
+
+    /**
+     * Sets the new first line of the user's address.
+     *
+     * @param addressLine1 the first line of the user's address
+     */
+    public void setAddressLine1(String addressLine1) {
+        fields.put(Field.ADDRESS_LINE1, addressLine1);
+    }
+
+    /**
+     * Gets the new second line of the user's address.
+     *
+     * @return the second line of the user's address
+     */
+    public String getAddressLine2() {
+        return fields.get(Field.ADDRESS_LINE2);
+    }
+
+    /**
+     * Sets the new second line of the user's address.
+     *
+     * @param addressLine2 the second line of the user's address
+     */
+    public void setAddressLine2(String addressLine2) {
+        fields.put(Field.ADDRESS_LINE2, addressLine2);
+    }
+
+    /**
+     * Gets the new city of the user's address.
+     *
+     * @return the city of the user's address
+     */
+    public String getCity() {
+        return fields.get(Field.CITY);
+    }
+
+    /**
+     * Sets the new city of the user's address.
+     *
+     * @param city the city of the user's address
+     */
+    public void setCity(String city) {
+        fields.put(Field.CITY, city);
+    }
+
+    /**
+     * Gets the new state of the user's address.
+     *
+     * @return the state of the user's address
+     */
+    public String getState() {
+        return fields.get(Field.STATE);
+    }
+
+    /**
+     * Sets the new state of the user's address.
+     *
+     * @param state the state of the user's address
+     */
+    public void setState(String state) {
+        fields.put(Field.STATE, state);
+    }
+
+    /**
+     * Gets the new zip code of the user's address.
+     *
+     * @return the zip code of the user's address
+     */
+    public String getZipCode() {
+        return fields.get(Field.ZIP_CODE);
+    }
+
+    /**
+     * Sets the new zip code of the user's address.
+     *
+     * @param zipCode the zip code of the user's address
+     */
+    public void setZipCode(String zipCode) {
+        fields.put(Field.ZIP_CODE, zipCode);
+    }
+
+    /**
+     * Gets the new country of the user's address.
+     *
+     * @return the country of the user's address
+     */
+    public String getCountry() {
+        return fields.get(Field.COUNTRY);
+    }
+
+    /**
+     * Sets the new country of the user's address.
+     *
+     * @param country the country of the user's address
+     */
+    public void setCountry(String country) {
+        fields.put(Field.COUNTRY, country);
+    }
+
+    /**
+     * Gets the version of the user the patch is based on.
+     *
+     * @return the user's version, or {@code null} to patch whatever the version
+     */
+    public Long getVersion() {
+        return version;
+    }
+
+    /**
+     * Sets the version of the user the patch is based on; the patch is rejected
+     * if the user has changed since.
+     *
+     * @param version the user's version
+     */
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+}
@@ -0,0 +1,76 @@
+package com.sforce.sforcetrading.dto;
+
+/**
+ * Data Transfer Object for a user found by a search: the fields users are
+ * searched by, without the contact details.
+ */
+public class UserSummaryDTO {
+
+    private final Long id;
+    private final String username;
+    private final String email;
+    private final String firstName;
+    private final String lastName;
+
+    /**
+     * Constructs a new UserSummaryDTO.
+     *
+     * @param id        the user's ID
+     * @param username  the user's username
+     * @param email     the user's email
+     * @param firstName the user's first name
+     * @param lastName  the user's last name
+     */
+    public UserSummaryDTO(Long id, String username, String email, String firstName, String lastName) {
+        this.id = id;
+        this.username = username;
+        this.email = email;
+        this.firstName = firstName;
+        this.lastName = lastName;
+    }
+
+    /**
+     * Gets the ID of the user.
+     *
+     * @return the user's ID
+     */
+    public Long getId() {
+        return id;
+    }
+
+    /**
+     * Gets the username of the user.
+     *
+     * @return the user's username
+     */
+    public String getUsername() {
+        return username;
+    }
+
+    /**
+     * Gets the email of the user.
+     *
+     * @return the user's email
+     */
+    public String getEmail() {
+        return email;
+    }
+
+    /**
+     * Gets the first name of the user.
+     *
+     * @return the user's first name
+     */
+    public String getFirstName() {
+        return firstName;
+    }
+
+    /**
+     * Gets the last name of the user.
+     *
+     * @return the user's last name
+     */
+    public String getLastName() {
+        return lastName;
+    }
+}
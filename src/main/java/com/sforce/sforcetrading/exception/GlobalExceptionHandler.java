@@ -1,5 +1,6 @@
 package com.sforce.sforcetrading.exception;
 
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.FieldError;
@@ -36,6 +37,20 @@ public class GlobalExceptionHandler {
         return new ResponseEntity<>(errors, HttpStatus.BAD_REQUEST);
     }
 
+    /**
+     * Handles requests rejected because the password hashing pool is saturated.
+     *
+     * @param ex the PasswordHashingOverloadedException
+     * @return a ResponseEntity containing the exception message and a Retry-After
+     *         header, with HTTP status SERVICE_UNAVAILABLE
+     */
+    @ExceptionHandler(PasswordHashingOverloadedException.class)
+    public ResponseEntity<String> handlePasswordHashingOverloaded(PasswordHashingOverloadedException ex) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(ex.getRetryAfterSeconds()))
+                .body(ex.getMessage());
+    }
+
     /**
      * Handles all other exceptions that are not explicitly handled by other
      * methods.
@@ -0,0 +1,31 @@
+package com.sforce.sforcetrading.exception;
+
+/**
+ * Thrown when the password hashing pool is saturated and a new hashing or
+ * verification request cannot be admitted.
+ */
+public class PasswordHashingOverloadedException extends RuntimeException {
+
+    private final long retryAfterSeconds;
+
+    /**
+     * Constructs a new PasswordHashingOverloadedException.
+     *
+     * @param message           the detail message
+     * @param retryAfterSeconds the number of seconds clients should wait before
+     *                          retrying
+     */
+    public PasswordHashingOverloadedException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    /**
+     * Gets the number of seconds clients should wait before retrying.
+     *
+     * @return the retry delay in seconds
+     */
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
@@ -1,10 +1,15 @@
 package com.sforce.sforcetrading.filter;
 
 import com.sforce.sforcetrading.service.CustomUserDetailsService;
+import com.sforce.sforcetrading.service.TokenVersionService;
 import com.sforce.sforcetrading.util.JwtUtil;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtException;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.lang.NonNull;
 import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.core.userdetails.User;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.web.authentication.WebAuthenticationDetailsSource;
 import org.springframework.stereotype.Component;
@@ -23,9 +28,24 @@ import java.io.IOException;
 @Component
 public class JwtRequestFilter extends OncePerRequestFilter {
 
+    /**
+     * Request attribute holding the ID of the user authenticated by a token
+     * that carries one.
+     */
+    public static final String USER_ID_ATTRIBUTE = "com.sforce.sforcetrading.userId";
+
+    /**
+     * Request attribute holding the expiration date of the token that
+     * authenticated the request, so long-lived streams end with it.
+     */
+    public static final String TOKEN_EXPIRATION_ATTRIBUTE = "com.sforce.sforcetrading.tokenExpiration";
+
     @Autowired
     private CustomUserDetailsService userDetailsService;
 
+    @Autowired
+    private TokenVersionService tokenVersionService;
+
     @Autowired
     private JwtUtil jwtUtil;
 
@@ -37,26 +57,61 @@ public class JwtRequestFilter extends OncePerRequestFilter {
         final String authorizationHeader = request.getHeader("Authorization");
 
         String username = null;
-        String jwt = null;
+        Claims claims = null;
 
         if (authorizationHeader != null && authorizationHeader.startsWith("Bearer ")) {
-            jwt = authorizationHeader.substring(7);
-            username = jwtUtil.extractUsername(jwt);
+            String jwt = authorizationHeader.substring(7);
+            try {
+                // Verify the token once; the claims are reused for validation below
+                claims = jwtUtil.verifyToken(jwt);
+                // Refresh tokens only buy new access tokens, they never authenticate a request
+                username = jwtUtil.isRefreshToken(claims) ? null : claims.getSubject();
+            } catch (JwtException | IllegalArgumentException e) {
+                logger.debug("Rejected JWT token: " + e.getMessage());
+            }
         }
 
         if (username != null && SecurityContextHolder.getContext().getAuthentication() == null) {
 
-            UserDetails userDetails = this.userDetailsService.loadUserByUsername(username);
+            UserDetails userDetails = resolveUserDetails(claims);
 
-            if (jwtUtil.validateToken(jwt, userDetails)) {
+            if (userDetails != null && jwtUtil.validateToken(claims, userDetails)) {
 
                 org.springframework.security.authentication.UsernamePasswordAuthenticationToken usernamePasswordAuthenticationToken = new org.springframework.security.authentication.UsernamePasswordAuthenticationToken(
                         userDetails, null, userDetails.getAuthorities());
                 usernamePasswordAuthenticationToken
                         .setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
                 SecurityContextHolder.getContext().setAuthentication(usernamePasswordAuthenticationToken);
+                Long userId = jwtUtil.extractUserId(claims);
+                if (userId != null) {
+                    request.setAttribute(USER_ID_ATTRIBUTE, userId);
+                }
+                request.setAttribute(TOKEN_EXPIRATION_ATTRIBUTE, claims.getExpiration());
             }
         }
         chain.doFilter(request, response);
     }
+
+    /**
+     * Builds the principal of the request from the verified claims.
+     * Tokens carrying a user ID are resolved from the token alone and checked
+     * against the in-memory token version table; older tokens without one fall
+     * back to loading the user from the database.
+     *
+     * @param claims the verified claims of the JWT token
+     * @return the user details, or {@code null} if the token has been revoked
+     */
+    private UserDetails resolveUserDetails(Claims claims) {
+        Long userId = jwtUtil.extractUserId(claims);
+        if (userId == null) {
+            return this.userDetailsService.findUserDetails(claims.getSubject()).orElse(null);
+        }
+        if (!tokenVersionService.isCurrent(userId, jwtUtil.extractTokenVersion(claims))) {
+            return null;
+        }
+        return User.withUsername(claims.getSubject())
+                .password("")
+                .authorities(jwtUtil.extractRoles(claims).toArray(new String[0]))
+                .build();
+    }
 }
@@ -0,0 +1,254 @@
+package com.sforce.sforcetrading.filter;
+
+import io.github.bucket4j.Bandwidth;
+import io.github.bucket4j.Bucket;
+import io.github.bucket4j.ConsumptionProbe;
+import io.github.bucket4j.Refill;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.lang.NonNull;
+import org.springframework.security.authentication.AnonymousAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Component;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Filter class rate limiting every {@code /api/**} request per client.
+ * Requests are keyed by the authenticated principal, or by the client IP for
+ * anonymous requests, so one noisy client only throttles itself. Each request
+ * is matched against the configured policies (first match wins) and consumes a
+ * token from the bucket of its policy and client.
+ * Buckets live in a concurrent map: the hot path is a single lock-free lookup,
+ * and buckets idle for longer than the eviction timeout are swept out by
+ * whichever request first notices the sweep is due. When more keys than the
+ * limit are tracked, e.g. by a client spraying addresses, buckets back at full
+ * capacity are swept out as well, as they hold nothing a new bucket would not;
+ * those early sweeps run at most once per second, so they cannot turn every
+ * request into a scan of the map.
+ */
+@Component
+public class RateLimitingFilter extends OncePerRequestFilter {
+
+    private static final int TOP_REJECTED_KEYS = 20;
+    private static final long EARLY_SWEEP_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final AntPathMatcher pathMatcher = new AntPathMatcher();
+    private final Map<String, ClientBucket> buckets = new ConcurrentHashMap<>();
+    private final AtomicLong nextSweepAt;
+    private final AtomicLong nextEarlySweepAt;
+    private final LongAdder rejected = new LongAdder();
+    private final boolean enabled;
+    private final List<Policy> policies;
+    private final long idleEvictionNanos;
+    private final int maxKeys;
+
+    /**
+     * Constructs a new RateLimitingFilter.
+     *
+     * @param enabled             whether requests are rate limited at all
+     * @param policies            comma separated {@code pattern=capacity/seconds}
+     *                            policies, e.g. {@code /api/users/login=20/60},
+     *                            checked in order
+     * @param idleEvictionSeconds how long an unused bucket is kept; should exceed
+     *                            the longest refill period
+     * @param maxKeys             the number of buckets that triggers early
+     *                            sweeps of idle and full buckets
+     */
+    public RateLimitingFilter(@Value("${rate-limit.enabled:true}") boolean enabled,
+            @Value("${rate-limit.policies:/api/**=600/60}") String policies,
+            @Value("${rate-limit.idle-eviction-seconds:600}") long idleEvictionSeconds,
+            @Value("${rate-limit.max-keys:100000}") int maxKeys) {
+        this.enabled = enabled;
+        this.policies = parsePolicies(policies);
+        this.idleEvictionNanos = TimeUnit.SECONDS.toNanos(idleEvictionSeconds);
+        this.maxKeys = maxKeys;
+        this.nextSweepAt = new AtomicLong(System.nanoTime() + idleEvictionNanos);
+        this.nextEarlySweepAt = new AtomicLong(System.nanoTime());
+    }
+
+    @Override
+    protected boolean shouldNotFilter(@NonNull HttpServletRequest request) {
+        return !enabled || !request.getRequestURI().startsWith(request.getContextPath() + "/api/");
+    }
+
+    @Override
+    protected void doFilterInternal(@NonNull HttpServletRequest request, @NonNull HttpServletResponse response,
+            @NonNull FilterChain chain)
+            throws ServletException, IOException {
+
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        Policy policy = findPolicy(path);
+        if (policy == null) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        long now = System.nanoTime();
+        String key = policy.pattern + "|" + clientKey(request);
+        ClientBucket bucket = buckets.get(key);
+        if (bucket == null) {
+            bucket = buckets.computeIfAbsent(key, k -> new ClientBucket(policy.newBucket(), policy.capacity));
+        }
+        bucket.lastAccess = now;
+
+        ConsumptionProbe probe = bucket.bucket.tryConsumeAndReturnRemaining(1);
+        sweepIfDue(now);
+        if (probe.isConsumed()) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        bucket.rejected.increment();
+        rejected.increment();
+        long retryAfterSeconds = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(probe.getNanosToWaitForRefill()));
+        response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+        response.setContentType("text/plain;charset=UTF-8");
+        response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds));
+        response.getWriter().write("Too many requests, please retry later");
+    }
+
+    /**
+     * Returns the current counters of the rate limiter.
+     *
+     * @return a map with the number of tracked buckets, the total number of
+     *         rejected requests and the keys with the most rejections among the
+     *         tracked buckets
+     */
+    public Map<String, Object> getStats() {
+        List<Map.Entry<String, ClientBucket>> rejectedKeys = new ArrayList<>();
+        for (Map.Entry<String, ClientBucket> entry : buckets.entrySet()) {
+            if (entry.getValue().rejected.sum() > 0) {
+                rejectedKeys.add(entry);
+            }
+        }
+        rejectedKeys.sort(Comparator.comparingLong(
+                (Map.Entry<String, ClientBucket> entry) -> entry.getValue().rejected.sum()).reversed());
+
+        Map<String, Long> topRejectedKeys = new LinkedHashMap<>();
+        for (Map.Entry<String, ClientBucket> entry : rejectedKeys.subList(0,
+                Math.min(TOP_REJECTED_KEYS, rejectedKeys.size()))) {
+            topRejectedKeys.put(entry.getKey(), entry.getValue().rejected.sum());
+        }
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("trackedKeys", (long) buckets.size());
+        stats.put("rejected", rejected.sum());
+        stats.put("rejectedByKey", topRejectedKeys);
+        return stats;
+    }
+
+    private Policy findPolicy(String path) {
+        for (Policy policy : policies) {
+            if (pathMatcher.match(policy.pattern, path)) {
+                return policy;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Identifies the client of the request: the authenticated principal when
+     * there is one, the client IP otherwise. The IP is taken from the connection;
+     * behind a proxy, enable {@code server.forward-headers-strategy} so it
+     * reflects the forwarded client address.
+     */
+    private static String clientKey(HttpServletRequest request) {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication != null && authentication.isAuthenticated()
+                && !(authentication instanceof AnonymousAuthenticationToken)) {
+            return "user:" + authentication.getName();
+        }
+        return "ip:" + request.getRemoteAddr();
+    }
+
+    /**
+     * Removes idle buckets once the sweep is due, and also full buckets when too
+     * many keys are tracked, at most once per early sweep interval. Only the
+     * request winning the compare-and-set sweeps, the others carry on without
+     * waiting.
+     */
+    private void sweepIfDue(long now) {
+        long idleBefore = now - idleEvictionNanos;
+        long dueAt = nextSweepAt.get();
+        if (now - dueAt >= 0) {
+            if (nextSweepAt.compareAndSet(dueAt, now + Math.max(idleEvictionNanos / 4, 1))) {
+                buckets.values().removeIf(bucket -> bucket.lastAccess - idleBefore < 0);
+            }
+            return;
+        }
+        long earlyDueAt = nextEarlySweepAt.get();
+        if (now - earlyDueAt >= 0 && buckets.size() > maxKeys
+                && nextEarlySweepAt.compareAndSet(earlyDueAt, now + EARLY_SWEEP_INTERVAL_NANOS)) {
+            buckets.values().removeIf(bucket -> bucket.lastAccess - idleBefore < 0
+                    || bucket.bucket.getAvailableTokens() >= bucket.capacity);
+        }
+    }
+
+    private static List<Policy> parsePolicies(String spec) {
+        List<Policy> parsed = new ArrayList<>();
+        for (String entry : spec.split(",")) {
+            if (entry.isBlank()) {
+                continue;
+            }
+            int equals = entry.lastIndexOf('=');
+            int slash = entry.lastIndexOf('/');
+            if (equals < 0 || slash < equals) {
+                throw new IllegalArgumentException("Invalid rate limit policy: " + entry.trim()
+                        + ", expected pattern=capacity/seconds");
+            }
+            parsed.add(new Policy(entry.substring(0, equals).trim(),
+                    Long.parseLong(entry.substring(equals + 1, slash).trim()),
+                    Duration.ofSeconds(Long.parseLong(entry.substring(slash + 1).trim()))));
+        }
+        return List.copyOf(parsed);
+    }
+
+    private static final class Policy {
+        private final String pattern;
+        private final long capacity;
+        private final Duration period;
+
+        private Policy(String pattern, long capacity, Duration period) {
+            this.pattern = pattern;
+            this.capacity = capacity;
+            this.period = period;
+        }
+
+        private Bucket newBucket() {
+            Bandwidth limit = Bandwidth.classic(capacity, Refill.greedy(capacity, period));
+            return Bucket.builder().addLimit(limit).build();
+        }
+    }
+
+    private static final class ClientBucket {
+        private final Bucket bucket;
+        private final long capacity;
+        private final LongAdder rejected = new LongAdder();
+        private volatile long lastAccess;
+
+        private ClientBucket(Bucket bucket, long capacity) {
+            this.bucket = bucket;
+            this.capacity = capacity;
+        }
+    }
+}
@@ -4,16 +4,71 @@ import jakarta.persistence.*;
 import jakarta.validation.constraints.Email;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.Size;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.ColumnDefault;
+import org.hibernate.annotations.DynamicUpdate;
+import org.hibernate.annotations.NaturalId;
+import org.hibernate.annotations.NaturalIdCache;
+
+import java.util.Locale;
 
 /**
  * Represents a user in the system.
+ * Updates only write the columns that changed. Users are kept in the
+ * second-level cache, along with the resolution of their normalized username,
+ * their natural ID, to their ID.
  */
 @Entity
-@Table(name = "users", uniqueConstraints = @UniqueConstraint(columnNames = { "username", "email" }))
+@DynamicUpdate
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = User.CACHE_REGION)
+@NaturalIdCache(region = User.NATURAL_ID_CACHE_REGION)
+@Table(name = "users", uniqueConstraints = {
+        @UniqueConstraint(columnNames = { "username", "email" }),
+        @UniqueConstraint(name = User.EMAIL_LOOKUP_INDEX, columnNames = "email_normalized"),
+        @UniqueConstraint(name = User.USERNAME_LOOKUP_INDEX, columnNames = "username_normalized") })
 public class User {
 
+    /**
+     * Name of the unique index on the normalized email.
+     */
+    public static final String EMAIL_LOOKUP_INDEX = "uk_users_email_normalized";
+
+    /**
+     * Name of the unique index on the normalized username.
+     */
+    public static final String USERNAME_LOOKUP_INDEX = "uk_users_username_normalized";
+
+    /**
+     * Name of the second-level cache region holding users.
+     */
+    public static final String CACHE_REGION = "users";
+
+    /**
+     * Name of the second-level cache region resolving usernames to user IDs.
+     */
+    public static final String NATURAL_ID_CACHE_REGION = "users-natural-id";
+
+    /**
+     * Name of the query cache region holding the results of user lookups.
+     */
+    public static final String QUERY_CACHE_REGION = "users-queries";
+
+    /**
+     * Name of the sequence generating user IDs.
+     */
+    public static final String ID_SEQUENCE = "users_seq";
+
+    /**
+     * Number of IDs reserved per sequence call. IDs come from a pooled
+     * sequence rather than an identity column so Hibernate can batch inserts.
+     */
+    public static final int ID_ALLOCATION_SIZE = 50;
+
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = ID_SEQUENCE)
+    @SequenceGenerator(name = ID_SEQUENCE, sequenceName = ID_SEQUENCE, allocationSize = ID_ALLOCATION_SIZE)
     private Long id;
 
     @NotBlank(message = "First name is mandatory")
@@ -31,6 +86,19 @@ public class User {
     @Column(unique = true)
     private String username;
 
+    /**
+     * Email and username as looked up: trimmed and lower-cased, so lookups are
+     * case-insensitive yet plain equality matches on an indexed column. Kept in
+     * step by the setters; rows written before these columns existed are filled
+     * in at startup.
+     */
+    @Column(name = "email_normalized")
+    private String emailNormalized;
+
+    @NaturalId(mutable = true)
+    @Column(name = "username_normalized")
+    private String usernameNormalized;
+
     @NotBlank(message = "Password is mandatory")
     @Size(min = 6, message = "Password should have at least 6 characters")
     private String password;
@@ -43,6 +111,15 @@ public class User {
     private String zipCode;
     private String country;
 
+    @ColumnDefault("0")
+    @Column(nullable = false)
+    private long tokenVersion;
+
+    @Version
+    @ColumnDefault("0")
+    @Column(nullable = false)
+    private long version;
+
     // Getters and Setters
 
     /**
@@ -115,6 +192,7 @@ public class User {
      */
     public void setEmail(String email) {
         this.email = email;
+        this.emailNormalized = normalizeLookupKey(email);
     }
 
     /**
@@ -277,5 +355,55 @@ public class User {
      */
     public void setUsername(String username) {
         this.username = username;
+        this.usernameNormalized = normalizeLookupKey(username);
+    }
+
+    /**
+     * Gets the token version of the user.
+     * Tokens issued with an older version are no longer accepted.
+     *
+     * @return the token version of the user
+     */
+    public long getTokenVersion() {
+        return tokenVersion;
+    }
+
+    /**
+     * Sets the token version of the user.
+     *
+     * @param tokenVersion the new token version of the user
+     */
+    public void setTokenVersion(long tokenVersion) {
+        this.tokenVersion = tokenVersion;
+    }
+
+    /**
+     * Gets the version of the user, incremented on every update.
+     * An update based on an older version is rejected.
+     *
+     * @return the version of the user
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Sets the version of the user.
+     *
+     * @param version the new version of the user
+     */
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
+    /**
+     * Normalizes an email or username the way it is stored for lookups.
+     *
+     * @param value the email or username
+     * @return the trimmed, lower-cased value, or {@code null} if the value is
+     *         {@code null}
+     */
+    public static String normalizeLookupKey(String value) {
+        return value == null ? null : value.trim().toLowerCase(Locale.ROOT);
     }
 }
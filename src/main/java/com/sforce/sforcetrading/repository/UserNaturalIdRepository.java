@@ -0,0 +1,21 @@
+package com.sforce.sforcetrading.repository;
+
+import com.sforce.sforcetrading.model.User;
+
+import java.util.Optional;
+
+/**
+ * Repository fragment loading users by their natural ID, the normalized
+ * username, through the Hibernate session so the natural ID and entity caches
+ * answer repeated lookups without a query.
+ */
+public interface UserNaturalIdRepository {
+
+    /**
+     * Finds a user by normalized username.
+     *
+     * @param usernameNormalized the normalized username of the user
+     * @return an optional containing the user, or empty if not found
+     */
+    Optional<User> findByUsernameNormalized(String usernameNormalized);
+}
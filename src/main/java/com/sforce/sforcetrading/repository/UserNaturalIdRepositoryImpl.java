@@ -0,0 +1,31 @@
+package com.sforce.sforcetrading.repository;
+
+import com.sforce.sforcetrading.model.User;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+
+import org.hibernate.Session;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Optional;
+
+/**
+ * Implementation of {@link UserNaturalIdRepository} on the Hibernate natural ID
+ * API.
+ */
+public class UserNaturalIdRepositoryImpl implements UserNaturalIdRepository {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    // Transactional so the session unwrapped from the shared entity manager stays open
+    @Override
+    @Transactional(readOnly = true)
+    public Optional<User> findByUsernameNormalized(String usernameNormalized) {
+        if (usernameNormalized == null) {
+            return Optional.empty();
+        }
+        return entityManager.unwrap(Session.class).bySimpleNaturalId(User.class).loadOptional(usernameNormalized);
+    }
+}
@@ -1,15 +1,180 @@
 package com.sforce.sforcetrading.repository;
 
+import com.sforce.sforcetrading.dto.UserDTO;
 import com.sforce.sforcetrading.model.User;
 
+import jakarta.persistence.QueryHint;
+
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.stereotype.Repository;
 
 @Repository
-public interface UserRepository extends JpaRepository<User, Long> {
-    Optional<User> findByEmail(String email);
+public interface UserRepository extends JpaRepository<User, Long>, UserNaturalIdRepository {
+    String USER_DTO_PROJECTION = "select new com.sforce.sforcetrading.dto.UserDTO(u.id, u.firstName, u.lastName,"
+            + " u.email, u.username, u.phone, u.addressLine1, u.addressLine2, u.city, u.state, u.zipCode, u.country,"
+            + " u.version)"
+            + " from User u";
+
+    /**
+     * Finds a user by email, ignoring case.
+     *
+     * @param email the email of the user
+     * @return an optional containing the user, or empty if not found
+     */
+    default Optional<User> findByEmail(String email) {
+        return findByEmailNormalized(User.normalizeLookupKey(email));
+    }
+
+    /**
+     * Finds a user by username, ignoring case.
+     *
+     * @param username the username of the user
+     * @return an optional containing the user, or empty if not found
+     */
+    default Optional<User> findByUsername(String username) {
+        return findByUsernameNormalized(User.normalizeLookupKey(username));
+    }
+
+    @QueryHints({ @QueryHint(name = HibernateHints.HINT_CACHEABLE, value = "true"),
+            @QueryHint(name = HibernateHints.HINT_CACHE_REGION, value = User.QUERY_CACHE_REGION) })
+    Optional<User> findByEmailNormalized(String emailNormalized);
+
+    @Query("select u.tokenVersion from User u where u.id = :id")
+    Optional<Long> findTokenVersionById(@Param("id") Long id);
+
+    /**
+     * Finds a user by normalized username to check its credentials, reading the
+     * row from the database rather than the second-level cache, which other
+     * nodes do not invalidate: a password changed or a user deleted on another
+     * node must not keep authenticating here. The row read refreshes the cache.
+     *
+     * @param usernameNormalized the normalized username of the user
+     * @return an optional containing the user, or empty if not found
+     */
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_CACHE_MODE, value = "REFRESH"))
+    @Query("select u from User u where u.usernameNormalized = :username")
+    Optional<User> findCredentialsByUsernameNormalized(@Param("username") String usernameNormalized);
+
+    /**
+     * Finds a user by ID to check its credentials, reading the row from the
+     * database rather than the second-level cache, see
+     * {@link #findCredentialsByUsernameNormalized(String)}.
+     *
+     * @param id the ID of the user
+     * @return an optional containing the user, or empty if not found
+     */
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_CACHE_MODE, value = "REFRESH"))
+    @Query("select u from User u where u.id = :id")
+    Optional<User> findCredentialsById(@Param("id") Long id);
+
+    @Transactional
+    @Modifying
+    @Query("update User u set u.password = :newPassword where u.id = :id and u.password = :oldPassword")
+    int replacePassword(@Param("id") Long id, @Param("oldPassword") String oldPassword,
+            @Param("newPassword") String newPassword);
+
+    /**
+     * Finds a user by email, ignoring case, projected to a DTO without loading
+     * the entity.
+     *
+     * @param email the email of the user
+     * @return an optional containing the user, or empty if not found
+     */
+    default Optional<UserDTO> findDTOByEmail(String email) {
+        return findDTOByEmailNormalized(User.normalizeLookupKey(email));
+    }
+
+    /**
+     * Finds a user by username, ignoring case, projected to a DTO without
+     * loading the entity.
+     *
+     * @param username the username of the user
+     * @return an optional containing the user, or empty if not found
+     */
+    default Optional<UserDTO> findDTOByUsername(String username) {
+        return findDTOByUsernameNormalized(User.normalizeLookupKey(username));
+    }
+
+    @QueryHints({ @QueryHint(name = HibernateHints.HINT_CACHEABLE, value = "true"),
+            @QueryHint(name = HibernateHints.HINT_CACHE_REGION, value = User.QUERY_CACHE_REGION) })
+    @Query(USER_DTO_PROJECTION + " where u.emailNormalized = :email")
+    Optional<UserDTO> findDTOByEmailNormalized(@Param("email") String emailNormalized);
+
+    @QueryHints({ @QueryHint(name = HibernateHints.HINT_CACHEABLE, value = "true"),
+            @QueryHint(name = HibernateHints.HINT_CACHE_REGION, value = User.QUERY_CACHE_REGION) })
+    @Query(USER_DTO_PROJECTION + " where u.usernameNormalized = :username")
+    Optional<UserDTO> findDTOByUsernameNormalized(@Param("username") String usernameNormalized);
+
+    /**
+     * Finds every user in ID order, projected to DTOs without loading the
+     * entities.
+     *
+     * @return the users
+     */
+    @Query(USER_DTO_PROJECTION + " order by u.id")
+    List<UserDTO> findAllDTOs();
+
+    /**
+     * Checks in a single query whether another user already holds the email or
+     * the username. Either may be {@code null} to check only the other one.
+     *
+     * @param id                 the ID of the user being changed
+     * @param emailNormalized    the normalized email to check
+     * @param usernameNormalized the normalized username to check
+     * @return true if a user other than the given one holds the email or the
+     *         username
+     */
+    @Query("select count(u) > 0 from User u where u.id <> :id"
+            + " and (u.emailNormalized = :email or u.usernameNormalized = :username)")
+    boolean existsOtherWithEmailOrUsername(@Param("id") Long id, @Param("email") String emailNormalized,
+            @Param("username") String usernameNormalized);
+
+    /**
+     * Finds the emails and usernames already taken among the given ones, with a
+     * single query. Emails and usernames are compared in their normalized form,
+     * see {@link User#normalizeLookupKey(String)}.
+     *
+     * @param emails    the normalized emails to check
+     * @param usernames the normalized usernames to check
+     * @return the normalized email and username of every user holding one of
+     *         them
+     */
+    @Query("select u.emailNormalized, u.usernameNormalized from User u"
+            + " where u.emailNormalized in :emails or u.usernameNormalized in :usernames")
+    List<Object[]> findTakenEmailsAndUsernames(@Param("emails") Collection<String> emails,
+            @Param("usernames") Collection<String> usernames);
+
+    /**
+     * Seeks the page of users following the given ID, in ID order. The seek on
+     * the primary key costs the same whatever the page, unlike an offset.
+     *
+     * @param afterId  the ID of the last user of the previous page, 0 for the
+     *                 first page
+     * @param pageable the page size; the page number must be 0
+     * @return the users of the page, projected to DTOs
+     */
+    @Query(USER_DTO_PROJECTION + " where u.id > :afterId order by u.id")
+    List<UserDTO> findPageAfter(@Param("afterId") long afterId, Pageable pageable);
 
-    Optional<User> findByUsername(String username);
+    /**
+     * Streams every user in ID order from a database cursor. Must be consumed
+     * and closed within a transaction.
+     *
+     * @return the users, projected to DTOs
+     */
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"))
+    @Query(USER_DTO_PROJECTION + " order by u.id")
+    Stream<UserDTO> streamAll();
 }
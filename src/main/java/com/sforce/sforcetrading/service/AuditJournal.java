@@ -0,0 +1,397 @@
+package com.sforce.sforcetrading.service;
+
+import com.sforce.sforcetrading.dto.AuditEventDTO;
+import com.sforce.sforcetrading.util.BoundedMpscQueue;
+import com.sforce.sforcetrading.util.MappedSegmentLog;
+import com.sforce.sforcetrading.util.TransactionCallbacks;
+
+import jakarta.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Service keeping an append-only audit trail of account events: registrations,
+ * imports, logins, profile and password changes, and deletions.
+ * Recording an event only puts it in a bounded lock-free queue, so request
+ * threads never wait for the disk or the database. A background writer drains
+ * the queue into a memory-mapped {@link MappedSegmentLog} and forces it to disk
+ * once for all the events written since the previous flush, at most every
+ * {@code audit.journal.flush-interval-ms}; an event is durable shortly after it
+ * is recorded rather than when its request completes. When the queue is full,
+ * events are either dropped and counted or the recording thread waits for
+ * room, as set by {@code audit.journal.overflow}. Events recorded within a
+ * transaction are only queued once it commits.
+ * <p>
+ * Queries read the segments newest first and stop once they have enough
+ * events, so their cost follows the limit rather than the size of the
+ * journal. Events store the stable code of their kind; events of kinds this
+ * version does not know are skipped.
+ */
+@Service
+public class AuditJournal {
+
+    private static final Logger logger = LoggerFactory.getLogger(AuditJournal.class);
+
+    /**
+     * What happens to events recorded while the queue is full.
+     */
+    public enum Overflow {
+        /**
+         * The event is dropped and counted.
+         */
+        DROP,
+        /**
+         * The recording thread waits until the writer makes room.
+         */
+        BLOCK
+    }
+
+    private static final String SEGMENT_PREFIX = "audit";
+    private static final int MAX_USERNAME_LENGTH = 256;
+    // Time, type, user ID, username length and at most 3 UTF-8 bytes per username character
+    private static final int MAX_EVENT_SIZE = Long.BYTES + 1 + Long.BYTES + Short.BYTES + 3 * MAX_USERNAME_LENGTH;
+    private static final long NO_USER = -1;
+    private static final long IDLE_PARK_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final long BLOCKED_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+    private static final long SHUTDOWN_TIMEOUT_MILLIS = 10_000;
+
+    private final boolean enabled;
+    private final Path directory;
+    private final Overflow overflow;
+    private final int batchSize;
+    private final long flushIntervalNanos;
+    private final BoundedMpscQueue<Event> queue;
+    private final MappedSegmentLog log;
+    private final Thread writer;
+    private final ByteBuffer encoded = ByteBuffer.allocate(MAX_EVENT_SIZE);
+
+    private volatile boolean running;
+    private volatile boolean writerParked;
+
+    private final LongAdder recorded = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder blocked = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private final LongAdder flushes = new LongAdder();
+    private final LongAdder writeErrors = new LongAdder();
+
+    /**
+     * Constructs a new AuditJournal, opening the journal and starting its
+     * writer unless disabled.
+     *
+     * @param enabled         whether events are recorded
+     * @param directory       the directory of the journal segments
+     * @param queueCapacity   the maximum number of events waiting for the
+     *                        writer, rounded up to a power of two
+     * @param overflow        what happens to events recorded while the queue is
+     *                        full
+     * @param segmentSize     the size of a journal segment file
+     * @param maxSegments     the number of segments kept, 0 keeps them all
+     * @param batchSize       the maximum number of events written per pass of
+     *                        the writer
+     * @param flushIntervalMs the minimum time between two flushes to disk, 0
+     *                        flushes after every pass of the writer
+     * @throws IOException if the journal cannot be opened
+     */
+    @Autowired
+    public AuditJournal(@Value("${audit.journal.enabled:true}") boolean enabled,
+            @Value("${audit.journal.directory:audit}") String directory,
+            @Value("${audit.journal.queue-capacity:65536}") int queueCapacity,
+            @Value("${audit.journal.overflow:DROP}") Overflow overflow,
+            @Value("${audit.journal.segment-size:64MB}") DataSize segmentSize,
+            @Value("${audit.journal.max-segments:16}") int maxSegments,
+            @Value("${audit.journal.batch-size:1024}") int batchSize,
+            @Value("${audit.journal.flush-interval-ms:10}") long flushIntervalMs) throws IOException {
+        this.enabled = enabled;
+        this.directory = Path.of(directory);
+        this.overflow = overflow;
+        this.batchSize = batchSize;
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMs);
+        this.queue = new BoundedMpscQueue<>(queueCapacity);
+        if (enabled) {
+            this.log = new MappedSegmentLog(this.directory, SEGMENT_PREFIX, Math.toIntExact(segmentSize.toBytes()),
+                    maxSegments);
+            this.running = true;
+            this.writer = new Thread(this::writeLoop, "audit-journal-writer");
+            this.writer.setDaemon(true);
+            this.writer.start();
+        } else {
+            this.log = null;
+            this.writer = null;
+        }
+    }
+
+    /**
+     * Records an account event. Returns without waiting for the event to be
+     * written, unless the queue is full and the overflow policy is
+     * {@link Overflow#BLOCK}.
+     *
+     * @param type     the kind of event
+     * @param userId   the ID of the user, {@code null} if unknown
+     * @param username the username of the user, as given for a failed login
+     */
+    public void record(AuditEventDTO.Type type, Long userId, String username) {
+        if (!enabled) {
+            return;
+        }
+        Event event = new Event(System.currentTimeMillis(), type, userId, username);
+        TransactionCallbacks.afterCommit(() -> enqueue(event));
+    }
+
+    /**
+     * Returns the latest events matching the filters, read from the journal.
+     * Events still waiting for the writer are not included.
+     *
+     * @param userId the ID of the user, or {@code null} for any user
+     * @param type   the kind of event, or {@code null} for any kind
+     * @param from   the time from which events are returned, inclusive, or
+     *               {@code null}
+     * @param to     the time until which events are returned, exclusive, or
+     *               {@code null}
+     * @param limit  the maximum number of events to return
+     * @return the matching events, newest first
+     */
+    public List<AuditEventDTO> query(Long userId, AuditEventDTO.Type type, Instant from, Instant to, int limit) {
+        List<AuditEventDTO> events = new ArrayList<>();
+        try {
+            List<Long> segments = MappedSegmentLog.segmentIndexes(directory, SEGMENT_PREFIX);
+            for (int i = segments.size() - 1; i >= 0 && events.size() < limit; i--) {
+                // Records only read forwards: keep the latest matches of the segment
+                int wanted = limit - events.size();
+                Deque<AuditEventDTO> latest = new ArrayDeque<>();
+                MappedSegmentLog.readSegment(directory, SEGMENT_PREFIX, segments.get(i), record -> {
+                    AuditEventDTO event = decode(record);
+                    if (matches(event, userId, type, from, to)) {
+                        if (latest.size() == wanted) {
+                            latest.removeFirst();
+                        }
+                        latest.addLast(event);
+                    }
+                });
+                latest.descendingIterator().forEachRemaining(events::add);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return events;
+    }
+
+    /**
+     * Reads the events of a journal matching the filters, oldest first. The
+     * journal may be written to meanwhile, by this or another process.
+     *
+     * @param directory the directory of the journal segments
+     * @param userId    the ID of the user, or {@code null} for any user
+     * @param type      the kind of event, or {@code null} for any kind
+     * @param from      the time from which events are read, inclusive, or
+     *                  {@code null}
+     * @param to        the time until which events are read, exclusive, or
+     *                  {@code null}
+     * @param consumer  the consumer of the events
+     * @throws IOException if the journal cannot be read
+     */
+    public static void read(Path directory, Long userId, AuditEventDTO.Type type, Instant from, Instant to,
+            Consumer<AuditEventDTO> consumer) throws IOException {
+        MappedSegmentLog.read(directory, SEGMENT_PREFIX, record -> {
+            AuditEventDTO event = decode(record);
+            if (matches(event, userId, type, from, to)) {
+                consumer.accept(event);
+            }
+        });
+    }
+
+    /**
+     * Returns the counters of the journal.
+     *
+     * @return a map with the events waiting in the queue and its capacity, the
+     *         events recorded, dropped, written and failed to write, the
+     *         recordings that waited for room, the flushes to disk, and the
+     *         current segment and number of rolls
+     */
+    public Map<String, Long> getStats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled ? 1L : 0L);
+        stats.put("queued", (long) queue.size());
+        stats.put("queueCapacity", (long) queue.capacity());
+        stats.put("recorded", recorded.sum());
+        stats.put("dropped", dropped.sum());
+        stats.put("blocked", blocked.sum());
+        stats.put("written", written.sum());
+        stats.put("writeErrors", writeErrors.sum());
+        stats.put("flushes", flushes.sum());
+        stats.put("segment", log == null ? 0 : log.getSegmentIndex());
+        stats.put("rolls", log == null ? 0 : log.getRolls());
+        return stats;
+    }
+
+    /**
+     * Writes the queued events and closes the journal when the application
+     * shuts down.
+     */
+    @PreDestroy
+    public void shutdown() {
+        if (writer == null) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(SHUTDOWN_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (writer.isAlive()) {
+            logger.warn("Audit journal writer did not stop within {} ms", SHUTDOWN_TIMEOUT_MILLIS);
+            return;
+        }
+        try {
+            log.close();
+        } catch (IOException e) {
+            logger.error("Could not close the audit journal: {}", e.getMessage());
+        }
+    }
+
+    private void enqueue(Event event) {
+        if (!queue.offer(event)) {
+            if (overflow == Overflow.DROP || !running) {
+                dropped.increment();
+                return;
+            }
+            blocked.increment();
+            do {
+                if (!running) {
+                    dropped.increment();
+                    return;
+                }
+                LockSupport.unpark(writer);
+                LockSupport.parkNanos(BLOCKED_PARK_NANOS);
+            } while (!queue.offer(event));
+        }
+        recorded.increment();
+        if (writerParked) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    private void writeLoop() {
+        long lastFlush = System.nanoTime();
+        boolean unflushed = false;
+        while (true) {
+            int drained = queue.drain(this::write, batchSize);
+            unflushed |= drained > 0;
+            long now = System.nanoTime();
+            if (unflushed && now - lastFlush >= flushIntervalNanos) {
+                // Group commit: one flush covers every event written since the previous one
+                flush();
+                unflushed = false;
+                lastFlush = now;
+            }
+            if (drained == 0) {
+                if (!running) {
+                    break;
+                }
+                writerParked = true;
+                // Checked again after publishing the flag, so a producer either sees it or its event is seen here
+                if (queue.size() == 0) {
+                    LockSupport.parkNanos(unflushed ? flushIntervalNanos - (now - lastFlush) : IDLE_PARK_NANOS);
+                }
+                writerParked = false;
+            }
+        }
+        flush();
+    }
+
+    private void write(Event event) {
+        encoded.clear();
+        encoded.putLong(event.time);
+        encoded.put((byte) event.type.getCode());
+        encoded.putLong(event.userId == null ? NO_USER : event.userId);
+        byte[] username = event.username == null ? new byte[0]
+                : event.username.substring(0, Math.min(event.username.length(), MAX_USERNAME_LENGTH))
+                        .getBytes(StandardCharsets.UTF_8);
+        encoded.putShort((short) username.length);
+        encoded.put(username);
+        encoded.flip();
+        try {
+            log.append(encoded);
+            written.increment();
+        } catch (IOException | RuntimeException e) {
+            writeErrors.increment();
+            logger.error("Could not write audit event {} of user {}: {}", event.type, event.userId, e.getMessage());
+        }
+    }
+
+    private void flush() {
+        try {
+            log.force();
+            flushes.increment();
+        } catch (RuntimeException e) {
+            writeErrors.increment();
+            logger.error("Could not flush the audit journal: {}", e.getMessage());
+        }
+    }
+
+    private static boolean matches(AuditEventDTO event, Long userId, AuditEventDTO.Type type, Instant from,
+            Instant to) {
+        return event != null
+                && (userId == null || userId.equals(event.getUserId()))
+                && (type == null || type == event.getType())
+                && (from == null || !event.getTime().isBefore(from))
+                && (to == null || event.getTime().isBefore(to));
+    }
+
+    /**
+     * Decodes an event, or returns {@code null} if its kind is unknown.
+     */
+    private static AuditEventDTO decode(ByteBuffer record) {
+        long time = record.getLong();
+        AuditEventDTO.Type type = AuditEventDTO.Type.fromCode(record.get());
+        if (type == null) {
+            return null;
+        }
+        long userId = record.getLong();
+        byte[] username = new byte[record.getShort()];
+        record.get(username);
+        return new AuditEventDTO(Instant.ofEpochMilli(time), type, userId == NO_USER ? null : userId,
+                username.length == 0 ? null : new String(username, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Event waiting for the writer.
+     */
+    private static final class Event {
+        private final long time;
+        private final AuditEventDTO.Type type;
+        private final Long userId;
+        private final String username;
+
+        private Event(long time, AuditEventDTO.Type type, Long userId, String username) {
+            this.time = time;
+            this.type = type;
+            this.userId = userId;
+            this.username = username;
+        }
+    }
+}
@@ -2,33 +2,73 @@ package com.sforce.sforcetrading.service;
 
 import com.sforce.sforcetrading.model.User;
 import com.sforce.sforcetrading.repository.UserRepository;
+import com.sforce.sforcetrading.util.ExpiringLruCache;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.core.userdetails.User.UserBuilder;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.springframework.security.core.userdetails.User.withUserDetails;
 import static org.springframework.security.core.userdetails.User.withUsername;
 
 /**
  * Service for loading user-specific data.
  * This service is used by Spring Security to retrieve user details during
- * authentication.
+ * authentication. Loaded user details are kept in a bounded cache that
+ * {@link UserService} invalidates whenever it changes a user, and usernames
+ * that do not exist are remembered for a short while so repeated lookups of
+ * unknown users do not reach the database. Both caches are keyed by the
+ * normalized username, as lookups ignore case. Cache misses are looked up in a
+ * read-only transaction, so they can be served by a read replica; what they
+ * load is not cached if a user was evicted meanwhile, as it may predate the
+ * change. Both caches are local to each node and only evicted on the node
+ * making a change, so their lifetimes are kept short: a password change or a
+ * deletion made on another node takes effect once the cached details expire.
  */
 @Service
 public class CustomUserDetailsService implements UserDetailsService {
 
     private final UserRepository userRepository;
+    private final TransactionTemplate readOnlyTransaction;
+    private final ExpiringLruCache<String, UserDetails> userDetailsCache;
+    private final ExpiringLruCache<String, Boolean> missingUsernames;
+    private final long cacheTtlMillis;
+    private final long negativeTtlMillis;
 
     /**
      * Constructs a new CustomUserDetailsService.
      *
-     * @param userRepository the user repository
+     * @param userRepository     the user repository
+     * @param transactionManager the transaction manager running the lookups
+     * @param cacheMaxEntries    the maximum number of cached user details, 0
+     *                           disables the cache
+     * @param cacheTtlSeconds    how long cached user details are reused
+     * @param negativeMaxEntries the maximum number of unknown usernames
+     *                           remembered, 0 disables the negative cache
+     * @param negativeTtlSeconds how long an unknown username is remembered
      */
     @Autowired
-    public CustomUserDetailsService(UserRepository userRepository) {
+    public CustomUserDetailsService(UserRepository userRepository, PlatformTransactionManager transactionManager,
+            @Value("${security.user-cache.max-entries:10000}") int cacheMaxEntries,
+            @Value("${security.user-cache.ttl-seconds:5}") long cacheTtlSeconds,
+            @Value("${security.user-cache.negative-max-entries:100000}") int negativeMaxEntries,
+            @Value("${security.user-cache.negative-ttl-seconds:30}") long negativeTtlSeconds) {
         this.userRepository = userRepository;
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+        this.userDetailsCache = new ExpiringLruCache<>(cacheMaxEntries);
+        this.missingUsernames = new ExpiringLruCache<>(negativeMaxEntries);
+        this.cacheTtlMillis = cacheTtlSeconds * 1000;
+        this.negativeTtlMillis = negativeTtlSeconds * 1000;
     }
 
     /**
@@ -41,13 +81,69 @@ public class CustomUserDetailsService implements UserDetailsService {
      */
     @Override
     public UserDetails loadUserByUsername(String username) throws UsernameNotFoundException {
-        User user = userRepository.findByUsername(username)
+        return findUserDetails(username)
                 .orElseThrow(() -> new UsernameNotFoundException("User not found with username: " + username));
+    }
 
-        UserBuilder builder = withUsername(user.getUsername());
-        builder.password(user.getPassword());
-        builder.roles("USER"); // Customize roles as needed
+    /**
+     * Finds the user details of a user without throwing when it does not exist.
+     *
+     * @param username the username identifying the user whose data is required
+     * @return an optional containing the user details, or empty if no such user
+     *         exists
+     */
+    public Optional<UserDetails> findUserDetails(String username) {
+        String key = User.normalizeLookupKey(username);
+        UserDetails cached = userDetailsCache.get(key);
+        if (cached == null) {
+            if (missingUsernames.get(key) != null) {
+                return Optional.empty();
+            }
+            long detailsStamp = userDetailsCache.stamp();
+            long missingStamp = missingUsernames.stamp();
+            Optional<User> user = readOnlyTransaction
+                    .execute(status -> userRepository.findCredentialsByUsernameNormalized(key));
+            if (user.isEmpty()) {
+                missingUsernames.putIfUnchanged(key, Boolean.TRUE, System.currentTimeMillis() + negativeTtlMillis,
+                        missingStamp);
+                return Optional.empty();
+            }
+
+            UserBuilder builder = withUsername(user.get().getUsername());
+            builder.password(user.get().getPassword());
+            builder.roles("USER"); // Customize roles as needed
+
+            cached = builder.build();
+            userDetailsCache.putIfUnchanged(key, cached, System.currentTimeMillis() + cacheTtlMillis, detailsStamp);
+        }
+        // Hand out a copy: Spring Security erases the credentials of the
+        // authenticated principal, which must not reach the cached instance
+        return Optional.of(withUserDetails(cached).build());
+    }
 
-        return builder.build();
+    /**
+     * Removes the cached user details of a user after it has been changed.
+     *
+     * @param username the username of the changed user
+     */
+    public void evict(String username) {
+        if (username != null) {
+            String key = User.normalizeLookupKey(username);
+            userDetailsCache.invalidate(key);
+            missingUsernames.invalidate(key);
+        }
+    }
+
+    /**
+     * Returns the current counters of the user details cache.
+     *
+     * @return a map with the size, capacity, hits, misses and evictions of the
+     *         user details cache and, prefixed with {@code negative.}, of the
+     *         unknown username cache
+     */
+    public Map<String, Long> getCacheStats() {
+        Map<String, Long> stats = new LinkedHashMap<>(userDetailsCache.getStats());
+        missingUsernames.getStats().forEach((name, value) -> stats.put("negative." + name, value));
+        return stats;
     }
 }
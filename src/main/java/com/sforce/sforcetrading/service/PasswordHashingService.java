@@ -0,0 +1,201 @@
+package com.sforce.sforcetrading.service;
+
+import com.sforce.sforcetrading.exception.PasswordHashingOverloadedException;
+
+import jakarta.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Service running password hashing and verification on a dedicated, bounded
+ * pool sized to the CPU.
+ * BCrypt is deliberately slow, so running it on request threads lets a login
+ * storm occupy every web worker. This pool caps the number of concurrent hashes
+ * and the number of waiting requests; once the queue is full new requests are
+ * rejected immediately with a {@link PasswordHashingOverloadedException}.
+ */
+@Service
+public class PasswordHashingService {
+
+    private final PasswordEncoder passwordEncoder;
+    private final ThreadPoolExecutor executor;
+    private final long retryAfterSeconds;
+
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder queueWaitNanos = new LongAdder();
+    private final LongAdder hashNanos = new LongAdder();
+
+    /**
+     * Constructs a new PasswordHashingService.
+     *
+     * @param passwordEncoder   the password encoder
+     * @param threads           the number of hashing threads, 0 uses one per
+     *                          available processor
+     * @param queueCapacity     the maximum number of requests waiting for a
+     *                          hashing thread
+     * @param retryAfterSeconds the retry delay suggested to rejected clients
+     */
+    @Autowired
+    public PasswordHashingService(PasswordEncoder passwordEncoder,
+            @Value("${security.password-hashing.threads:0}") int threads,
+            @Value("${security.password-hashing.queue-capacity:64}") int queueCapacity,
+            @Value("${security.password-hashing.retry-after-seconds:1}") long retryAfterSeconds) {
+        this.passwordEncoder = passwordEncoder;
+        this.retryAfterSeconds = retryAfterSeconds;
+        int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "password-hashing-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Verifies a raw password against an encoded password on the hashing pool.
+     *
+     * @param rawPassword     the raw password
+     * @param encodedPassword the stored encoded password
+     * @return a future completed with true if the passwords match
+     * @throws PasswordHashingOverloadedException if the hashing pool is saturated
+     */
+    public CompletableFuture<Boolean> matches(CharSequence rawPassword, String encodedPassword) {
+        return submit(() -> passwordEncoder.matches(rawPassword, encodedPassword));
+    }
+
+    /**
+     * Encodes a raw password on the hashing pool.
+     *
+     * @param rawPassword the raw password
+     * @return a future completed with the encoded password
+     * @throws PasswordHashingOverloadedException if the hashing pool is saturated
+     */
+    public CompletableFuture<String> encode(CharSequence rawPassword) {
+        return submit(() -> passwordEncoder.encode(rawPassword));
+    }
+
+    /**
+     * Encodes a batch of raw passwords in parallel, blocking until all are done.
+     * At most one password per hashing thread is in flight at a time, so a bulk
+     * import never fills the queue that interactive logins rely on; when the
+     * queue is already full, the password is hashed on the calling thread
+     * instead of being rejected.
+     *
+     * @param rawPasswords the raw passwords
+     * @return the encoded passwords, in the same order
+     */
+    public List<String> encodeAll(List<? extends CharSequence> rawPasswords) {
+        Semaphore inFlight = new Semaphore(executor.getMaximumPoolSize());
+        List<CompletableFuture<String>> futures = new ArrayList<>(rawPasswords.size());
+        for (CharSequence rawPassword : rawPasswords) {
+            inFlight.acquireUninterruptibly();
+            CompletableFuture<String> future;
+            try {
+                future = execute(() -> passwordEncoder.encode(rawPassword));
+            } catch (RejectedExecutionException e) {
+                future = CompletableFuture.completedFuture(passwordEncoder.encode(rawPassword));
+            }
+            future.whenComplete((encoded, failure) -> inFlight.release());
+            futures.add(future);
+        }
+        List<String> encoded = new ArrayList<>(futures.size());
+        for (CompletableFuture<String> future : futures) {
+            encoded.add(future.join());
+        }
+        return encoded;
+    }
+
+    /**
+     * Checks whether an encoded password was produced with outdated parameters
+     * and should be rehashed.
+     *
+     * @param encodedPassword the stored encoded password
+     * @return true if the password should be rehashed
+     */
+    public boolean needsRehash(String encodedPassword) {
+        return passwordEncoder.upgradeEncoding(encodedPassword);
+    }
+
+    /**
+     * Returns the current counters of the hashing pool.
+     *
+     * @return a map with the pool size, queue depth, completed and rejected
+     *         requests, and the average queue wait and hash time in microseconds
+     */
+    public Map<String, Long> getStats() {
+        long count = completed.sum();
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("poolSize", (long) executor.getMaximumPoolSize());
+        stats.put("active", (long) executor.getActiveCount());
+        stats.put("queueDepth", (long) executor.getQueue().size());
+        stats.put("queueCapacity", (long) (executor.getQueue().size() + executor.getQueue().remainingCapacity()));
+        stats.put("completed", count);
+        stats.put("rejected", rejected.sum());
+        stats.put("avgQueueWaitMicros", count == 0 ? 0 : queueWaitNanos.sum() / count / 1000);
+        stats.put("avgHashMicros", count == 0 ? 0 : hashNanos.sum() / count / 1000);
+        return stats;
+    }
+
+    /**
+     * Stops the hashing pool when the application shuts down.
+     */
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private <T> CompletableFuture<T> submit(Supplier<T> task) {
+        try {
+            return execute(task);
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            throw new PasswordHashingOverloadedException("Too many password requests, please retry later",
+                    retryAfterSeconds);
+        }
+    }
+
+    private <T> CompletableFuture<T> execute(Supplier<T> task) {
+        long submittedAt = System.nanoTime();
+        CompletableFuture<T> future = new CompletableFuture<>();
+        executor.execute(() -> {
+            long startedAt = System.nanoTime();
+            T result;
+            try {
+                result = task.get();
+            } catch (RuntimeException e) {
+                record(submittedAt, startedAt);
+                future.completeExceptionally(e);
+                return;
+            }
+            // Record before completing so dependent stages are not timed as hashing
+            record(submittedAt, startedAt);
+            future.complete(result);
+        });
+        return future;
+    }
+
+    private void record(long submittedAt, long startedAt) {
+        queueWaitNanos.add(startedAt - submittedAt);
+        hashNanos.add(System.nanoTime() - startedAt);
+        completed.increment();
+    }
+}
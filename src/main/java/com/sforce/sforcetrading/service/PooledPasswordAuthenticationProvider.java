@@ -0,0 +1,73 @@
+package com.sforce.sforcetrading.service;
+
+import com.sforce.sforcetrading.exception.PasswordHashingOverloadedException;
+
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.security.authentication.InternalAuthenticationServiceException;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.authentication.dao.AbstractUserDetailsAuthenticationProvider;
+import org.springframework.security.core.AuthenticationException;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+
+import java.util.concurrent.CompletionException;
+
+/**
+ * Authentication provider for username and password credentials, such as HTTP
+ * Basic, that verifies passwords on the {@link PasswordHashingService} pool
+ * instead of the request thread.
+ * The request thread still waits for the verification, but the number of
+ * concurrent hashes and waiting requests is bounded by the pool; once it is
+ * saturated the authentication fails with an
+ * {@link InternalAuthenticationServiceException} caused by a
+ * {@link PasswordHashingOverloadedException}. Like the login endpoint, an
+ * unknown username is rejected without hashing.
+ */
+public class PooledPasswordAuthenticationProvider extends AbstractUserDetailsAuthenticationProvider {
+
+    private final UserDirectory userDirectory;
+    private final PasswordHashingService passwordHashingService;
+
+    /**
+     * Constructs a new PooledPasswordAuthenticationProvider.
+     *
+     * @param userDirectory          the directory of every principal
+     * @param passwordHashingService the service verifying passwords
+     */
+    public PooledPasswordAuthenticationProvider(UserDirectory userDirectory,
+            PasswordHashingService passwordHashingService) {
+        this.userDirectory = userDirectory;
+        this.passwordHashingService = passwordHashingService;
+    }
+
+    @Override
+    protected UserDetails retrieveUser(String username, UsernamePasswordAuthenticationToken authentication)
+            throws AuthenticationException {
+        return userDirectory.findByUsername(username)
+                .orElseThrow(() -> new UsernameNotFoundException("User not found with username: " + username));
+    }
+
+    @Override
+    protected void additionalAuthenticationChecks(UserDetails userDetails,
+            UsernamePasswordAuthenticationToken authentication) throws AuthenticationException {
+        if (authentication.getCredentials() == null || userDetails.getPassword() == null) {
+            throw new BadCredentialsException(badCredentials());
+        }
+        boolean matches;
+        try {
+            matches = passwordHashingService.matches(authentication.getCredentials().toString(),
+                    userDetails.getPassword()).join();
+        } catch (PasswordHashingOverloadedException e) {
+            throw new InternalAuthenticationServiceException(e.getMessage(), e);
+        } catch (CompletionException e) {
+            throw new InternalAuthenticationServiceException(e.getCause().getMessage(), e.getCause());
+        }
+        if (!matches) {
+            throw new BadCredentialsException(badCredentials());
+        }
+    }
+
+    private String badCredentials() {
+        return messages.getMessage("AbstractUserDetailsAuthenticationProvider.badCredentials", "Bad credentials");
+    }
+}
@@ -0,0 +1,123 @@
+package com.sforce.sforcetrading.service;
+
+import com.sforce.sforcetrading.model.User;
+import com.sforce.sforcetrading.repository.UserRepository;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Service keeping the current token version of each user in memory.
+ * A JWT token is only accepted while the version embedded in it matches the
+ * current version of its user, so bumping the version revokes every token
+ * issued before. The version is persisted on the user row; each node keeps
+ * what it read for {@code security.token-version.ttl-seconds}, so a revocation
+ * made on another node is seen here within that time. Refreshing a token
+ * always reads the version from the database.
+ */
+@Service
+public class TokenVersionService {
+
+    private static final long REVOKED = -1L;
+
+    private final UserRepository userRepository;
+    private final long ttlNanos;
+    private final Map<Long, Entry> versions = new ConcurrentHashMap<>();
+
+    /**
+     * Constructs a new TokenVersionService.
+     *
+     * @param userRepository the user repository
+     * @param ttlSeconds     how long a version read from the database is trusted
+     */
+    @Autowired
+    public TokenVersionService(UserRepository userRepository,
+            @Value("${security.token-version.ttl-seconds:5}") long ttlSeconds) {
+        this.userRepository = userRepository;
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+    }
+
+    /**
+     * Checks whether a token version is still the current one for the user.
+     *
+     * @param userId       the ID of the user the token was issued to
+     * @param tokenVersion the token version embedded in the token
+     * @return true if the token has not been revoked, false otherwise
+     */
+    public boolean isCurrent(Long userId, long tokenVersion) {
+        Entry entry = versions.get(userId);
+        if (entry == null || System.nanoTime() - entry.loadedAt >= ttlNanos) {
+            entry = load(userId, entry);
+        }
+        return entry.version != REVOKED && entry.version == tokenVersion;
+    }
+
+    /**
+     * Checks whether a token version is still the current one for the user,
+     * reading the version from the database. Used before minting new tokens,
+     * so a token revoked on another node cannot be exchanged.
+     *
+     * @param userId       the ID of the user the token was issued to
+     * @param tokenVersion the token version embedded in the token
+     * @return true if the token has not been revoked, false otherwise
+     */
+    public boolean isCurrentInDatabase(Long userId, long tokenVersion) {
+        long current = load(userId, versions.get(userId)).version;
+        return current != REVOKED && current == tokenVersion;
+    }
+
+    /**
+     * Increments the token version of the user, revoking every token issued
+     * before. The new version is written to the user entity and must be saved by
+     * the caller.
+     *
+     * @param user the user whose tokens are revoked
+     */
+    public void bump(User user) {
+        user.setTokenVersion(user.getTokenVersion() + 1);
+    }
+
+    /**
+     * Publishes the token version of a saved user to the in-memory table.
+     *
+     * @param user the saved user
+     */
+    public void publish(User user) {
+        if (user.getId() != null) {
+            versions.put(user.getId(), new Entry(user.getTokenVersion(), System.nanoTime()));
+        }
+    }
+
+    /**
+     * Revokes every token of a deleted user.
+     *
+     * @param userId the ID of the deleted user
+     */
+    public void revokeAll(Long userId) {
+        versions.put(userId, new Entry(REVOKED, System.nanoTime()));
+    }
+
+    // Reads outside the map, and only replaces the entry seen before, so a
+    // version published meanwhile is not overwritten with an older read
+    private Entry load(Long userId, Entry seen) {
+        Entry loaded = new Entry(userRepository.findTokenVersionById(userId).orElse(REVOKED), System.nanoTime());
+        boolean stored = seen == null ? versions.putIfAbsent(userId, loaded) == null
+                : versions.replace(userId, seen, loaded);
+        return stored ? loaded : versions.getOrDefault(userId, loaded);
+    }
+
+    private static final class Entry {
+        private final long version;
+        private final long loadedAt;
+
+        private Entry(long version, long loadedAt) {
+            this.version = version;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
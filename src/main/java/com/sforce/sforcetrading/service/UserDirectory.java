@@ -0,0 +1,65 @@
+package com.sforce.sforcetrading.service;
+
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UserDetailsService;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+import org.springframework.security.provisioning.InMemoryUserDetailsManager;
+
+import java.util.Optional;
+
+/**
+ * Single directory of every principal that can authenticate.
+ * The in-memory administrator accounts are checked first, without touching the
+ * database, then the application users through
+ * {@link CustomUserDetailsService}, whose negative cache absorbs repeated
+ * lookups of unknown usernames. Lookups return an {@link Optional}; an
+ * exception is only raised at the {@link UserDetailsService} boundary required
+ * by Spring Security.
+ */
+public class UserDirectory implements UserDetailsService {
+
+    private final InMemoryUserDetailsManager inMemoryUserDetailsManager;
+    private final CustomUserDetailsService customUserDetailsService;
+
+    /**
+     * Constructs a new UserDirectory.
+     *
+     * @param inMemoryUserDetailsManager the in-memory administrator accounts
+     * @param customUserDetailsService   the service loading application users
+     */
+    public UserDirectory(InMemoryUserDetailsManager inMemoryUserDetailsManager,
+            CustomUserDetailsService customUserDetailsService) {
+        this.inMemoryUserDetailsManager = inMemoryUserDetailsManager;
+        this.customUserDetailsService = customUserDetailsService;
+    }
+
+    /**
+     * Finds a principal by username.
+     *
+     * @param username the username
+     * @return an optional containing the user details, or empty if no principal
+     *         has this username
+     */
+    public Optional<UserDetails> findByUsername(String username) {
+        if (username == null) {
+            return Optional.empty();
+        }
+        if (inMemoryUserDetailsManager.userExists(username)) {
+            return Optional.of(inMemoryUserDetailsManager.loadUserByUsername(username));
+        }
+        return customUserDetailsService.findUserDetails(username);
+    }
+
+    /**
+     * Loads the user by username.
+     *
+     * @param username the username identifying the user whose data is required
+     * @return a fully populated UserDetails object (never {@code null})
+     * @throws UsernameNotFoundException if no principal has this username
+     */
+    @Override
+    public UserDetails loadUserByUsername(String username) throws UsernameNotFoundException {
+        return findByUsername(username)
+                .orElseThrow(() -> new UsernameNotFoundException("User not found with username: " + username));
+    }
+}
@@ -0,0 +1,326 @@
+package com.sforce.sforcetrading.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.sforce.sforcetrading.dto.AuditEventDTO;
+import com.sforce.sforcetrading.dto.UserCreateDTO;
+import com.sforce.sforcetrading.dto.UserImportResultDTO;
+import com.sforce.sforcetrading.model.User;
+import com.sforce.sforcetrading.repository.UserRepository;
+
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Service importing users in bulk from CSV or newline-delimited JSON.
+ * The input is read as a stream and processed in chunks: each chunk is checked
+ * for existing emails and usernames with a single query, its passwords are
+ * hashed in parallel on the password hashing pool, and its users are inserted
+ * with batched JDBC writes in one transaction. Rows that cannot be imported
+ * are reported individually instead of aborting the import.
+ */
+@Service
+public class UserImportService {
+
+    private static final Logger logger = LoggerFactory.getLogger(UserImportService.class);
+
+    /**
+     * Supported import formats.
+     */
+    public enum Format {
+        /**
+         * Comma separated values with a header row naming the columns after the
+         * fields of {@link UserCreateDTO}.
+         */
+        CSV,
+        /**
+         * One JSON {@link UserCreateDTO} per line.
+         */
+        NDJSON
+    }
+
+    private final UserRepository userRepository;
+    private final PasswordHashingService passwordHashingService;
+    private final CustomUserDetailsService customUserDetailsService;
+    private final UserSearchIndex userSearchIndex;
+    private final AuditJournal auditJournal;
+    private final TransactionTemplate transactionTemplate;
+    private final Validator validator;
+    private final ObjectReader userReader;
+    private final int chunkSize;
+    private final int maxReportedErrors;
+
+    /**
+     * Constructs a new UserImportService.
+     *
+     * @param userRepository           the user repository
+     * @param passwordHashingService   the service hashing the passwords
+     * @param customUserDetailsService the user details service whose cache is
+     *                                 invalidated for imported users
+     * @param userSearchIndex          the search index imported users are added
+     *                                 to
+     * @param auditJournal             the journal imports are recorded in
+     * @param transactionTemplate      the template running each chunk in a
+     *                                 transaction
+     * @param validator                the validator checking each row
+     * @param objectMapper             the object mapper reading JSON rows
+     * @param chunkSize                the number of users inserted per
+     *                                 transaction
+     * @param maxReportedErrors        the maximum number of row errors listed in
+     *                                 the result
+     */
+    @Autowired
+    public UserImportService(UserRepository userRepository, PasswordHashingService passwordHashingService,
+            CustomUserDetailsService customUserDetailsService, UserSearchIndex userSearchIndex,
+            AuditJournal auditJournal, TransactionTemplate transactionTemplate,
+            Validator validator, ObjectMapper objectMapper,
+            @Value("${user-import.chunk-size:500}") int chunkSize,
+            @Value("${user-import.max-reported-errors:1000}") int maxReportedErrors) {
+        this.userRepository = userRepository;
+        this.passwordHashingService = passwordHashingService;
+        this.customUserDetailsService = customUserDetailsService;
+        this.userSearchIndex = userSearchIndex;
+        this.auditJournal = auditJournal;
+        this.transactionTemplate = transactionTemplate;
+        this.validator = validator;
+        this.userReader = objectMapper.readerFor(UserCreateDTO.class);
+        this.chunkSize = chunkSize;
+        this.maxReportedErrors = maxReportedErrors;
+    }
+
+    /**
+     * Imports the users of a CSV or NDJSON stream.
+     *
+     * @param input  the stream to import, read as UTF-8
+     * @param format the format of the stream
+     * @return the number of imported users and the errors of the rejected rows
+     * @throws IOException if the stream cannot be read
+     */
+    public UserImportResultDTO importUsers(InputStream input, Format format) throws IOException {
+        UserImportResultDTO result = new UserImportResultDTO(maxReportedErrors);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+        Set<String> seenEmails = new HashSet<>();
+        Set<String> seenUsernames = new HashSet<>();
+        List<Row> chunk = new ArrayList<>(chunkSize);
+
+        long lineNumber = 0;
+        List<String> header = null;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (line.isBlank()) {
+                continue;
+            }
+            if (format == Format.CSV && header == null) {
+                header = parseCsvLine(line);
+                continue;
+            }
+
+            UserCreateDTO user;
+            try {
+                user = format == Format.CSV ? fromCsv(header, parseCsvLine(line)) : userReader.readValue(line);
+            } catch (JsonProcessingException | IllegalArgumentException e) {
+                result.reject(lineNumber, "Malformed row");
+                continue;
+            }
+            Set<ConstraintViolation<UserCreateDTO>> violations = validator.validate(user);
+            if (!violations.isEmpty()) {
+                result.reject(lineNumber, violations.stream()
+                        .map(ConstraintViolation::getMessage)
+                        .sorted()
+                        .collect(Collectors.joining("; ")));
+                continue;
+            }
+            String email = User.normalizeLookupKey(user.getEmail());
+            String username = User.normalizeLookupKey(user.getUsername());
+            if (seenEmails.contains(email) || seenUsernames.contains(username)) {
+                result.reject(lineNumber, "Duplicate email or username within the import");
+                continue;
+            }
+            seenEmails.add(email);
+            seenUsernames.add(username);
+
+            chunk.add(new Row(lineNumber, user, email, username));
+            if (chunk.size() == chunkSize) {
+                importChunk(chunk, result);
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            importChunk(chunk, result);
+        }
+        logger.info("Imported {} users, rejected {} rows", result.getImported(), result.getRejected());
+        return result;
+    }
+
+    private void importChunk(List<Row> chunk, UserImportResultDTO result) {
+        Set<String> emails = chunk.stream().map(row -> row.email).collect(Collectors.toSet());
+        Set<String> usernames = chunk.stream().map(row -> row.username).collect(Collectors.toSet());
+        Set<String> takenEmails = new HashSet<>();
+        Set<String> takenUsernames = new HashSet<>();
+        for (Object[] taken : userRepository.findTakenEmailsAndUsernames(emails, usernames)) {
+            takenEmails.add((String) taken[0]);
+            takenUsernames.add((String) taken[1]);
+        }
+
+        List<Row> rows = new ArrayList<>(chunk.size());
+        for (Row row : chunk) {
+            if (takenEmails.contains(row.email) || takenUsernames.contains(row.username)) {
+                result.reject(row.line, "A user with the same email or username already exists.");
+            } else {
+                rows.add(row);
+            }
+        }
+        if (rows.isEmpty()) {
+            return;
+        }
+
+        List<String> hashes = passwordHashingService.encodeAll(
+                rows.stream().map(row -> row.user.getPassword()).collect(Collectors.toList()));
+        for (int i = 0; i < rows.size(); i++) {
+            rows.get(i).passwordHash = hashes.get(i);
+        }
+
+        try {
+            List<User> saved = transactionTemplate.execute(status -> userRepository.saveAllAndFlush(
+                    rows.stream().map(UserImportService::toUser).collect(Collectors.toList())));
+            result.addImported(rows.size());
+            rows.forEach(row -> customUserDetailsService.evict(row.user.getUsername()));
+            saved.forEach(user -> {
+                userSearchIndex.put(user);
+                auditJournal.record(AuditEventDTO.Type.IMPORTED, user.getId(), user.getUsername());
+            });
+        } catch (DataIntegrityViolationException e) {
+            // A user registered concurrently; insert one by one to find the rows involved
+            for (Row row : rows) {
+                try {
+                    User saved = transactionTemplate.execute(status -> userRepository.saveAndFlush(toUser(row)));
+                    result.addImported(1);
+                    customUserDetailsService.evict(row.user.getUsername());
+                    userSearchIndex.put(saved);
+                    auditJournal.record(AuditEventDTO.Type.IMPORTED, saved.getId(), saved.getUsername());
+                } catch (DataIntegrityViolationException rowFailure) {
+                    result.reject(row.line, "A user with the same email or username already exists.");
+                }
+            }
+        }
+    }
+
+    private static User toUser(Row row) {
+        UserCreateDTO dto = row.user;
+        User user = new User();
+        user.setFirstName(dto.getFirstName());
+        user.setLastName(dto.getLastName());
+        user.setEmail(dto.getEmail());
+        user.setUsername(dto.getUsername());
+        user.setPassword(row.passwordHash);
+        user.setPhone(dto.getPhone());
+        user.setAddressLine1(dto.getAddressLine1());
+        user.setAddressLine2(dto.getAddressLine2());
+        user.setCity(dto.getCity());
+        user.setState(dto.getState());
+        user.setZipCode(dto.getZipCode());
+        user.setCountry(dto.getCountry());
+        return user;
+    }
+
+    private static UserCreateDTO fromCsv(List<String> header, List<String> values) {
+        if (values.size() != header.size()) {
+            throw new IllegalArgumentException("Expected " + header.size() + " columns");
+        }
+        UserCreateDTO user = new UserCreateDTO();
+        for (int i = 0; i < header.size(); i++) {
+            String value = values.get(i).isEmpty() ? null : values.get(i);
+            switch (header.get(i).trim().toLowerCase(Locale.ROOT)) {
+                case "firstname" -> user.setFirstName(value);
+                case "lastname" -> user.setLastName(value);
+                case "email" -> user.setEmail(value);
+                case "username" -> user.setUsername(value);
+                case "password" -> user.setPassword(value);
+                case "phone" -> user.setPhone(value);
+                case "addressline1" -> user.setAddressLine1(value);
+                case "addressline2" -> user.setAddressLine2(value);
+                case "city" -> user.setCity(value);
+                case "state" -> user.setState(value);
+                case "zipcode" -> user.setZipCode(value);
+                case "country" -> user.setCountry(value);
+                default -> {
+                    // Unknown columns are ignored
+                }
+            }
+        }
+        return user;
+    }
+
+    /**
+     * Splits a CSV line into its values. Values may be quoted to contain commas,
+     * with quotes inside quoted values doubled; values spanning several lines are
+     * not supported.
+     */
+    private static List<String> parseCsvLine(String line) {
+        List<String> values = new ArrayList<>();
+        StringBuilder value = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    value.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    value.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                values.add(value.toString());
+                value.setLength(0);
+            } else {
+                value.append(c);
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("Unterminated quoted value");
+        }
+        values.add(value.toString());
+        return values;
+    }
+
+    private static final class Row {
+        private final long line;
+        private final UserCreateDTO user;
+        private final String email;
+        private final String username;
+        private String passwordHash;
+
+        private Row(long line, UserCreateDTO user, String email, String username) {
+            this.line = line;
+            this.user = user;
+            this.email = email;
+            this.username = username;
+        }
+    }
+}
@@ -0,0 +1,445 @@
+package com.sforce.sforcetrading.service;
+
+import com.sforce.sforcetrading.dto.UserDTO;
+import com.sforce.sforcetrading.dto.UserSummaryDTO;
+import com.sforce.sforcetrading.model.User;
+import com.sforce.sforcetrading.repository.UserRepository;
+import com.sforce.sforcetrading.util.TransactionCallbacks;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * In-memory index answering "search as you type" queries on the username,
+ * email, first name and last name of every user.
+ * Each field has a sorted map from the words of that field, normalized like
+ * the lookup keys, to the users having them. Words are ordered by length first,
+ * so the words starting with the query are visited from the closest completion
+ * up, one length at a time, and the search stops at the first length by which
+ * enough users were found; the cost depends on the number of results rather
+ * than the number of users. The full name is indexed as well, so a query
+ * typed as "first last" is answered like a single word rather than by
+ * filtering every user with that first name. Results are ranked by the length
+ * of the matching word, then by field (username, last name, first name, full
+ * name, email), then
+ * alphabetically by word and username.
+ * The index is built from the database at startup and kept up to date by
+ * {@link UserService} as users are created, changed and deleted; changes made
+ * within a transaction are applied once it commits.
+ */
+@Service
+public class UserSearchIndex implements ApplicationRunner {
+
+    private static final Logger logger = LoggerFactory.getLogger(UserSearchIndex.class);
+
+    /**
+     * Fields users are searched by, in ranking order.
+     */
+    private enum Field {
+        USERNAME, LAST_NAME, FIRST_NAME, FULL_NAME, EMAIL
+    }
+
+    private static final Comparator<String> SHORTEST_FIRST = Comparator.comparingInt(String::length)
+            .thenComparing(Comparator.naturalOrder());
+    private static final Comparator<Entry> BY_USERNAME = Comparator.comparing((Entry entry) -> entry.sortKey)
+            .thenComparingLong(entry -> entry.id);
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    private static final Entry[] NO_ENTRIES = new Entry[0];
+
+    private final UserRepository userRepository;
+    private final TransactionTemplate transactionTemplate;
+    private volatile Map<Field, ConcurrentSkipListMap<String, Entry[]>> words = newWords();
+    private volatile Map<Long, Entry> users = new ConcurrentHashMap<>();
+    private final Object writeLock = new Object();
+    // Changes made while the index is rebuilt, applied again to the rebuilt index
+    private List<Runnable> changesWhileRebuilding;
+
+    private final LongAdder wordCount = new LongAdder();
+    private final LongAdder searches = new LongAdder();
+    private final LongAdder searchNanos = new LongAdder();
+    private volatile long buildMillis;
+
+    /**
+     * Constructs a new UserSearchIndex.
+     *
+     * @param userRepository     the user repository the index is built from
+     * @param transactionManager the transaction manager reading the users at
+     *                           startup
+     */
+    @Autowired
+    public UserSearchIndex(UserRepository userRepository, PlatformTransactionManager transactionManager) {
+        this.userRepository = userRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * Builds the index from the database at startup. The users are read from
+     * the primary, not a read replica that may lag behind the writes indexed
+     * from then on.
+     *
+     * @param args the application arguments
+     */
+    @Override
+    public void run(ApplicationArguments args) {
+        transactionTemplate.executeWithoutResult(status -> {
+            try (Stream<UserDTO> all = userRepository.streamAll()) {
+                rebuild(all);
+            }
+        });
+        logger.info("Indexed {} users for search in {} ms", users.size(), buildMillis);
+    }
+
+    /**
+     * Replaces the content of the index with the given users. The new index is
+     * built aside, each word's users sorted once, while searches keep using
+     * the current one; changes made in the meantime are then applied to it, so
+     * users changed or deleted while it was built are not reverted.
+     *
+     * @param all every user
+     */
+    public void rebuild(Stream<UserDTO> all) {
+        long start = System.nanoTime();
+        synchronized (writeLock) {
+            changesWhileRebuilding = new ArrayList<>();
+        }
+        Map<Long, Entry> rebuiltUsers = new ConcurrentHashMap<>();
+        all.forEach(user -> rebuiltUsers.put(user.getId(), new Entry(user.getId(), user.getVersion(),
+                user.getUsername(), user.getEmail(), user.getFirstName(), user.getLastName())));
+
+        Map<Field, ConcurrentSkipListMap<String, Entry[]>> rebuiltWords = new EnumMap<>(Field.class);
+        long rebuiltWordCount = 0;
+        for (Field field : Field.values()) {
+            Map<String, List<Entry>> entriesByWord = new HashMap<>();
+            for (Entry entry : rebuiltUsers.values()) {
+                for (String word : entry.words(field)) {
+                    entriesByWord.computeIfAbsent(word, key -> new ArrayList<>(1)).add(entry);
+                }
+            }
+            SortedMap<String, Entry[]> sorted = new TreeMap<>(SHORTEST_FIRST);
+            entriesByWord.forEach((word, entries) -> {
+                entries.sort(BY_USERNAME);
+                sorted.put(word, entries.toArray(NO_ENTRIES));
+            });
+            rebuiltWords.put(field, new ConcurrentSkipListMap<>(sorted));
+            rebuiltWordCount += sorted.size();
+        }
+
+        synchronized (writeLock) {
+            words = rebuiltWords;
+            users = rebuiltUsers;
+            wordCount.reset();
+            wordCount.add(rebuiltWordCount);
+            List<Runnable> changes = changesWhileRebuilding;
+            changesWhileRebuilding = null;
+            changes.forEach(Runnable::run);
+        }
+        buildMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    /**
+     * Adds a user to the index, or replaces the indexed one, once the current
+     * transaction commits.
+     *
+     * @param user the created or changed user
+     */
+    public void put(User user) {
+        Entry entry = new Entry(user.getId(), user.getVersion(), user.getUsername(), user.getEmail(),
+                user.getFirstName(), user.getLastName());
+        TransactionCallbacks.afterCommit(() -> write(entry));
+    }
+
+    /**
+     * Removes a user from the index once the current transaction commits.
+     *
+     * @param userId the ID of the deleted user
+     */
+    public void remove(Long userId) {
+        TransactionCallbacks.afterCommit(() -> delete(userId));
+    }
+
+    /**
+     * Finds the users having a username, email, first name or last name word
+     * starting with the query, ignoring case. When the query has several words,
+     * users must have a word starting with each of them; those whose full
+     * name starts with the query come first.
+     *
+     * @param query the text typed so far
+     * @param limit the maximum number of users to return
+     * @return the best ranked users, at most {@code limit}
+     */
+    public List<UserSummaryDTO> search(String query, int limit) {
+        long start = System.nanoTime();
+        List<String> terms = query == null ? new ArrayList<>()
+                : Arrays.stream(WHITESPACE.split(User.normalizeLookupKey(query)))
+                        .filter(term -> !term.isEmpty())
+                        .collect(Collectors.toCollection(ArrayList::new));
+        Map<Long, Entry> found = new LinkedHashMap<>();
+        if (terms.size() > 1) {
+            collect(words, String.join(" ", terms), List.of(), limit, found);
+        }
+        if (!terms.isEmpty() && found.size() < limit) {
+            // The longest term narrows the candidates most; the others filter them
+            String prefix = terms.stream().max(Comparator.comparingInt(String::length)).get();
+            terms.remove(prefix);
+            collect(words, prefix, terms, limit, found);
+        }
+        searches.increment();
+        searchNanos.add(System.nanoTime() - start);
+        return found.values().stream().map(Entry::toSummary).collect(Collectors.toList());
+    }
+
+    private static void collect(Map<Field, ConcurrentSkipListMap<String, Entry[]>> words, String prefix,
+            List<String> filters, int limit, Map<Long, Entry> found) {
+        int length = prefix.length();
+        while (found.size() < limit) {
+            // Skip the lengths no word starting with the prefix has
+            int nextLength = Integer.MAX_VALUE;
+            String lowest = pad(prefix, length, Character.MIN_VALUE);
+            for (ConcurrentSkipListMap<String, Entry[]> fieldWords : words.values()) {
+                String next = fieldWords.ceilingKey(lowest);
+                if (next != null) {
+                    nextLength = Math.min(nextLength, next.length());
+                }
+            }
+            if (nextLength == Integer.MAX_VALUE) {
+                return;
+            }
+            length = nextLength;
+            String from = pad(prefix, length, Character.MIN_VALUE);
+            String to = pad(prefix, length, Character.MAX_VALUE);
+            // Words and their users are both sorted, so they are visited in rank order
+            for (Field field : Field.values()) {
+                for (Entry[] entries : words.get(field).subMap(from, true, to, true).values()) {
+                    for (Entry entry : entries) {
+                        if (found.size() == limit) {
+                            return;
+                        }
+                        if (!found.containsKey(entry.id) && entry.matchesAll(filters)) {
+                            found.put(entry.id, entry);
+                        }
+                    }
+                }
+            }
+            length++;
+        }
+    }
+
+    /**
+     * Returns the size of the index and the search counters.
+     *
+     * @return a map with the number of users and distinct words indexed, the
+     *         number of searches and their average time, and the time the last
+     *         build took
+     */
+    public Map<String, Long> getStats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        long count = searches.sum();
+        stats.put("users", (long) users.size());
+        stats.put("words", wordCount.sum());
+        stats.put("searches", count);
+        stats.put("averageSearchMicros", count == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(searchNanos.sum() / count));
+        stats.put("buildMillis", buildMillis);
+        return stats;
+    }
+
+    private static Map<Field, ConcurrentSkipListMap<String, Entry[]>> newWords() {
+        Map<Field, ConcurrentSkipListMap<String, Entry[]>> words = new EnumMap<>(Field.class);
+        for (Field field : Field.values()) {
+            words.put(field, new ConcurrentSkipListMap<>(SHORTEST_FIRST));
+        }
+        return words;
+    }
+
+    private void write(Entry entry) {
+        synchronized (writeLock) {
+            if (changesWhileRebuilding != null) {
+                changesWhileRebuilding.add(() -> write(entry));
+            }
+            Entry previous = users.get(entry.id);
+            if (previous != null && previous.version > entry.version) {
+                // Changes can commit out of order; keep the latest state
+                return;
+            }
+            if (previous != null) {
+                unlink(previous);
+            }
+            link(entry);
+            users.put(entry.id, entry);
+        }
+    }
+
+    private void delete(Long userId) {
+        synchronized (writeLock) {
+            if (changesWhileRebuilding != null) {
+                changesWhileRebuilding.add(() -> delete(userId));
+            }
+            Entry previous = users.remove(userId);
+            if (previous != null) {
+                unlink(previous);
+            }
+        }
+    }
+
+    private void link(Entry entry) {
+        for (Field field : Field.values()) {
+            ConcurrentSkipListMap<String, Entry[]> fieldWords = words.get(field);
+            for (String word : entry.words(field)) {
+                Entry[] current = fieldWords.getOrDefault(word, NO_ENTRIES);
+                int index = Arrays.binarySearch(current, entry, BY_USERNAME);
+                if (index >= 0) {
+                    continue;
+                }
+                index = -(index + 1);
+                Entry[] updated = new Entry[current.length + 1];
+                System.arraycopy(current, 0, updated, 0, index);
+                updated[index] = entry;
+                System.arraycopy(current, index, updated, index + 1, current.length - index);
+                fieldWords.put(word, updated);
+                if (current.length == 0) {
+                    wordCount.increment();
+                }
+            }
+        }
+    }
+
+    private void unlink(Entry entry) {
+        for (Field field : Field.values()) {
+            ConcurrentSkipListMap<String, Entry[]> fieldWords = words.get(field);
+            for (String word : entry.words(field)) {
+                Entry[] current = fieldWords.get(word);
+                int index = current == null ? -1 : Arrays.binarySearch(current, entry, BY_USERNAME);
+                if (index < 0) {
+                    continue;
+                }
+                if (current.length == 1) {
+                    fieldWords.remove(word);
+                    wordCount.decrement();
+                    continue;
+                }
+                Entry[] updated = new Entry[current.length - 1];
+                System.arraycopy(current, 0, updated, 0, index);
+                System.arraycopy(current, index + 1, updated, index, updated.length - index);
+                fieldWords.put(word, updated);
+            }
+        }
+    }
+
+    /**
+     * Pads the prefix to the given length, giving the lowest or highest word of
+     * that length starting with it.
+     */
+    private static String pad(String prefix, int length, char padding) {
+        return prefix + String.valueOf(padding).repeat(length - prefix.length());
+    }
+
+    /**
+     * Indexed state of a user.
+     */
+    private static final class Entry {
+        private final long id;
+        private final long version;
+        private final String username;
+        private final String email;
+        private final String firstName;
+        private final String lastName;
+        private final String sortKey;
+        // Words of each field, by field ordinal, split once since every search filtering on them reads them
+        private final String[][] words = new String[Field.values().length][];
+
+        private Entry(Long id, Long version, String username, String email, String firstName, String lastName) {
+            this.id = id;
+            this.version = version == null ? 0 : version;
+            this.username = username;
+            this.email = email;
+            this.firstName = firstName;
+            this.lastName = lastName;
+            this.sortKey = User.normalizeLookupKey(username);
+            words[Field.USERNAME.ordinal()] = split(Field.USERNAME, username);
+            words[Field.LAST_NAME.ordinal()] = split(Field.LAST_NAME, lastName);
+            words[Field.FIRST_NAME.ordinal()] = split(Field.FIRST_NAME, firstName);
+            words[Field.FULL_NAME.ordinal()] = firstName == null || lastName == null ? new String[0]
+                    : split(Field.FULL_NAME, firstName + " " + lastName);
+            words[Field.EMAIL.ordinal()] = split(Field.EMAIL, email);
+        }
+
+        private String[] words(Field field) {
+            return words[field.ordinal()];
+        }
+
+        /**
+         * Returns the words of a field: the whole username and email, the full
+         * name with single spaces, and each word of the names, along with the
+         * parts of hyphenated ones.
+         */
+        private static String[] split(Field field, String value) {
+            String normalized = User.normalizeLookupKey(value);
+            if (normalized == null || normalized.isEmpty()) {
+                return new String[0];
+            }
+            if (field == Field.USERNAME || field == Field.EMAIL) {
+                return new String[] { normalized };
+            }
+            if (field == Field.FULL_NAME) {
+                return new String[] { String.join(" ", WHITESPACE.split(normalized)) };
+            }
+            Set<String> words = new LinkedHashSet<>();
+            for (String word : WHITESPACE.split(normalized)) {
+                words.add(word);
+                if (word.indexOf('-') >= 0) {
+                    Arrays.stream(word.split("-")).filter(part -> !part.isEmpty()).forEach(words::add);
+                }
+            }
+            return words.toArray(new String[0]);
+        }
+
+        private boolean matchesAll(List<String> prefixes) {
+            for (String prefix : prefixes) {
+                if (!matches(prefix)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean matches(String prefix) {
+            for (String[] fieldWords : words) {
+                for (String word : fieldWords) {
+                    if (word.startsWith(prefix)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        private UserSummaryDTO toSummary() {
+            return new UserSummaryDTO(id, username, email, firstName, lastName);
+        }
+    }
+}
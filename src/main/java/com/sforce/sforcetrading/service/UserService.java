@@ -1,18 +1,34 @@
 package com.sforce.sforcetrading.service;
 
+import com.sforce.sforcetrading.dto.AuditEventDTO;
 import com.sforce.sforcetrading.dto.UserDTO;
+import com.sforce.sforcetrading.dto.UserPatchDTO;
+import com.sforce.sforcetrading.dto.UserSummaryDTO;
+import com.sforce.sforcetrading.exception.PasswordHashingOverloadedException;
 import com.sforce.sforcetrading.model.User;
 import com.sforce.sforcetrading.repository.UserRepository;
+import com.sforce.sforcetrading.util.TransactionCallbacks;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.security.core.userdetails.User.UserBuilder;
 import org.springframework.security.core.userdetails.UserDetails;
-import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.nio.CharBuffer;
+import java.util.Arrays;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -30,18 +46,45 @@ public class UserService {
     private UserRepository userRepository;
 
     @Autowired
-    private PasswordEncoder passwordEncoder;
+    private PasswordHashingService passwordHashingService;
+
+    @Autowired
+    private TokenVersionService tokenVersionService;
+
+    @Autowired
+    private CustomUserDetailsService customUserDetailsService;
+
+    @Autowired
+    private UserSearchIndex userSearchIndex;
+
+    @Autowired
+    private AuditJournal auditJournal;
 
     /**
      * Constructs a new UserService.
      *
-     * @param userRepository  the user repository
-     * @param passwordEncoder the password encoder
+     * @param userRepository           the user repository
+     * @param passwordHashingService   the service hashing and verifying
+     *                                 passwords off the request threads
+     * @param tokenVersionService      the service revoking JWT tokens of changed
+     *                                 users
+     * @param customUserDetailsService the user details service whose cache is
+     *                                 invalidated on changes
+     * @param userSearchIndex          the search index kept up to date with the
+     *                                 changes
+     * @param auditJournal             the journal account events are recorded
+     *                                 in
      */
     @Autowired
-    public UserService(UserRepository userRepository, PasswordEncoder passwordEncoder) {
+    public UserService(UserRepository userRepository, PasswordHashingService passwordHashingService,
+            TokenVersionService tokenVersionService, CustomUserDetailsService customUserDetailsService,
+            UserSearchIndex userSearchIndex, AuditJournal auditJournal) {
         this.userRepository = userRepository;
-        this.passwordEncoder = passwordEncoder;
+        this.passwordHashingService = passwordHashingService;
+        this.tokenVersionService = tokenVersionService;
+        this.customUserDetailsService = customUserDetailsService;
+        this.userSearchIndex = userSearchIndex;
+        this.auditJournal = auditJournal;
     }
 
     /**
@@ -50,6 +93,7 @@ public class UserService {
      * @param id
      * @return the user
      */
+    @Transactional(readOnly = true)
     public User getUserById(Long id) {
         return userRepository.findById(id)
                 .orElseThrow(() -> new IllegalArgumentException("User not found with ID: " + id));
@@ -60,34 +104,116 @@ public class UserService {
      *
      * @return a list of all users
      */
+    @Transactional(readOnly = true)
     public List<User> getAllUsers() {
         return userRepository.findAll();
     }
 
     /**
-     * Retrieves a user by email.
+     * Retrieves all users as DTOs.
+     * The DTOs are selected straight from the user columns they expose, so no
+     * managed entity, dirty-checking snapshot or password hash is loaded.
+     *
+     * @return the users, ordered by ID
+     */
+    @Transactional(readOnly = true)
+    public List<UserDTO> getAllUserDTOs() {
+        return userRepository.findAllDTOs();
+    }
+
+    /**
+     * Retrieves the page of users following the given user ID, ordered by ID.
+     *
+     * @param afterId the ID of the last user of the previous page, 0 for the
+     *                first page
+     * @param limit   the maximum number of users to return
+     * @return the users of the page
+     */
+    @Transactional(readOnly = true)
+    public List<UserDTO> getUsersAfter(long afterId, int limit) {
+        return userRepository.findPageAfter(afterId, PageRequest.of(0, limit));
+    }
+
+    /**
+     * Streams every user, ordered by ID, to the consumer. Users are read from a
+     * database cursor and projected to DTOs, so neither entities nor password
+     * hashes are loaded and memory use does not grow with the number of users.
+     *
+     * @param consumer the consumer receiving each user
+     */
+    @Transactional(readOnly = true)
+    public void streamUsers(Consumer<UserDTO> consumer) {
+        try (Stream<UserDTO> users = userRepository.streamAll()) {
+            users.forEach(consumer);
+        }
+    }
+
+    /**
+     * Retrieves a user by email, ignoring case.
      *
      * @param email the email of the user
      * @return an optional containing the user if found, or empty if not found
      */
+    @Transactional(readOnly = true)
     public Optional<User> getUserByEmail(String email) {
         if (email == null || email.trim().isEmpty()) {
             logger.warn("Attempted to get user by email with null or empty email");
             return Optional.empty();
         }
-        return userRepository.findByEmail(email.trim().toLowerCase());
+        return userRepository.findByEmail(email);
     }
 
     /**
-     * Retrieves a user by username.
+     * Retrieves a user by email, ignoring case, as a DTO without loading the
+     * entity.
+     *
+     * @param email the email of the user
+     * @return an optional containing the user if found, or empty if not found
+     */
+    @Transactional(readOnly = true)
+    public Optional<UserDTO> getUserDTOByEmail(String email) {
+        if (email == null || email.trim().isEmpty()) {
+            logger.warn("Attempted to get user by email with null or empty email");
+            return Optional.empty();
+        }
+        return userRepository.findDTOByEmail(email);
+    }
+
+    /**
+     * Retrieves a user by username, ignoring case, as a DTO without loading the
+     * entity.
+     *
+     * @param username the username of the user
+     * @return an optional containing the user if found, or empty if not found
+     */
+    @Transactional(readOnly = true)
+    public Optional<UserDTO> getUserDTOByUsername(String username) {
+        return userRepository.findDTOByUsername(username);
+    }
+
+    /**
+     * Retrieves a user by username, ignoring case.
      *
      * @param username the username of the user
      * @return an optional containing the user if found, or empty if not found
      */
+    @Transactional(readOnly = true)
     public Optional<User> getUserByUsername(String username) {
         return userRepository.findByUsername(username);
     }
 
+    /**
+     * Searches users as they type, on their username, email, first name and
+     * last name, from the in-memory search index.
+     *
+     * @param query the text typed so far
+     * @param limit the maximum number of users to return
+     * @return the best matching users, best first
+     */
+    public List<UserSummaryDTO> searchUsers(String query, int limit) {
+        return userSearchIndex.search(query, limit);
+    }
+
     /**
      * Saves a new user or updates an existing user.
      *
@@ -97,10 +223,14 @@ public class UserService {
      *                                         violation
      */
     public User saveUser(User user) throws DataIntegrityViolationException {
-        user.setPassword(passwordEncoder.encode(user.getPassword()));
+        user.setPassword(await(passwordHashingService.encode(user.getPassword())));
         logger.debug("Saved User Password: {}", user.getPassword());
         try {
-            return userRepository.save(user);
+            User savedUser = userRepository.save(user);
+            customUserDetailsService.evict(savedUser.getUsername());
+            userSearchIndex.put(savedUser);
+            auditJournal.record(AuditEventDTO.Type.REGISTERED, savedUser.getId(), savedUser.getUsername());
+            return savedUser;
         } catch (DataIntegrityViolationException e) {
             logger.error("Error saving user: {}", e.getMessage());
             throw e;
@@ -116,37 +246,123 @@ public class UserService {
      *         valid, or empty if invalid
      */
     public Optional<User> authenticateUser(String username, String rawPassword) {
-        if (username == null || username.trim().isEmpty() || rawPassword == null || rawPassword.trim().isEmpty()) {
+        return await(authenticateUserAsync(username, rawPassword));
+    }
+
+    /**
+     * Authenticates a user by username and password, verifying the password on
+     * the password hashing pool instead of the calling thread.
+     *
+     * @param username    the username of the user
+     * @param rawPassword the raw password of the user, only read until the
+     *                    returned future completes, so the caller may clear it
+     *                    then
+     * @return a future completed with the authenticated user if credentials are
+     *         valid, or empty if invalid
+     * @throws PasswordHashingOverloadedException if the password hashing pool is
+     *                                            saturated
+     */
+    public CompletableFuture<Optional<User>> authenticateUserAsync(String username, CharSequence rawPassword) {
+        if (username == null || username.trim().isEmpty() || rawPassword == null || isBlank(rawPassword)) {
             logger.warn("Attempted to authenticate with null or empty username/password");
-            return Optional.empty();
+            return CompletableFuture.completedFuture(Optional.empty());
         }
 
-        Optional<User> userOptional = userRepository.findByUsername(username.trim());
-        if (userOptional.isPresent()) {
-            User user = userOptional.get();
-            logger.debug("Stored Password: {}", user.getPassword());
-            logger.debug("Raw Password: {}", rawPassword);
-            if (passwordEncoder.matches(rawPassword, user.getPassword())) {
-                logger.debug("Password Match: true");
-                return Optional.of(user);
-            } else {
-                logger.debug("Password Match: false");
-            }
-        } else {
+        Optional<User> userOptional = userRepository
+                .findCredentialsByUsernameNormalized(User.normalizeLookupKey(username.trim()));
+        if (userOptional.isEmpty()) {
             logger.info("No user found with username: {}", username);
+            auditJournal.record(AuditEventDTO.Type.LOGIN_FAILED, null, username.trim());
+            return CompletableFuture.completedFuture(Optional.empty());
         }
-        return Optional.empty();
+        User user = userOptional.get();
+        logger.debug("Stored Password: {}", user.getPassword());
+        return passwordHashingService.matches(rawPassword, user.getPassword())
+                .thenApply(matches -> {
+                    logger.debug("Password Match: {}", matches);
+                    if (!matches) {
+                        auditJournal.record(AuditEventDTO.Type.LOGIN_FAILED, user.getId(), user.getUsername());
+                        return Optional.<User>empty();
+                    }
+                    auditJournal.record(AuditEventDTO.Type.LOGIN_SUCCEEDED, user.getId(), user.getUsername());
+                    if (passwordHashingService.needsRehash(user.getPassword())) {
+                        rehashInBackground(user, rawPassword);
+                    }
+                    return Optional.of(user);
+                });
     }
 
     /**
-     * Updates a user record in the database
-     * 
-     * @param user the user to update
+     * Rehashes a stored password with the current encoder parameters without
+     * delaying the login that verified it. The new hash only replaces the old one
+     * if the password has not been changed in the meantime; when the hashing pool
+     * is busy the rehash is skipped and retried on a later login.
+     *
+     * @param user        the authenticated user
+     * @param rawPassword the verified raw password
+     */
+    private void rehashInBackground(User user, CharSequence rawPassword) {
+        String previousHash = user.getPassword();
+        // The caller may clear its password once the login completes, before the rehash runs
+        CharBuffer password = CharBuffer.allocate(rawPassword.length());
+        for (int i = 0; i < rawPassword.length(); i++) {
+            password.put(rawPassword.charAt(i));
+        }
+        password.flip();
+        try {
+            passwordHashingService.encode(password)
+                    .whenComplete((newHash, e) -> Arrays.fill(password.array(), '\0'))
+                    .thenAccept(newHash -> {
+                        if (userRepository.replacePassword(user.getId(), previousHash, newHash) > 0) {
+                            customUserDetailsService.evict(user.getUsername());
+                            logger.debug("Rehashed password of user {}", user.getId());
+                        }
+                    })
+                    .exceptionally(e -> {
+                        logger.warn("Could not rehash password of user {}: {}", user.getId(), e.getMessage());
+                        return null;
+                    });
+        } catch (PasswordHashingOverloadedException e) {
+            Arrays.fill(password.array(), '\0');
+            logger.debug("Skipped password rehash of user {}: hashing pool is busy", user.getId());
+        }
+    }
+
+    private static boolean isBlank(CharSequence value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) > ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Updates a user record in the database.
+     * The user is loaded, checked for email and username conflicts with a single
+     * query, and written in one transaction. The write is conditional on the
+     * version read, so a concurrent update makes it fail instead of being
+     * silently overwritten.
+     *
+     * @param userId  the ID of the user to update
+     * @param userDTO the fields to change, {@code null} fields are left as they
+     *                are; when its version is set, the update is only applied if
+     *                the user is still at that version
      * @return the updated user object
-     * @throws DataIntegrityViolationException if there is a database constraint
-     *                                         violation
+     * @throws IllegalArgumentException          if the user is not found
+     * @throws DataIntegrityViolationException   if another user has the same
+     *                                           email or username
+     * @throws OptimisticLockingFailureException if the user was changed since
+     *                                           the given version, or
+     *                                           concurrently
      */
-    public User updateUserDetails(User existingUser, UserDTO userDTO) {
+    @Transactional
+    public User updateUserDetails(Long userId, UserDTO userDTO) {
+        User existingUser = getUserById(userId);
+        checkVersion(existingUser, userDTO.getVersion());
+        checkEmailAndUsernameFree(existingUser, userDTO.getEmail(), userDTO.getUsername());
+
+        String previousUsername = existingUser.getUsername();
         if (userDTO.getFirstName() != null) {
             existingUser.setFirstName(userDTO.getFirstName());
         }
@@ -154,17 +370,12 @@ public class UserService {
             existingUser.setLastName(userDTO.getLastName());
         }
         if (userDTO.getEmail() != null) {
-            Optional<User> existingUserByEmail = userRepository.findByEmail(userDTO.getEmail());
-            if (existingUserByEmail.isPresent() && !existingUserByEmail.get().getId().equals(existingUser.getId())) {
-                throw new DataIntegrityViolationException("A user with the same email already exists.");
-            }
             existingUser.setEmail(userDTO.getEmail());
         }
         if (userDTO.getUsername() != null) {
-            Optional<User> existingUserByUsername = userRepository.findByUsername(userDTO.getUsername());
-            if (existingUserByUsername.isPresent()
-                    && !existingUserByUsername.get().getId().equals(existingUser.getId())) {
-                throw new DataIntegrityViolationException("A user with the same username already exists.");
+            if (!userDTO.getUsername().equals(existingUser.getUsername())) {
+                // Tokens carry the username as their subject, so a rename revokes them
+                tokenVersionService.bump(existingUser);
             }
             existingUser.setUsername(userDTO.getUsername());
         }
@@ -190,7 +401,115 @@ public class UserService {
             existingUser.setCountry(userDTO.getCountry());
         }
 
-        return userRepository.save(existingUser);
+        return saveUpdated(existingUser, previousUsername);
+    }
+
+    /**
+     * Applies a partial update to a user.
+     * Only the fields present in the patch whose value differs from the stored
+     * one are changed, and only the changed columns are written. A patch that
+     * changes nothing is not written at all. The email and username are only
+     * checked for conflicts when they change.
+     *
+     * @param userId the ID of the user to update
+     * @param patch  the fields to change; when its version is set, the patch is
+     *               only applied if the user is still at that version
+     * @return the updated user, or empty if the patch changes nothing
+     * @throws IllegalArgumentException          if the user is not found
+     * @throws DataIntegrityViolationException   if another user has the same
+     *                                           email or username
+     * @throws OptimisticLockingFailureException if the user was changed since
+     *                                           the given version, or
+     *                                           concurrently
+     */
+    @Transactional
+    public Optional<User> patchUser(Long userId, UserPatchDTO patch) {
+        User user = getUserById(userId);
+        checkVersion(user, patch.getVersion());
+
+        Map<UserPatchDTO.Field, String> changes = new EnumMap<>(UserPatchDTO.Field.class);
+        patch.getFields().forEach((field, value) -> {
+            if (!Objects.equals(value, getField(user, field))) {
+                changes.put(field, value);
+            }
+        });
+        if (changes.isEmpty()) {
+            return Optional.empty();
+        }
+        checkEmailAndUsernameFree(user, changes.get(UserPatchDTO.Field.EMAIL),
+                changes.get(UserPatchDTO.Field.USERNAME));
+
+        String previousUsername = user.getUsername();
+        if (changes.containsKey(UserPatchDTO.Field.USERNAME)) {
+            // Tokens carry the username as their subject, so a rename revokes them
+            tokenVersionService.bump(user);
+        }
+        changes.forEach((field, value) -> setField(user, field, value));
+        return Optional.of(saveUpdated(user, previousUsername));
+    }
+
+    private static void checkVersion(User user, Long expectedVersion) {
+        if (expectedVersion != null && expectedVersion != user.getVersion()) {
+            throw new OptimisticLockingFailureException("User " + user.getId() + " is at version "
+                    + user.getVersion() + ", not " + expectedVersion);
+        }
+    }
+
+    /**
+     * Checks with a single query that no other user has the new email or
+     * username; either may be {@code null} when it does not change.
+     */
+    private void checkEmailAndUsernameFree(User user, String email, String username) {
+        if ((email != null || username != null) && userRepository.existsOtherWithEmailOrUsername(user.getId(),
+                User.normalizeLookupKey(email), User.normalizeLookupKey(username))) {
+            throw new DataIntegrityViolationException("A user with the same email or username already exists.");
+        }
+    }
+
+    private User saveUpdated(User user, String previousUsername) {
+        // Flush here so a version or unique key conflict surfaces as a translated exception
+        User savedUser = userRepository.saveAndFlush(user);
+        // Until the commit, lookups still read the previous row: evicting before would let them cache it again
+        TransactionCallbacks.afterCommit(() -> {
+            tokenVersionService.publish(savedUser);
+            customUserDetailsService.evict(previousUsername);
+            customUserDetailsService.evict(savedUser.getUsername());
+        });
+        userSearchIndex.put(savedUser);
+        auditJournal.record(AuditEventDTO.Type.UPDATED, savedUser.getId(), savedUser.getUsername());
+        return savedUser;
+    }
+
+    private static String getField(User user, UserPatchDTO.Field field) {
+        return switch (field) {
+            case FIRST_NAME -> user.getFirstName();
+            case LAST_NAME -> user.getLastName();
+            case EMAIL -> user.getEmail();
+            case USERNAME -> user.getUsername();
+            case PHONE -> user.getPhone();
+            case ADDRESS_LINE1 -> user.getAddressLine1();
+            case ADDRESS_LINE2 -> user.getAddressLine2();
+            case CITY -> user.getCity();
+            case STATE -> user.getState();
+            case ZIP_CODE -> user.getZipCode();
+            case COUNTRY -> user.getCountry();
+        };
+    }
+
+    private static void setField(User user, UserPatchDTO.Field field, String value) {
+        switch (field) {
+            case FIRST_NAME -> user.setFirstName(value);
+            case LAST_NAME -> user.setLastName(value);
+            case EMAIL -> user.setEmail(value);
+            case USERNAME -> user.setUsername(value);
+            case PHONE -> user.setPhone(value);
+            case ADDRESS_LINE1 -> user.setAddressLine1(value);
+            case ADDRESS_LINE2 -> user.setAddressLine2(value);
+            case CITY -> user.setCity(value);
+            case STATE -> user.setState(value);
+            case ZIP_CODE -> user.setZipCode(value);
+            case COUNTRY -> user.setCountry(value);
+        }
     }
 
     /**
@@ -201,15 +520,18 @@ public class UserService {
      * @param newPassword     the new password
      */
     public void updatePassword(Long userId, String currentPassword, String newPassword) {
-        User user = userRepository.findById(userId)
+        User user = userRepository.findCredentialsById(userId)
                 .orElseThrow(() -> new IllegalArgumentException("User not found with ID: " + userId));
 
-        if (!passwordEncoder.matches(currentPassword, user.getPassword())) {
+        if (!await(passwordHashingService.matches(currentPassword, user.getPassword()))) {
             throw new IllegalArgumentException("Current password is incorrect");
         }
 
-        user.setPassword(passwordEncoder.encode(newPassword));
-        userRepository.save(user);
+        user.setPassword(await(passwordHashingService.encode(newPassword)));
+        tokenVersionService.bump(user);
+        tokenVersionService.publish(userRepository.save(user));
+        customUserDetailsService.evict(user.getUsername());
+        auditJournal.record(AuditEventDTO.Type.PASSWORD_CHANGED, user.getId(), user.getUsername());
     }
 
     /**
@@ -222,6 +544,10 @@ public class UserService {
         Optional<User> user = userRepository.findById(userId);
         if (user.isPresent()) {
             userRepository.delete(user.get());
+            tokenVersionService.revokeAll(userId);
+            customUserDetailsService.evict(user.get().getUsername());
+            userSearchIndex.remove(userId);
+            auditJournal.record(AuditEventDTO.Type.DELETED, userId, user.get().getUsername());
         } else {
             logger.error("Error deleting user: User with ID {} not found", userId);
             throw new IllegalArgumentException("User not found");
@@ -248,6 +574,7 @@ public class UserService {
         userDTO.setState(user.getState());
         userDTO.setZipCode(user.getZipCode());
         userDTO.setCountry(user.getCountry());
+        userDTO.setVersion(user.getVersion());
         return userDTO;
     }
 
@@ -264,4 +591,21 @@ public class UserService {
         return builder.build();
     }
 
+    /**
+     * Waits for a password hashing result, rethrowing its failure unwrapped.
+     *
+     * @param future the pending hashing result
+     * @param <T>    the type of the result
+     * @return the result
+     */
+    private static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
 }
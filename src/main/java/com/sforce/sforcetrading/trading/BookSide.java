@@ -0,0 +1,88 @@
+package com.sforce.sforcetrading.trading;
+
+import java.util.Arrays;
+
+/**
+ * Price levels of one side of an order book, sorted in arrays keyed by price in
+ * ticks. Levels are ordered from the worst price to the best, so the best level
+ * is found and removed at the end of the arrays, and levels added near the top
+ * of the book only move the few levels better than them.
+ */
+final class BookSide {
+
+    private static final int INITIAL_LEVELS = 64;
+
+    private final Side side;
+    // Bid prices as they are and ask prices negated, so the best level always
+    // has the highest key
+    private long[] keys = new long[INITIAL_LEVELS];
+    private PriceLevel[] levels = new PriceLevel[INITIAL_LEVELS];
+    private int size;
+
+    BookSide(Side side) {
+        this.side = side;
+    }
+
+    int size() {
+        return size;
+    }
+
+    PriceLevel best() {
+        return size == 0 ? null : levels[size - 1];
+    }
+
+    /**
+     * Returns a level by rank, 0 being the best one.
+     */
+    PriceLevel get(int rank) {
+        return levels[size - 1 - rank];
+    }
+
+    void removeBest() {
+        levels[--size] = null;
+    }
+
+    PriceLevel getOrCreate(long price) {
+        long key = key(price);
+        // New orders mostly join the best levels, so look at the top first
+        if (size > 0 && keys[size - 1] == key) {
+            return levels[size - 1];
+        }
+        int index = Arrays.binarySearch(keys, 0, size, key);
+        if (index >= 0) {
+            return levels[index];
+        }
+        index = -index - 1;
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size << 1);
+            levels = Arrays.copyOf(levels, size << 1);
+        }
+        System.arraycopy(keys, index, keys, index + 1, size - index);
+        System.arraycopy(levels, index, levels, index + 1, size - index);
+        PriceLevel level = new PriceLevel(price);
+        keys[index] = key;
+        levels[index] = level;
+        size++;
+        return level;
+    }
+
+    void remove(PriceLevel level) {
+        if (levels[size - 1] == level) {
+            removeBest();
+            return;
+        }
+        int index = Arrays.binarySearch(keys, 0, size, key(level.price));
+        System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+        System.arraycopy(levels, index + 1, levels, index, size - index - 1);
+        levels[--size] = null;
+    }
+
+    void clear() {
+        Arrays.fill(levels, 0, size, null);
+        size = 0;
+    }
+
+    private long key(long price) {
+        return side == Side.BUY ? price : -price;
+    }
+}
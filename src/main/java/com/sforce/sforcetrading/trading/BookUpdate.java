@@ -0,0 +1,76 @@
+package com.sforce.sforcetrading.trading;
+
+import java.util.Arrays;
+
+/**
+ * State of a book after a batch of commands changed it, captured by the
+ * matching thread for the market data hub: its best price levels, and the
+ * trades of the batch. Prices are in ticks.
+ */
+final class BookUpdate {
+
+    final int symbolId;
+    final long time;
+
+    // Best levels first
+    final long[] bidPrices;
+    final long[] bidQuantities;
+    final int[] bidOrders;
+    final long[] askPrices;
+    final long[] askQuantities;
+    final int[] askOrders;
+
+    final long[] tradePrices;
+    final long[] tradeQuantities;
+    final Side[] tradeSides;
+
+    BookUpdate(OrderBook book, long time, int depth, TradeBuffer trades) {
+        this.symbolId = book.getSymbolId();
+        this.time = time;
+        int bids = Math.min(depth, book.getDepth(Side.BUY));
+        this.bidPrices = new long[bids];
+        this.bidQuantities = new long[bids];
+        this.bidOrders = new int[bids];
+        int[] level = { 0 };
+        book.visitLevels(Side.BUY, bids, (price, quantity, orders) -> {
+            bidPrices[level[0]] = price;
+            bidQuantities[level[0]] = quantity;
+            bidOrders[level[0]++] = orders;
+        });
+        int asks = Math.min(depth, book.getDepth(Side.SELL));
+        this.askPrices = new long[asks];
+        this.askQuantities = new long[asks];
+        this.askOrders = new int[asks];
+        level[0] = 0;
+        book.visitLevels(Side.SELL, asks, (price, quantity, orders) -> {
+            askPrices[level[0]] = price;
+            askQuantities[level[0]] = quantity;
+            askOrders[level[0]++] = orders;
+        });
+        this.tradePrices = Arrays.copyOf(trades.prices, trades.count);
+        this.tradeQuantities = Arrays.copyOf(trades.quantities, trades.count);
+        this.tradeSides = Arrays.copyOf(trades.sides, trades.count);
+    }
+
+    /**
+     * Trades of one book during the current batch, reused from batch to batch.
+     */
+    static final class TradeBuffer {
+
+        long[] prices = new long[64];
+        long[] quantities = new long[64];
+        Side[] sides = new Side[64];
+        int count;
+
+        void add(long price, long quantity, Side takerSide) {
+            if (count == prices.length) {
+                prices = Arrays.copyOf(prices, count << 1);
+                quantities = Arrays.copyOf(quantities, count << 1);
+                sides = Arrays.copyOf(sides, count << 1);
+            }
+            prices[count] = price;
+            quantities[count] = quantity;
+            sides[count++] = takerSide;
+        }
+    }
+}
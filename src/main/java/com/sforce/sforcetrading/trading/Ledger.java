@@ -0,0 +1,372 @@
+package com.sforce.sforcetrading.trading;
+
+import com.sforce.sforcetrading.util.LongIntHashMap;
+
+import java.util.Arrays;
+
+/**
+ * Cash balances and positions of the accounts trading on the books, and the
+ * pre-trade checks run against them. Amounts are in ticks, like prices, so a
+ * notional is a price in ticks times a quantity.
+ * <p>
+ * Accounts are keyed by user ID and positions by account and symbol ID in
+ * primitive hash maps, whose values index arrays holding the fields of each
+ * account, and of each position, side by side. Checking an order neither
+ * boxes nor allocates, and touches a handful of cache lines however many
+ * accounts there are. An account is opened with the initial cash the first
+ * time an order of its user rests or trades; checks change nothing.
+ * <p>
+ * Resting orders reserve what they could use: buy orders the cash they would
+ * spend, and orders of both sides the quantity they could add to the position.
+ * <p>
+ * The ledger is not thread-safe: the matching thread owns it, so checks and
+ * fills are applied in the same sequence as the orders.
+ */
+public final class Ledger {
+
+    private static final int MISSING = -1;
+
+    // Fields of an account
+    private static final int CASH = 0;
+    private static final int RESERVED_CASH = 1;
+    private static final int ACCOUNT_FIELDS = 2;
+
+    // Fields of a position
+    private static final int QUANTITY = 0;
+    private static final int OPEN_BUY = 1;
+    private static final int OPEN_SELL = 2;
+    private static final int POSITION_FIELDS = 3;
+
+    private final int symbolCount;
+    private final long initialCash;
+    private final long maxPosition;
+    private final long maxOrderNotional;
+
+    // Accounts by index, and the offset of their fields
+    private final LongIntHashMap accounts;
+    private long[] userIds;
+    private long[] accountFields;
+    private int accountCount;
+
+    // Positions keyed by account index and symbol ID, and the offset of their fields
+    private final LongIntHashMap positions;
+    private long[] positionFields;
+    private int positionCount;
+
+    /**
+     * Constructs a new Ledger.
+     *
+     * @param symbolCount      the number of symbols, whose IDs go from 0
+     * @param initialCash      the cash an account is opened with, in ticks
+     * @param maxPosition      the largest position in a symbol, long or short
+     * @param maxOrderNotional the largest notional of a single order, in ticks
+     * @param expectedAccounts the number of accounts held without resizing
+     */
+    public Ledger(int symbolCount, long initialCash, long maxPosition, long maxOrderNotional, int expectedAccounts) {
+        this.symbolCount = symbolCount;
+        this.initialCash = initialCash;
+        this.maxPosition = maxPosition;
+        this.maxOrderNotional = maxOrderNotional;
+        this.accounts = new LongIntHashMap(expectedAccounts, MISSING);
+        this.userIds = new long[Math.max(16, expectedAccounts)];
+        this.accountFields = new long[userIds.length * ACCOUNT_FIELDS];
+        this.positions = new LongIntHashMap(expectedAccounts, MISSING);
+        this.positionFields = new long[userIds.length * POSITION_FIELDS];
+    }
+
+    /**
+     * Checks an order against the account of its user and the limits. Buy
+     * orders must be covered by the cash not reserved yet, and the position
+     * must stay within the limit if the order and every resting order of the
+     * same side traded.
+     *
+     * @param userId   the ID of the user placing the order
+     * @param symbolId the ID of the symbol
+     * @param side     the side of the order
+     * @param notional the notional of the order in ticks: its limit price
+     *                 times its quantity, or what a market order would trade
+     *                 for
+     * @param quantity the quantity of the order
+     * @return the outcome of the checks
+     */
+    public RiskCheck check(long userId, int symbolId, Side side, long notional, long quantity) {
+        if (notional > maxOrderNotional) {
+            return RiskCheck.MAX_ORDER_NOTIONAL;
+        }
+        int account = accounts.get(userId);
+        int position = account == MISSING ? MISSING : positions.get(positionKey(account, symbolId));
+        long held = position == MISSING ? 0 : positionFields[position + QUANTITY];
+        if (side == Side.BUY) {
+            long buyingPower = account == MISSING ? initialCash
+                    : accountFields[account + CASH] - accountFields[account + RESERVED_CASH];
+            if (notional > buyingPower) {
+                return RiskCheck.INSUFFICIENT_BUYING_POWER;
+            }
+            long open = position == MISSING ? 0 : positionFields[position + OPEN_BUY];
+            if (held + open + quantity > maxPosition) {
+                return RiskCheck.POSITION_LIMIT;
+            }
+        } else {
+            long open = position == MISSING ? 0 : positionFields[position + OPEN_SELL];
+            if (open + quantity - held > maxPosition) {
+                return RiskCheck.POSITION_LIMIT;
+            }
+        }
+        return RiskCheck.ACCEPTED;
+    }
+
+    /**
+     * Reserves what an order resting on the book could use.
+     *
+     * @param userId   the ID of the user who placed the order
+     * @param symbolId the ID of the symbol
+     * @param side     the side of the order
+     * @param price    the price of the order, in ticks
+     * @param quantity the quantity resting
+     */
+    public void reserve(long userId, int symbolId, Side side, long price, long quantity) {
+        int account = account(userId);
+        int position = position(account, symbolId);
+        if (side == Side.BUY) {
+            accountFields[account + RESERVED_CASH] += price * quantity;
+            positionFields[position + OPEN_BUY] += quantity;
+        } else {
+            positionFields[position + OPEN_SELL] += quantity;
+        }
+    }
+
+    /**
+     * Releases what part of a resting order reserved, once it traded or was
+     * cancelled.
+     *
+     * @param userId   the ID of the user who placed the order
+     * @param symbolId the ID of the symbol
+     * @param side     the side of the order
+     * @param price    the price of the order, in ticks
+     * @param quantity the quantity no longer resting
+     */
+    public void release(long userId, int symbolId, Side side, long price, long quantity) {
+        reserve(userId, symbolId, side, price, -quantity);
+    }
+
+    /**
+     * Settles a trade: the buyer pays the seller and gets the quantity.
+     *
+     * @param buyerId  the ID of the buying user
+     * @param sellerId the ID of the selling user
+     * @param symbolId the ID of the symbol
+     * @param price    the price of the trade, in ticks
+     * @param quantity the quantity traded
+     */
+    public void fill(long buyerId, long sellerId, int symbolId, long price, long quantity) {
+        long notional = price * quantity;
+        // Opening an account or a position may grow the arrays, so indexes are resolved first
+        int buyer = account(buyerId);
+        int seller = account(sellerId);
+        int buyerPosition = position(buyer, symbolId);
+        int sellerPosition = position(seller, symbolId);
+        accountFields[buyer + CASH] -= notional;
+        accountFields[seller + CASH] += notional;
+        positionFields[buyerPosition + QUANTITY] += quantity;
+        positionFields[sellerPosition + QUANTITY] -= quantity;
+    }
+
+    /**
+     * Tells whether an account was opened for a user.
+     *
+     * @param userId the ID of the user
+     * @return {@code true} if the user has placed an order or traded
+     */
+    public boolean hasAccount(long userId) {
+        return accounts.get(userId) != MISSING;
+    }
+
+    /**
+     * Returns the cash of an account.
+     *
+     * @param userId the ID of the user
+     * @return the cash in ticks, the initial cash if the account is not opened
+     */
+    public long getCash(long userId) {
+        int account = accounts.get(userId);
+        return account == MISSING ? initialCash : accountFields[account + CASH];
+    }
+
+    /**
+     * Returns the cash of an account reserved by its resting buy orders.
+     *
+     * @param userId the ID of the user
+     * @return the reserved cash in ticks
+     */
+    public long getReservedCash(long userId) {
+        int account = accounts.get(userId);
+        return account == MISSING ? 0 : accountFields[account + RESERVED_CASH];
+    }
+
+    /**
+     * Reports the positions of an account, by symbol ID, skipping symbols it
+     * never held nor had orders on.
+     *
+     * @param userId  the ID of the user
+     * @param visitor the visitor called for each position
+     */
+    public void visitPositions(long userId, PositionVisitor visitor) {
+        int account = accounts.get(userId);
+        if (account == MISSING) {
+            return;
+        }
+        for (int symbolId = 0; symbolId < symbolCount; symbolId++) {
+            int position = positions.get(positionKey(account, symbolId));
+            if (position != MISSING) {
+                visitor.visit(symbolId, positionFields[position + QUANTITY], positionFields[position + OPEN_BUY],
+                        positionFields[position + OPEN_SELL]);
+            }
+        }
+    }
+
+    /**
+     * Reports every account, in the order they were opened.
+     *
+     * @param visitor the visitor called for each account
+     */
+    public void visitAccounts(AccountVisitor visitor) {
+        for (int i = 0; i < accountCount; i++) {
+            int account = i * ACCOUNT_FIELDS;
+            visitor.visit(userIds[i], accountFields[account + CASH], accountFields[account + RESERVED_CASH]);
+        }
+    }
+
+    /**
+     * Opens an account, or overwrites it, with the state it had when it was
+     * saved, as reported by {@link #visitAccounts(AccountVisitor)}.
+     *
+     * @param userId       the ID of the user
+     * @param cash         the cash in ticks
+     * @param reservedCash the cash reserved by resting buy orders, in ticks
+     */
+    public void restoreAccount(long userId, long cash, long reservedCash) {
+        int account = account(userId);
+        accountFields[account + CASH] = cash;
+        accountFields[account + RESERVED_CASH] = reservedCash;
+    }
+
+    /**
+     * Opens a position, or overwrites it, with the state it had when it was
+     * saved, as reported by {@link #visitPositions(long, PositionVisitor)}.
+     *
+     * @param userId           the ID of the user
+     * @param symbolId         the ID of the symbol
+     * @param quantity         the quantity held, negative when short
+     * @param openBuyQuantity  the quantity of the resting buy orders
+     * @param openSellQuantity the quantity of the resting sell orders
+     */
+    public void restorePosition(long userId, int symbolId, long quantity, long openBuyQuantity,
+            long openSellQuantity) {
+        int position = position(account(userId), symbolId);
+        positionFields[position + QUANTITY] = quantity;
+        positionFields[position + OPEN_BUY] = openBuyQuantity;
+        positionFields[position + OPEN_SELL] = openSellQuantity;
+    }
+
+    /**
+     * Returns the number of accounts opened.
+     *
+     * @return the number of accounts
+     */
+    public int getAccountCount() {
+        return accountCount;
+    }
+
+    /**
+     * Returns the number of positions held or with resting orders, across
+     * accounts and symbols.
+     *
+     * @return the number of positions
+     */
+    public int getPositionCount() {
+        return positionCount;
+    }
+
+    /**
+     * Removes every account.
+     */
+    public void clear() {
+        accounts.clear();
+        positions.clear();
+        accountCount = 0;
+        positionCount = 0;
+    }
+
+    private int account(long userId) {
+        int account = accounts.get(userId);
+        if (account != MISSING) {
+            return account;
+        }
+        if (accountCount == userIds.length) {
+            int capacity = accountCount << 1;
+            userIds = Arrays.copyOf(userIds, capacity);
+            accountFields = Arrays.copyOf(accountFields, capacity * ACCOUNT_FIELDS);
+        }
+        userIds[accountCount] = userId;
+        account = accountCount++ * ACCOUNT_FIELDS;
+        accountFields[account + CASH] = initialCash;
+        accountFields[account + RESERVED_CASH] = 0;
+        accounts.put(userId, account);
+        return account;
+    }
+
+    private int position(int account, int symbolId) {
+        long key = positionKey(account, symbolId);
+        int position = positions.get(key);
+        if (position != MISSING) {
+            return position;
+        }
+        if (positionCount * POSITION_FIELDS == positionFields.length) {
+            positionFields = Arrays.copyOf(positionFields, positionFields.length << 1);
+        }
+        position = positionCount++ * POSITION_FIELDS;
+        positionFields[position + QUANTITY] = 0;
+        positionFields[position + OPEN_BUY] = 0;
+        positionFields[position + OPEN_SELL] = 0;
+        positions.put(key, position);
+        return position;
+    }
+
+    // Never 0, which the maps reserve
+    private static long positionKey(int account, int symbolId) {
+        return (long) (account / ACCOUNT_FIELDS + 1) << 32 | symbolId;
+    }
+
+    /**
+     * Visitor of the accounts.
+     */
+    @FunctionalInterface
+    public interface AccountVisitor {
+
+        /**
+         * Called for an account.
+         *
+         * @param userId       the ID of the user
+         * @param cash         the cash in ticks
+         * @param reservedCash the cash reserved by resting buy orders, in ticks
+         */
+        void visit(long userId, long cash, long reservedCash);
+    }
+
+    /**
+     * Visitor of the positions of an account.
+     */
+    @FunctionalInterface
+    public interface PositionVisitor {
+
+        /**
+         * Called for a position.
+         *
+         * @param symbolId         the ID of the symbol
+         * @param quantity         the quantity held, negative when short
+         * @param openBuyQuantity  the quantity of the resting buy orders
+         * @param openSellQuantity the quantity of the resting sell orders
+         */
+        void visit(int symbolId, long quantity, long openBuyQuantity, long openSellQuantity);
+    }
+}
@@ -0,0 +1,686 @@
+package com.sforce.sforcetrading.trading;
+
+import com.sforce.sforcetrading.dto.MarketDataSubscriberDTO;
+import com.sforce.sforcetrading.dto.OrderBookDTO;
+import com.sforce.sforcetrading.dto.TopOfBookDTO;
+import com.sforce.sforcetrading.dto.TradePrintDTO;
+import com.sforce.sforcetrading.util.BoundedMpscQueue;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import jakarta.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Service streaming market data of the order books to subscribers as
+ * server-sent events: the best bid and ask, the best price levels and the
+ * trade prints of each symbol.
+ * <p>
+ * The matching thread hands over the state of the books it changed after each
+ * batch. A single hub thread keeps only the latest state of each book, encodes
+ * each frame once and writes the same bytes to every subscriber of the symbol,
+ * without ever blocking on a connection: a connection that cannot take more
+ * data keeps at most one pending frame per symbol and channel, a newer top or
+ * depth frame replacing the older one, and catches up with the latest state
+ * once it drains. Trade frames are not replaced but appended to the pending
+ * ones, up to {@value #MAX_PENDING_TRADES_BYTES} bytes per symbol; beyond that
+ * the older prints are dropped and counted as conflated.
+ * <p>
+ * New subscribers are registered by the hub thread, which sends them the
+ * latest top and depth frames first, so they never get an older frame after
+ * a newer one.
+ */
+@Service
+public class MarketDataHub {
+
+    /**
+     * Kinds of market data, each sent as a server-sent event of the same name
+     * in lower case. Frames are conflated per symbol and channel.
+     */
+    public enum Channel {
+        /**
+         * The best bid and ask, sent when they change.
+         */
+        TOP,
+        /**
+         * The best price levels of both sides, sent when they change.
+         */
+        DEPTH,
+        /**
+         * The trades matched since the previous frame. Pending trade frames
+         * are merged rather than conflated, within a bound.
+         */
+        TRADES;
+
+        private final byte[] header = ("event: " + name().toLowerCase(Locale.ROOT) + "\ndata: ")
+                .getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Connection a stream is written to. The hub never calls it from two
+     * threads at once.
+     */
+    public interface Sink {
+
+        /**
+         * Tells whether a frame can be written without blocking. Once it
+         * returns {@code false}, the connection must call
+         * {@link Subscription#onWritePossible()} when it can take more data.
+         *
+         * @return {@code true} if a frame can be written
+         */
+        boolean isReady();
+
+        /**
+         * Writes a frame. The bytes are shared with other subscribers and must
+         * not be changed.
+         *
+         * @param frame the encoded frame
+         * @throws IOException if the connection is broken
+         */
+        void write(byte[] frame) throws IOException;
+
+        /**
+         * Ends the stream.
+         */
+        void close();
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(MarketDataHub.class);
+
+    private static final byte[] FRAME_END = "\n\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HEARTBEAT = ":\n\n".getBytes(StandardCharsets.US_ASCII);
+    private static final int CHANNELS = Channel.values().length;
+    private static final int DRAIN_BATCH = 4096;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    // Trade frames a slow connection keeps per symbol, a few hundred prints
+    private static final int MAX_PENDING_TRADES_BYTES = 16 * 1024;
+
+    private final BigDecimal tickSize;
+    private final int depth;
+    private final int maxSubscribers;
+    private final long heartbeatIntervalNanos;
+    private final BoundedMpscQueue<BookUpdate> queue;
+    private final ObjectWriter writer = JsonMapper.builder()
+            .addModule(new JavaTimeModule())
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+            .build()
+            .writer();
+
+    private final Set<Subscription> subscriptions = ConcurrentHashMap.newKeySet();
+    // Subscriptions waiting for the hub thread to send them the current state
+    private final Queue<Subscription> joining = new ConcurrentLinkedQueue<>();
+    private final AtomicLong lastSubscriptionId = new AtomicLong();
+    private volatile List<String> symbols = List.of();
+    private volatile Map<String, Integer> symbolIds = Map.of();
+    private volatile Set<Subscription>[] subscribersBySymbol;
+    // Latest top and depth frames of each symbol, sent to new subscribers; hub thread only
+    private byte[][] latestFrames;
+
+    private volatile Thread thread;
+    private volatile boolean running;
+    private volatile boolean parked;
+
+    private final LongAdder updatesPublished = new LongAdder();
+    private final LongAdder updatesDropped = new LongAdder();
+    private final LongAdder framesEncoded = new LongAdder();
+    private final LongAdder bytesEncoded = new LongAdder();
+    private final LongAdder framesSent = new LongAdder();
+    private final LongAdder framesConflated = new LongAdder();
+    private final LongAdder subscriptionsRejected = new LongAdder();
+
+    /**
+     * Constructs a new MarketDataHub. It starts streaming once the matching
+     * engine registers its symbols.
+     *
+     * @param tickSize            the price of one tick, as configured for the
+     *                            matching engine
+     * @param depth               the number of price levels per side in depth
+     *                            frames
+     * @param queueCapacity       the maximum number of book updates waiting for
+     *                            the hub thread, rounded up to a power of two
+     * @param maxSubscribers      the maximum number of open streams
+     * @param heartbeatIntervalMs the time between two heartbeats, which keep
+     *                            idle connections open and close streams whose
+     *                            token has expired
+     */
+    @Autowired
+    public MarketDataHub(@Value("${trading.tick-size:0.01}") BigDecimal tickSize,
+            @Value("${market-data.depth:10}") int depth,
+            @Value("${market-data.queue-capacity:65536}") int queueCapacity,
+            @Value("${market-data.max-subscribers:20000}") int maxSubscribers,
+            @Value("${market-data.heartbeat-interval-ms:15000}") long heartbeatIntervalMs) {
+        this.tickSize = tickSize;
+        this.depth = depth;
+        this.maxSubscribers = maxSubscribers;
+        this.heartbeatIntervalNanos = TimeUnit.MILLISECONDS.toNanos(heartbeatIntervalMs);
+        this.queue = new BoundedMpscQueue<>(queueCapacity);
+    }
+
+    /**
+     * Opens a stream. The subscriber first gets the latest top and depth
+     * frames of its symbols, then every change, all sent by the hub thread.
+     *
+     * @param username  the username of the subscriber
+     * @param symbols   the symbols to stream
+     * @param channels  the kinds of market data to stream
+     * @param expiresAt when the stream is closed, as the token that opened it
+     *                  expires, or {@code null} to keep it open
+     * @param sink      the connection of the stream, ready to be written to
+     * @return the subscription, to be notified when the connection can take
+     *         more data and closed when it ends
+     * @throws IllegalArgumentException if a symbol is not traded
+     * @throws IllegalStateException    if the maximum number of streams is
+     *                                  open
+     */
+    public Subscription subscribe(String username, Collection<String> symbols, Set<Channel> channels,
+            Instant expiresAt, Sink sink) {
+        int[] ids = toSymbolIds(symbols);
+        if (subscriptions.size() >= maxSubscribers) {
+            subscriptionsRejected.increment();
+            throw new IllegalStateException("Too many market data streams");
+        }
+        Subscription subscription = new Subscription(lastSubscriptionId.incrementAndGet(), username, ids,
+                EnumSet.copyOf(channels), expiresAt, sink);
+        subscriptions.add(subscription);
+        // Commits the response as soon as the connection allows; the hub thread then sends the current state
+        subscription.offer(subscription.pending.length - 1, HEARTBEAT);
+        joining.add(subscription);
+        if (parked) {
+            LockSupport.unpark(thread);
+        }
+        return subscription;
+    }
+
+    /**
+     * Checks the symbols of a stream.
+     *
+     * @param symbols the symbols to stream
+     * @throws IllegalArgumentException if there are none, or a symbol is not
+     *                                  traded
+     */
+    public void checkSymbols(Collection<String> symbols) {
+        toSymbolIds(symbols);
+    }
+
+    /**
+     * Returns the counters of the hub.
+     *
+     * @return the open streams, those behind with pending frames and the
+     *         longest time one has been behind, the book updates handed over
+     *         and dropped because the hub was behind, the frames and bytes
+     *         encoded, the frames sent and conflated (including trade frames
+     *         dropped beyond the pending bound), and the streams rejected
+     */
+    public Map<String, Long> getStats() {
+        long slow = 0;
+        long maxLag = 0;
+        long now = System.nanoTime();
+        for (Subscription subscription : subscriptions) {
+            long lag = subscription.lagMillis(now);
+            if (subscription.pendingFrames > 0) {
+                slow++;
+            }
+            maxLag = Math.max(maxLag, lag);
+        }
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("subscribers", (long) subscriptions.size());
+        stats.put("slowSubscribers", slow);
+        stats.put("maxLagMillis", maxLag);
+        stats.put("updatesPublished", updatesPublished.sum());
+        stats.put("updatesDropped", updatesDropped.sum());
+        stats.put("framesEncoded", framesEncoded.sum());
+        stats.put("bytesEncoded", bytesEncoded.sum());
+        stats.put("framesSent", framesSent.sum());
+        stats.put("framesConflated", framesConflated.sum());
+        stats.put("subscriptionsRejected", subscriptionsRejected.sum());
+        return stats;
+    }
+
+    /**
+     * Returns the delivery state of the streams furthest behind.
+     *
+     * @param limit the maximum number of streams listed
+     * @return the streams, longest lag first, then most conflated frames first
+     */
+    public List<MarketDataSubscriberDTO> getSubscribers(int limit) {
+        long now = System.nanoTime();
+        List<String> names = symbols;
+        return subscriptions.stream()
+                .map(subscription -> subscription.toDTO(now, names))
+                .sorted(Comparator.comparingLong(MarketDataSubscriberDTO::getLagMillis)
+                        .thenComparingLong(MarketDataSubscriberDTO::getFramesConflated).reversed())
+                .limit(limit)
+                .toList();
+    }
+
+    /**
+     * Closes every stream and stops the hub thread.
+     */
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        Thread hubThread = thread;
+        if (hubThread != null) {
+            LockSupport.unpark(hubThread);
+            try {
+                hubThread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        subscriptions.forEach(Subscription::close);
+    }
+
+    /**
+     * Registers the symbols of the books and starts the hub thread. Called
+     * once by the matching engine.
+     */
+    @SuppressWarnings("unchecked")
+    void start(List<String> symbols) {
+        if (thread != null) {
+            throw new IllegalStateException("The market data hub is already started");
+        }
+        Map<String, Integer> ids = new LinkedHashMap<>();
+        Set<Subscription>[] subscribers = new Set[symbols.size()];
+        for (int i = 0; i < symbols.size(); i++) {
+            ids.put(symbols.get(i), i);
+            subscribers[i] = ConcurrentHashMap.newKeySet();
+        }
+        this.latestFrames = new byte[symbols.size() * CHANNELS][];
+        this.subscribersBySymbol = subscribers;
+        this.symbolIds = ids;
+        this.symbols = List.copyOf(symbols);
+        this.running = true;
+        Thread hubThread = new Thread(this::run, "market-data-hub");
+        hubThread.setDaemon(true);
+        this.thread = hubThread;
+        hubThread.start();
+    }
+
+    /**
+     * Returns the number of price levels per side the hub streams.
+     */
+    int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Hands the state of a changed book over to the hub thread, without
+     * waiting. When the hub is that far behind, the update is dropped: the
+     * next update of the book carries its state again, but its trades are
+     * lost.
+     */
+    void publish(BookUpdate update) {
+        if (queue.offer(update)) {
+            updatesPublished.increment();
+            if (parked) {
+                LockSupport.unpark(thread);
+            }
+        } else {
+            updatesDropped.increment();
+        }
+    }
+
+    private void run() {
+        int symbolCount = symbols.size();
+        BookUpdate[] latest = new BookUpdate[symbolCount];
+        BookUpdate[] sent = new BookUpdate[symbolCount];
+        List<List<BookUpdate>> withTrades = new ArrayList<>();
+        for (int i = 0; i < symbolCount; i++) {
+            withTrades.add(new ArrayList<>());
+        }
+        long nextHeartbeat = System.nanoTime() + heartbeatIntervalNanos;
+        while (running) {
+            // Only the latest state of each book is encoded, so a hub slowed down by a
+            // large fan-out skips intermediate states instead of falling further behind
+            int drained = queue.drain(update -> {
+                latest[update.symbolId] = update;
+                if (update.tradePrices.length > 0) {
+                    withTrades.get(update.symbolId).add(update);
+                }
+            }, DRAIN_BATCH);
+            // After the drain, so a subscriber joining before an update gets its trades
+            for (Subscription joiner; (joiner = joining.poll()) != null;) {
+                joiner.join();
+            }
+            for (int id = 0; id < symbolCount; id++) {
+                if (latest[id] != null) {
+                    try {
+                        fanOut(id, latest[id], sent[id], withTrades.get(id));
+                    } catch (RuntimeException e) {
+                        logger.error("Failed to stream market data of {}", symbols.get(id), e);
+                    }
+                    sent[id] = latest[id];
+                    latest[id] = null;
+                    withTrades.get(id).clear();
+                }
+            }
+            long now = System.nanoTime();
+            if (now - nextHeartbeat >= 0) {
+                for (Subscription subscription : subscriptions) {
+                    subscription.heartbeat();
+                }
+                nextHeartbeat = now + heartbeatIntervalNanos;
+            }
+            if (drained == 0) {
+                parked = true;
+                // Checked again after publishing the flag, so a publisher either sees it or its update is seen here
+                if (queue.size() == 0 && joining.isEmpty() && running) {
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                }
+                parked = false;
+            }
+        }
+    }
+
+    private void fanOut(int id, BookUpdate update, BookUpdate previous, List<BookUpdate> withTrades) {
+        String symbol = symbols.get(id);
+        Set<Subscription> subscribers = subscribersBySymbol[id];
+        if (previous == null || !sameTop(update, previous)) {
+            TopOfBookDTO top = new TopOfBookDTO(symbol,
+                    update.bidPrices.length == 0 ? null : toPrice(update.bidPrices[0]),
+                    update.bidQuantities.length == 0 ? 0 : update.bidQuantities[0],
+                    update.askPrices.length == 0 ? null : toPrice(update.askPrices[0]),
+                    update.askQuantities.length == 0 ? 0 : update.askQuantities[0]);
+            send(id, Channel.TOP, encode(Channel.TOP, top), subscribers);
+        }
+        if (previous == null || !sameDepth(update, previous)) {
+            OrderBookDTO levels = new OrderBookDTO(symbol);
+            for (int i = 0; i < update.bidPrices.length; i++) {
+                levels.getBids().add(new OrderBookDTO.Level(toPrice(update.bidPrices[i]), update.bidQuantities[i],
+                        update.bidOrders[i]));
+            }
+            for (int i = 0; i < update.askPrices.length; i++) {
+                levels.getAsks().add(new OrderBookDTO.Level(toPrice(update.askPrices[i]), update.askQuantities[i],
+                        update.askOrders[i]));
+            }
+            send(id, Channel.DEPTH, encode(Channel.DEPTH, levels), subscribers);
+        }
+        if (!withTrades.isEmpty()) {
+            List<TradePrintDTO> prints = new ArrayList<>();
+            for (BookUpdate trades : withTrades) {
+                Instant time = Instant.ofEpochMilli(trades.time);
+                for (int i = 0; i < trades.tradePrices.length; i++) {
+                    prints.add(new TradePrintDTO(symbol, toPrice(trades.tradePrices[i]), trades.tradeQuantities[i],
+                            trades.tradeSides[i], time));
+                }
+            }
+            send(id, Channel.TRADES, encode(Channel.TRADES, prints), subscribers);
+        }
+    }
+
+    private void send(int id, Channel channel, byte[] frame, Set<Subscription> subscribers) {
+        int slot = slot(id, channel);
+        if (channel != Channel.TRADES) {
+            latestFrames[slot] = frame;
+        }
+        for (Subscription subscription : subscribers) {
+            if (subscription.channels.contains(channel)) {
+                subscription.offer(slot, frame);
+            }
+        }
+    }
+
+    private byte[] encode(Channel channel, Object data) {
+        byte[] json;
+        try {
+            json = writer.writeValueAsBytes(data);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+        byte[] frame = new byte[channel.header.length + json.length + FRAME_END.length];
+        System.arraycopy(channel.header, 0, frame, 0, channel.header.length);
+        System.arraycopy(json, 0, frame, channel.header.length, json.length);
+        System.arraycopy(FRAME_END, 0, frame, channel.header.length + json.length, FRAME_END.length);
+        framesEncoded.increment();
+        bytesEncoded.add(frame.length);
+        return frame;
+    }
+
+    private int[] toSymbolIds(Collection<String> symbols) {
+        if (symbols == null || symbols.isEmpty()) {
+            throw new IllegalArgumentException("At least one symbol is required");
+        }
+        Map<String, Integer> ids = symbolIds;
+        return symbols.stream()
+                .map(symbol -> symbol.trim().toUpperCase(Locale.ROOT))
+                .distinct()
+                .mapToInt(symbol -> {
+                    Integer id = ids.get(symbol);
+                    if (id == null) {
+                        throw new IllegalArgumentException("Unknown symbol: " + symbol);
+                    }
+                    return id;
+                })
+                .toArray();
+    }
+
+    private BigDecimal toPrice(long ticks) {
+        return tickSize.multiply(BigDecimal.valueOf(ticks));
+    }
+
+    private static boolean sameTop(BookUpdate update, BookUpdate previous) {
+        return sameFirst(update.bidPrices, previous.bidPrices)
+                && sameFirst(update.bidQuantities, previous.bidQuantities)
+                && sameFirst(update.askPrices, previous.askPrices)
+                && sameFirst(update.askQuantities, previous.askQuantities);
+    }
+
+    private static boolean sameFirst(long[] values, long[] previous) {
+        return values.length == 0 ? previous.length == 0 : previous.length > 0 && values[0] == previous[0];
+    }
+
+    private static boolean sameDepth(BookUpdate update, BookUpdate previous) {
+        return Arrays.equals(update.bidPrices, previous.bidPrices)
+                && Arrays.equals(update.bidQuantities, previous.bidQuantities)
+                && Arrays.equals(update.bidOrders, previous.bidOrders)
+                && Arrays.equals(update.askPrices, previous.askPrices)
+                && Arrays.equals(update.askQuantities, previous.askQuantities)
+                && Arrays.equals(update.askOrders, previous.askOrders);
+    }
+
+    private static int slot(int symbolId, Channel channel) {
+        return symbolId * CHANNELS + channel.ordinal();
+    }
+
+    /**
+     * Open market data stream. Frames are written as soon as the connection
+     * can take them; until then the latest top and depth frame of each symbol
+     * waits, replacing the one before it, and trade frames wait behind each
+     * other.
+     */
+    public final class Subscription {
+
+        private final long id;
+        private final String username;
+        private final int[] symbolIds;
+        private final Set<Channel> channels;
+        private final Instant expiresAt;
+        private final Instant connectedAt = Instant.now();
+        private final Sink sink;
+        private final byte[][] pending;
+
+        // Written under the lock of the subscription, read by the metrics
+        private volatile int pendingFrames;
+        private volatile long behindSince;
+        private volatile long sent;
+        private volatile long conflated;
+        private boolean closed;
+
+        private Subscription(long id, String username, int[] symbolIds, Set<Channel> channels, Instant expiresAt,
+                Sink sink) {
+            this.id = id;
+            this.username = username;
+            this.symbolIds = symbolIds;
+            this.channels = channels;
+            this.expiresAt = expiresAt;
+            this.sink = sink;
+            // One slot per symbol and channel, and a last one for the first heartbeat
+            this.pending = new byte[symbols.size() * CHANNELS + 1][];
+        }
+
+        /**
+         * Writes the pending frames, oldest symbols first, as long as the
+         * connection takes them. To be called when the connection can take
+         * more data after {@link Sink#isReady()} returned {@code false}.
+         */
+        public synchronized void onWritePossible() {
+            if (pendingFrames == 0) {
+                return;
+            }
+            for (int slot = 0; slot < pending.length && !closed; slot++) {
+                if (pending[slot] != null) {
+                    if (!write(pending[slot])) {
+                        return;
+                    }
+                    pending[slot] = null;
+                    if (--pendingFrames == 0) {
+                        behindSince = 0;
+                        return;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Ends the stream, and stops sending frames to it.
+         */
+        public synchronized void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            Arrays.fill(pending, null);
+            pendingFrames = 0;
+            behindSince = 0;
+            subscriptions.remove(this);
+            for (int symbolId : symbolIds) {
+                subscribersBySymbol[symbolId].remove(this);
+            }
+            sink.close();
+        }
+
+        synchronized void offer(int slot, byte[] frame) {
+            // A frame written to a broken connection closes the stream
+            if (closed || pendingFrames == 0 && write(frame) || closed) {
+                return;
+            }
+            byte[] waiting = pending[slot];
+            if (waiting == null) {
+                if (pendingFrames++ == 0) {
+                    behindSince = System.nanoTime();
+                }
+                pending[slot] = frame;
+            } else if (slot % CHANNELS == Channel.TRADES.ordinal()
+                    && waiting.length + frame.length <= MAX_PENDING_TRADES_BYTES) {
+                // Prints are not state, a newer frame does not carry the older ones: send both events
+                byte[] merged = Arrays.copyOf(waiting, waiting.length + frame.length);
+                System.arraycopy(frame, 0, merged, waiting.length, frame.length);
+                pending[slot] = merged;
+            } else {
+                conflated++;
+                framesConflated.increment();
+                pending[slot] = frame;
+            }
+        }
+
+        /**
+         * Sends the current state to a new subscriber and registers it with
+         * its symbols, on the hub thread.
+         */
+        synchronized void join() {
+            if (closed) {
+                return;
+            }
+            for (int symbolId : symbolIds) {
+                for (Channel channel : List.of(Channel.TOP, Channel.DEPTH)) {
+                    byte[] frame = latestFrames[slot(symbolId, channel)];
+                    if (frame != null && channels.contains(channel)) {
+                        offer(slot(symbolId, channel), frame);
+                    }
+                }
+                subscribersBySymbol[symbolId].add(this);
+            }
+        }
+
+        synchronized void offerIfIdle(byte[] frame) {
+            if (!closed && pendingFrames == 0) {
+                write(frame);
+            }
+        }
+
+        void heartbeat() {
+            if (expiresAt != null && !Instant.now().isBefore(expiresAt)) {
+                close();
+            } else {
+                offerIfIdle(HEARTBEAT);
+            }
+        }
+
+        long lagMillis(long now) {
+            long since = behindSince;
+            return since == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(now - since);
+        }
+
+        MarketDataSubscriberDTO toDTO(long now, List<String> names) {
+            List<String> streamed = Arrays.stream(symbolIds).mapToObj(names::get).toList();
+            return new MarketDataSubscriberDTO(id, username, streamed, connectedAt, pendingFrames, lagMillis(now),
+                    sent, conflated);
+        }
+
+        /**
+         * Writes a frame if the connection takes it.
+         *
+         * @return {@code false} if the connection cannot take more data, the
+         *         frame is not written
+         */
+        private boolean write(byte[] frame) {
+            try {
+                if (!sink.isReady()) {
+                    return false;
+                }
+                sink.write(frame);
+                sent++;
+                framesSent.increment();
+            } catch (IOException | RuntimeException e) {
+                // A broken connection ends the stream; its frames are dropped
+                logger.debug("Closing market data stream {}: {}", id, e.toString());
+                close();
+            }
+            return true;
+        }
+
+    }
+}
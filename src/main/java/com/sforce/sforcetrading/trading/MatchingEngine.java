@@ -0,0 +1,666 @@
+package com.sforce.sforcetrading.trading;
+
+import com.sforce.sforcetrading.dto.AccountDTO;
+import com.sforce.sforcetrading.dto.OrderBookDTO;
+import com.sforce.sforcetrading.dto.OrderRequestDTO;
+import com.sforce.sforcetrading.dto.OrderResultDTO;
+
+import jakarta.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Service matching the orders of users on one in-memory order book per
+ * configured symbol. Prices are converted to whole numbers of ticks on the way
+ * in, and back to decimals on the way out, so books only compare longs.
+ * <p>
+ * Requests are validated on the calling thread, then published to an
+ * {@link OrderSequencer} as commands. A single matching thread applies them to
+ * the books in sequence order and assigns order IDs, so books need no locks
+ * and the same commands always give the same trades. Callers get a future
+ * completed with the outcome once the batch of their command is applied, on a
+ * reply thread rather than the matching thread.
+ * <p>
+ * Before an order reaches its book, the matching thread checks it against the
+ * {@link Ledger} of cash balances and positions, which it also updates as
+ * orders rest, trade and are cancelled, so checks always see every earlier
+ * order and fill.
+ * <p>
+ * After each batch, the matching thread hands the state of the books it changed
+ * over to the {@link MarketDataHub}, which streams it to subscribers.
+ * <p>
+ * Orders, cancels and fills are written ahead to the {@link OrderJournal},
+ * along with periodic snapshots of the books and the ledger. On startup, the
+ * engine loads the latest snapshot and replays the orders journaled after it
+ * before taking new ones, so it resumes with the books, accounts and order IDs
+ * it had when it stopped.
+ */
+@Service
+public class MatchingEngine {
+
+    private static final Logger logger = LoggerFactory.getLogger(MatchingEngine.class);
+
+    private final BigDecimal tickSize;
+    private final long maxOrderQuantity;
+    private final Map<String, OrderBook> books;
+    private final String[] symbolsById;
+    private final OrderSequencer sequencer;
+    private final MarketDataHub marketDataHub;
+    private final OrderJournal journal;
+
+    // Only used by the matching thread
+    private final Ledger ledger;
+    private final ResultListener resultListener = new ResultListener();
+    private final BookUpdate.TradeBuffer[] tradeBuffers;
+    private final OrderBook[] changedBooks;
+    private final boolean[] changed;
+    private int changedCount;
+    private long lastOrderId;
+
+    private volatile long restingOrders;
+    private volatile long accounts;
+    private final LongAdder ordersSubmitted = new LongAdder();
+    private final LongAdder ordersCancelled = new LongAdder();
+    private final LongAdder ordersRejected = new LongAdder();
+    private final LongAdder trades = new LongAdder();
+    private final LongAdder tradedQuantity = new LongAdder();
+
+    /**
+     * Constructs a new MatchingEngine and starts its matching thread.
+     *
+     * @param symbols          the symbols traded, each on its own book
+     * @param tickSize         the smallest price increment, every price must be
+     *                         a multiple of it
+     * @param maxOrderQuantity the largest quantity of a single order
+     * @param initialCash      the cash an account is opened with
+     * @param maxPosition      the largest position of an account in a symbol,
+     *                         long or short, counting its resting orders
+     * @param maxOrderNotional the largest price times quantity of a single
+     *                         order
+     * @param ringSize         the number of commands that can wait for the
+     *                         matching thread, rounded up to a power of two
+     * @param batchSize        the maximum number of commands applied before
+     *                         their replies are completed
+     * @param waitStrategy     how the matching thread waits for commands
+     * @param marketDataHub    the hub streaming the changes of the books, or
+     *                         {@code null} to stream none
+     * @param orderJournal     the journal the state of the engine is recovered
+     *                         from and written to, or {@code null} to keep it
+     *                         in memory only
+     * @throws IllegalStateException if the journal cannot be recovered
+     */
+    @Autowired
+    public MatchingEngine(@Value("${trading.symbols:AAPL,MSFT,GOOG,AMZN,TSLA}") List<String> symbols,
+            @Value("${trading.tick-size:0.01}") BigDecimal tickSize,
+            @Value("${trading.max-order-quantity:1000000}") long maxOrderQuantity,
+            @Value("${trading.risk.initial-cash:1000000}") BigDecimal initialCash,
+            @Value("${trading.risk.max-position:1000000}") long maxPosition,
+            @Value("${trading.risk.max-order-notional:1000000}") BigDecimal maxOrderNotional,
+            @Value("${trading.sequencer.ring-size:65536}") int ringSize,
+            @Value("${trading.sequencer.batch-size:256}") int batchSize,
+            @Value("${trading.sequencer.wait-strategy:PARK}") WaitStrategy waitStrategy,
+            MarketDataHub marketDataHub, OrderJournal orderJournal) {
+        if (tickSize.signum() <= 0) {
+            throw new IllegalArgumentException("Tick size must be positive");
+        }
+        this.tickSize = tickSize;
+        this.maxOrderQuantity = maxOrderQuantity;
+        Map<String, OrderBook> books = new LinkedHashMap<>();
+        for (String symbol : symbols) {
+            String normalized = normalize(symbol);
+            books.putIfAbsent(normalized, new OrderBook(books.size(), normalized));
+        }
+        this.books = Collections.unmodifiableMap(books);
+        this.symbolsById = books.keySet().toArray(new String[0]);
+        this.ledger = new Ledger(books.size(), toWholeTicks(initialCash), maxPosition,
+                toWholeTicks(maxOrderNotional), 1024);
+        this.marketDataHub = marketDataHub;
+        this.tradeBuffers = new BookUpdate.TradeBuffer[books.size()];
+        for (int i = 0; i < tradeBuffers.length; i++) {
+            tradeBuffers[i] = new BookUpdate.TradeBuffer();
+        }
+        this.changedBooks = new OrderBook[books.size()];
+        this.changed = new boolean[books.size()];
+        this.journal = orderJournal != null && orderJournal.isEnabled() ? orderJournal : null;
+        // Before the matching thread starts, which then sees the recovered state
+        if (journal != null) {
+            recover();
+        }
+        if (marketDataHub != null) {
+            marketDataHub.start(getSymbols());
+            publishChanges();
+        }
+        this.sequencer = new OrderSequencer("matching-engine", ringSize, batchSize, waitStrategy,
+                new OrderSequencer.Handler() {
+                    @Override
+                    public void onCommand(OrderCommand command) {
+                        apply(command);
+                    }
+
+                    @Override
+                    public void onBatchEnd() {
+                        long resting = 0;
+                        for (OrderBook book : MatchingEngine.this.books.values()) {
+                            resting += book.getOrderCount();
+                        }
+                        restingOrders = resting;
+                        accounts = ledger.getAccountCount();
+                        if (journal != null) {
+                            journal.endBatch();
+                            if (journal.isSnapshotDue()) {
+                                journal.snapshot(lastOrderId, MatchingEngine.this.books.values(), ledger);
+                            }
+                        }
+                        publishChanges();
+                    }
+
+                    @Override
+                    public void onIdle() {
+                        if (journal != null) {
+                            journal.flushIfDue();
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Matches an order against the book of its symbol. What is left of a limit
+     * order rests on the book, and what is left of a market or IOC order is
+     * cancelled.
+     *
+     * @param userId  the ID of the user placing the order
+     * @param request the order
+     * @return a future completed with the state of the order and its trades
+     * @throws IllegalArgumentException if the symbol is not traded, or the
+     *                                  price or quantity is invalid
+     */
+    public CompletableFuture<OrderResultDTO> submit(long userId, OrderRequestDTO request) {
+        OrderBook book = getBook(request.getSymbol())
+                .orElseThrow(() -> new IllegalArgumentException("Unknown symbol: " + request.getSymbol()));
+        if (request.getSide() == null) {
+            throw new IllegalArgumentException("Side is mandatory");
+        }
+        OrderType type = request.getType() == null ? OrderType.LIMIT : request.getType();
+        long quantity = request.getQuantity();
+        if (quantity <= 0 || quantity > maxOrderQuantity) {
+            throw new IllegalArgumentException("Quantity must be between 1 and " + maxOrderQuantity);
+        }
+        long price = 0;
+        if (type != OrderType.MARKET) {
+            if (request.getPrice() == null) {
+                throw new IllegalArgumentException("Price is mandatory for " + type + " orders");
+            }
+            price = toTicks(request.getPrice());
+        }
+        CompletableFuture<OrderResultDTO> reply = new CompletableFuture<>();
+        publish(OrderCommand.Kind.SUBMIT, book, userId, 0, request.getSide(), type, price, quantity, reply);
+        return reply;
+    }
+
+    /**
+     * Cancels what is left of a resting order.
+     *
+     * @param userId  the ID of the user cancelling the order
+     * @param symbol  the symbol of the order
+     * @param orderId the ID of the order
+     * @return a future completed with the cancelled order, or empty if the user
+     *         has no order with this ID resting on the book
+     */
+    public CompletableFuture<Optional<OrderResultDTO>> cancel(long userId, String symbol, long orderId) {
+        OrderBook book = getBook(symbol).orElse(null);
+        if (book == null) {
+            return CompletableFuture.completedFuture(Optional.empty());
+        }
+        CompletableFuture<Optional<OrderResultDTO>> reply = new CompletableFuture<>();
+        publish(OrderCommand.Kind.CANCEL, book, userId, orderId, null, null, 0, 0, reply);
+        return reply;
+    }
+
+    /**
+     * Looks up a resting order.
+     *
+     * @param userId  the ID of the user who placed the order
+     * @param symbol  the symbol of the order
+     * @param orderId the ID of the order
+     * @return a future completed with the order, or empty if the user has no
+     *         order with this ID resting on the book
+     */
+    public CompletableFuture<Optional<OrderResultDTO>> getOrder(long userId, String symbol, long orderId) {
+        OrderBook book = getBook(symbol).orElse(null);
+        if (book == null) {
+            return CompletableFuture.completedFuture(Optional.empty());
+        }
+        CompletableFuture<Optional<OrderResultDTO>> reply = new CompletableFuture<>();
+        publish(OrderCommand.Kind.GET_ORDER, book, userId, orderId, null, null, 0, 0, reply);
+        return reply;
+    }
+
+    /**
+     * Returns the best price levels of a book.
+     *
+     * @param symbol the symbol of the book
+     * @param depth  the maximum number of levels per side
+     * @return a future completed with the levels, or empty if the symbol is not
+     *         traded
+     */
+    public CompletableFuture<Optional<OrderBookDTO>> getDepth(String symbol, int depth) {
+        OrderBook book = getBook(symbol).orElse(null);
+        if (book == null) {
+            return CompletableFuture.completedFuture(Optional.empty());
+        }
+        CompletableFuture<Optional<OrderBookDTO>> reply = new CompletableFuture<>();
+        publish(OrderCommand.Kind.GET_DEPTH, book, 0, 0, null, null, 0, depth, reply);
+        return reply;
+    }
+
+    /**
+     * Returns the cash and positions of an account.
+     *
+     * @param userId the ID of the user owning the account
+     * @return a future completed with the account, as opened if the user has
+     *         never placed an order
+     */
+    public CompletableFuture<AccountDTO> getAccount(long userId) {
+        CompletableFuture<AccountDTO> reply = new CompletableFuture<>();
+        publish(OrderCommand.Kind.GET_ACCOUNT, null, userId, 0, null, null, 0, 0, reply);
+        return reply;
+    }
+
+    /**
+     * Returns the symbols traded.
+     *
+     * @return the symbols, in configuration order
+     */
+    public List<String> getSymbols() {
+        return new ArrayList<>(books.keySet());
+    }
+
+    /**
+     * Returns the counters of the engine.
+     *
+     * @return the number of books, resting orders and accounts, the orders
+     *         submitted, rejected by the pre-trade checks and cancelled, trades
+     *         and quantity traded since startup, and the
+     *         commands published and applied, batches, waits for room and ring
+     *         size of the sequencer
+     */
+    public Map<String, Long> getStats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("books", (long) books.size());
+        stats.put("restingOrders", restingOrders);
+        stats.put("accounts", accounts);
+        stats.put("ordersSubmitted", ordersSubmitted.sum());
+        stats.put("ordersRejected", ordersRejected.sum());
+        stats.put("ordersCancelled", ordersCancelled.sum());
+        stats.put("trades", trades.sum());
+        stats.put("tradedQuantity", tradedQuantity.sum());
+        stats.put("commandsPublished", sequencer.getPublished());
+        stats.put("commandsApplied", sequencer.getConsumed());
+        stats.put("batches", sequencer.getBatches());
+        stats.put("publisherWaits", sequencer.getPublisherWaits());
+        stats.put("ringSize", (long) sequencer.capacity());
+        return stats;
+    }
+
+    /**
+     * Stops the matching thread once the commands already published are
+     * applied, and snapshots the final state so the next start has nothing to
+     * replay.
+     */
+    @PreDestroy
+    public void shutdown() {
+        if (sequencer.stop() && journal != null) {
+            try {
+                journal.snapshot(lastOrderId, books.values(), ledger).join();
+            } catch (CompletionException e) {
+                // Logged by the journal, the next start replays the journal instead
+            }
+        }
+    }
+
+    private void publish(OrderCommand.Kind kind, OrderBook book, long userId, long orderId, Side side,
+            OrderType type, long price, long quantity, CompletableFuture<?> reply) {
+        long sequence = sequencer.claim();
+        sequencer.get(sequence).set(kind, book, userId, orderId, side, type, price, quantity, reply);
+        sequencer.publish(sequence);
+    }
+
+    /**
+     * Applies a command to its book, on the matching thread.
+     */
+    private void apply(OrderCommand command) {
+        OrderBook book = command.book;
+        switch (command.kind) {
+            case SUBMIT -> {
+                long orderId = ++lastOrderId;
+                OrderResultDTO result = new OrderResultDTO(orderId, book.getSymbol(), command.side, command.type,
+                        command.type == OrderType.MARKET ? null : toPrice(command.price), command.quantity);
+                ordersSubmitted.increment();
+                command.result = result;
+                long notional = command.type == OrderType.MARKET
+                        ? book.getMatchingNotional(command.side, 0, command.quantity)
+                        : notional(command.price, command.quantity);
+                RiskCheck check = ledger.check(command.userId, book.getSymbolId(), command.side, notional,
+                        command.quantity);
+                if (journal != null) {
+                    journal.appendSubmit(orderId, command.userId, book.getSymbolId(), command.side, command.type,
+                            command.price, command.quantity, check);
+                }
+                if (check != RiskCheck.ACCEPTED) {
+                    result.reject(check);
+                    ordersRejected.increment();
+                    return;
+                }
+                resultListener.result = result;
+                resultListener.symbolId = book.getSymbolId();
+                resultListener.tradeBuffer = tradeBuffers[book.getSymbolId()];
+                book.submit(orderId, command.userId, command.side, command.type, command.price, command.quantity,
+                        resultListener);
+                if (result.getStatus() == null) {
+                    result.setStatus(OrderResultDTO.Status.FILLED, 0);
+                }
+                markChanged(book);
+            }
+            case CANCEL -> {
+                Order order = book.getOrder(command.orderId);
+                if (order == null || order.getUserId() != command.userId) {
+                    command.result = Optional.empty();
+                    return;
+                }
+                OrderResultDTO result = toResult(book, order);
+                if (journal != null) {
+                    journal.appendCancel(command.orderId, command.userId, book.getSymbolId());
+                }
+                ledger.release(order.getUserId(), book.getSymbolId(), order.getSide(), order.getPrice(),
+                        order.getRemaining());
+                resultListener.result = result;
+                book.cancel(command.orderId, command.userId, resultListener);
+                ordersCancelled.increment();
+                markChanged(book);
+                command.result = Optional.of(result);
+            }
+            case GET_ORDER -> {
+                Order order = book.getOrder(command.orderId);
+                command.result = order == null || order.getUserId() != command.userId ? Optional.empty()
+                        : Optional.of(toResult(book, order));
+            }
+            case GET_DEPTH -> {
+                OrderBookDTO levels = new OrderBookDTO(book.getSymbol());
+                int depth = (int) command.quantity;
+                book.visitLevels(Side.BUY, depth, (price, quantity, orders) -> levels.getBids()
+                        .add(new OrderBookDTO.Level(toPrice(price), quantity, orders)));
+                book.visitLevels(Side.SELL, depth, (price, quantity, orders) -> levels.getAsks()
+                        .add(new OrderBookDTO.Level(toPrice(price), quantity, orders)));
+                command.result = Optional.of(levels);
+            }
+            case GET_ACCOUNT -> {
+                AccountDTO account = new AccountDTO(command.userId, toPrice(ledger.getCash(command.userId)),
+                        toPrice(ledger.getReservedCash(command.userId)));
+                ledger.visitPositions(command.userId, (symbolId, quantity, openBuy, openSell) -> account
+                        .getPositions().add(new AccountDTO.Position(symbolsById[symbolId], quantity, openBuy,
+                                openSell)));
+                command.result = account;
+            }
+        }
+    }
+
+    /**
+     * Loads the latest snapshot of the journal and replays the commands
+     * journaled after it, then snapshots the recovered state.
+     */
+    private void recover() {
+        try {
+            lastOrderId = journal.loadSnapshot(books, ledger);
+            Replayer replayer = new Replayer();
+            journal.replay(replayer);
+            if (replayer.missingFills > 0) {
+                logger.warn("{} trades replayed from the order journal had no journaled fill", replayer.missingFills);
+            }
+            journal.snapshot(lastOrderId, books.values(), ledger).join();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not recover the order journal", e);
+        } catch (CompletionException e) {
+            throw new IllegalStateException("Could not snapshot the recovered order journal", e.getCause());
+        }
+        long resting = 0;
+        for (OrderBook book : books.values()) {
+            resting += book.getOrderCount();
+            if (book.getOrderCount() > 0) {
+                markChanged(book);
+            }
+        }
+        restingOrders = resting;
+        accounts = ledger.getAccountCount();
+    }
+
+    /**
+     * Settles a trade in the ledger: releases what the resting order reserved
+     * for it, then moves cash and quantity between buyer and seller.
+     */
+    private void settle(long takerUserId, long makerUserId, Side takerSide, int symbolId, long price,
+            long quantity) {
+        // Trades happen at the price of the resting order, which reserved exactly this
+        ledger.release(makerUserId, symbolId, takerSide.opposite(), price, quantity);
+        if (takerSide == Side.BUY) {
+            ledger.fill(takerUserId, makerUserId, symbolId, price, quantity);
+        } else {
+            ledger.fill(makerUserId, takerUserId, symbolId, price, quantity);
+        }
+    }
+
+    private void markChanged(OrderBook book) {
+        if (marketDataHub != null && !changed[book.getSymbolId()]) {
+            changed[book.getSymbolId()] = true;
+            changedBooks[changedCount++] = book;
+        }
+    }
+
+    /**
+     * Hands the books changed by the batch over to the market data hub, on the
+     * matching thread.
+     */
+    private void publishChanges() {
+        if (changedCount == 0) {
+            return;
+        }
+        long time = System.currentTimeMillis();
+        int depth = marketDataHub.getDepth();
+        for (int i = 0; i < changedCount; i++) {
+            OrderBook book = changedBooks[i];
+            BookUpdate.TradeBuffer buffer = tradeBuffers[book.getSymbolId()];
+            marketDataHub.publish(new BookUpdate(book, time, depth, buffer));
+            buffer.count = 0;
+            changed[book.getSymbolId()] = false;
+            changedBooks[i] = null;
+        }
+        changedCount = 0;
+    }
+
+    private Optional<OrderBook> getBook(String symbol) {
+        return symbol == null ? Optional.empty() : Optional.ofNullable(books.get(normalize(symbol)));
+    }
+
+    private OrderResultDTO toResult(OrderBook book, Order order) {
+        OrderResultDTO result = new OrderResultDTO(order.getId(), book.getSymbol(), order.getSide(),
+                OrderType.LIMIT, toPrice(order.getPrice()), order.getQuantity());
+        result.setStatus(OrderResultDTO.Status.RESTING, order.getRemaining());
+        return result;
+    }
+
+    private long toTicks(BigDecimal price) {
+        BigDecimal[] ticks = price.divideAndRemainder(tickSize);
+        if (price.signum() <= 0 || ticks[1].signum() != 0) {
+            throw new IllegalArgumentException("Price must be a positive multiple of " + tickSize);
+        }
+        try {
+            return ticks[0].longValueExact();
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException("Price is too large");
+        }
+    }
+
+    private long toWholeTicks(BigDecimal amount) {
+        return amount.divideToIntegralValue(tickSize).longValueExact();
+    }
+
+    private static long notional(long price, long quantity) {
+        return price > Long.MAX_VALUE / quantity ? Long.MAX_VALUE : price * quantity;
+    }
+
+    private BigDecimal toPrice(long ticks) {
+        return tickSize.multiply(BigDecimal.valueOf(ticks));
+    }
+
+    private static String normalize(String symbol) {
+        return symbol.trim().toUpperCase(Locale.ROOT);
+    }
+
+    /**
+     * Collects the outcome of a command on a book into the result returned to
+     * the user who sent it, and settles it in the ledger. One instance is
+     * reused by the matching thread.
+     */
+    private final class ResultListener implements OrderBookListener {
+
+        private OrderResultDTO result;
+        private int symbolId;
+        private BookUpdate.TradeBuffer tradeBuffer;
+
+        @Override
+        public void onTrade(long takerOrderId, long takerUserId, long makerOrderId, long makerUserId,
+                Side takerSide, long price, long quantity) {
+            result.addFill(toPrice(price), quantity);
+            settle(takerUserId, makerUserId, takerSide, symbolId, price, quantity);
+            if (journal != null) {
+                journal.appendFill(takerOrderId, makerOrderId, price, quantity);
+            }
+            if (marketDataHub != null) {
+                tradeBuffer.add(price, quantity, takerSide);
+            }
+            trades.increment();
+            tradedQuantity.add(quantity);
+        }
+
+        @Override
+        public void onRested(Order order) {
+            result.setStatus(OrderResultDTO.Status.RESTING, order.getRemaining());
+            ledger.reserve(order.getUserId(), symbolId, order.getSide(), order.getPrice(), order.getRemaining());
+        }
+
+        @Override
+        public void onCancelled(long orderId, long userId, long quantity) {
+            result.setStatus(OrderResultDTO.Status.CANCELLED, quantity);
+        }
+    }
+
+    /**
+     * Applies the commands of the journal to the books and the ledger on
+     * startup, like the matching thread did, and checks that matching them
+     * again gives the journaled fills.
+     */
+    private final class Replayer implements OrderJournal.ReplayHandler, OrderBookListener {
+
+        private int symbolId;
+        private long takerOrderId;
+        // Maker order ID, price and quantity of each trade of the order replayed last
+        private long[] trades = new long[3 * 16];
+        private int tradeCount;
+        private int checkedCount;
+        // Trades without a journaled fill, whose write failed
+        private long missingFills;
+
+        @Override
+        public void submit(long orderId, long userId, OrderBook book, Side side, OrderType type, long price,
+                long quantity, RiskCheck check) {
+            checkFills();
+            lastOrderId = orderId;
+            takerOrderId = orderId;
+            if (check == RiskCheck.ACCEPTED) {
+                symbolId = book.getSymbolId();
+                book.submit(orderId, userId, side, type, price, quantity, this);
+            }
+        }
+
+        @Override
+        public void cancel(long orderId, long userId, OrderBook book) {
+            checkFills();
+            takerOrderId = 0;
+            Order order = book.getOrder(orderId);
+            if (order == null || order.getUserId() != userId) {
+                throw new IllegalStateException("Order journal replay diverged: order " + orderId
+                        + " was not resting when cancelled");
+            }
+            ledger.release(userId, book.getSymbolId(), order.getSide(), order.getPrice(), order.getRemaining());
+            book.cancel(orderId, userId, this);
+        }
+
+        @Override
+        public void fill(long takerOrderId, long makerOrderId, long price, long quantity) {
+            // A fill that could not be written leaves a gap: skip the trades before the one journaled
+            while (takerOrderId == this.takerOrderId && checkedCount < tradeCount
+                    && !isTrade(checkedCount, makerOrderId, price, quantity)) {
+                checkedCount++;
+                missingFills++;
+            }
+            if (takerOrderId != this.takerOrderId || checkedCount == tradeCount) {
+                throw new IllegalStateException("Order journal replay diverged: order " + takerOrderId
+                        + " did not trade " + quantity + " with order " + makerOrderId + " at " + price);
+            }
+            checkedCount++;
+        }
+
+        @Override
+        public void onTrade(long takerOrderId, long takerUserId, long makerOrderId, long makerUserId,
+                Side takerSide, long price, long quantity) {
+            settle(takerUserId, makerUserId, takerSide, symbolId, price, quantity);
+            int trade = 3 * tradeCount++;
+            if (trade == trades.length) {
+                trades = Arrays.copyOf(trades, trades.length << 1);
+            }
+            trades[trade] = makerOrderId;
+            trades[trade + 1] = price;
+            trades[trade + 2] = quantity;
+        }
+
+        @Override
+        public void onRested(Order order) {
+            ledger.reserve(order.getUserId(), symbolId, order.getSide(), order.getPrice(), order.getRemaining());
+        }
+
+        /**
+         * Counts the trades of the order replayed last that have no journaled
+         * fill. Fills are only a check of the replay, the commands alone
+         * rebuild the state: a fill whose write failed is tolerated, while a
+         * journaled fill the replay does not give is a divergence.
+         */
+        private void checkFills() {
+            missingFills += tradeCount - checkedCount;
+            tradeCount = 0;
+            checkedCount = 0;
+        }
+
+        private boolean isTrade(int index, long makerOrderId, long price, long quantity) {
+            int trade = 3 * index;
+            return trades[trade] == makerOrderId && trades[trade + 1] == price && trades[trade + 2] == quantity;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.sforce.sforcetrading.trading;
+
+/**
+ * Order resting on an order book. Orders of a price level are linked in time
+ * priority, so they are queued and removed without allocating list nodes.
+ * Orders are only changed by their book.
+ */
+public final class Order {
+
+    final long id;
+    final long userId;
+    final Side side;
+    final long price;
+    final long quantity;
+    long remaining;
+
+    PriceLevel level;
+    Order previous;
+    Order next;
+
+    Order(long id, long userId, Side side, long price, long quantity, long remaining) {
+        this.id = id;
+        this.userId = userId;
+        this.side = side;
+        this.price = price;
+        this.quantity = quantity;
+        this.remaining = remaining;
+    }
+
+    /**
+     * Gets the ID of the order.
+     *
+     * @return the order's ID
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * Gets the ID of the user who placed the order.
+     *
+     * @return the user's ID
+     */
+    public long getUserId() {
+        return userId;
+    }
+
+    /**
+     * Gets the side of the order.
+     *
+     * @return the order's side
+     */
+    public Side getSide() {
+        return side;
+    }
+
+    /**
+     * Gets the limit price of the order.
+     *
+     * @return the price, in ticks
+     */
+    public long getPrice() {
+        return price;
+    }
+
+    /**
+     * Gets the quantity the order was placed with.
+     *
+     * @return the original quantity
+     */
+    public long getQuantity() {
+        return quantity;
+    }
+
+    /**
+     * Gets the quantity of the order not traded yet.
+     *
+     * @return the remaining quantity
+     */
+    public long getRemaining() {
+        return remaining;
+    }
+}
@@ -0,0 +1,291 @@
+package com.sforce.sforcetrading.trading;
+
+import com.sforce.sforcetrading.util.LongObjectHashMap;
+
+import java.util.function.Consumer;
+
+/**
+ * Limit order book of one symbol, matching incoming orders against resting ones
+ * in price then time priority. Prices are whole numbers of ticks, so levels are
+ * compared and stored as primitive longs.
+ * <p>
+ * A book is not thread-safe: commands must be applied by one thread at a time,
+ * and their outcome is reported to the listener passed with each command
+ * before it returns.
+ */
+public final class OrderBook {
+
+    private static final int INITIAL_ORDERS = 1 << 16;
+
+    private final int symbolId;
+    private final String symbol;
+    private final BookSide bids = new BookSide(Side.BUY);
+    private final BookSide asks = new BookSide(Side.SELL);
+    private final LongObjectHashMap<Order> orders = new LongObjectHashMap<>(INITIAL_ORDERS);
+
+    /**
+     * Constructs a new OrderBook.
+     *
+     * @param symbolId the number identifying the symbol in the engine
+     * @param symbol   the symbol traded on the book
+     */
+    public OrderBook(int symbolId, String symbol) {
+        this.symbolId = symbolId;
+        this.symbol = symbol;
+    }
+
+    /**
+     * Gets the number identifying the symbol of the book.
+     *
+     * @return the symbol ID
+     */
+    public int getSymbolId() {
+        return symbolId;
+    }
+
+    /**
+     * Gets the symbol traded on the book.
+     *
+     * @return the symbol
+     */
+    public String getSymbol() {
+        return symbol;
+    }
+
+    /**
+     * Matches an incoming order against the opposite side of the book. What is
+     * left of a limit order then rests on the book, and what is left of a
+     * market or IOC order is cancelled.
+     *
+     * @param orderId  the ID of the order, unique across the book and not
+     *                 {@code 0}
+     * @param userId   the ID of the user placing the order
+     * @param side     the side of the order
+     * @param type     the kind of order
+     * @param price    the limit price in ticks, ignored for market orders
+     * @param quantity the quantity of the order, positive
+     * @param listener the listener notified of trades, and of the order resting
+     *                 or being cancelled
+     * @return the quantity traded
+     */
+    public long submit(long orderId, long userId, Side side, OrderType type, long price, long quantity,
+            OrderBookListener listener) {
+        if (quantity <= 0) {
+            throw new IllegalArgumentException("Quantity must be positive");
+        }
+        if (type != OrderType.MARKET && price <= 0) {
+            throw new IllegalArgumentException("Price must be positive");
+        }
+        boolean buy = side == Side.BUY;
+        long limit = type != OrderType.MARKET ? price : buy ? Long.MAX_VALUE : Long.MIN_VALUE;
+        BookSide opposite = buy ? asks : bids;
+        long remaining = quantity;
+
+        PriceLevel level;
+        while (remaining > 0 && (level = opposite.best()) != null
+                && (buy ? level.price <= limit : level.price >= limit)) {
+            Order maker = level.head;
+            do {
+                long traded = Math.min(remaining, maker.remaining);
+                remaining -= traded;
+                maker.remaining -= traded;
+                level.quantity -= traded;
+                listener.onTrade(orderId, userId, maker.id, maker.userId, side, level.price, traded);
+                if (maker.remaining == 0) {
+                    Order next = maker.next;
+                    level.remove(maker);
+                    orders.remove(maker.id);
+                    maker = next;
+                }
+            } while (remaining > 0 && maker != null);
+            if (level.isEmpty()) {
+                opposite.removeBest();
+            }
+        }
+
+        if (remaining > 0) {
+            if (type == OrderType.LIMIT) {
+                Order order = new Order(orderId, userId, side, price, quantity, remaining);
+                (buy ? bids : asks).getOrCreate(price).add(order);
+                orders.put(orderId, order);
+                listener.onRested(order);
+            } else {
+                listener.onCancelled(orderId, userId, remaining);
+            }
+        }
+        return quantity - remaining;
+    }
+
+    /**
+     * Cancels what is left of a resting order.
+     *
+     * @param orderId  the ID of the order
+     * @param userId   the ID of the user cancelling the order, who must have
+     *                 placed it
+     * @param listener the listener notified of the cancelled quantity
+     * @return {@code true} if the order was cancelled, {@code false} if the user
+     *         has no order with this ID resting on the book
+     */
+    public boolean cancel(long orderId, long userId, OrderBookListener listener) {
+        Order order = orders.get(orderId);
+        if (order == null || order.userId != userId) {
+            return false;
+        }
+        orders.remove(orderId);
+        PriceLevel level = order.level;
+        long remaining = order.remaining;
+        level.remove(order);
+        if (level.isEmpty()) {
+            (order.side == Side.BUY ? bids : asks).remove(level);
+        }
+        listener.onCancelled(orderId, userId, remaining);
+        return true;
+    }
+
+    /**
+     * Returns a resting order.
+     *
+     * @param orderId the ID of the order
+     * @return the order, or {@code null} if it is not resting on the book
+     */
+    public Order getOrder(long orderId) {
+        return orders.get(orderId);
+    }
+
+    /**
+     * Returns the number of orders resting on the book.
+     *
+     * @return the number of resting orders
+     */
+    public int getOrderCount() {
+        return orders.size();
+    }
+
+    /**
+     * Returns the best price of one side of the book.
+     *
+     * @param side the side of the book
+     * @return the highest bid or lowest ask price in ticks, or {@code 0} if the
+     *         side is empty
+     */
+    public long getBestPrice(Side side) {
+        PriceLevel best = (side == Side.BUY ? bids : asks).best();
+        return best == null ? 0 : best.price;
+    }
+
+    /**
+     * Returns the number of price levels of one side of the book.
+     *
+     * @param side the side of the book
+     * @return the number of levels
+     */
+    public int getDepth(Side side) {
+        return (side == Side.BUY ? bids : asks).size();
+    }
+
+    /**
+     * Returns the notional an order would trade for if it was submitted now:
+     * the price times the quantity of the resting orders it would match, best
+     * price first.
+     *
+     * @param side     the side of the order
+     * @param price    the limit price of the order in ticks, or {@code 0} for
+     *                 a market order
+     * @param quantity the quantity of the order
+     * @return the notional in ticks, or {@link Long#MAX_VALUE} if it does not
+     *         fit in a long
+     */
+    public long getMatchingNotional(Side side, long price, long quantity) {
+        BookSide levels = side == Side.BUY ? asks : bids;
+        long notional = 0;
+        for (int rank = 0; rank < levels.size() && quantity > 0; rank++) {
+            PriceLevel level = levels.get(rank);
+            if (price != 0 && (side == Side.BUY ? level.price > price : level.price < price)) {
+                break;
+            }
+            long traded = Math.min(quantity, level.quantity);
+            try {
+                notional = Math.addExact(notional, Math.multiplyExact(level.price, traded));
+            } catch (ArithmeticException e) {
+                return Long.MAX_VALUE;
+            }
+            quantity -= traded;
+        }
+        return notional;
+    }
+
+    /**
+     * Reports the best price levels of one side of the book, best first.
+     *
+     * @param side      the side of the book
+     * @param maxLevels the maximum number of levels reported
+     * @param visitor   the visitor called for each level
+     */
+    public void visitLevels(Side side, int maxLevels, LevelVisitor visitor) {
+        BookSide levels = side == Side.BUY ? bids : asks;
+        int count = Math.min(maxLevels, levels.size());
+        for (int rank = 0; rank < count; rank++) {
+            PriceLevel level = levels.get(rank);
+            visitor.visit(level.price, level.quantity, level.orders);
+        }
+    }
+
+    /**
+     * Reports the orders resting on one side of the book, best price first and
+     * oldest first at each price: the order in which {@link #restore} puts
+     * them back.
+     *
+     * @param side    the side of the book
+     * @param visitor the visitor called for each order
+     */
+    void visitOrders(Side side, Consumer<Order> visitor) {
+        BookSide levels = side == Side.BUY ? bids : asks;
+        for (int rank = 0; rank < levels.size(); rank++) {
+            for (Order order = levels.get(rank).head; order != null; order = order.next) {
+                visitor.accept(order);
+            }
+        }
+    }
+
+    /**
+     * Puts a saved order back on the book, behind the orders resting at its
+     * price, without matching it nor notifying anyone.
+     *
+     * @param orderId   the ID of the order
+     * @param userId    the ID of the user who placed it
+     * @param side      the side of the order
+     * @param price     the price of the order in ticks
+     * @param quantity  the quantity of the order
+     * @param remaining the quantity still resting
+     */
+    void restore(long orderId, long userId, Side side, long price, long quantity, long remaining) {
+        Order order = new Order(orderId, userId, side, price, quantity, remaining);
+        (side == Side.BUY ? bids : asks).getOrCreate(price).add(order);
+        orders.put(orderId, order);
+    }
+
+    /**
+     * Removes every resting order, without notifying anyone.
+     */
+    public void clear() {
+        bids.clear();
+        asks.clear();
+        orders.clear();
+    }
+
+    /**
+     * Visitor of the price levels of a book.
+     */
+    @FunctionalInterface
+    public interface LevelVisitor {
+
+        /**
+         * Called for a price level.
+         *
+         * @param price    the price of the level, in ticks
+         * @param quantity the total quantity resting at the price
+         * @param orders   the number of orders resting at the price
+         */
+        void visit(long price, long quantity, int orders);
+    }
+}
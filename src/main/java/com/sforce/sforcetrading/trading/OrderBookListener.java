@@ -0,0 +1,45 @@
+package com.sforce.sforcetrading.trading;
+
+/**
+ * Receives the outcome of the commands applied to an order book, synchronously
+ * and in order. Implementations must not change the book they are called by.
+ */
+public interface OrderBookListener {
+
+    /**
+     * Called for each trade between an incoming order and an order resting on
+     * the book, in the order they are matched.
+     *
+     * @param takerOrderId the ID of the incoming order
+     * @param takerUserId  the ID of the user who placed the incoming order
+     * @param makerOrderId the ID of the resting order
+     * @param makerUserId  the ID of the user who placed the resting order
+     * @param takerSide    the side of the incoming order
+     * @param price        the price of the trade, that of the resting order, in
+     *                     ticks
+     * @param quantity     the quantity traded
+     */
+    default void onTrade(long takerOrderId, long takerUserId, long makerOrderId, long makerUserId, Side takerSide,
+            long price, long quantity) {
+    }
+
+    /**
+     * Called when what is left of a limit order after matching rests on the
+     * book.
+     *
+     * @param order the resting order
+     */
+    default void onRested(Order order) {
+    }
+
+    /**
+     * Called when quantity of an order is cancelled: what is left of a market or
+     * IOC order after matching, or a resting order cancelled by its owner.
+     *
+     * @param orderId  the ID of the order
+     * @param userId   the ID of the user who placed the order
+     * @param quantity the quantity cancelled
+     */
+    default void onCancelled(long orderId, long userId, long quantity) {
+    }
+}
@@ -0,0 +1,92 @@
+package com.sforce.sforcetrading.trading;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Slot of the sequencer ring. Slots are allocated once and refilled by the
+ * thread that claims them, so publishing a command allocates nothing but its
+ * reply.
+ */
+final class OrderCommand {
+
+    /**
+     * Kinds of commands.
+     */
+    enum Kind {
+        SUBMIT,
+        CANCEL,
+        GET_ORDER,
+        GET_DEPTH,
+        GET_ACCOUNT
+    }
+
+    Kind kind;
+    OrderBook book;
+    long userId;
+    long orderId;
+    Side side;
+    OrderType type;
+    long price;
+    // The maximum number of levels per side for a depth query
+    long quantity;
+
+    // Set by the matching thread, and handed to the reply threads once the batch is done
+    Object result;
+    RuntimeException error;
+    CompletableFuture<?> reply;
+
+    void set(Kind kind, OrderBook book, long userId, long orderId, Side side, OrderType type, long price,
+            long quantity, CompletableFuture<?> reply) {
+        this.kind = kind;
+        this.book = book;
+        this.userId = userId;
+        this.orderId = orderId;
+        this.side = side;
+        this.type = type;
+        this.price = price;
+        this.quantity = quantity;
+        this.reply = reply;
+    }
+
+    /**
+     * Moves the outcome and the reply out of the slot, so the slot can be reused
+     * before the reply is completed.
+     *
+     * @return the reply, completed with the outcome when run
+     */
+    Reply takeReply() {
+        Reply taken = new Reply(reply, result, error);
+        // Drop the references, so a slot keeps nothing alive until it is reused
+        book = null;
+        result = null;
+        error = null;
+        reply = null;
+        return taken;
+    }
+
+    /**
+     * Outcome of a command on its way to the thread completing its reply.
+     */
+    static final class Reply implements Runnable {
+
+        private final CompletableFuture<?> reply;
+        private final Object result;
+        private final RuntimeException error;
+
+        private Reply(CompletableFuture<?> reply, Object result, RuntimeException error) {
+            this.reply = reply;
+            this.result = result;
+            this.error = error;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void run() {
+            if (error == null) {
+                ((CompletableFuture<Object>) reply).complete(result);
+            } else {
+                reply.completeExceptionally(error);
+            }
+        }
+    }
+}
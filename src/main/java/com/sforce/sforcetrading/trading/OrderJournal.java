@@ -0,0 +1,680 @@
+package com.sforce.sforcetrading.trading;
+
+import com.sforce.sforcetrading.util.MappedSegmentLog;
+
+import jakarta.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Service journaling what changes the books and the ledger of the
+ * {@link MatchingEngine}, so the engine gets its state back exactly after a
+ * restart.
+ * <p>
+ * The matching thread appends every order it sequences, with the outcome of
+ * its pre-trade checks, every cancel and every fill to a memory-mapped
+ * {@link MappedSegmentLog}, before changing the books. With
+ * {@code trading.journal.flush-interval-ms=0}, the records of a batch are
+ * forced to disk before its replies are sent. With a longer interval, a batch
+ * coming sooner after the previous flush is answered first, and its records
+ * are forced once the interval has elapsed, by a later batch or while the
+ * matching thread waits for commands. Records are framed with their CRC32C,
+ * so one torn by a crash is dropped on restart.
+ * <p>
+ * Every {@code trading.journal.snapshot-interval} commands, the matching
+ * thread encodes the books and the ledger into a compact binary snapshot,
+ * which a background thread writes to a file; the segments only needed by
+ * older snapshots are then deleted. On startup, the engine loads the latest
+ * valid snapshot and replays the commands journaled after it, matching them
+ * again: fills follow from matching, and the journaled ones are compared with
+ * them to detect a replay that diverges.
+ */
+@Service
+public class OrderJournal {
+
+    private static final Logger logger = LoggerFactory.getLogger(OrderJournal.class);
+
+    private static final String SEGMENT_PREFIX = "orders";
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".snap";
+    private static final Pattern SNAPSHOT_NAME = Pattern.compile(
+            Pattern.quote(SNAPSHOT_PREFIX) + "\\d{20}" + Pattern.quote(SNAPSHOT_SUFFIX));
+    private static final int SNAPSHOTS_KEPT = 2;
+    private static final int SNAPSHOT_MAGIC = 0x5346534e; // "SFSN"
+    private static final int SNAPSHOT_VERSION = 1;
+    // Magic, version, sequence, journal segment and last order ID
+    private static final int SNAPSHOT_HEADER_SIZE = 2 * Integer.BYTES + 3 * Long.BYTES;
+    private static final int SNAPSHOT_SEGMENT_OFFSET = 2 * Integer.BYTES + Long.BYTES;
+    // ID, user ID, side, price, quantity and remaining quantity
+    private static final int ORDER_SIZE = 5 * Long.BYTES + 1;
+    // User ID, cash, reserved cash and number of positions
+    private static final int ACCOUNT_SIZE = 3 * Long.BYTES + Integer.BYTES;
+    // Symbol ID, quantity, open buy and open sell quantities
+    private static final int POSITION_SIZE = Integer.BYTES + 3 * Long.BYTES;
+
+    // Kinds of records
+    private static final byte SUBMIT = 1;
+    private static final byte CANCEL = 2;
+    private static final byte FILL = 3;
+    // Kind, sequence, order ID, user ID, symbol ID, side, type, check, price and quantity
+    private static final int MAX_RECORD_SIZE = 1 + 3 * Long.BYTES + Integer.BYTES + 3 + 2 * Long.BYTES;
+
+    private static final Side[] SIDES = Side.values();
+    private static final OrderType[] ORDER_TYPES = OrderType.values();
+    private static final RiskCheck[] RISK_CHECKS = RiskCheck.values();
+
+    private final boolean enabled;
+    private final Path directory;
+    private final long flushIntervalNanos;
+    private final long snapshotInterval;
+    private final MappedSegmentLog log;
+
+    // Only used by the matching thread
+    private final ByteBuffer record = ByteBuffer.allocate(MAX_RECORD_SIZE);
+    private long sequence;
+    private long snapshotSequence;
+    private long snapshotSegment;
+    private OrderBook[] snapshotBooks;
+    private boolean unflushed;
+    private long lastFlush = System.nanoTime();
+
+    private volatile Thread snapshotWriter;
+    private final LongAdder commands = new LongAdder();
+    private final LongAdder fills = new LongAdder();
+    private final LongAdder flushes = new LongAdder();
+    private final LongAdder writeErrors = new LongAdder();
+    private final LongAdder snapshots = new LongAdder();
+    private volatile long lastSnapshotSequence;
+    private volatile long lastSnapshotBytes;
+    private volatile long lastSnapshotEncodeMillis;
+    private volatile long recoveredCommands;
+    private volatile long recoveryMillis;
+
+    /**
+     * Constructs a new OrderJournal, opening the journal unless disabled.
+     *
+     * @param enabled          whether the state of the engine is journaled
+     * @param directory        the directory of the journal segments and
+     *                         snapshots
+     * @param segmentSize      the size of a journal segment file
+     * @param flushIntervalMs  the minimum time between two flushes to disk, 0
+     *                         flushes after every batch of commands
+     * @param snapshotInterval the number of commands journaled between two
+     *                         snapshots
+     * @throws IOException if the journal cannot be opened
+     */
+    @Autowired
+    public OrderJournal(@Value("${trading.journal.enabled:true}") boolean enabled,
+            @Value("${trading.journal.directory:trading-journal}") String directory,
+            @Value("${trading.journal.segment-size:128MB}") DataSize segmentSize,
+            @Value("${trading.journal.flush-interval-ms:0}") long flushIntervalMs,
+            @Value("${trading.journal.snapshot-interval:1000000}") long snapshotInterval) throws IOException {
+        if (snapshotInterval < 1) {
+            throw new IllegalArgumentException("Snapshot interval must be positive");
+        }
+        this.enabled = enabled;
+        this.directory = Path.of(directory);
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMs);
+        this.snapshotInterval = snapshotInterval;
+        this.log = enabled ? new MappedSegmentLog(this.directory, SEGMENT_PREFIX,
+                Math.toIntExact(segmentSize.toBytes()), 0) : null;
+    }
+
+    /**
+     * Tells whether the journal is written.
+     *
+     * @return {@code true} unless disabled
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns the counters of the journal.
+     *
+     * @return a map with the commands and fills journaled and the flushes to
+     *         disk since startup, the records that could not be written, the
+     *         current segment, the snapshots written, the sequence, size and
+     *         encoding time of the latest, and the commands replayed on
+     *         startup and the time the recovery took
+     */
+    public Map<String, Long> getStats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled ? 1L : 0L);
+        stats.put("commands", commands.sum());
+        stats.put("fills", fills.sum());
+        stats.put("flushes", flushes.sum());
+        stats.put("writeErrors", writeErrors.sum());
+        stats.put("segment", log == null ? 0 : log.getSegmentIndex());
+        stats.put("snapshots", snapshots.sum());
+        stats.put("lastSnapshotSequence", lastSnapshotSequence);
+        stats.put("lastSnapshotBytes", lastSnapshotBytes);
+        stats.put("lastSnapshotEncodeMillis", lastSnapshotEncodeMillis);
+        stats.put("recoveredCommands", recoveredCommands);
+        stats.put("recoveryMillis", recoveryMillis);
+        return stats;
+    }
+
+    /**
+     * Waits for the snapshot being written and closes the journal when the
+     * application shuts down, after the engine.
+     */
+    @PreDestroy
+    public void shutdown() {
+        if (log == null) {
+            return;
+        }
+        awaitSnapshot();
+        try {
+            log.close();
+        } catch (IOException e) {
+            logger.error("Could not close the order journal: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Loads the latest valid snapshot into the books and the ledger, which must
+     * be empty. A snapshot failing its checksum is skipped for the one before.
+     *
+     * @param books  the books of the engine, by symbol
+     * @param ledger the ledger of the engine
+     * @return the ID of the last order submitted before the snapshot, or
+     *         {@code 0} if there is none
+     * @throws IOException           if no snapshot can be read
+     * @throws IllegalStateException if the snapshot holds a symbol no longer
+     *                               traded, or every snapshot is corrupt: the
+     *                               segments before them may be deleted, so
+     *                               replaying the journal alone would lose
+     *                               state
+     */
+    long loadSnapshot(Map<String, OrderBook> books, Ledger ledger) throws IOException {
+        long start = System.nanoTime();
+        snapshotBooks = books.values().toArray(new OrderBook[0]);
+        List<Path> files = snapshots();
+        for (int i = files.size() - 1; i >= 0; i--) {
+            Path file = files.get(i);
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                ByteBuffer snapshot = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                if (!isValid(snapshot)) {
+                    logger.warn("Skipping corrupt order journal snapshot {}", file);
+                    continue;
+                }
+                long lastOrderId = decode(snapshot, books, ledger);
+                recoveryMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                return lastOrderId;
+            }
+        }
+        if (!files.isEmpty()) {
+            throw new IllegalStateException("No usable order journal snapshot in " + directory + ": all "
+                    + files.size() + " are corrupt");
+        }
+        return 0;
+    }
+
+    /**
+     * Replays the commands journaled after the loaded snapshot, oldest first,
+     * then appends after them.
+     *
+     * @param handler the handler applying the commands
+     * @throws IOException           if the journal cannot be read
+     * @throws IllegalStateException if the handler finds that the replay
+     *                               diverges from the journal
+     */
+    void replay(ReplayHandler handler) throws IOException {
+        long start = System.nanoTime();
+        sequence = snapshotSequence;
+        Replay replay = new Replay(handler);
+        try {
+            MappedSegmentLog.read(directory, SEGMENT_PREFIX, snapshotSegment, replay);
+        } finally {
+            recoveredCommands = replay.replayed;
+            recoveryMillis += TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        }
+        logger.info("Recovered the order journal: {} commands replayed in {} ms", recoveredCommands, recoveryMillis);
+    }
+
+    /**
+     * Journals an order, on the matching thread, before it reaches its book.
+     *
+     * @param orderId  the ID assigned to the order
+     * @param userId   the ID of the user placing the order
+     * @param symbolId the ID of the symbol
+     * @param side     the side of the order
+     * @param type     the kind of order
+     * @param price    the limit price in ticks, 0 for market orders
+     * @param quantity the quantity of the order
+     * @param check    the outcome of the pre-trade checks
+     * @throws UncheckedIOException if the journal cannot be written, in which
+     *                              case the order must not be applied
+     */
+    void appendSubmit(long orderId, long userId, int symbolId, Side side, OrderType type, long price,
+            long quantity, RiskCheck check) {
+        record.clear();
+        record.put(SUBMIT).putLong(sequence + 1).putLong(orderId).putLong(userId).putInt(symbolId)
+                .put((byte) side.ordinal()).put((byte) type.ordinal()).put((byte) check.ordinal())
+                .putLong(price).putLong(quantity);
+        appendCommand();
+    }
+
+    /**
+     * Journals the cancel of a resting order, on the matching thread, before
+     * it is applied.
+     *
+     * @param orderId  the ID of the order
+     * @param userId   the ID of the user cancelling the order
+     * @param symbolId the ID of the symbol
+     * @throws UncheckedIOException if the journal cannot be written, in which
+     *                              case the cancel must not be applied
+     */
+    void appendCancel(long orderId, long userId, int symbolId) {
+        record.clear();
+        record.put(CANCEL).putLong(sequence + 1).putLong(orderId).putLong(userId).putInt(symbolId);
+        appendCommand();
+    }
+
+    /**
+     * Journals a fill of the order journaled last, on the matching thread. A
+     * fill that cannot be written is counted and logged: replaying the order
+     * matches it again anyway, and the replay only checks the fills
+     * journaled.
+     *
+     * @param takerOrderId the ID of the incoming order
+     * @param makerOrderId the ID of the resting order
+     * @param price        the price of the trade in ticks
+     * @param quantity     the quantity traded
+     */
+    void appendFill(long takerOrderId, long makerOrderId, long price, long quantity) {
+        record.clear();
+        record.put(FILL).putLong(sequence).putLong(takerOrderId).putLong(makerOrderId).putLong(price)
+                .putLong(quantity);
+        record.flip();
+        try {
+            log.append(record);
+            fills.increment();
+        } catch (IOException e) {
+            writeErrors.increment();
+            logger.error("Could not journal a fill of order {}: {}", takerOrderId, e.getMessage());
+        }
+    }
+
+    /**
+     * Forces the records of a batch to disk, on the matching thread, before
+     * its replies are sent, unless the previous flush is too recent; they are
+     * then forced by {@link #flushIfDue()} or a later batch.
+     */
+    void endBatch() {
+        flushIfDue();
+    }
+
+    /**
+     * Forces the records not yet on disk, on the matching thread, once the
+     * flush interval has elapsed since the previous flush. Called while the
+     * matching thread waits for commands, so the records of the last batch do
+     * not wait for another one.
+     */
+    void flushIfDue() {
+        if (!unflushed) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (now - lastFlush >= flushIntervalNanos) {
+            try {
+                log.force();
+                flushes.increment();
+            } catch (RuntimeException e) {
+                writeErrors.increment();
+                logger.error("Could not flush the order journal: {}", e.getMessage());
+            }
+            unflushed = false;
+            lastFlush = now;
+        }
+    }
+
+    /**
+     * Tells whether enough commands were journaled since the previous snapshot
+     * to take another one, and the previous one is written.
+     *
+     * @return {@code true} if a snapshot is due
+     */
+    boolean isSnapshotDue() {
+        return sequence - snapshotSequence >= snapshotInterval && snapshotWriter == null;
+    }
+
+    /**
+     * Takes a snapshot of the books and the ledger, on the matching thread or
+     * once it stopped. The state is encoded right away, and written to its
+     * file in the background.
+     *
+     * @param lastOrderId the ID of the last order submitted
+     * @param books       the books of the engine, in symbol ID order
+     * @param ledger      the ledger of the engine
+     * @return a future completed once the snapshot is on disk
+     */
+    CompletableFuture<Void> snapshot(long lastOrderId, Collection<OrderBook> books, Ledger ledger) {
+        awaitSnapshot();
+        long start = System.nanoTime();
+        ByteBuffer snapshot = encode(lastOrderId, books, ledger);
+        lastSnapshotEncodeMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        snapshotSequence = sequence;
+        snapshotSegment = log.getSegmentIndex();
+        long snapshotSequence = this.snapshotSequence;
+        CompletableFuture<Void> written = new CompletableFuture<>();
+        Thread writer = new Thread(() -> {
+            try {
+                write(snapshotSequence, snapshot);
+                written.complete(null);
+            } catch (IOException | RuntimeException e) {
+                writeErrors.increment();
+                logger.error("Could not write the order journal snapshot at sequence {}: {}", snapshotSequence,
+                        e.getMessage());
+                written.completeExceptionally(e);
+            } finally {
+                snapshotWriter = null;
+            }
+        }, "order-journal-snapshot");
+        writer.setDaemon(true);
+        snapshotWriter = writer;
+        writer.start();
+        return written;
+    }
+
+    private void appendCommand() {
+        record.flip();
+        try {
+            log.append(record);
+        } catch (IOException e) {
+            writeErrors.increment();
+            throw new UncheckedIOException("Could not write to the order journal", e);
+        }
+        sequence++;
+        commands.increment();
+        unflushed = true;
+    }
+
+    private void awaitSnapshot() {
+        Thread writer = snapshotWriter;
+        if (writer != null) {
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private ByteBuffer encode(long lastOrderId, Collection<OrderBook> books, Ledger ledger) {
+        int size = SNAPSHOT_HEADER_SIZE + Integer.BYTES;
+        for (OrderBook book : books) {
+            size += Short.BYTES + book.getSymbol().getBytes(StandardCharsets.UTF_8).length
+                    + Integer.BYTES + book.getOrderCount() * ORDER_SIZE;
+        }
+        size += Integer.BYTES + ledger.getAccountCount() * ACCOUNT_SIZE + ledger.getPositionCount() * POSITION_SIZE
+                + Integer.BYTES;
+        SnapshotEncoder encoder = new SnapshotEncoder(ByteBuffer.allocate(size), ledger);
+        ByteBuffer snapshot = encoder.snapshot;
+        snapshot.putInt(SNAPSHOT_MAGIC).putInt(SNAPSHOT_VERSION).putLong(sequence).putLong(log.getSegmentIndex())
+                .putLong(lastOrderId);
+        snapshot.putInt(books.size());
+        for (OrderBook book : books) {
+            byte[] symbol = book.getSymbol().getBytes(StandardCharsets.UTF_8);
+            snapshot.putShort((short) symbol.length).put(symbol);
+        }
+        for (OrderBook book : books) {
+            snapshot.putInt(book.getOrderCount());
+            book.visitOrders(Side.BUY, encoder);
+            book.visitOrders(Side.SELL, encoder);
+        }
+        snapshot.putInt(ledger.getAccountCount());
+        ledger.visitAccounts(encoder);
+        CRC32C crc = new CRC32C();
+        crc.update(snapshot.duplicate().flip());
+        snapshot.putInt((int) crc.getValue());
+        return snapshot.flip();
+    }
+
+    private long decode(ByteBuffer snapshot, Map<String, OrderBook> books, Ledger ledger) {
+        snapshot.position(2 * Integer.BYTES);
+        snapshotSequence = snapshot.getLong();
+        snapshotSegment = snapshot.getLong();
+        long lastOrderId = snapshot.getLong();
+        // Symbol IDs of the snapshot and of the journal after it, mapped to the books configured now
+        snapshotBooks = new OrderBook[snapshot.getInt()];
+        for (int i = 0; i < snapshotBooks.length; i++) {
+            byte[] symbol = new byte[snapshot.getShort()];
+            snapshot.get(symbol);
+            String name = new String(symbol, StandardCharsets.UTF_8);
+            snapshotBooks[i] = books.get(name);
+            if (snapshotBooks[i] == null) {
+                throw new IllegalStateException("The order journal holds symbol " + name
+                        + ", which is no longer traded");
+            }
+        }
+        for (OrderBook book : snapshotBooks) {
+            for (int orders = snapshot.getInt(); orders > 0; orders--) {
+                long orderId = snapshot.getLong();
+                long userId = snapshot.getLong();
+                Side side = SIDES[snapshot.get()];
+                book.restore(orderId, userId, side, snapshot.getLong(), snapshot.getLong(), snapshot.getLong());
+            }
+        }
+        for (int accounts = snapshot.getInt(); accounts > 0; accounts--) {
+            long userId = snapshot.getLong();
+            ledger.restoreAccount(userId, snapshot.getLong(), snapshot.getLong());
+            for (int positions = snapshot.getInt(); positions > 0; positions--) {
+                int symbolId = snapshotBooks[snapshot.getInt()].getSymbolId();
+                ledger.restorePosition(userId, symbolId, snapshot.getLong(), snapshot.getLong(), snapshot.getLong());
+            }
+        }
+        return lastOrderId;
+    }
+
+    /**
+     * Writes a snapshot to a temporary file, forces it to disk and renames it,
+     * so a snapshot file is always complete, then deletes what the snapshots
+     * kept no longer need.
+     */
+    private void write(long snapshotSequence, ByteBuffer snapshot) throws IOException {
+        String name = String.format("%s%020d%s", SNAPSHOT_PREFIX, snapshotSequence, SNAPSHOT_SUFFIX);
+        Path temporary = directory.resolve(name + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (snapshot.hasRemaining()) {
+                channel.write(snapshot);
+            }
+            channel.force(true);
+        }
+        Files.move(temporary, directory.resolve(name), StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+        snapshots.increment();
+        lastSnapshotSequence = snapshotSequence;
+        lastSnapshotBytes = snapshot.limit();
+
+        List<Path> files = snapshots();
+        for (int i = 0; i < files.size() - SNAPSHOTS_KEPT; i++) {
+            Files.deleteIfExists(files.get(i));
+        }
+        // The oldest snapshot kept is the fallback of the latest, and needs the journal from its segment on
+        Path oldest = files.get(Math.max(0, files.size() - SNAPSHOTS_KEPT));
+        try (FileChannel channel = FileChannel.open(oldest, StandardOpenOption.READ)) {
+            ByteBuffer segment = ByteBuffer.allocate(Long.BYTES);
+            channel.read(segment, SNAPSHOT_SEGMENT_OFFSET);
+            log.deleteSegmentsBefore(segment.flip().getLong());
+        }
+    }
+
+    private List<Path> snapshots() throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return List.of();
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> SNAPSHOT_NAME.matcher(file.getFileName().toString()).matches())
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static boolean isValid(ByteBuffer snapshot) {
+        int length = snapshot.capacity() - Integer.BYTES;
+        if (length < SNAPSHOT_HEADER_SIZE || snapshot.getInt(0) != SNAPSHOT_MAGIC
+                || snapshot.getInt(Integer.BYTES) != SNAPSHOT_VERSION) {
+            return false;
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(snapshot.slice(0, length));
+        return (int) crc.getValue() == snapshot.getInt(length);
+    }
+
+    /**
+     * Applies the journaled commands to the engine on startup.
+     */
+    interface ReplayHandler {
+
+        /**
+         * Applies a journaled order.
+         *
+         * @param orderId  the ID assigned to the order
+         * @param userId   the ID of the user who placed the order
+         * @param book     the book of the order
+         * @param side     the side of the order
+         * @param type     the kind of order
+         * @param price    the limit price in ticks, 0 for market orders
+         * @param quantity the quantity of the order
+         * @param check    the outcome of its pre-trade checks
+         */
+        void submit(long orderId, long userId, OrderBook book, Side side, OrderType type, long price, long quantity,
+                RiskCheck check);
+
+        /**
+         * Applies a journaled cancel.
+         *
+         * @param orderId the ID of the order
+         * @param userId  the ID of the user who cancelled the order
+         * @param book    the book of the order
+         */
+        void cancel(long orderId, long userId, OrderBook book);
+
+        /**
+         * Checks a journaled fill of the order replayed last against what
+         * matching it again gave.
+         *
+         * @param takerOrderId the ID of the incoming order
+         * @param makerOrderId the ID of the resting order
+         * @param price        the price of the trade in ticks
+         * @param quantity     the quantity traded
+         */
+        void fill(long takerOrderId, long makerOrderId, long price, long quantity);
+    }
+
+    /**
+     * Decodes the records journaled after the snapshot and hands them over to
+     * the handler.
+     */
+    private final class Replay implements Consumer<ByteBuffer> {
+
+        private final ReplayHandler handler;
+        private long replayed;
+
+        private Replay(ReplayHandler handler) {
+            this.handler = handler;
+        }
+
+        @Override
+        public void accept(ByteBuffer record) {
+            byte kind = record.get();
+            long recordSequence = record.getLong();
+            if (recordSequence <= snapshotSequence) {
+                return;
+            }
+            switch (kind) {
+                case SUBMIT -> {
+                    long orderId = record.getLong();
+                    long userId = record.getLong();
+                    OrderBook book = snapshotBooks[record.getInt()];
+                    Side side = SIDES[record.get()];
+                    OrderType type = ORDER_TYPES[record.get()];
+                    RiskCheck check = RISK_CHECKS[record.get()];
+                    handler.submit(orderId, userId, book, side, type, record.getLong(), record.getLong(), check);
+                }
+                case CANCEL -> {
+                    long orderId = record.getLong();
+                    long userId = record.getLong();
+                    handler.cancel(orderId, userId, snapshotBooks[record.getInt()]);
+                }
+                case FILL -> {
+                    handler.fill(record.getLong(), record.getLong(), record.getLong(), record.getLong());
+                    return;
+                }
+                default -> throw new IllegalStateException("Unknown order journal record " + kind
+                        + " at sequence " + recordSequence);
+            }
+            sequence = recordSequence;
+            replayed++;
+        }
+    }
+
+    /**
+     * Encodes the resting orders and the accounts of a snapshot, without
+     * allocating per order or account.
+     */
+    private static final class SnapshotEncoder implements Consumer<Order>, Ledger.AccountVisitor,
+            Ledger.PositionVisitor {
+
+        private final ByteBuffer snapshot;
+        private final Ledger ledger;
+        private int positions;
+
+        private SnapshotEncoder(ByteBuffer snapshot, Ledger ledger) {
+            this.snapshot = snapshot;
+            this.ledger = ledger;
+        }
+
+        @Override
+        public void accept(Order order) {
+            snapshot.putLong(order.id).putLong(order.userId).put((byte) order.side.ordinal()).putLong(order.price)
+                    .putLong(order.quantity).putLong(order.remaining);
+        }
+
+        @Override
+        public void visit(long userId, long cash, long reservedCash) {
+            snapshot.putLong(userId).putLong(cash).putLong(reservedCash);
+            int count = snapshot.position();
+            snapshot.putInt(0);
+            positions = 0;
+            ledger.visitPositions(userId, this);
+            snapshot.putInt(count, positions);
+        }
+
+        @Override
+        public void visit(int symbolId, long quantity, long openBuyQuantity, long openSellQuantity) {
+            snapshot.putInt(symbolId).putLong(quantity).putLong(openBuyQuantity).putLong(openSellQuantity);
+            positions++;
+        }
+    }
+}
@@ -0,0 +1,336 @@
+package com.sforce.sforcetrading.trading;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Ring of pre-allocated order commands, published by any number of threads and
+ * applied in sequence order by a single matching thread, so books are changed
+ * without locks and in a deterministic order.
+ * <p>
+ * A publisher claims the next sequence, fills the slot it maps to and marks it
+ * published; it waits while the ring is full. The matching thread applies the
+ * published commands in batches, takes their outcomes out of the slots once
+ * the batch is done, frees the slots, and hands the batch to a small pool of
+ * reply threads. The replies are completed there, so what callers chain on
+ * them, such as building and dispatching a response, never runs on the
+ * matching thread. A command or batch end that throws completes the replies it
+ * concerns exceptionally, the matching thread goes on.
+ * <p>
+ * Once stopped, the matching thread closes the sequence counter when every
+ * claimed command has been applied, so a later claim fails instead of waiting
+ * for a thread that is gone.
+ */
+final class OrderSequencer {
+
+    /**
+     * Applies the commands on the matching thread.
+     */
+    interface Handler {
+
+        /**
+         * Applies a command, setting its result.
+         *
+         * @param command the command
+         */
+        void onCommand(OrderCommand command);
+
+        /**
+         * Called after each batch of commands, before their replies are
+         * completed. If it throws, the replies of the batch are completed
+         * with its exception.
+         */
+        void onBatchEnd();
+
+        /**
+         * Called repeatedly while the matching thread waits for commands, at
+         * least every millisecond.
+         */
+        void onIdle();
+    }
+
+    private static final int SPIN_TRIES = 100;
+    private static final int YIELD_TRIES = 100;
+    // Upper bound of a park, in case a wake up is missed
+    private static final long PARK_NANOS = 1_000_000;
+    // Set in the sequence counter by the matching thread when it stops, failing later claims
+    private static final long CLOSED = Long.MIN_VALUE;
+    // Completing a reply only runs what callers chained on it, a couple of threads keep up with a batch
+    private static final int REPLY_THREADS = 2;
+
+    private final OrderCommand[] ring;
+    private final int mask;
+    // Sequence published in each slot, written once the slot is filled
+    private final AtomicLongArray published;
+    // Next sequence to claim, with the CLOSED bit once the matching thread stopped
+    private final AtomicLong nextSequence = new AtomicLong();
+    private final int batchSize;
+    private final WaitStrategy waitStrategy;
+    private final Handler handler;
+    private final Thread thread;
+    private final ThreadPoolExecutor replyExecutor;
+
+    // Sequence of the last command applied and handed to the reply threads
+    private volatile long consumed = -1;
+    private volatile boolean running = true;
+    private volatile boolean parked;
+    private volatile long batches;
+    private final LongAdder publisherWaits = new LongAdder();
+
+    /**
+     * Constructs a new OrderSequencer and starts its matching thread.
+     *
+     * @param name         the name of the matching thread
+     * @param ringSize     the number of commands that can wait, rounded up to a
+     *                     power of two
+     * @param batchSize    the maximum number of commands applied before their
+     *                     replies are completed
+     * @param waitStrategy how the matching thread waits for commands
+     * @param handler      the handler applying the commands
+     */
+    OrderSequencer(String name, int ringSize, int batchSize, WaitStrategy waitStrategy, Handler handler) {
+        if (ringSize < 1 || ringSize > 1 << 30) {
+            throw new IllegalArgumentException("Ring size must be between 1 and 2^30");
+        }
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive");
+        }
+        int capacity = Integer.highestOneBit(ringSize - 1 << 1 | 1);
+        this.ring = new OrderCommand[capacity];
+        for (int i = 0; i < capacity; i++) {
+            ring[i] = new OrderCommand();
+        }
+        this.mask = capacity - 1;
+        this.published = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            published.set(i, -1);
+        }
+        this.batchSize = batchSize;
+        this.waitStrategy = waitStrategy;
+        this.handler = handler;
+        AtomicInteger replyThreadNumber = new AtomicInteger();
+        this.replyExecutor = new ThreadPoolExecutor(REPLY_THREADS, REPLY_THREADS, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, name + "-replies-" + replyThreadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.thread = new Thread(this::run, name);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Claims the next slot of the ring, waiting while the ring is full. The
+     * caller must fill the slot and {@link #publish(long) publish} it, or the
+     * matching thread stops at this sequence.
+     *
+     * @return the sequence of the slot
+     * @throws IllegalStateException if the matching thread is stopped
+     */
+    long claim() {
+        long sequence = nextSequence.getAndIncrement();
+        if (sequence < 0) {
+            throw new IllegalStateException("The order sequencer is stopped");
+        }
+        long wrapPoint = sequence - ring.length;
+        if (wrapPoint > consumed) {
+            publisherWaits.increment();
+            for (int tries = 0; wrapPoint > consumed; tries++) {
+                if (nextSequence.get() < 0) {
+                    // Only if the matching thread died, it otherwise waits for every claim
+                    throw new IllegalStateException("The order sequencer is stopped");
+                }
+                if (tries < SPIN_TRIES) {
+                    Thread.onSpinWait();
+                } else {
+                    Thread.yield();
+                }
+            }
+        }
+        return sequence;
+    }
+
+    /**
+     * Returns the slot of a claimed sequence.
+     *
+     * @param sequence the claimed sequence
+     * @return the command to fill
+     */
+    OrderCommand get(long sequence) {
+        return ring[(int) sequence & mask];
+    }
+
+    /**
+     * Hands a filled slot over to the matching thread.
+     *
+     * @param sequence the claimed sequence
+     */
+    void publish(long sequence) {
+        published.set((int) sequence & mask, sequence);
+        if (parked) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * Stops the matching thread once the commands already published are
+     * applied, then the reply threads once their replies are completed.
+     *
+     * @return {@code true} if the matching thread stopped, {@code false} if it
+     *         was still applying commands after a second
+     */
+    boolean stop() {
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // Replies handed over later are completed by the matching thread itself
+        replyExecutor.shutdown();
+        return !thread.isAlive();
+    }
+
+    /**
+     * Returns the ring size.
+     *
+     * @return the number of slots of the ring
+     */
+    int capacity() {
+        return ring.length;
+    }
+
+    /**
+     * Returns the number of commands claimed.
+     *
+     * @return the number of sequences claimed since startup
+     */
+    long getPublished() {
+        long next = nextSequence.get();
+        return next < 0 ? getConsumed() : next;
+    }
+
+    /**
+     * Returns the number of commands applied.
+     *
+     * @return the number of commands applied since startup
+     */
+    long getConsumed() {
+        return consumed + 1;
+    }
+
+    /**
+     * Returns the number of batches applied.
+     *
+     * @return the number of batches since startup
+     */
+    long getBatches() {
+        return batches;
+    }
+
+    /**
+     * Returns the number of times a publisher found the ring full.
+     *
+     * @return the number of waits for room
+     */
+    long getPublisherWaits() {
+        return publisherWaits.sum();
+    }
+
+    private void run() {
+        long next = 0;
+        int idle = 0;
+        try {
+            while (true) {
+                int count = 0;
+                while (count < batchSize && published.get((int) (next + count) & mask) == next + count) {
+                    OrderCommand command = ring[(int) (next + count) & mask];
+                    try {
+                        handler.onCommand(command);
+                    } catch (RuntimeException e) {
+                        command.error = e;
+                    }
+                    count++;
+                }
+                if (count > 0) {
+                    RuntimeException batchError = null;
+                    try {
+                        handler.onBatchEnd();
+                    } catch (RuntimeException e) {
+                        batchError = e;
+                    }
+                    OrderCommand.Reply[] replies = new OrderCommand.Reply[count];
+                    for (int i = 0; i < count; i++) {
+                        OrderCommand command = ring[(int) (next + i) & mask];
+                        if (batchError != null && command.error == null) {
+                            command.error = batchError;
+                        }
+                        replies[i] = command.takeReply();
+                    }
+                    next += count;
+                    batches++;
+                    consumed = next - 1;
+                    reply(replies);
+                    idle = 0;
+                } else if (!running && nextSequence.compareAndSet(next, next | CLOSED)) {
+                    return;
+                } else {
+                    idle(idle++, next);
+                }
+            }
+        } finally {
+            // If the thread died, fail the commands already published and the claims to come
+            nextSequence.getAndUpdate(sequence -> sequence | CLOSED);
+            IllegalStateException stopped = new IllegalStateException("The order sequencer is stopped");
+            for (; published.get((int) next & mask) == next; next++) {
+                OrderCommand command = ring[(int) next & mask];
+                command.error = stopped;
+                command.takeReply().run();
+            }
+        }
+    }
+
+    private void reply(OrderCommand.Reply[] replies) {
+        try {
+            replyExecutor.execute(() -> {
+                for (OrderCommand.Reply reply : replies) {
+                    reply.run();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Stopping, the reply threads are gone
+            for (OrderCommand.Reply reply : replies) {
+                reply.run();
+            }
+        }
+    }
+
+    private void idle(int idle, long next) {
+        try {
+            handler.onIdle();
+        } catch (RuntimeException e) {
+            // Nothing to report it to, the next wait calls it again
+        }
+        if (waitStrategy == WaitStrategy.BUSY_SPIN || idle < SPIN_TRIES) {
+            Thread.onSpinWait();
+        } else if (waitStrategy == WaitStrategy.YIELD || idle < SPIN_TRIES + YIELD_TRIES) {
+            Thread.yield();
+        } else {
+            parked = true;
+            // Check again once publishers can see the flag, or a wake up could be missed
+            if (published.get((int) next & mask) != next && running) {
+                LockSupport.parkNanos(this, PARK_NANOS);
+            }
+            parked = false;
+        }
+    }
+}
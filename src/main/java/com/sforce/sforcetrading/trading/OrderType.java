@@ -0,0 +1,20 @@
+package com.sforce.sforcetrading.trading;
+
+/**
+ * Kinds of orders accepted by the matching engine.
+ */
+public enum OrderType {
+    /**
+     * Trades up to its limit price, and the quantity left rests on the book.
+     */
+    LIMIT,
+    /**
+     * Trades at any price, and the quantity left is cancelled.
+     */
+    MARKET,
+    /**
+     * Immediate or cancel: trades up to its limit price, and the quantity left
+     * is cancelled.
+     */
+    IOC
+}
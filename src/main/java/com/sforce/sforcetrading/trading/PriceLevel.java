@@ -0,0 +1,53 @@
+package com.sforce.sforcetrading.trading;
+
+/**
+ * Orders resting at one price, in time priority: orders are added at the tail
+ * and matched from the head.
+ */
+final class PriceLevel {
+
+    final long price;
+    long quantity;
+    int orders;
+    Order head;
+    Order tail;
+
+    PriceLevel(long price) {
+        this.price = price;
+    }
+
+    void add(Order order) {
+        order.level = this;
+        order.previous = tail;
+        if (tail == null) {
+            head = order;
+        } else {
+            tail.next = order;
+        }
+        tail = order;
+        quantity += order.remaining;
+        orders++;
+    }
+
+    void remove(Order order) {
+        if (order.previous == null) {
+            head = order.next;
+        } else {
+            order.previous.next = order.next;
+        }
+        if (order.next == null) {
+            tail = order.previous;
+        } else {
+            order.next.previous = order.previous;
+        }
+        quantity -= order.remaining;
+        orders--;
+        order.level = null;
+        order.previous = null;
+        order.next = null;
+    }
+
+    boolean isEmpty() {
+        return head == null;
+    }
+}
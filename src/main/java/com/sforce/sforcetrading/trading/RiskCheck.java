@@ -0,0 +1,26 @@
+package com.sforce.sforcetrading.trading;
+
+/**
+ * Outcomes of the pre-trade checks of an order against the account of the user
+ * placing it.
+ */
+public enum RiskCheck {
+    /**
+     * The order passed every check.
+     */
+    ACCEPTED,
+    /**
+     * The notional of the order exceeds the largest allowed for a single order.
+     */
+    MAX_ORDER_NOTIONAL,
+    /**
+     * The cash of the account not reserved by its resting buy orders does not
+     * cover the notional of the buy order.
+     */
+    INSUFFICIENT_BUYING_POWER,
+    /**
+     * The position in the symbol could exceed the largest allowed, long or
+     * short, if the order and every resting order of the same side traded.
+     */
+    POSITION_LIMIT
+}
@@ -0,0 +1,18 @@
+package com.sforce.sforcetrading.trading;
+
+/**
+ * Sides of an order book.
+ */
+public enum Side {
+    BUY,
+    SELL;
+
+    /**
+     * Returns the side orders of this side trade against.
+     *
+     * @return the opposite side
+     */
+    public Side opposite() {
+        return this == BUY ? SELL : BUY;
+    }
+}
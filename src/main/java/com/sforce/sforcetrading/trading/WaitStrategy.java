@@ -0,0 +1,24 @@
+package com.sforce.sforcetrading.trading;
+
+/**
+ * How the matching thread waits for commands when the sequencer is empty. The
+ * strategies trade CPU for latency: each one first spins briefly, as commands
+ * often arrive in bursts.
+ */
+public enum WaitStrategy {
+    /**
+     * Keeps spinning: the lowest latency, but the matching thread uses a whole
+     * core even when idle.
+     */
+    BUSY_SPIN,
+    /**
+     * Yields the core to other threads between checks: low latency while other
+     * threads need little CPU, still a busy core when idle.
+     */
+    YIELD,
+    /**
+     * Parks the matching thread until a command is published: no CPU used when
+     * idle, at the cost of waking the thread up after a quiet period.
+     */
+    PARK
+}
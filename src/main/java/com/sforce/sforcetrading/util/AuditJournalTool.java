@@ -0,0 +1,92 @@
+package com.sforce.sforcetrading.util;
+
+import com.sforce.sforcetrading.dto.AuditEventDTO;
+import com.sforce.sforcetrading.service.AuditJournal;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Instant;
+
+/**
+ * Command line tool replaying an audit journal as newline-delimited JSON, oldest
+ * event first, optionally filtered. It only reads the segment files, so it can
+ * run next to the application or on a copy of its journal.
+ *
+ * <pre>
+ * AuditJournalTool &lt;directory&gt; [--user &lt;id&gt;] [--type &lt;type&gt;] [--from &lt;time&gt;] [--to &lt;time&gt;]
+ * </pre>
+ */
+public final class AuditJournalTool {
+
+    private AuditJournalTool() {
+    }
+
+    /**
+     * Prints the events of a journal.
+     *
+     * @param args the journal directory, then the optional filters: user ID,
+     *             event type, and ISO-8601 start (inclusive) and end (exclusive)
+     *             times
+     * @throws IOException if the journal cannot be read
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0 || args.length % 2 == 0) {
+            System.err.println("Usage: AuditJournalTool <directory> [--user <id>] [--type <type>]"
+                    + " [--from <time>] [--to <time>]");
+            System.exit(2);
+        }
+        Long userId = null;
+        AuditEventDTO.Type type = null;
+        Instant from = null;
+        Instant to = null;
+        for (int i = 1; i < args.length; i += 2) {
+            switch (args[i]) {
+                case "--user" -> userId = Long.valueOf(args[i + 1]);
+                case "--type" -> type = AuditEventDTO.Type.valueOf(args[i + 1]);
+                case "--from" -> from = Instant.parse(args[i + 1]);
+                case "--to" -> to = Instant.parse(args[i + 1]);
+                default -> throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+        replay(Path.of(args[0]), userId, type, from, to, System.out);
+    }
+
+    /**
+     * Writes the events of a journal matching the filters as one JSON object
+     * per line, oldest first.
+     *
+     * @param directory the directory of the journal segments
+     * @param userId    the ID of the user, or {@code null} for any user
+     * @param type      the kind of event, or {@code null} for any kind
+     * @param from      the time from which events are written, inclusive, or
+     *                  {@code null}
+     * @param to        the time until which events are written, exclusive, or
+     *                  {@code null}
+     * @param out       the stream the events are written to
+     * @throws IOException if the journal cannot be read
+     */
+    public static void replay(Path directory, Long userId, AuditEventDTO.Type type, Instant from, Instant to,
+            PrintStream out) throws IOException {
+        ObjectWriter writer = JsonMapper.builder()
+                .addModule(new JavaTimeModule())
+                .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+                .build()
+                .writerFor(AuditEventDTO.class);
+        AuditJournal.read(directory, userId, type, from, to, event -> {
+            try {
+                out.println(writer.writeValueAsString(event));
+            } catch (JsonProcessingException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        out.flush();
+    }
+}
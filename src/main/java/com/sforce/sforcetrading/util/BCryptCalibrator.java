@@ -0,0 +1,56 @@
+package com.sforce.sforcetrading.util;
+
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+
+/**
+ * Utility class picking the BCrypt strength that matches a target hashing
+ * latency on the current host.
+ * Every additional strength step doubles the hashing cost, so the cost is
+ * measured once at the minimum strength and extrapolated from there.
+ */
+public class BCryptCalibrator {
+
+    private static final String SAMPLE_PASSWORD = "calibration-sample-password";
+    private static final int SAMPLES = 3;
+
+    private BCryptCalibrator() {
+    }
+
+    /**
+     * Returns the highest BCrypt strength whose hashing time stays within the
+     * target latency.
+     *
+     * @param targetMillis the target hashing latency in milliseconds
+     * @param minStrength  the lowest strength that may be returned
+     * @param maxStrength  the highest strength that may be returned
+     * @return the calibrated strength
+     */
+    public static int calibrate(long targetMillis, int minStrength, int maxStrength) {
+        long nanos = measure(minStrength);
+        int strength = minStrength;
+        long targetNanos = targetMillis * 1_000_000L;
+        while (strength < maxStrength && nanos * 2 <= targetNanos) {
+            nanos *= 2;
+            strength++;
+        }
+        return strength;
+    }
+
+    /**
+     * Measures the time needed to hash a password at the given strength, keeping
+     * the fastest of a few samples to filter out warm-up and scheduling noise.
+     *
+     * @param strength the BCrypt strength
+     * @return the hashing time in nanoseconds
+     */
+    public static long measure(int strength) {
+        BCryptPasswordEncoder encoder = new BCryptPasswordEncoder(strength);
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < SAMPLES; i++) {
+            long start = System.nanoTime();
+            encoder.encode(SAMPLE_PASSWORD);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+}
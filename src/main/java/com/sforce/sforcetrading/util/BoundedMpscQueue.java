@@ -0,0 +1,119 @@
+package com.sforce.sforcetrading.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * Bounded lock-free queue for many producers and a single consumer.
+ * Slots live in a pre-allocated ring; each slot carries a sequence number
+ * telling producers when it is free and the consumer when it is filled, so a
+ * producer claims a slot with a single compare-and-set and neither side ever
+ * takes a lock. A full queue is reported to the producer instead of blocking
+ * it, leaving the overflow policy to the caller.
+ *
+ * @param <E> the type of the elements
+ */
+public class BoundedMpscQueue<E> {
+
+    private final int mask;
+    private final AtomicReferenceArray<E> elements;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    // Only written by the consumer, volatile so size() can be read from other threads
+    private volatile long head;
+
+    /**
+     * Constructs a new BoundedMpscQueue.
+     *
+     * @param capacity the maximum number of elements, rounded up to a power of
+     *                 two
+     */
+    public BoundedMpscQueue(int capacity) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("Capacity must be between 1 and 2^30: " + capacity);
+        }
+        int size = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        this.mask = size - 1;
+        this.elements = new AtomicReferenceArray<>(size);
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Adds an element unless the queue is full. Safe to call from any thread.
+     *
+     * @param element the element to add
+     * @return true if the element was added, false if the queue is full
+     */
+    public boolean offer(E element) {
+        while (true) {
+            long position = tail.get();
+            int index = (int) position & mask;
+            long sequence = sequences.get(index);
+            if (sequence == position) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    elements.lazySet(index, element);
+                    // Publishes the element to the consumer
+                    sequences.set(index, position + 1);
+                    return true;
+                }
+            } else if (sequence < position) {
+                // The slot still holds the element from one lap before
+                return false;
+            }
+            // Another producer claimed the slot; retry with the new tail
+        }
+    }
+
+    /**
+     * Removes up to {@code max} elements in order and hands them to the
+     * consumer. Must only be called from the consumer thread.
+     *
+     * @param consumer the consumer of the elements
+     * @param max      the maximum number of elements to remove
+     * @return the number of elements removed
+     */
+    public int drain(Consumer<? super E> consumer, int max) {
+        int drained = 0;
+        long position = head;
+        while (drained < max) {
+            int index = (int) position & mask;
+            if (sequences.get(index) != position + 1) {
+                // Empty, or the producer that claimed the slot has not filled it yet
+                break;
+            }
+            E element = elements.get(index);
+            elements.lazySet(index, null);
+            // Frees the slot for the producers of the next lap
+            sequences.set(index, position + mask + 1);
+            head = ++position;
+            drained++;
+            consumer.accept(element);
+        }
+        return drained;
+    }
+
+    /**
+     * Returns the number of elements in the queue, possibly including elements
+     * being added or removed at the time.
+     *
+     * @return the approximate number of elements
+     */
+    public int size() {
+        long size = tail.get() - head;
+        return (int) Math.max(0, Math.min(size, mask + 1));
+    }
+
+    /**
+     * Returns the capacity of the queue.
+     *
+     * @return the maximum number of elements
+     */
+    public int capacity() {
+        return mask + 1;
+    }
+}
@@ -0,0 +1,73 @@
+package com.sforce.sforcetrading.util;
+
+import org.springframework.security.crypto.bcrypt.BCrypt;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+/**
+ * BCrypt password encoder that hashes passwords held in a {@link CharBuffer}
+ * without turning them into a String.
+ * {@link BCryptPasswordEncoder} converts every password to a String, which
+ * stays in memory until it is collected. Here the characters are encoded to
+ * UTF-8 bytes that are cleared once hashed, so a caller clearing its buffer
+ * leaves no copy of the password behind. Other passwords are left to the
+ * parent encoder.
+ */
+public class CharBufferBCryptPasswordEncoder extends BCryptPasswordEncoder {
+
+    // Same format check as the parent, which rejects other hashes before reading the password
+    private static final Pattern BCRYPT_PATTERN = Pattern.compile("\\A\\$2(a|y|b)?\\$(\\d\\d)\\$[./0-9A-Za-z]{53}");
+    private static final String VERSION = "$2a";
+
+    private final int strength;
+
+    /**
+     * Constructs a new CharBufferBCryptPasswordEncoder.
+     *
+     * @param strength the log rounds to use, between 4 and 31
+     */
+    public CharBufferBCryptPasswordEncoder(int strength) {
+        super(strength);
+        this.strength = strength;
+    }
+
+    @Override
+    public String encode(CharSequence rawPassword) {
+        if (!(rawPassword instanceof CharBuffer chars)) {
+            return super.encode(rawPassword);
+        }
+        byte[] password = toBytes(chars);
+        try {
+            return BCrypt.hashpw(password, BCrypt.gensalt(VERSION, strength));
+        } finally {
+            Arrays.fill(password, (byte) 0);
+        }
+    }
+
+    @Override
+    public boolean matches(CharSequence rawPassword, String encodedPassword) {
+        if (!(rawPassword instanceof CharBuffer chars) || encodedPassword == null
+                || !BCRYPT_PATTERN.matcher(encodedPassword).matches()) {
+            return super.matches(rawPassword, encodedPassword);
+        }
+        byte[] password = toBytes(chars);
+        try {
+            return BCrypt.checkpw(password, encodedPassword);
+        } finally {
+            Arrays.fill(password, (byte) 0);
+        }
+    }
+
+    private static byte[] toBytes(CharBuffer chars) {
+        ByteBuffer encoded = StandardCharsets.UTF_8.encode(chars.duplicate());
+        byte[] bytes = new byte[encoded.remaining()];
+        encoded.get(bytes);
+        Arrays.fill(encoded.array(), (byte) 0);
+        return bytes;
+    }
+}
@@ -0,0 +1,193 @@
+package com.sforce.sforcetrading.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Small bounded in-memory cache whose entries expire at a given time.
+ * Entries are evicted in least-recently-used order once the cache is full and
+ * removed lazily when they are read after their expiry time. Hit, miss and
+ * eviction counters are kept so the cache can be sized under real load.
+ * <p>
+ * A value loaded on a miss can be stored with
+ * {@link #putIfUnchanged(Object, Object, long, long)}, which drops it if an
+ * entry was invalidated since the load started, so an invalidation racing
+ * with the load is not undone by a stale value.
+ *
+ * @param <K> the type of the keys
+ * @param <V> the type of the cached values
+ */
+public class ExpiringLruCache<K, V> {
+
+    private final int maxEntries;
+    private final Map<K, Entry<V>> entries;
+    // Guarded by entries
+    private long invalidations;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Constructs a new ExpiringLruCache.
+     *
+     * @param maxEntries the maximum number of entries to keep, 0 disables the
+     *                   cache
+     */
+    public ExpiringLruCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                if (size() > ExpiringLruCache.this.maxEntries) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached value for the key if it has not expired.
+     *
+     * @param key the key
+     * @return the cached value, or {@code null} if absent or expired
+     */
+    public V get(K key) {
+        if (maxEntries <= 0) {
+            misses.increment();
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        synchronized (entries) {
+            Entry<V> entry = entries.get(key);
+            if (entry != null) {
+                if (entry.expiresAt > now) {
+                    hits.increment();
+                    return entry.value;
+                }
+                entries.remove(key);
+                evictions.increment();
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * Checks whether an unexpired value is cached for the key, without counting
+     * a hit or a miss.
+     *
+     * @param key the key
+     * @return true if a value is cached and has not expired
+     */
+    public boolean contains(K key) {
+        long now = System.currentTimeMillis();
+        synchronized (entries) {
+            Entry<V> entry = entries.get(key);
+            return entry != null && entry.expiresAt > now;
+        }
+    }
+
+    /**
+     * Stores a value until the given expiry time.
+     *
+     * @param key       the key
+     * @param value     the value to cache
+     * @param expiresAt the epoch millisecond at which the entry expires
+     */
+    public void put(K key, V value, long expiresAt) {
+        if (maxEntries <= 0 || expiresAt <= System.currentTimeMillis()) {
+            return;
+        }
+        synchronized (entries) {
+            entries.put(key, new Entry<>(value, expiresAt));
+        }
+    }
+
+    /**
+     * Returns a stamp to take before loading a value, to be passed to
+     * {@link #putIfUnchanged(Object, Object, long, long)}.
+     *
+     * @return the number of invalidations so far
+     */
+    public long stamp() {
+        synchronized (entries) {
+            return invalidations;
+        }
+    }
+
+    /**
+     * Stores a value until the given expiry time, unless an entry was
+     * invalidated or the cache cleared since the stamp was taken.
+     *
+     * @param key       the key
+     * @param value     the value to cache
+     * @param expiresAt the epoch millisecond at which the entry expires
+     * @param stamp     the stamp taken before the value was loaded
+     * @return true if the value was stored
+     */
+    public boolean putIfUnchanged(K key, V value, long expiresAt, long stamp) {
+        if (maxEntries <= 0 || expiresAt <= System.currentTimeMillis()) {
+            return false;
+        }
+        synchronized (entries) {
+            if (invalidations != stamp) {
+                return false;
+            }
+            entries.put(key, new Entry<>(value, expiresAt));
+            return true;
+        }
+    }
+
+    /**
+     * Removes the entry for the key, if any.
+     *
+     * @param key the key
+     */
+    public void invalidate(K key) {
+        synchronized (entries) {
+            invalidations++;
+            entries.remove(key);
+        }
+    }
+
+    /**
+     * Removes all entries.
+     */
+    public void clear() {
+        synchronized (entries) {
+            invalidations++;
+            entries.clear();
+        }
+    }
+
+    /**
+     * Returns the current counters of the cache.
+     *
+     * @return a map with the size, capacity, hits, misses and evictions
+     */
+    public Map<String, Long> getStats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        synchronized (entries) {
+            stats.put("size", (long) entries.size());
+        }
+        stats.put("maxEntries", (long) maxEntries);
+        stats.put("hits", hits.sum());
+        stats.put("misses", misses.sum());
+        stats.put("evictions", evictions.sum());
+        return stats;
+    }
+
+    private static final class Entry<V> {
+        private final V value;
+        private final long expiresAt;
+
+        private Entry(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
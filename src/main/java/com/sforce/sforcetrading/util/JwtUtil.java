@@ -1,30 +1,121 @@
 package com.sforce.sforcetrading.util;
 
 import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jws;
+import io.jsonwebtoken.JwsHeader;
+import io.jsonwebtoken.JwtException;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.SignatureAlgorithm;
+import io.jsonwebtoken.SignatureException;
+import io.jsonwebtoken.SigningKeyResolverAdapter;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.stereotype.Service;
 
-import java.util.Base64;
+import java.security.Key;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
 import java.util.function.Function;
 
+import javax.crypto.spec.SecretKeySpec;
+
 /**
  * Utility class for handling JWT operations such as generating and validating
  * tokens.
+ * Tokens are signed with RS256 using the active key of the
+ * {@link JwtKeyManager} and carry its key ID, so any service holding the
+ * published public keys can verify them. Tokens signed with the legacy shared
+ * HS256 secret are still accepted while {@code jwt.secret.key} is set, but
+ * only if issued before startup and for one access token lifetime after it.
+ * Every node holds that secret, so their claims beyond the subject are
+ * dropped: the user and its authorities are loaded from the database.
+ * Access tokens are short-lived; clients renew them with a long-lived refresh
+ * token instead of logging in again.
  */
 @Service
 public class JwtUtil {
 
-    private final String SECRET_KEY;
+    public static final String CLAIM_USER_ID = "uid";
+    public static final String CLAIM_ROLES = "roles";
+    public static final String CLAIM_TOKEN_VERSION = "ver";
+    public static final String CLAIM_TOKEN_TYPE = "typ";
+    public static final String TOKEN_TYPE_REFRESH = "refresh";
+
+    private final byte[] legacySecretKey;
+    private final long startedAt = System.currentTimeMillis();
+    private final long accessTokenTtlMillis;
+    private final long refreshTokenTtlMillis;
+    private final JwtKeyManager keyManager;
+    private final VerifiedTokenCache verifiedTokenCache;
+    private final SigningKeyResolverAdapter signingKeyResolver = new SigningKeyResolverAdapter() {
+        @Override
+        public Key resolveSigningKey(JwsHeader header, Claims claims) {
+            SignatureAlgorithm algorithm = SignatureAlgorithm.forName(header.getAlgorithm());
+            if (algorithm.isHmac()) {
+                if (legacySecretKey.length == 0 || System.currentTimeMillis() - startedAt >= accessTokenTtlMillis) {
+                    throw new SignatureException("HMAC signed tokens are no longer accepted");
+                }
+                // No node issues them anymore, a newer one was forged with the shared secret
+                if (claims.getIssuedAt() == null || claims.getIssuedAt().getTime() > startedAt) {
+                    throw new SignatureException("HMAC signed token issued after the switch to RS256");
+                }
+                return new SecretKeySpec(legacySecretKey, algorithm.getJcaName());
+            }
+            Key key = header.getKeyId() != null ? keyManager.findPublicKey(header.getKeyId()) : null;
+            if (key == null) {
+                throw new SignatureException("Unknown JWT signing key: " + header.getKeyId());
+            }
+            return key;
+        }
+    };
 
-    // Load the secret key from an environment variable or configuration file
-    public JwtUtil(@Value("${jwt.secret.key}") String secretKey) {
-        this.SECRET_KEY = Base64.getEncoder().encodeToString(secretKey.getBytes());
+    // Load the legacy secret key from an environment variable or configuration file
+    public JwtUtil(@Value("${jwt.secret.key:}") String secretKey,
+            @Value("${jwt.cache.max-entries:10000}") int cacheMaxEntries,
+            @Value("${jwt.access-token.ttl-minutes:15}") long accessTokenTtlMinutes,
+            @Value("${jwt.refresh-token.ttl-days:7}") long refreshTokenTtlDays,
+            JwtKeyManager keyManager) {
+        this.legacySecretKey = secretKey.getBytes();
+        this.accessTokenTtlMillis = accessTokenTtlMinutes * 60 * 1000;
+        this.refreshTokenTtlMillis = refreshTokenTtlDays * 24 * 60 * 60 * 1000;
+        this.keyManager = keyManager;
+        this.verifiedTokenCache = new VerifiedTokenCache(cacheMaxEntries);
+    }
+
+    /**
+     * Verifies the JWT token once and returns its claims.
+     * Tokens that were verified recently are served from the verified token
+     * cache, skipping the signature check entirely.
+     *
+     * @param token the JWT token
+     * @return the verified claims
+     * @throws io.jsonwebtoken.JwtException if the token is malformed, expired or
+     *                                      its signature does not match
+     */
+    public Claims verifyToken(String token) {
+        Claims claims = verifiedTokenCache.get(token);
+        if (claims == null) {
+            Jws<Claims> jws = parse(token);
+            claims = jws.getBody();
+            // Legacy tokens are verified every time, so they stop working once their window closes
+            if (!isHmac(jws)) {
+                verifiedTokenCache.put(token, claims);
+            }
+        }
+        return claims;
+    }
+
+    /**
+     * Returns the cache of recently verified tokens.
+     *
+     * @return the verified token cache
+     */
+    public VerifiedTokenCache getVerifiedTokenCache() {
+        return verifiedTokenCache;
     }
 
     /**
@@ -68,10 +159,29 @@ public class JwtUtil {
      * @return the claims
      */
     private Claims extractAllClaims(String token) {
-        return Jwts.parser()
-                .setSigningKey(SECRET_KEY)
-                .parseClaimsJws(token)
-                .getBody();
+        return parse(token).getBody();
+    }
+
+    /**
+     * Verifies a token, dropping the claims of a legacy HMAC signed token that
+     * would authenticate it without the database.
+     */
+    private Jws<Claims> parse(String token) {
+        Jws<Claims> jws = Jwts.parser()
+                .setSigningKeyResolver(signingKeyResolver)
+                .parseClaimsJws(token);
+        if (isHmac(jws)) {
+            Claims claims = jws.getBody();
+            claims.remove(CLAIM_USER_ID);
+            claims.remove(CLAIM_ROLES);
+            claims.remove(CLAIM_TOKEN_VERSION);
+            claims.remove(CLAIM_TOKEN_TYPE);
+        }
+        return jws;
+    }
+
+    private static boolean isHmac(Jws<Claims> jws) {
+        return SignatureAlgorithm.forName(jws.getHeader().getAlgorithm()).isHmac();
     }
 
     /**
@@ -92,23 +202,122 @@ public class JwtUtil {
      */
     public String generateToken(UserDetails userDetails) {
         Map<String, Object> claims = new HashMap<>();
-        return createToken(claims, userDetails.getUsername());
+        return createToken(claims, userDetails.getUsername(), accessTokenTtlMillis);
+    }
+
+    /**
+     * Generates a JWT token carrying everything needed to authenticate the user
+     * without loading it again: its ID, its authorities and its current token
+     * version.
+     *
+     * @param userDetails  the user details
+     * @param userId       the ID of the user
+     * @param tokenVersion the current token version of the user
+     * @return the generated JWT token
+     */
+    public String generateToken(UserDetails userDetails, Long userId, long tokenVersion) {
+        return createToken(userClaims(userDetails, userId, tokenVersion), userDetails.getUsername(),
+                accessTokenTtlMillis);
+    }
+
+    /**
+     * Generates a long-lived refresh token for the user. It carries the same
+     * claims as an access token but is only accepted by
+     * {@link #refreshToken(String)}, never to authenticate a request.
+     *
+     * @param userDetails  the user details
+     * @param userId       the ID of the user
+     * @param tokenVersion the current token version of the user
+     * @return the generated refresh token
+     */
+    public String generateRefreshToken(UserDetails userDetails, Long userId, long tokenVersion) {
+        Map<String, Object> claims = userClaims(userDetails, userId, tokenVersion);
+        claims.put(CLAIM_TOKEN_TYPE, TOKEN_TYPE_REFRESH);
+        return createToken(claims, userDetails.getUsername(), refreshTokenTtlMillis);
+    }
+
+    /**
+     * Checks whether verified claims belong to a refresh token.
+     *
+     * @param claims the verified claims
+     * @return true if the token is a refresh token
+     */
+    public boolean isRefreshToken(Claims claims) {
+        return TOKEN_TYPE_REFRESH.equals(claims.get(CLAIM_TOKEN_TYPE, String.class));
+    }
+
+    /**
+     * Gets the lifetime of access tokens.
+     *
+     * @return the access token lifetime in seconds
+     */
+    public long getAccessTokenTtlSeconds() {
+        return accessTokenTtlMillis / 1000;
+    }
+
+    /**
+     * Extracts the user ID from verified claims.
+     *
+     * @param claims the verified claims
+     * @return the user ID, or {@code null} if the token does not carry one
+     */
+    public Long extractUserId(Claims claims) {
+        Number userId = claims.get(CLAIM_USER_ID, Number.class);
+        return userId != null ? userId.longValue() : null;
+    }
+
+    /**
+     * Extracts the token version from verified claims.
+     *
+     * @param claims the verified claims
+     * @return the token version, or 0 if the token does not carry one
+     */
+    public long extractTokenVersion(Claims claims) {
+        Number tokenVersion = claims.get(CLAIM_TOKEN_VERSION, Number.class);
+        return tokenVersion != null ? tokenVersion.longValue() : 0L;
+    }
+
+    /**
+     * Extracts the authorities from verified claims.
+     *
+     * @param claims the verified claims
+     * @return the authority names, or an empty list if the token does not carry
+     *         any
+     */
+    @SuppressWarnings("unchecked")
+    public List<String> extractRoles(Claims claims) {
+        List<String> roles = claims.get(CLAIM_ROLES, List.class);
+        return roles != null ? roles : List.of();
+    }
+
+    private Map<String, Object> userClaims(UserDetails userDetails, Long userId, long tokenVersion) {
+        Map<String, Object> claims = new HashMap<>();
+        claims.put(CLAIM_USER_ID, userId);
+        claims.put(CLAIM_ROLES, userDetails.getAuthorities().stream()
+                .map(GrantedAuthority::getAuthority)
+                .collect(Collectors.toList()));
+        claims.put(CLAIM_TOKEN_VERSION, tokenVersion);
+        return claims;
     }
 
     /**
      * Creates a JWT token with the given claims and subject.
      *
-     * @param claims  the claims to include in the token
-     * @param subject the subject of the token
+     * @param claims    the claims to include in the token
+     * @param subject   the subject of the token
+     * @param ttlMillis the lifetime of the token in milliseconds
      * @return the generated JWT token
      */
-    private String createToken(Map<String, Object> claims, String subject) {
+    private String createToken(Map<String, Object> claims, String subject, long ttlMillis) {
+        JwtKeyManager.SigningKey signingKey = keyManager.getActiveKey();
+        long now = System.currentTimeMillis();
         return Jwts.builder()
+                .setHeaderParam(JwsHeader.KEY_ID, signingKey.getKeyId())
                 .setClaims(claims)
                 .setSubject(subject)
-                .setIssuedAt(new Date(System.currentTimeMillis()))
-                .setExpiration(new Date(System.currentTimeMillis() + 1000 * 60 * 60 * 10))
-                .signWith(SignatureAlgorithm.HS256, SECRET_KEY)
+                .setIssuedAt(new Date(now))
+                .setExpiration(new Date(now + ttlMillis))
+                .signWith(SignatureAlgorithm.RS256, signingKey.getPrivateKey())
                 .compact();
     }
 
@@ -125,18 +334,47 @@ public class JwtUtil {
     }
 
     /**
-     * Refreshes the JWT token if it is about to expire.
+     * Validates already verified claims against the user details.
      *
-     * @param token the JWT token
-     * @return a new JWT token
+     * @param claims      the verified claims of the JWT token
+     * @param userDetails the user details
+     * @return true if the claims belong to the user and have not expired, false
+     *         otherwise
      */
-    public String refreshToken(String token) {
-        final Claims claims = extractAllClaims(token);
-        claims.setIssuedAt(new Date(System.currentTimeMillis()));
-        claims.setExpiration(new Date(System.currentTimeMillis() + 1000 * 60 * 60 * 10)); // Extend the expiration time
-        return Jwts.builder()
-                .setClaims(claims)
-                .signWith(SignatureAlgorithm.HS256, SECRET_KEY)
-                .compact();
+    public Boolean validateToken(Claims claims, UserDetails userDetails) {
+        return (claims.getSubject().equals(userDetails.getUsername())
+                && !claims.getExpiration().before(new Date()));
+    }
+
+    /**
+     * Issues a new access token from a refresh token.
+     * Only the signature and expiry of the refresh token are checked here; the
+     * caller checks its token version so revoked refresh tokens are rejected.
+     *
+     * @param refreshToken the refresh token
+     * @return a new access token carrying the claims of the refresh token
+     * @throws JwtException if the token is invalid, expired or not a refresh
+     *                      token
+     */
+    public String refreshToken(String refreshToken) {
+        return refreshToken(verifyToken(refreshToken));
+    }
+
+    /**
+     * Issues a new access token from the verified claims of a refresh token.
+     *
+     * @param refreshClaims the verified claims of the refresh token
+     * @return a new access token carrying the claims of the refresh token
+     * @throws JwtException if the claims do not belong to a refresh token
+     */
+    public String refreshToken(Claims refreshClaims) {
+        if (!isRefreshToken(refreshClaims)) {
+            throw new JwtException("Not a refresh token");
+        }
+        Map<String, Object> claims = new HashMap<>(refreshClaims);
+        claims.remove(CLAIM_TOKEN_TYPE);
+        claims.remove(Claims.ISSUED_AT);
+        claims.remove(Claims.EXPIRATION);
+        return createToken(claims, refreshClaims.getSubject(), accessTokenTtlMillis);
     }
 }
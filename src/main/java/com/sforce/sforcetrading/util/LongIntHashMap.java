@@ -0,0 +1,127 @@
+package com.sforce.sforcetrading.util;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash map from {@code long} keys to {@code int} values,
+ * without boxing either or allocating an entry per mapping. Collisions are
+ * resolved by linear probing. Each value is stored next to its key in a single
+ * array, so a lookup that finds its key at once touches one cache line.
+ * Mappings cannot be removed, which suits indexes into arrays that only grow.
+ * <p>
+ * The key {@code 0} marks free slots and cannot be stored. The map is not
+ * thread-safe.
+ */
+public final class LongIntHashMap {
+
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private final int missingValue;
+    // Keys at even indexes, each followed by its value
+    private long[] entries;
+    private int mask;
+    private int size;
+    private int resizeAt;
+
+    /**
+     * Constructs a new LongIntHashMap.
+     *
+     * @param expectedSize the number of mappings the map holds without resizing
+     * @param missingValue the value returned for keys that are not mapped
+     */
+    public LongIntHashMap(int expectedSize, int missingValue) {
+        this.missingValue = missingValue;
+        allocate(Math.max(16, Integer.highestOneBit(Math.max(1, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1));
+    }
+
+    /**
+     * Returns the value mapped to a key.
+     *
+     * @param key the key, not {@code 0}
+     * @return the value, or the missing value if the key is not mapped
+     */
+    public int get(long key) {
+        long[] entries = this.entries;
+        int mask = this.mask;
+        for (int slot = slot(key, mask);; slot = (slot + 1) & mask) {
+            long candidate = entries[slot << 1];
+            if (candidate == key) {
+                return (int) entries[(slot << 1) + 1];
+            }
+            if (candidate == 0) {
+                return missingValue;
+            }
+        }
+    }
+
+    /**
+     * Maps a key to a value.
+     *
+     * @param key   the key, not {@code 0}
+     * @param value the value
+     * @return the value previously mapped to the key, or the missing value
+     */
+    public int put(long key, int value) {
+        if (key == 0) {
+            throw new IllegalArgumentException("The key 0 cannot be stored");
+        }
+        int slot = slot(key, mask);
+        for (long candidate; (candidate = entries[slot << 1]) != 0; slot = (slot + 1) & mask) {
+            if (candidate == key) {
+                int previous = (int) entries[(slot << 1) + 1];
+                entries[(slot << 1) + 1] = value;
+                return previous;
+            }
+        }
+        entries[slot << 1] = key;
+        entries[(slot << 1) + 1] = value;
+        if (++size > resizeAt) {
+            rehash();
+        }
+        return missingValue;
+    }
+
+    /**
+     * Returns the number of mappings.
+     *
+     * @return the number of mappings
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Removes all mappings.
+     */
+    public void clear() {
+        Arrays.fill(entries, 0);
+        size = 0;
+    }
+
+    private void rehash() {
+        long[] oldEntries = entries;
+        allocate(oldEntries.length);
+        for (int i = 0; i < oldEntries.length; i += 2) {
+            long key = oldEntries[i];
+            if (key != 0) {
+                int slot = slot(key, mask);
+                while (entries[slot << 1] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                entries[slot << 1] = key;
+                entries[(slot << 1) + 1] = oldEntries[i + 1];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        entries = new long[capacity << 1];
+        mask = capacity - 1;
+        resizeAt = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private static int slot(long key, int mask) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+}
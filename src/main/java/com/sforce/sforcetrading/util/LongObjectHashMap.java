@@ -0,0 +1,163 @@
+package com.sforce.sforcetrading.util;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash map from {@code long} keys to objects, without boxing
+ * the keys or allocating an entry per mapping. Collisions are resolved by
+ * linear probing and removals shift the following entries back, so lookups
+ * never have to skip tombstones.
+ * <p>
+ * The key {@code 0} marks free slots and cannot be stored. The map is not
+ * thread-safe.
+ *
+ * @param <V> the type of the values
+ */
+public final class LongObjectHashMap<V> {
+
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private long[] keys;
+    private V[] values;
+    private int mask;
+    private int size;
+    private int resizeAt;
+
+    /**
+     * Constructs a new LongObjectHashMap.
+     *
+     * @param expectedSize the number of mappings the map holds without resizing
+     */
+    public LongObjectHashMap(int expectedSize) {
+        allocate(Math.max(16, Integer.highestOneBit(Math.max(1, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1));
+    }
+
+    /**
+     * Returns the value mapped to a key.
+     *
+     * @param key the key, not {@code 0}
+     * @return the value, or {@code null} if the key is not mapped
+     */
+    public V get(long key) {
+        long[] keys = this.keys;
+        int mask = this.mask;
+        for (int slot = slot(key, mask);; slot = (slot + 1) & mask) {
+            long candidate = keys[slot];
+            if (candidate == key) {
+                return values[slot];
+            }
+            if (candidate == 0) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Maps a key to a value.
+     *
+     * @param key   the key, not {@code 0}
+     * @param value the value
+     * @return the value previously mapped to the key, or {@code null}
+     */
+    public V put(long key, V value) {
+        if (key == 0) {
+            throw new IllegalArgumentException("The key 0 cannot be stored");
+        }
+        int slot = slot(key, mask);
+        for (long candidate; (candidate = keys[slot]) != 0; slot = (slot + 1) & mask) {
+            if (candidate == key) {
+                V previous = values[slot];
+                values[slot] = value;
+                return previous;
+            }
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size > resizeAt) {
+            rehash();
+        }
+        return null;
+    }
+
+    /**
+     * Removes the mapping of a key.
+     *
+     * @param key the key
+     * @return the value that was mapped to the key, or {@code null}
+     */
+    public V remove(long key) {
+        int slot = slot(key, mask);
+        for (long candidate; (candidate = keys[slot]) != key; slot = (slot + 1) & mask) {
+            if (candidate == 0) {
+                return null;
+            }
+        }
+        V removed = values[slot];
+        size--;
+        // Move back every following entry of the run that the hole would hide
+        // from its home slot
+        for (int next = (slot + 1) & mask;; next = (next + 1) & mask) {
+            long key2 = keys[next];
+            if (key2 == 0) {
+                break;
+            }
+            int home = slot(key2, mask);
+            if (((next - home) & mask) >= ((next - slot) & mask)) {
+                keys[slot] = key2;
+                values[slot] = values[next];
+                slot = next;
+            }
+        }
+        keys[slot] = 0;
+        values[slot] = null;
+        return removed;
+    }
+
+    /**
+     * Returns the number of mappings.
+     *
+     * @return the number of mappings
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Removes all mappings.
+     */
+    public void clear() {
+        Arrays.fill(keys, 0);
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    private void rehash() {
+        long[] oldKeys = keys;
+        V[] oldValues = values;
+        allocate(oldKeys.length << 1);
+        for (int i = 0; i < oldKeys.length; i++) {
+            long key = oldKeys[i];
+            if (key != 0) {
+                int slot = slot(key, mask);
+                while (keys[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = key;
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = (V[]) new Object[capacity];
+        mask = capacity - 1;
+        resizeAt = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private static int slot(long key, int mask) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+}
@@ -0,0 +1,214 @@
+package com.sforce.sforcetrading.util;
+
+import org.hibernate.boot.spi.SessionFactoryOptions;
+import org.hibernate.cache.cfg.spi.DomainDataRegionBuildingContext;
+import org.hibernate.cache.cfg.spi.DomainDataRegionConfig;
+import org.hibernate.cache.spi.support.DomainDataStorageAccess;
+import org.hibernate.cache.spi.support.RegionFactoryTemplate;
+import org.hibernate.cache.spi.support.StorageAccess;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.internal.util.config.ConfigurationHelper;
+import org.hibernate.stat.CacheRegionStatistics;
+import org.hibernate.stat.Statistics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hibernate second-level cache kept in the memory of the application, with no
+ * cache provider to run. Entity, natural ID and query result regions are
+ * {@link ExpiringLruCache}s: bounded, evicting the least recently used entries
+ * and expiring entries after a time to live. The sizes are set with Hibernate
+ * properties, for every region or for one region by name:
+ *
+ * <pre>
+ * hibernate.cache.lru.max_entries=10000
+ * hibernate.cache.lru.ttl_seconds=600
+ * hibernate.cache.lru.users.max_entries=50000
+ * </pre>
+ *
+ * The update timestamps region, which tells Hibernate whether a cached query
+ * result is older than the last change of its tables, holds one entry per
+ * table and is never evicted: losing an entry would let stale query results
+ * through.
+ * Each node has its own cache, so a change made by another node is only seen
+ * once the entry expires.
+ */
+public class LruCacheRegionFactory extends RegionFactoryTemplate {
+
+    /**
+     * Property setting the maximum number of entries of each region.
+     */
+    public static final String MAX_ENTRIES = "hibernate.cache.lru.max_entries";
+
+    /**
+     * Property setting how long entries stay in a region, in seconds.
+     */
+    public static final String TTL_SECONDS = "hibernate.cache.lru.ttl_seconds";
+
+    private static final String PREFIX = "hibernate.cache.lru.";
+    private static final int DEFAULT_MAX_ENTRIES = 10000;
+    private static final int DEFAULT_TTL_SECONDS = 600;
+
+    private final ConcurrentMap<String, LruStorageAccess> regions = new ConcurrentHashMap<>();
+    private Map<String, Object> configValues;
+    private volatile SessionFactoryImplementor sessionFactory;
+
+    @Override
+    protected void prepareForUse(SessionFactoryOptions settings, Map<String, Object> configValues) {
+        this.configValues = configValues;
+    }
+
+    @Override
+    protected void releaseFromUse() {
+        regions.values().forEach(StorageAccess::release);
+        regions.clear();
+        sessionFactory = null;
+    }
+
+    @Override
+    protected DomainDataStorageAccess createDomainDataStorageAccess(DomainDataRegionConfig regionConfig,
+            DomainDataRegionBuildingContext buildingContext) {
+        sessionFactory = buildingContext.getSessionFactory();
+        return createStorageAccess(regionConfig.getRegionName());
+    }
+
+    @Override
+    protected StorageAccess createQueryResultsRegionStorageAccess(String regionName,
+            SessionFactoryImplementor sessionFactory) {
+        this.sessionFactory = sessionFactory;
+        return createStorageAccess(regionName);
+    }
+
+    @Override
+    protected StorageAccess createTimestampsRegionStorageAccess(String regionName,
+            SessionFactoryImplementor sessionFactory) {
+        return new TimestampsStorageAccess();
+    }
+
+    private LruStorageAccess createStorageAccess(String regionName) {
+        int maxEntries = ConfigurationHelper.getInt(PREFIX + regionName + ".max_entries", configValues,
+                ConfigurationHelper.getInt(MAX_ENTRIES, configValues, DEFAULT_MAX_ENTRIES));
+        int ttlSeconds = ConfigurationHelper.getInt(PREFIX + regionName + ".ttl_seconds", configValues,
+                ConfigurationHelper.getInt(TTL_SECONDS, configValues, DEFAULT_TTL_SECONDS));
+        LruStorageAccess storageAccess = new LruStorageAccess(maxEntries, TimeUnit.SECONDS.toMillis(ttlSeconds));
+        regions.put(regionName, storageAccess);
+        return storageAccess;
+    }
+
+    /**
+     * Returns the counters of every bounded region. Hits, misses and puts are
+     * the ones Hibernate records, so they are only reported when
+     * {@code hibernate.generate_statistics} is enabled; Hibernate also reads
+     * the cache to lock and refresh entries, which would skew the counters of
+     * the regions themselves.
+     *
+     * @return a map from region name to its size, capacity, evictions and, when
+     *         statistics are enabled, hits, misses and puts
+     */
+    public Map<String, Map<String, Long>> getStats() {
+        Statistics statistics = sessionFactory == null ? null : sessionFactory.getStatistics();
+        Map<String, Map<String, Long>> stats = new LinkedHashMap<>();
+        regions.forEach((regionName, storageAccess) -> {
+            Map<String, Long> regionStats = new LinkedHashMap<>(storageAccess.cache.getStats());
+            regionStats.remove("hits");
+            regionStats.remove("misses");
+            if (statistics != null && statistics.isStatisticsEnabled()) {
+                CacheRegionStatistics regionStatistics = statistics.getCacheRegionStatistics(regionName);
+                if (regionStatistics != null) {
+                    regionStats.put("hits", regionStatistics.getHitCount());
+                    regionStats.put("misses", regionStatistics.getMissCount());
+                    regionStats.put("puts", regionStatistics.getPutCount());
+                }
+            }
+            stats.put(regionName, regionStats);
+        });
+        return stats;
+    }
+
+    /**
+     * Region storage kept in a bounded, expiring LRU cache.
+     */
+    private static final class LruStorageAccess implements DomainDataStorageAccess {
+
+        private final ExpiringLruCache<Object, Object> cache;
+        private final long ttlMillis;
+
+        private LruStorageAccess(int maxEntries, long ttlMillis) {
+            this.cache = new ExpiringLruCache<>(maxEntries);
+            this.ttlMillis = ttlMillis;
+        }
+
+        @Override
+        public Object getFromCache(Object key, SharedSessionContractImplementor session) {
+            return cache.get(key);
+        }
+
+        @Override
+        public void putIntoCache(Object key, Object value, SharedSessionContractImplementor session) {
+            cache.put(key, value, System.currentTimeMillis() + ttlMillis);
+        }
+
+        @Override
+        public boolean contains(Object key) {
+            return cache.contains(key);
+        }
+
+        @Override
+        public void evictData() {
+            cache.clear();
+        }
+
+        @Override
+        public void evictData(Object key) {
+            cache.invalidate(key);
+        }
+
+        @Override
+        public void release() {
+            cache.clear();
+        }
+    }
+
+    /**
+     * Storage of the update timestamps region, never evicted.
+     */
+    private static final class TimestampsStorageAccess implements StorageAccess {
+
+        private final ConcurrentMap<Object, Object> timestamps = new ConcurrentHashMap<>();
+
+        @Override
+        public Object getFromCache(Object key, SharedSessionContractImplementor session) {
+            return timestamps.get(key);
+        }
+
+        @Override
+        public void putIntoCache(Object key, Object value, SharedSessionContractImplementor session) {
+            timestamps.put(key, value);
+        }
+
+        @Override
+        public boolean contains(Object key) {
+            return timestamps.containsKey(key);
+        }
+
+        @Override
+        public void evictData() {
+            timestamps.clear();
+        }
+
+        @Override
+        public void evictData(Object key) {
+            timestamps.remove(key);
+        }
+
+        @Override
+        public void release() {
+            timestamps.clear();
+        }
+    }
+}
@@ -0,0 +1,364 @@
+package com.sforce.sforcetrading.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only log of records kept in fixed-size, memory-mapped segment files.
+ * Appending a record copies it into the mapping without a system call, and
+ * {@link #force()} writes everything appended since the previous call to disk
+ * at once, so the caller decides how many records one flush covers. When a
+ * record no longer fits, the log rolls over to a new segment and deletes the
+ * oldest ones beyond the retention.
+ * Each record is framed by its length and CRC32C. The length is written last,
+ * so a reader sees either a whole record or the end of the log, and a record
+ * torn by a crash fails its checksum and is dropped when the log is reopened.
+ * Appending is not thread-safe: a log has a single writer, and a lock file
+ * keeps other processes from opening the same log.
+ */
+public class MappedSegmentLog implements Closeable {
+
+    private static final int MAGIC = 0x53464c47; // "SFLG"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final int FRAME_SIZE = 8;
+    private static final String SUFFIX = ".log";
+
+    private final Path directory;
+    private final String prefix;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final FileChannel lockChannel;
+    private final FileLock lock;
+    private final CRC32C crc = new CRC32C();
+
+    private long segmentIndex;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int forcedPosition;
+    private long rolls;
+
+    /**
+     * Opens the log, creating its directory and first segment if needed. An
+     * existing log is appended to after its last complete record.
+     *
+     * @param directory   the directory of the segment files
+     * @param prefix      the name of the segment files, followed by their index
+     * @param segmentSize the size of a segment file in bytes
+     * @param maxSegments the number of segments kept, 0 keeps them all
+     * @throws IOException if the log cannot be opened, or is opened by another
+     *                     process
+     */
+    public MappedSegmentLog(Path directory, String prefix, int segmentSize, int maxSegments) throws IOException {
+        if (segmentSize <= HEADER_SIZE + FRAME_SIZE) {
+            throw new IllegalArgumentException("Segment size too small: " + segmentSize);
+        }
+        this.directory = directory;
+        this.prefix = prefix;
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+        Files.createDirectories(directory);
+        this.lockChannel = FileChannel.open(directory.resolve(prefix + ".lock"), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE);
+        FileLock acquired;
+        try {
+            acquired = lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            acquired = null;
+        }
+        if (acquired == null) {
+            lockChannel.close();
+            throw new IOException("Log " + prefix + " in " + directory + " is already open");
+        }
+        this.lock = acquired;
+
+        List<Path> segments = segments(directory, prefix);
+        if (segments.isEmpty()) {
+            openSegment(0);
+        } else {
+            openSegment(index(segments.get(segments.size() - 1)));
+            recover();
+        }
+    }
+
+    /**
+     * Appends a record, rolling over to a new segment if it does not fit in the
+     * current one. The record is readable right away but only durable once
+     * {@link #force()} is called.
+     *
+     * @param record the record, from its position to its limit
+     * @throws IOException if a new segment cannot be created
+     */
+    public void append(ByteBuffer record) throws IOException {
+        int length = record.remaining();
+        if (length == 0 || length > segmentSize - HEADER_SIZE - FRAME_SIZE) {
+            throw new IllegalArgumentException("Record size must be between 1 and "
+                    + (segmentSize - HEADER_SIZE - FRAME_SIZE) + " bytes: " + length);
+        }
+        int start = buffer.position();
+        if (start + FRAME_SIZE + length > buffer.capacity()) {
+            roll();
+            start = buffer.position();
+        }
+        crc.reset();
+        crc.update(record.duplicate());
+        buffer.putInt(start + Integer.BYTES, (int) crc.getValue());
+        buffer.put(start + FRAME_SIZE, record, record.position(), length);
+        // Written last: readers stop at a zero length
+        buffer.putInt(start, length);
+        buffer.position(start + FRAME_SIZE + length);
+    }
+
+    /**
+     * Writes the records appended since the previous call to disk.
+     */
+    public void force() {
+        int position = buffer.position();
+        if (position > forcedPosition) {
+            buffer.force(forcedPosition, position - forcedPosition);
+            forcedPosition = position;
+        }
+    }
+
+    /**
+     * Returns the index of the segment appended to.
+     *
+     * @return the index of the current segment
+     */
+    public long getSegmentIndex() {
+        return segmentIndex;
+    }
+
+    /**
+     * Returns the number of times the log rolled over to a new segment since it
+     * was opened.
+     *
+     * @return the number of segments created after the first
+     */
+    public long getRolls() {
+        return rolls;
+    }
+
+    /**
+     * Deletes the segments preceding one, once what they hold is kept
+     * elsewhere. The segment appended to is never deleted. Unlike appending,
+     * this may be called from any thread.
+     *
+     * @param segmentIndex the index of the oldest segment to keep
+     * @return the number of segments deleted
+     * @throws IOException if a segment cannot be deleted
+     */
+    public int deleteSegmentsBefore(long segmentIndex) throws IOException {
+        int deleted = 0;
+        for (Path segment : segments(directory, prefix)) {
+            if (index(segment) < Math.min(segmentIndex, this.segmentIndex) && Files.deleteIfExists(segment)) {
+                deleted++;
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * Forces the appended records to disk and closes the log.
+     *
+     * @throws IOException if the files cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        force();
+        channel.close();
+        lock.release();
+        lockChannel.close();
+    }
+
+    /**
+     * Reads every complete record of a log, oldest first. The log may be
+     * appended to meanwhile, by this or another process.
+     *
+     * @param directory the directory of the segment files
+     * @param prefix    the name of the segment files
+     * @param consumer  the consumer of the records, each a read-only buffer only
+     *                  valid during the call
+     * @throws IOException if a segment cannot be read
+     */
+    public static void read(Path directory, String prefix, Consumer<ByteBuffer> consumer) throws IOException {
+        read(directory, prefix, 0, consumer);
+    }
+
+    /**
+     * Reads every complete record of a log from a segment on, oldest first.
+     *
+     * @param directory   the directory of the segment files
+     * @param prefix      the name of the segment files
+     * @param fromSegment the index of the first segment read
+     * @param consumer    the consumer of the records, each a read-only buffer
+     *                    only valid during the call
+     * @throws IOException if a segment cannot be read
+     */
+    public static void read(Path directory, String prefix, long fromSegment, Consumer<ByteBuffer> consumer)
+            throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        for (Path segment : segments(directory, prefix)) {
+            if (index(segment) >= fromSegment) {
+                readSegment(segment, consumer);
+            }
+        }
+    }
+
+    /**
+     * Returns the indexes of the segments of a log, oldest first, so readers
+     * can pick the segments they need, e.g. the newest ones first.
+     *
+     * @param directory the directory of the segment files
+     * @param prefix    the name of the segment files
+     * @return the segment indexes in ascending order, empty if there is no log
+     * @throws IOException if the directory cannot be listed
+     */
+    public static List<Long> segmentIndexes(Path directory, String prefix) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return List.of();
+        }
+        return segments(directory, prefix).stream().map(MappedSegmentLog::index).collect(Collectors.toList());
+    }
+
+    /**
+     * Reads every complete record of one segment of a log, oldest first. A
+     * segment deleted by the retention meanwhile reads as empty.
+     *
+     * @param directory    the directory of the segment files
+     * @param prefix       the name of the segment files
+     * @param segmentIndex the index of the segment
+     * @param consumer     the consumer of the records, each a read-only buffer
+     *                     only valid during the call
+     * @throws IOException if the segment cannot be read
+     */
+    public static void readSegment(Path directory, String prefix, long segmentIndex, Consumer<ByteBuffer> consumer)
+            throws IOException {
+        readSegment(directory.resolve(segmentName(prefix, segmentIndex)), consumer);
+    }
+
+    private static void readSegment(Path segment, Consumer<ByteBuffer> consumer) throws IOException {
+        ByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (NoSuchFileException e) {
+            return; // deleted by the retention since listed
+        }
+        if (mapped.capacity() < HEADER_SIZE || mapped.getInt(0) != MAGIC) {
+            return;
+        }
+        int position = HEADER_SIZE;
+        CRC32C crc = new CRC32C();
+        int length;
+        while ((length = validLength(mapped, position, crc)) > 0) {
+            consumer.accept(mapped.slice(position + FRAME_SIZE, length).asReadOnlyBuffer());
+            position += FRAME_SIZE + length;
+        }
+    }
+
+    /**
+     * Returns the length of the record at the position, or 0 if there is no
+     * complete record there.
+     */
+    private static int validLength(ByteBuffer segment, int position, CRC32C crc) {
+        if (position + FRAME_SIZE > segment.capacity()) {
+            return 0;
+        }
+        int length = segment.getInt(position);
+        if (length <= 0 || length > segment.capacity() - position - FRAME_SIZE) {
+            return 0;
+        }
+        crc.reset();
+        crc.update(segment.slice(position + FRAME_SIZE, length));
+        return (int) crc.getValue() == segment.getInt(position + Integer.BYTES) ? length : 0;
+    }
+
+    /**
+     * Moves the append position after the last complete record of the current
+     * segment, clearing what a crash may have left after it.
+     */
+    private void recover() {
+        int position = HEADER_SIZE;
+        int length;
+        while ((length = validLength(buffer, position, crc)) > 0) {
+            position += FRAME_SIZE + length;
+        }
+        if (position + Integer.BYTES <= buffer.capacity() && buffer.getInt(position) != 0) {
+            for (int i = position; i < buffer.capacity(); i++) {
+                buffer.put(i, (byte) 0);
+            }
+            buffer.force();
+        }
+        buffer.position(position);
+        forcedPosition = position;
+    }
+
+    private void roll() throws IOException {
+        force();
+        channel.close();
+        openSegment(segmentIndex + 1);
+        rolls++;
+        if (maxSegments > 0) {
+            List<Path> segments = segments(directory, prefix);
+            for (int i = 0; i < segments.size() - maxSegments; i++) {
+                Files.deleteIfExists(segments.get(i));
+            }
+        }
+    }
+
+    private void openSegment(long index) throws IOException {
+        Path path = directory.resolve(segmentName(prefix, index));
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        boolean created = channel.size() == 0;
+        // An existing segment keeps its size, which may predate a configuration change
+        long size = created ? segmentSize : channel.size();
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        if (created) {
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(Integer.BYTES, VERSION);
+            buffer.force(0, HEADER_SIZE);
+        } else if (buffer.getInt(0) != MAGIC) {
+            channel.close();
+            throw new IOException("Not a log segment: " + path);
+        }
+        buffer.position(HEADER_SIZE);
+        forcedPosition = HEADER_SIZE;
+        segmentIndex = index;
+    }
+
+    private static List<Path> segments(Path directory, String prefix) throws IOException {
+        Pattern name = Pattern.compile(Pattern.quote(prefix) + "-\\d{20}" + Pattern.quote(SUFFIX));
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> name.matcher(file.getFileName().toString()).matches())
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static String segmentName(String prefix, long index) {
+        return String.format("%s-%020d%s", prefix, index, SUFFIX);
+    }
+
+    private static long index(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(name.length() - SUFFIX.length() - 20, name.length() - SUFFIX.length()));
+    }
+}
@@ -0,0 +1,130 @@
+package com.sforce.sforcetrading.util;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.PrivateKey;
+import java.security.spec.MGF1ParameterSpec;
+import javax.crypto.Cipher;
+import javax.crypto.spec.OAEPParameterSpec;
+import javax.crypto.spec.PSource;
+
+/**
+ * Reusable RSA decryption engine bound to a single private key.
+ * Creating and initializing a {@link Cipher} costs far more than the
+ * decryption of a short password, so each thread keeps its own cipher that is
+ * initialized once and reused for every subsequent call. The padding is always
+ * explicit instead of relying on the provider default.
+ */
+public class RSACipherEngine {
+
+    /**
+     * Supported RSA paddings.
+     */
+    public enum Padding {
+        /** RSA with PKCS#1 v1.5 padding, used by the existing login clients. */
+        PKCS1("RSA/ECB/PKCS1Padding"),
+        /** RSA-OAEP with SHA-256 for both the digest and MGF1. */
+        OAEP_SHA256("RSA/ECB/OAEPPadding");
+
+        private final String transformation;
+
+        Padding(String transformation) {
+            this.transformation = transformation;
+        }
+
+        /**
+         * Gets the JCA transformation of the padding.
+         *
+         * @return the transformation name
+         */
+        public String getTransformation() {
+            return transformation;
+        }
+    }
+
+    private final PrivateKey privateKey;
+    private final Padding padding;
+    private final ThreadLocal<Cipher> ciphers;
+
+    /**
+     * Constructs a new RSACipherEngine.
+     *
+     * @param privateKey the RSA private key used for decryption
+     * @param padding    the padding the clients encrypt with
+     */
+    public RSACipherEngine(PrivateKey privateKey, Padding padding) {
+        this.privateKey = privateKey;
+        this.padding = padding;
+        this.ciphers = ThreadLocal.withInitial(this::newCipher);
+    }
+
+    /**
+     * Gets the padding used by this engine.
+     *
+     * @return the padding
+     */
+    public Padding getPadding() {
+        return padding;
+    }
+
+    /**
+     * Decrypts data with the private key.
+     *
+     * @param data the encrypted data
+     * @return the decrypted bytes
+     * @throws GeneralSecurityException if the data cannot be decrypted
+     */
+    public byte[] decrypt(byte[] data) throws GeneralSecurityException {
+        return ciphers.get().doFinal(data);
+    }
+
+    /**
+     * Decrypts the remaining bytes of the input buffer into the output buffer
+     * without any intermediate copies.
+     *
+     * @param input  the buffer holding the encrypted data
+     * @param output the buffer receiving the decrypted bytes
+     * @return the number of bytes written to the output buffer
+     * @throws GeneralSecurityException if the data cannot be decrypted or the
+     *                                  output buffer is too small
+     */
+    public int decrypt(ByteBuffer input, ByteBuffer output) throws GeneralSecurityException {
+        return ciphers.get().doFinal(input, output);
+    }
+
+    /**
+     * Decrypts a batch of payloads with a single cipher.
+     * A payload that cannot be decrypted yields a {@code null} entry instead of
+     * failing the whole batch.
+     *
+     * @param data the encrypted payloads
+     * @return the decrypted payloads, in the same order
+     */
+    public byte[][] decryptAll(byte[][] data) {
+        Cipher cipher = ciphers.get();
+        byte[][] result = new byte[data.length][];
+        for (int i = 0; i < data.length; i++) {
+            try {
+                result[i] = cipher.doFinal(data[i]);
+            } catch (GeneralSecurityException e) {
+                result[i] = null;
+            }
+        }
+        return result;
+    }
+
+    private Cipher newCipher() {
+        try {
+            Cipher cipher = Cipher.getInstance(padding.getTransformation());
+            if (padding == Padding.OAEP_SHA256) {
+                cipher.init(Cipher.DECRYPT_MODE, privateKey, new OAEPParameterSpec("SHA-256", "MGF1",
+                        MGF1ParameterSpec.SHA256, PSource.PSpecified.DEFAULT));
+            } else {
+                cipher.init(Cipher.DECRYPT_MODE, privateKey);
+            }
+            return cipher;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Unable to initialize RSA cipher " + padding.getTransformation(), e);
+        }
+    }
+}
@@ -15,6 +15,8 @@ import javax.crypto.Cipher;
  */
 public class RSAUtil {
 
+    private static final String TRANSFORMATION = RSACipherEngine.Padding.PKCS1.getTransformation();
+
     /**
      * Converts a Base64 encoded public key string into a PublicKey object.
      *
@@ -58,13 +60,15 @@ public class RSAUtil {
      * @throws Exception if an error occurs during encryption
      */
     public static byte[] encrypt(String data, PublicKey publicKey) throws Exception {
-        Cipher cipher = Cipher.getInstance("RSA");
+        Cipher cipher = Cipher.getInstance(TRANSFORMATION);
         cipher.init(Cipher.ENCRYPT_MODE, publicKey);
         return cipher.doFinal(data.getBytes());
     }
 
     /**
      * Decrypts data using a private key.
+     * This creates and initializes a new cipher on every call; the login path
+     * uses the reusable {@link RSACipherEngine} instead.
      *
      * @param data       the data to decrypt
      * @param privateKey the private key to use for decryption
@@ -72,7 +76,7 @@ public class RSAUtil {
      * @throws Exception if an error occurs during decryption
      */
     public static String decrypt(byte[] data, PrivateKey privateKey) throws Exception {
-        Cipher cipher = Cipher.getInstance("RSA");
+        Cipher cipher = Cipher.getInstance(TRANSFORMATION);
         cipher.init(Cipher.DECRYPT_MODE, privateKey);
         return new String(cipher.doFinal(data));
     }
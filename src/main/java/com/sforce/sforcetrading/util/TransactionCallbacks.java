@@ -0,0 +1,34 @@
+package com.sforce.sforcetrading.util;
+
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Runs actions once the current transaction commits, for in-memory state that
+ * must only reflect committed changes.
+ */
+public final class TransactionCallbacks {
+
+    private TransactionCallbacks() {
+    }
+
+    /**
+     * Runs the action after the current transaction commits, or right away when
+     * there is no transaction. The action is dropped if the transaction rolls
+     * back.
+     *
+     * @param action the action to run
+     */
+    public static void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+}
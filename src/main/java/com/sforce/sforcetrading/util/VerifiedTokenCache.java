@@ -0,0 +1,79 @@
+package com.sforce.sforcetrading.util;
+
+import io.jsonwebtoken.Claims;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Map;
+
+/**
+ * Bounded, expiry-aware cache of JWT tokens whose signature has already been
+ * verified.
+ * Entries are keyed by a SHA-256 digest of the token so the raw bearer token is
+ * never retained, evicted in least-recently-used order once the cache is full,
+ * and dropped as soon as the token itself expires.
+ */
+public class VerifiedTokenCache {
+
+    private final ExpiringLruCache<String, Claims> cache;
+
+    /**
+     * Constructs a new VerifiedTokenCache.
+     *
+     * @param maxEntries the maximum number of verified tokens to keep
+     */
+    public VerifiedTokenCache(int maxEntries) {
+        this.cache = new ExpiringLruCache<>(maxEntries);
+    }
+
+    /**
+     * Returns the verified claims for the token if it is cached and not yet
+     * expired.
+     *
+     * @param token the JWT token
+     * @return the cached claims, or {@code null} if the token must be verified
+     */
+    public Claims get(String token) {
+        return cache.get(digest(token));
+    }
+
+    /**
+     * Stores the verified claims for the token until the token expires.
+     *
+     * @param token  the JWT token
+     * @param claims the claims obtained after verifying the token signature
+     */
+    public void put(String token, Claims claims) {
+        if (claims.getExpiration() != null) {
+            cache.put(digest(token), claims, claims.getExpiration().getTime());
+        }
+    }
+
+    /**
+     * Removes all cached tokens.
+     */
+    public void clear() {
+        cache.clear();
+    }
+
+    /**
+     * Returns the current counters of the cache.
+     *
+     * @return a map with the size, capacity, hits, misses and evictions
+     */
+    public Map<String, Long> getStats() {
+        return cache.getStats();
+    }
+
+    private static String digest(String token) {
+        try {
+            MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = messageDigest.digest(token.getBytes(StandardCharsets.UTF_8));
+            return Base64.getEncoder().withoutPadding().encodeToString(hash);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
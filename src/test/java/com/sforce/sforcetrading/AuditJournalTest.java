@@ -0,0 +1,298 @@
+package com.sforce.sforcetrading;
+
+import com.sforce.sforcetrading.dto.AuditEventDTO;
+import com.sforce.sforcetrading.dto.UserDTO;
+import com.sforce.sforcetrading.model.User;
+import com.sforce.sforcetrading.repository.UserRepository;
+import com.sforce.sforcetrading.service.AuditJournal;
+import com.sforce.sforcetrading.service.UserService;
+import com.sforce.sforcetrading.util.BoundedMpscQueue;
+import com.sforce.sforcetrading.util.MappedSegmentLog;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.httpBasic;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Checks that account events reach the audit journal, and the segment log and
+ * queue the journal is built on.
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:audit;DB_CLOSE_DELAY=-1",
+        "security.password.bcrypt-strength=4",
+        "audit.journal.flush-interval-ms=0" })
+@AutoConfigureMockMvc
+@ActiveProfiles("test")
+public class AuditJournalTest {
+
+        @Autowired
+        private UserService userService;
+
+        @Autowired
+        private UserRepository userRepository;
+
+        @Autowired
+        private AuditJournal auditJournal;
+
+        @Autowired
+        private MockMvc mockMvc;
+
+        @BeforeEach
+        public void setup() {
+                userRepository.deleteAll();
+        }
+
+        @Test
+        public void testAccountEventsAreJournaled() throws Exception {
+                User user = userService.saveUser(newUser("audited"));
+                assertTrue(userService.authenticateUser("audited", "password").isPresent());
+                assertTrue(userService.authenticateUser("audited", "wrong").isEmpty());
+                assertTrue(userService.authenticateUser("nobody", "password").isEmpty());
+                UserDTO changes = new UserDTO();
+                changes.setCity("Braga");
+                userService.updateUserDetails(user.getId(), changes);
+                userService.updatePassword(user.getId(), "password", "newPassword");
+                userService.deleteUser(user.getId());
+
+                List<AuditEventDTO> events = awaitEvents(user.getId(), 6);
+                assertEquals(List.of(AuditEventDTO.Type.DELETED, AuditEventDTO.Type.PASSWORD_CHANGED,
+                                AuditEventDTO.Type.UPDATED, AuditEventDTO.Type.LOGIN_FAILED,
+                                AuditEventDTO.Type.LOGIN_SUCCEEDED, AuditEventDTO.Type.REGISTERED),
+                                events.stream().map(AuditEventDTO::getType).collect(Collectors.toList()));
+                assertTrue(events.stream().allMatch(event -> "audited".equals(event.getUsername())));
+
+                AuditEventDTO unknown = auditJournal.query(null, AuditEventDTO.Type.LOGIN_FAILED, null, null, 10)
+                                .stream().filter(event -> "nobody".equals(event.getUsername())).findFirst()
+                                .orElseThrow();
+                assertNull(unknown.getUserId());
+        }
+
+        @Test
+        public void testRolledBackChangesAreNotJournaled() throws Exception {
+                User user = userService.saveUser(newUser("kept"));
+                userService.saveUser(newUser("taken"));
+                UserDTO changes = new UserDTO();
+                changes.setUsername("taken");
+                assertThrows(DataIntegrityViolationException.class,
+                                () -> userService.updateUserDetails(user.getId(), changes));
+                userService.deleteUser(user.getId());
+
+                List<AuditEventDTO> events = awaitEvents(user.getId(), 2);
+                assertEquals(List.of(AuditEventDTO.Type.DELETED, AuditEventDTO.Type.REGISTERED),
+                                events.stream().map(AuditEventDTO::getType).collect(Collectors.toList()));
+        }
+
+        @Test
+        public void testQueryIsRestrictedToAdministrators() throws Exception {
+                User user = userService.saveUser(newUser("reader"));
+                awaitEvents(user.getId(), 1);
+
+                mockMvc.perform(get("/api/audit").param("userId", user.getId().toString())
+                                .with(httpBasic("theAdmin", "qwerty")))
+                                .andExpect(status().isOk())
+                                .andExpect(jsonPath("$[0].type", is("REGISTERED")))
+                                .andExpect(jsonPath("$[0].username", is("reader")));
+                mockMvc.perform(get("/api/audit").param("limit", "0").with(httpBasic("theAdmin", "qwerty")))
+                                .andExpect(status().isBadRequest());
+                mockMvc.perform(get("/api/audit").with(httpBasic("reader", "password")))
+                                .andExpect(status().isForbidden());
+        }
+
+        @Test
+        public void testQueryReadsNewestSegmentsFirstAndSkipsUnknownKinds() throws IOException {
+                Path directory = Files.createTempDirectory("audit-query");
+                AuditJournal journal = new AuditJournal(true, directory.toString(), 1024, AuditJournal.Overflow.BLOCK,
+                                DataSize.ofBytes(256), 0, 64, 0);
+                for (long i = 0; i < 100; i++) {
+                        journal.record(AuditEventDTO.Type.UPDATED, i, "user-" + i);
+                }
+                journal.shutdown();
+                assertTrue(MappedSegmentLog.segmentIndexes(directory, "audit").size() > 3);
+
+                // An event of a kind added by a newer version
+                try (MappedSegmentLog log = new MappedSegmentLog(directory, "audit", 256, 0)) {
+                        log.append(ByteBuffer.allocate(19).putLong(0L).put((byte) 99).putLong(1L).putShort((short) 0)
+                                        .flip());
+                }
+
+                List<AuditEventDTO> latest = journal.query(null, null, null, null, 3);
+                assertEquals(List.of(99L, 98L, 97L),
+                                latest.stream().map(AuditEventDTO::getUserId).collect(Collectors.toList()));
+                assertEquals(List.of(0L), journal.query(0L, null, null, null, 3).stream()
+                                .map(AuditEventDTO::getUserId).collect(Collectors.toList()));
+        }
+
+        @Test
+        public void testSegmentsRollAndRecoverAfterTornRecord() throws IOException {
+                Path directory = Files.createTempDirectory("audit-log");
+                try (MappedSegmentLog log = new MappedSegmentLog(directory, "test", 256, 0)) {
+                        for (int i = 0; i < 40; i++) {
+                                log.append(record("record-" + i));
+                        }
+                        assertTrue(log.getRolls() > 0);
+                }
+
+                // A crash in the middle of a record leaves a length without a matching checksum
+                Path last;
+                try (Stream<Path> files = Files.list(directory)) {
+                        last = files.filter(file -> file.toString().endsWith(".log")).sorted()
+                                        .reduce((first, second) -> second).orElseThrow();
+                }
+                try (FileChannel channel = FileChannel.open(last, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                        ByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                        // Skip the header, then each record: length, checksum and payload
+                        int end = 8;
+                        while (segment.getInt(end) != 0) {
+                                end += 8 + segment.getInt(end);
+                        }
+                        channel.write(ByteBuffer.allocate(8).putInt(0, 12).putInt(4, 42), end);
+                }
+
+                try (MappedSegmentLog log = new MappedSegmentLog(directory, "test", 256, 0)) {
+                        log.append(record("after-crash"));
+                }
+                List<String> records = readAll(directory);
+                assertEquals(41, records.size());
+                for (int i = 0; i < 40; i++) {
+                        assertEquals("record-" + i, records.get(i));
+                }
+                assertEquals("after-crash", records.get(40));
+        }
+
+        @Test
+        public void testOldSegmentsAreDeletedBeyondRetention() throws IOException {
+                Path directory = Files.createTempDirectory("audit-retained");
+                try (MappedSegmentLog log = new MappedSegmentLog(directory, "test", 256, 2)) {
+                        for (int i = 0; i < 100; i++) {
+                                log.append(record("record-" + i));
+                        }
+                }
+                try (Stream<Path> files = Files.list(directory)) {
+                        assertEquals(2, files.filter(file -> file.toString().endsWith(".log")).count());
+                }
+                List<String> records = readAll(directory);
+                assertEquals("record-99", records.get(records.size() - 1));
+                assertTrue(records.size() < 100);
+        }
+
+        @Test
+        public void testLogCannotBeOpenedTwice() throws IOException {
+                Path directory = Files.createTempDirectory("audit-locked");
+                try (MappedSegmentLog log = new MappedSegmentLog(directory, "test", 256, 0)) {
+                        assertThrows(IOException.class, () -> new MappedSegmentLog(directory, "test", 256, 0));
+                }
+        }
+
+        @Test
+        public void testQueueRejectsElementsWhenFull() {
+                BoundedMpscQueue<Integer> queue = new BoundedMpscQueue<>(3);
+                assertEquals(4, queue.capacity());
+                for (int i = 0; i < 4; i++) {
+                        assertTrue(queue.offer(i));
+                }
+                assertFalse(queue.offer(4));
+
+                List<Integer> drained = new ArrayList<>();
+                assertEquals(2, queue.drain(drained::add, 2));
+                assertTrue(queue.offer(5));
+                assertTrue(queue.offer(6));
+                queue.drain(drained::add, Integer.MAX_VALUE);
+                assertEquals(List.of(0, 1, 2, 3, 5, 6), drained);
+                assertEquals(0, queue.size());
+        }
+
+        @Test
+        public void testQueueKeepsEachProducerOrder() throws InterruptedException {
+                int producers = 4;
+                int perProducer = 200_000;
+                BoundedMpscQueue<long[]> queue = new BoundedMpscQueue<>(1024);
+                List<Thread> threads = new ArrayList<>();
+                for (int p = 0; p < producers; p++) {
+                        long producer = p;
+                        Thread thread = new Thread(() -> {
+                                for (long i = 0; i < perProducer; i++) {
+                                        long[] element = { producer, i };
+                                        while (!queue.offer(element)) {
+                                                Thread.onSpinWait();
+                                        }
+                                }
+                        });
+                        thread.start();
+                        threads.add(thread);
+                }
+                Map<Long, Long> next = new ConcurrentHashMap<>();
+                int received = 0;
+                while (received < producers * perProducer) {
+                        received += queue.drain(element -> {
+                                assertEquals(next.getOrDefault(element[0], 0L), element[1]);
+                                next.put(element[0], element[1] + 1);
+                        }, 256);
+                }
+                for (Thread thread : threads) {
+                        thread.join();
+                }
+                assertEquals(0, queue.size());
+        }
+
+        private List<AuditEventDTO> awaitEvents(Long userId, int count) throws InterruptedException {
+                long deadline = System.currentTimeMillis() + 5000;
+                List<AuditEventDTO> events = auditJournal.query(userId, null, null, null, 100);
+                while (events.size() < count && System.currentTimeMillis() < deadline) {
+                        Thread.sleep(10);
+                        events = auditJournal.query(userId, null, null, null, 100);
+                }
+                return events;
+        }
+
+        private static ByteBuffer record(String value) {
+                return ByteBuffer.wrap(value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        private static List<String> readAll(Path directory) throws IOException {
+                List<String> records = new ArrayList<>();
+                MappedSegmentLog.read(directory, "test", record -> records.add(StandardCharsets.UTF_8.decode(record)
+                                .toString()));
+                return records;
+        }
+
+        private static User newUser(String username) {
+                User user = new User();
+                user.setUsername(username);
+                user.setPassword("password");
+                user.setEmail(username + "@example.com");
+                user.setFirstName("Audited");
+                user.setLastName("User");
+                return user;
+        }
+}
@@ -0,0 +1,303 @@
+package com.sforce.sforcetrading;
+
+import com.sforce.sforcetrading.dto.MarketDataSubscriberDTO;
+import com.sforce.sforcetrading.dto.OrderRequestDTO;
+import com.sforce.sforcetrading.trading.MarketDataHub;
+import com.sforce.sforcetrading.trading.MatchingEngine;
+import com.sforce.sforcetrading.trading.OrderType;
+import com.sforce.sforcetrading.trading.Side;
+import com.sforce.sforcetrading.trading.WaitStrategy;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.httpBasic;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Checks the fan-out of market data to subscribers, the conflation of frames
+ * for slow subscribers, and the stream endpoint.
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:marketData;DB_CLOSE_DELAY=-1",
+        "security.password.bcrypt-strength=4",
+        "trading.symbols=TEST,OTHER" })
+@AutoConfigureMockMvc
+@ActiveProfiles("test")
+public class MarketDataTest {
+
+        private static final BigDecimal TICK_SIZE = new BigDecimal("0.01");
+        private static final BigDecimal UNLIMITED = new BigDecimal("1000000000000");
+        private static final long TIMEOUT_MILLIS = 10_000;
+
+        @Autowired
+        private MockMvc mockMvc;
+
+        @Test
+        public void testFanOutWritesOneEncodedFrameToEverySubscriber() throws Exception {
+                MarketDataHub hub = new MarketDataHub(TICK_SIZE, 5, 1024, 20_000, 60_000);
+                MatchingEngine engine = new MatchingEngine(List.of("TEST", "OTHER"), TICK_SIZE, 1_000_000, UNLIMITED,
+                                Long.MAX_VALUE, UNLIMITED, 1024, 64, WaitStrategy.YIELD, hub, null);
+                try {
+                        List<RecordingSink> sinks = new ArrayList<>();
+                        for (int i = 0; i < 10_000; i++) {
+                                RecordingSink sink = new RecordingSink();
+                                hub.subscribe("user" + i, List.of("TEST"), EnumSet.allOf(MarketDataHub.Channel.class),
+                                                null, sink);
+                                sinks.add(sink);
+                        }
+                        RecordingSink other = new RecordingSink();
+                        hub.subscribe("other", List.of("OTHER"), EnumSet.allOf(MarketDataHub.Channel.class), null,
+                                        other);
+                        // Every subscriber gets a heartbeat on subscription, which commits its response
+                        assertEquals(":\n\n", sinks.get(0).text(0));
+
+                        engine.submit(1, order(Side.SELL, OrderType.LIMIT, "100.00", 10)).join();
+                        engine.submit(2, order(Side.BUY, OrderType.LIMIT, "100.00", 4)).join();
+                        await(() -> sinks.stream().allMatch(sink -> sink.count("trades") == 1));
+
+                        byte[] trades = sinks.get(0).last("trades");
+                        for (RecordingSink sink : sinks) {
+                                assertSame(trades, sink.last("trades"));
+                                assertSame(sinks.get(0).last("top"), sink.last("top"));
+                                assertSame(sinks.get(0).last("depth"), sink.last("depth"));
+                        }
+                        String print = new String(trades, StandardCharsets.UTF_8);
+                        assertTrue(print.startsWith("event: trades\ndata: [{\"symbol\":\"TEST\",\"price\":100.00,"
+                                        + "\"quantity\":4,\"takerSide\":\"BUY\""), print);
+                        assertTrue(print.endsWith("}]\n\n"), print);
+                        String top = new String(sinks.get(0).last("top"), StandardCharsets.UTF_8);
+                        assertTrue(top.contains("\"bidPrice\":null,\"bidQuantity\":0,\"askPrice\":100.00,"
+                                        + "\"askQuantity\":6"), top);
+                        // Subscribers of another symbol get none of it
+                        assertEquals(1, other.frames.size());
+                        // Top and depth at most twice, and trades once, whatever the number of subscribers
+                        assertTrue(hub.getStats().get("framesEncoded") <= 5);
+                } finally {
+                        engine.shutdown();
+                        hub.shutdown();
+                }
+        }
+
+        @Test
+        public void testSlowSubscriberOnlyGetsTheLatestState() throws Exception {
+                MarketDataHub hub = new MarketDataHub(TICK_SIZE, 5, 1024, 20_000, 60_000);
+                MatchingEngine engine = new MatchingEngine(List.of("TEST", "OTHER"), TICK_SIZE, 1_000_000, UNLIMITED,
+                                Long.MAX_VALUE, UNLIMITED, 1024, 64, WaitStrategy.YIELD, hub, null);
+                try {
+                        RecordingSink fast = new RecordingSink();
+                        RecordingSink slow = new RecordingSink();
+                        hub.subscribe("fast", List.of("TEST"), EnumSet.allOf(MarketDataHub.Channel.class), null, fast);
+                        MarketDataHub.Subscription subscription = hub.subscribe("slow", List.of("TEST"),
+                                        EnumSet.of(MarketDataHub.Channel.TOP, MarketDataHub.Channel.DEPTH), null, slow);
+                        slow.ready = false;
+
+                        engine.submit(1, order(Side.BUY, OrderType.LIMIT, "1.00", 1)).join();
+                        await(() -> fast.count("top") == 1);
+                        for (int i = 2; i <= 100; i++) {
+                                engine.submit(1, order(Side.BUY, OrderType.LIMIT, i + ".00", i)).join();
+                        }
+                        await(() -> new String(fast.last("top"), StandardCharsets.UTF_8)
+                                        .contains("\"bidPrice\":100.00"));
+                        MarketDataSubscriberDTO behind = hub.getSubscribers(1).get(0);
+                        assertEquals("slow", behind.getUsername());
+                        assertEquals(2, behind.getPendingFrames());
+                        assertTrue(behind.getFramesConflated() > 0);
+                        assertEquals(1, hub.getStats().get("slowSubscribers"));
+
+                        // Once the connection drains, only the latest top and depth are written
+                        slow.ready = true;
+                        subscription.onWritePossible();
+                        assertEquals(3, slow.frames.size());
+                        assertTrue(slow.text(1).startsWith("event: top\n"));
+                        assertTrue(slow.text(1).contains("\"bidPrice\":100.00,\"bidQuantity\":100"), slow.text(1));
+                        assertTrue(slow.text(2).startsWith("event: depth\n"));
+                        assertEquals(0, hub.getStats().get("slowSubscribers"));
+
+                        // A new subscriber starts from the current state
+                        RecordingSink late = new RecordingSink();
+                        hub.subscribe("late", List.of("test"), EnumSet.of(MarketDataHub.Channel.TOP), null, late);
+                        await(() -> late.frames.size() == 2);
+                        assertSame(slow.frames.get(1), late.frames.get(1));
+                } finally {
+                        engine.shutdown();
+                        hub.shutdown();
+                }
+        }
+
+        @Test
+        public void testSlowSubscriberGetsEveryTradePrint() throws Exception {
+                MarketDataHub hub = new MarketDataHub(TICK_SIZE, 5, 1024, 20_000, 60_000);
+                MatchingEngine engine = new MatchingEngine(List.of("TEST", "OTHER"), TICK_SIZE, 1_000_000, UNLIMITED,
+                                Long.MAX_VALUE, UNLIMITED, 1024, 64, WaitStrategy.YIELD, hub, null);
+                try {
+                        RecordingSink fast = new RecordingSink();
+                        RecordingSink slow = new RecordingSink();
+                        hub.subscribe("fast", List.of("TEST"), EnumSet.of(MarketDataHub.Channel.TRADES), null, fast);
+                        MarketDataHub.Subscription subscription = hub.subscribe("slow", List.of("TEST"),
+                                        EnumSet.of(MarketDataHub.Channel.TRADES), null, slow);
+                        slow.ready = false;
+
+                        engine.submit(1, order(Side.SELL, OrderType.LIMIT, "100.00", 10)).join();
+                        // One trade frame at a time
+                        for (int i = 1; i <= 5; i++) {
+                                engine.submit(2, order(Side.BUY, OrderType.LIMIT, "100.00", 1)).join();
+                                long printed = i;
+                                await(() -> prints(fast) == printed);
+                        }
+
+                        // Pending trade frames are appended to each other, not replaced
+                        slow.ready = true;
+                        subscription.onWritePossible();
+                        assertEquals(5, prints(slow));
+                        assertEquals(0, hub.getSubscribers(1).get(0).getFramesConflated());
+                } finally {
+                        engine.shutdown();
+                        hub.shutdown();
+                }
+        }
+
+        @Test
+        public void testBrokenAndExpiredStreamsAreClosed() throws Exception {
+                MarketDataHub hub = new MarketDataHub(TICK_SIZE, 5, 1024, 3, 50);
+                MatchingEngine engine = new MatchingEngine(List.of("TEST"), TICK_SIZE, 1_000_000, UNLIMITED, Long.MAX_VALUE,
+                                UNLIMITED, 1024, 64, WaitStrategy.YIELD, hub, null);
+                try {
+                        RecordingSink broken = new RecordingSink();
+                        RecordingSink expiring = new RecordingSink();
+                        RecordingSink open = new RecordingSink();
+                        hub.subscribe("broken", List.of("TEST"), EnumSet.allOf(MarketDataHub.Channel.class), null,
+                                        broken);
+                        hub.subscribe("expiring", List.of("TEST"), EnumSet.allOf(MarketDataHub.Channel.class),
+                                        Instant.now().plusMillis(100), expiring);
+                        hub.subscribe("open", List.of("TEST"), EnumSet.allOf(MarketDataHub.Channel.class), null, open);
+                        assertThrows(IllegalStateException.class, () -> hub.subscribe("fourth", List.of("TEST"),
+                                        EnumSet.allOf(MarketDataHub.Channel.class), null, new RecordingSink()));
+                        assertThrows(IllegalArgumentException.class, () -> hub.subscribe("unknown", List.of("NONE"),
+                                        EnumSet.allOf(MarketDataHub.Channel.class), null, new RecordingSink()));
+
+                        broken.failing = true;
+                        engine.submit(1, order(Side.BUY, OrderType.LIMIT, "1.00", 1)).join();
+                        await(() -> broken.closed && expiring.closed);
+                        assertEquals(1, hub.getStats().get("subscribers"));
+                        assertEquals(1, hub.getStats().get("subscriptionsRejected"));
+                        // Idle streams get heartbeats
+                        await(() -> open.frames.stream().filter(frame -> frame.length == 3).count() > 1);
+                } finally {
+                        engine.shutdown();
+                        hub.shutdown();
+                }
+        }
+
+        @Test
+        public void testStreamEndpointRejectsInvalidRequests() throws Exception {
+                mockMvc.perform(get("/api/market-data/stream").param("symbols", "TEST"))
+                                .andExpect(status().isUnauthorized());
+                mockMvc.perform(get("/api/market-data/stream").param("symbols", "NONE")
+                                .with(httpBasic("theAdmin", "qwerty")))
+                                .andExpect(status().isBadRequest());
+                mockMvc.perform(get("/api/market-data/stream").param("symbols", "TEST").param("channels", "quotes")
+                                .with(httpBasic("theAdmin", "qwerty")))
+                                .andExpect(status().isBadRequest());
+                mockMvc.perform(get("/api/metrics/market-data").with(httpBasic("theAdmin", "qwerty")))
+                                .andExpect(status().isOk())
+                                .andExpect(jsonPath("$.subscribers", is(0)));
+        }
+
+        private static OrderRequestDTO order(Side side, OrderType type, String price, long quantity) {
+                OrderRequestDTO request = new OrderRequestDTO();
+                request.setSymbol("TEST");
+                request.setSide(side);
+                request.setType(type);
+                request.setPrice(new BigDecimal(price));
+                request.setQuantity(quantity);
+                return request;
+        }
+
+        private static long prints(RecordingSink sink) {
+                String written = sink.frames.stream().map(frame -> new String(frame, StandardCharsets.UTF_8))
+                                .collect(Collectors.joining());
+                return written.split("\"takerSide\"", -1).length - 1;
+        }
+
+        private static void await(BooleanSupplier condition) throws InterruptedException {
+                long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+                while (!condition.getAsBoolean()) {
+                        assertTrue(System.currentTimeMillis() < deadline, "Timed out");
+                        Thread.sleep(5);
+                }
+        }
+
+        /**
+         * Sink recording the frames written to it.
+         */
+        private static class RecordingSink implements MarketDataHub.Sink {
+
+                private final List<byte[]> frames = new CopyOnWriteArrayList<>();
+                private volatile boolean ready = true;
+                private volatile boolean failing;
+                private volatile boolean closed;
+
+                @Override
+                public boolean isReady() {
+                        return ready;
+                }
+
+                @Override
+                public void write(byte[] frame) throws IOException {
+                        if (failing) {
+                                throw new IOException("Broken pipe");
+                        }
+                        frames.add(frame);
+                }
+
+                @Override
+                public void close() {
+                        closed = true;
+                }
+
+                String text(int index) {
+                        return new String(frames.get(index), StandardCharsets.UTF_8);
+                }
+
+                long count(String event) {
+                        return frames.stream().filter(frame -> startsWith(frame, event)).count();
+                }
+
+                byte[] last(String event) {
+                        byte[] last = null;
+                        for (byte[] frame : frames) {
+                                if (startsWith(frame, event)) {
+                                        last = frame;
+                                }
+                        }
+                        return last;
+                }
+
+                private static boolean startsWith(byte[] frame, String event) {
+                        return new String(frame, StandardCharsets.UTF_8).startsWith("event: " + event + "\n");
+                }
+        }
+}
@@ -0,0 +1,419 @@
+package com.sforce.sforcetrading;
+
+import com.sforce.sforcetrading.dto.AccountDTO;
+import com.sforce.sforcetrading.dto.OrderBookDTO;
+import com.sforce.sforcetrading.dto.OrderRequestDTO;
+import com.sforce.sforcetrading.dto.OrderResultDTO;
+import com.sforce.sforcetrading.trading.MatchingEngine;
+import com.sforce.sforcetrading.trading.OrderJournal;
+import com.sforce.sforcetrading.trading.OrderType;
+import com.sforce.sforcetrading.trading.Side;
+import com.sforce.sforcetrading.trading.WaitStrategy;
+import com.sforce.sforcetrading.util.MappedSegmentLog;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.util.FileSystemUtils;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.httpBasic;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Checks that the matching engine gets its books, accounts and order IDs back
+ * from the order journal after a restart, from a snapshot or by replaying the
+ * journal, and measures how long recovering a trading day takes.
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:orderJournal;DB_CLOSE_DELAY=-1",
+        "security.password.bcrypt-strength=4" })
+@AutoConfigureMockMvc
+@ActiveProfiles("test")
+public class OrderJournalTest {
+
+        private static final Logger logger = LoggerFactory.getLogger(OrderJournalTest.class);
+
+        private static final List<String> SYMBOLS = List.of("TEST", "OTHER");
+        private static final BigDecimal TICK_SIZE = new BigDecimal("0.01");
+        private static final BigDecimal UNLIMITED = new BigDecimal("1000000000000");
+        private static final int USERS = 1_000;
+        // Users placing the orders of the restart test, whose resting orders are compared
+        private static final int TRADERS = 5;
+        // Orders of the trading day replayed by the recovery test, each giving about one fill
+        // (a short day by default, -Dtrading.journal.test.day-orders=10000000 for a full one)
+        private static final int DAY_ORDERS = Integer.getInteger("trading.journal.test.day-orders", 100_000);
+
+        private final List<Path> directories = new ArrayList<>();
+
+        @Autowired
+        private MockMvc mockMvc;
+
+        @AfterEach
+        public void deleteDirectories() throws IOException {
+                for (Path directory : directories) {
+                        FileSystemUtils.deleteRecursively(directory);
+                }
+        }
+
+        @Test
+        public void testRestartReplaysTheJournalAfterTheLatestSnapshot() throws Exception {
+                Path directory = newDirectory("order-journal");
+                // Cash for 20 shares at 100.00, small segments, and a snapshot every 4 commands
+                OrderJournal journal = new OrderJournal(true, directory.toString(), DataSize.ofKilobytes(4), 0, 4);
+                MatchingEngine engine = newEngine(new BigDecimal("2000"), journal);
+                Random random = new Random(7);
+                for (int i = 0; i < 200; i++) {
+                        long userId = 1 + random.nextInt(TRADERS);
+                        OrderType type = i % 10 == 9 ? OrderType.IOC : OrderType.LIMIT;
+                        engine.submit(userId, order(SYMBOLS.get(random.nextInt(2)),
+                                        random.nextBoolean() ? Side.BUY : Side.SELL, type, 9_990 + random.nextInt(20),
+                                        1 + random.nextInt(5))).join();
+                        if (i % 7 == 6) {
+                                engine.cancel(userId, SYMBOLS.get(i % 2), 1 + random.nextInt(i)).join();
+                        }
+                }
+                OrderResultDTO rejected = engine.submit(1, order("TEST", Side.BUY, OrderType.LIMIT, 10_000, 21))
+                                .join();
+                assertEquals(OrderResultDTO.Status.REJECTED, rejected.getStatus());
+                long lastOrderId = rejected.getOrderId();
+                String state = describe(engine, lastOrderId);
+                engine.shutdown();
+                journal.shutdown();
+
+                // A crash in the middle of the latest snapshot makes the engine fall back to the previous one
+                Path latest = snapshots(directory).get(1);
+                try (FileChannel channel = FileChannel.open(latest, StandardOpenOption.WRITE)) {
+                        channel.write(ByteBuffer.wrap(new byte[] { 42 }), channel.size() / 2);
+                }
+                journal = new OrderJournal(true, directory.toString(), DataSize.ofKilobytes(4), 0, 4);
+                engine = newEngine(new BigDecimal("2000"), journal);
+                assertEquals(state, describe(engine, lastOrderId));
+                assertTrue(journal.getStats().get("recoveredCommands") > 0);
+
+                // Resting orders keep their priority: a market order sweeping the bids trades them best price
+                // first, then oldest first
+                List<OrderResultDTO> bids = new ArrayList<>();
+                for (long orderId = 1; orderId <= lastOrderId; orderId++) {
+                        restingOrders(engine, orderId).stream().filter(order -> order.getSymbol().equals("TEST")
+                                        && order.getSide() == Side.BUY).forEach(bids::add);
+                }
+                bids.sort(Comparator.comparing(OrderResultDTO::getPrice).reversed()
+                                .thenComparingLong(OrderResultDTO::getOrderId));
+                OrderRequestDTO sweep = order("TEST", Side.SELL, OrderType.MARKET, 0,
+                                bids.stream().mapToLong(OrderResultDTO::getRemainingQuantity).sum());
+                sweep.setPrice(null);
+                OrderResultDTO swept = engine.submit(TRADERS + 1, sweep).join();
+                assertEquals(lastOrderId + 1, swept.getOrderId());
+                assertEquals(bids.stream().map(order -> order.getPrice() + "x" + order.getRemainingQuantity())
+                                .collect(Collectors.toList()),
+                                swept.getFills().stream().map(fill -> fill.getPrice() + "x" + fill.getQuantity())
+                                                .collect(Collectors.toList()));
+                state = describe(engine, swept.getOrderId());
+                engine.shutdown();
+                journal.shutdown();
+
+                // A clean stop leaves a snapshot of the final state, and nothing to replay
+                journal = new OrderJournal(true, directory.toString(), DataSize.ofKilobytes(4), 0, 4);
+                engine = newEngine(new BigDecimal("2000"), journal);
+                assertEquals(state, describe(engine, swept.getOrderId()));
+                assertEquals(0L, journal.getStats().get("recoveredCommands"));
+                engine.shutdown();
+                journal.shutdown();
+                // Segments only needed by older snapshots are gone
+                try (Stream<Path> files = Files.list(directory)) {
+                        assertTrue(files.filter(file -> file.toString().endsWith(".log")).count() < 5);
+                }
+
+                // Without a usable snapshot, replaying what is left of the journal would lose state
+                for (Path snapshot : snapshots(directory)) {
+                        try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.WRITE)) {
+                                channel.write(ByteBuffer.wrap(new byte[] { 42 }), channel.size() / 2);
+                        }
+                }
+                OrderJournal corrupt = new OrderJournal(true, directory.toString(), DataSize.ofKilobytes(4), 0, 4);
+                try {
+                        assertThrows(IllegalStateException.class, () -> newEngine(new BigDecimal("2000"), corrupt));
+                } finally {
+                        corrupt.shutdown();
+                }
+        }
+
+        @Test
+        public void testReplayToleratesAFillMissingFromTheJournal() throws Exception {
+                Path directory = newDirectory("order-journal-fill");
+                OrderJournal journal = new OrderJournal(true, directory.toString(), DataSize.ofKilobytes(64), 0,
+                                Long.MAX_VALUE);
+                MatchingEngine engine = newEngine(UNLIMITED, journal);
+                engine.submit(1, order("TEST", Side.SELL, OrderType.LIMIT, 10_000, 5)).join();
+                engine.submit(2, order("TEST", Side.SELL, OrderType.LIMIT, 10_001, 5)).join();
+                // Trades with both resting orders, then more orders follow
+                engine.submit(3, order("TEST", Side.BUY, OrderType.LIMIT, 10_001, 8)).join();
+                engine.submit(4, order("TEST", Side.BUY, OrderType.LIMIT, 10_001, 1)).join();
+                engine.submit(1, order("OTHER", Side.BUY, OrderType.LIMIT, 9_000, 3)).join();
+                String state = describe(engine, 5);
+                engine.shutdown();
+                journal.shutdown();
+
+                // As if writing the first fill of the third order had failed; the snapshot of the
+                // close goes too, so the whole journal is replayed
+                List<byte[]> records = new ArrayList<>();
+                MappedSegmentLog.read(directory, "orders", record -> {
+                        byte[] copy = new byte[record.remaining()];
+                        record.get(copy);
+                        records.add(copy);
+                });
+                int fill = 0;
+                while (records.get(fill)[0] != 3) {
+                        fill++;
+                }
+                records.remove(fill);
+                assertTrue(fill < records.size() - 1);
+                try (Stream<Path> files = Files.list(directory)) {
+                        for (Path file : files.filter(file -> file.toString().endsWith(".log")).toList()) {
+                                Files.delete(file);
+                        }
+                }
+                try (MappedSegmentLog log = new MappedSegmentLog(directory, "orders", 64 * 1024, 0)) {
+                        for (byte[] record : records) {
+                                log.append(ByteBuffer.wrap(record));
+                        }
+                }
+                Files.delete(snapshots(directory).get(1));
+
+                journal = new OrderJournal(true, directory.toString(), DataSize.ofKilobytes(64), 0, Long.MAX_VALUE);
+                engine = newEngine(UNLIMITED, journal);
+                try {
+                        assertEquals(state, describe(engine, 5));
+                } finally {
+                        engine.shutdown();
+                        journal.shutdown();
+                }
+        }
+
+        @Test
+        public void testLastBatchIsFlushedOnceTheIntervalElapses() throws Exception {
+                Path directory = newDirectory("order-journal-flush");
+                OrderJournal journal = new OrderJournal(true, directory.toString(), DataSize.ofKilobytes(64), 200,
+                                Long.MAX_VALUE);
+                MatchingEngine engine = newEngine(UNLIMITED, journal);
+                try {
+                        engine.submit(1, order("TEST", Side.BUY, OrderType.LIMIT, 10_000, 1)).join();
+                        engine.submit(1, order("TEST", Side.BUY, OrderType.LIMIT, 10_000, 1)).join();
+                        long flushes = journal.getStats().get("flushes");
+                        // No batch follows, the idle matching thread flushes the records
+                        long deadline = System.currentTimeMillis() + 5_000;
+                        while (journal.getStats().get("flushes") == flushes) {
+                                assertTrue(System.currentTimeMillis() < deadline, "Timed out");
+                                Thread.sleep(10);
+                        }
+                } finally {
+                        engine.shutdown();
+                        journal.shutdown();
+                }
+        }
+
+        @Test
+        public void testSnapshotSymbolsMustStillBeTraded() throws Exception {
+                Path directory = newDirectory("order-journal-symbols");
+                OrderJournal journal = new OrderJournal(true, directory.toString(), DataSize.ofKilobytes(64), 0, 100);
+                MatchingEngine engine = newEngine(UNLIMITED, journal);
+                engine.submit(1, order("OTHER", Side.BUY, OrderType.LIMIT, 10_000, 10)).join();
+                engine.shutdown();
+                journal.shutdown();
+
+                // Symbols are matched by name, so their order may change
+                OrderJournal reordered = new OrderJournal(true, directory.toString(), DataSize.ofKilobytes(64), 0,
+                                100);
+                engine = new MatchingEngine(List.of("OTHER", "TEST"), TICK_SIZE, 1_000_000, UNLIMITED, Long.MAX_VALUE,
+                                UNLIMITED, 1024, 64, WaitStrategy.YIELD, null, reordered);
+                assertEquals(1, engine.getDepth("OTHER", 10).join().orElseThrow().getBids().size());
+                engine.shutdown();
+                reordered.shutdown();
+
+                OrderJournal removed = new OrderJournal(true, directory.toString(), DataSize.ofKilobytes(64), 0, 100);
+                try {
+                        assertThrows(IllegalStateException.class, () -> new MatchingEngine(List.of("TEST"), TICK_SIZE,
+                                        1_000_000, UNLIMITED, Long.MAX_VALUE, UNLIMITED, 1024, 64, WaitStrategy.YIELD,
+                                        null, removed));
+                } finally {
+                        removed.shutdown();
+                }
+        }
+
+        @Test
+        public void testRecoveryOfATradingDay() throws Exception {
+                Path directory = newDirectory("order-journal-day");
+                // No snapshot during the day, and flushes grouped as under load
+                OrderJournal journal = new OrderJournal(true, directory.toString(), DataSize.ofMegabytes(128), 100,
+                                Long.MAX_VALUE);
+                MatchingEngine engine = newEngine(UNLIMITED, journal);
+                Random random = new Random(42);
+                long[] lastOrderIds = new long[USERS + 1];
+                int[] lastSymbols = new int[USERS + 1];
+                CompletableFuture<?> last = null;
+                for (int i = 0; i < DAY_ORDERS; i++) {
+                        long userId = 1 + random.nextInt(USERS);
+                        if (i % 4 == 3 && lastOrderIds[(int) userId] != 0) {
+                                // Users cancel their latest order, if it still rests
+                                last = engine.cancel(userId, SYMBOLS.get(lastSymbols[(int) userId]),
+                                                lastOrderIds[(int) userId]);
+                        }
+                        // Prices around a fixed mid, so about half the orders cross the spread; order IDs
+                        // follow the submissions
+                        int symbol = random.nextInt(2);
+                        OrderType type = random.nextInt(10) == 0 ? OrderType.IOC : OrderType.LIMIT;
+                        last = engine.submit(userId, order(SYMBOLS.get(symbol), random.nextBoolean() ? Side.BUY
+                                        : Side.SELL, type, 9_980 + random.nextInt(41), 1 + random.nextInt(100)));
+                        lastOrderIds[(int) userId] = i + 1;
+                        lastSymbols[(int) userId] = symbol;
+                }
+                last.join();
+                String state = describe(engine, 0);
+                long events = journal.getStats().get("commands") + journal.getStats().get("fills");
+                long restingOrders = engine.getStats().get("restingOrders");
+                engine.shutdown();
+                journal.shutdown();
+
+                journal = new OrderJournal(true, directory.toString(), DataSize.ofMegabytes(128), 100, Long.MAX_VALUE);
+                engine = newEngine(UNLIMITED, journal);
+                long fromSnapshot = journal.getStats().get("recoveryMillis");
+                assertEquals(state, describe(engine, 0));
+                engine.shutdown();
+                journal.shutdown();
+
+                // Without the snapshot of the close, the whole day is replayed from the empty snapshot of the open
+                Files.delete(snapshots(directory).get(1));
+                journal = new OrderJournal(true, directory.toString(), DataSize.ofMegabytes(128), 100, Long.MAX_VALUE);
+                engine = newEngine(UNLIMITED, journal);
+                long fromJournal = journal.getStats().get("recoveryMillis");
+                assertEquals(state, describe(engine, 0));
+                long commands = journal.getStats().get("recoveredCommands");
+                engine.shutdown();
+                journal.shutdown();
+
+                logger.info("Recovered a trading day of {} events ({} commands, {} resting orders): {} ms from the"
+                                + " snapshot of the close, {} ms replaying the journal ({} events/s)", events,
+                                commands, restingOrders,
+                                fromSnapshot, fromJournal, events * 1000 / Math.max(1, fromJournal));
+                assertTrue(commands > DAY_ORDERS);
+        }
+
+        @Test
+        public void testJournalCountersAreExposed() throws Exception {
+                mockMvc.perform(get("/api/metrics/order-journal").with(httpBasic("theAdmin", "qwerty")))
+                                .andExpect(status().isOk())
+                                .andExpect(jsonPath("$.enabled", is(1)))
+                                .andExpect(jsonPath("$.snapshots", is(1)));
+        }
+
+        private Path newDirectory(String prefix) throws IOException {
+                Path directory = Files.createTempDirectory(prefix);
+                directories.add(directory);
+                return directory;
+        }
+
+        private static MatchingEngine newEngine(BigDecimal initialCash, OrderJournal journal) {
+                return new MatchingEngine(SYMBOLS, TICK_SIZE, 1_000_000, initialCash, Long.MAX_VALUE, UNLIMITED, 65536,
+                                256, WaitStrategy.YIELD, null, journal);
+        }
+
+        private static OrderRequestDTO order(String symbol, Side side, OrderType type, long priceInTicks,
+                        long quantity) {
+                OrderRequestDTO request = new OrderRequestDTO();
+                request.setSymbol(symbol);
+                request.setSide(side);
+                request.setType(type);
+                request.setPrice(BigDecimal.valueOf(priceInTicks, 2));
+                request.setQuantity(quantity);
+                return request;
+        }
+
+        /**
+         * Describes the levels of every book, the account of every user and the
+         * orders resting up to an ID, to compare the state of two engines.
+         */
+        private static String describe(MatchingEngine engine, long maxOrderId) {
+                StringBuilder state = new StringBuilder();
+                for (String symbol : SYMBOLS) {
+                        OrderBookDTO book = engine.getDepth(symbol, 100).join().orElseThrow();
+                        for (OrderBookDTO.Level level : book.getBids()) {
+                                state.append("bid ").append(symbol).append(' ').append(level.getPrice()).append(' ')
+                                                .append(level.getQuantity()).append(' ').append(level.getOrders())
+                                                .append('\n');
+                        }
+                        for (OrderBookDTO.Level level : book.getAsks()) {
+                                state.append("ask ").append(symbol).append(' ').append(level.getPrice()).append(' ')
+                                                .append(level.getQuantity()).append(' ').append(level.getOrders())
+                                                .append('\n');
+                        }
+                }
+                for (long userId = 1; userId <= USERS; userId++) {
+                        AccountDTO account = engine.getAccount(userId).join();
+                        state.append("account ").append(userId).append(' ').append(account.getCash()).append(' ')
+                                        .append(account.getReservedCash()).append(' ')
+                                        .append(account.getPositions().stream()
+                                                        .map(position -> position.getSymbol() + ':'
+                                                                        + position.getQuantity() + ':'
+                                                                        + position.getOpenBuyQuantity() + ':'
+                                                                        + position.getOpenSellQuantity())
+                                                        .collect(Collectors.joining(",")))
+                                        .append('\n');
+                }
+                for (long orderId = 1; orderId <= maxOrderId; orderId++) {
+                        for (OrderResultDTO order : restingOrders(engine, orderId)) {
+                                state.append("order ").append(order.getOrderId()).append(' ')
+                                                .append(order.getSymbol()).append(' ').append(order.getSide())
+                                                .append(' ').append(order.getPrice()).append(' ')
+                                                .append(order.getRemainingQuantity()).append('\n');
+                        }
+                }
+                state.append("resting ").append(engine.getStats().get("restingOrders")).append(" accounts ")
+                                .append(engine.getStats().get("accounts"));
+                return state.toString();
+        }
+
+        private static List<OrderResultDTO> restingOrders(MatchingEngine engine, long orderId) {
+                List<OrderResultDTO> orders = new ArrayList<>();
+                for (String symbol : SYMBOLS) {
+                        for (long userId = 1; userId <= TRADERS; userId++) {
+                                engine.getOrder(userId, symbol, orderId).join().ifPresent(orders::add);
+                        }
+                }
+                return orders;
+        }
+
+        private static List<Path> snapshots(Path directory) throws IOException {
+                try (Stream<Path> files = Files.list(directory)) {
+                        return files.filter(file -> file.toString().endsWith(".snap")).sorted()
+                                        .collect(Collectors.toList());
+                }
+        }
+}
@@ -0,0 +1,44 @@
+package com.sforce.sforcetrading;
+
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Runs the lookup query plan checks on the prod profile. Needs a scratch
+ * PostgreSQL database, whose schema is created and dropped by the test:
+ * set {@code POSTGRES_TEST_URL} to its JDBC URL, and {@code POSTGRES_USERNAME}
+ * and {@code POSTGRES_PASSWORD} as for the prod profile.
+ */
+@EnabledIfEnvironmentVariable(named = "POSTGRES_TEST_URL", matches = ".+")
+@SpringBootTest(properties = {
+        "spring.datasource.url=${POSTGRES_TEST_URL}",
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        "security.password.bcrypt-strength=4",
+        "jwt.rsa.ephemeral-key-allowed=true",
+        UserLookupQueryPlanTest.STATEMENT_INSPECTOR,
+        UserLookupQueryPlanTest.NO_SECOND_LEVEL_CACHE,
+        UserLookupQueryPlanTest.NO_QUERY_CACHE })
+@ActiveProfiles(profiles = "prod", inheritProfiles = false)
+public class PostgresUserLookupQueryPlanTest extends UserLookupQueryPlanTest {
+
+        // The test table is tiny, so the planner would rightly prefer a sequential
+        // scan; disabling it shows whether the index can answer the lookup at all
+        @Override
+        protected void beforeExplain(Connection connection) throws SQLException {
+                try (Statement statement = connection.createStatement()) {
+                        statement.execute("set enable_seqscan = off");
+                }
+        }
+
+        @Override
+        protected void afterExplain(Connection connection) throws SQLException {
+                try (Statement statement = connection.createStatement()) {
+                        statement.execute("reset enable_seqscan");
+                }
+        }
+}
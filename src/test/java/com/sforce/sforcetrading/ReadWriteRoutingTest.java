@@ -0,0 +1,134 @@
+package com.sforce.sforcetrading;
+
+import com.sforce.sforcetrading.dto.UserDTO;
+import com.sforce.sforcetrading.model.User;
+import com.sforce.sforcetrading.repository.UserRepository;
+import com.sforce.sforcetrading.service.UserService;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.context.ActiveProfiles;
+
+import javax.sql.DataSource;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks the routing between the primary database and the read replica, with
+ * two in-memory H2 databases standing in for them. Replication is simulated by
+ * copying the primary into the replica.
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:routing-primary;DB_CLOSE_DELAY=-1",
+        "datasource.replica.jdbc-url=jdbc:h2:mem:routing-replica;DB_CLOSE_DELAY=-1",
+        "datasource.replica.username=sa",
+        "datasource.replica.password=password",
+        "datasource.replica-lag-tolerance-ms=" + ReadWriteRoutingTest.LAG_TOLERANCE_MS,
+        "security.password.bcrypt-strength=4",
+        // The cache would answer reads before they reach either database
+        UserLookupQueryPlanTest.NO_SECOND_LEVEL_CACHE,
+        UserLookupQueryPlanTest.NO_QUERY_CACHE })
+@ActiveProfiles("test")
+public class ReadWriteRoutingTest {
+
+        static final long LAG_TOLERANCE_MS = 300;
+
+        @Autowired
+        private UserService userService;
+
+        @Autowired
+        private UserRepository userRepository;
+
+        @Autowired
+        @Qualifier("primaryDataSource")
+        private DataSource primaryDataSource;
+
+        @Autowired
+        @Qualifier("replicaDataSource")
+        private DataSource replicaDataSource;
+
+        @BeforeEach
+        public void setup() throws Exception {
+                userRepository.deleteAll();
+                replicate();
+                Thread.sleep(LAG_TOLERANCE_MS);
+        }
+
+        @AfterEach
+        public void clearClient() {
+                SecurityContextHolder.clearContext();
+        }
+
+        @Test
+        public void testReadOnlyTransactionsUseReplicaOnceLagToleranceElapsed() throws Exception {
+                userService.saveUser(newUser("routed"));
+
+                // Right after the write, reads stay on the primary
+                assertTrue(userService.getUserByUsername("routed").isPresent());
+
+                // Then they go to the replica, which has not caught up yet
+                Thread.sleep(LAG_TOLERANCE_MS + 100);
+                assertTrue(userService.getUserByUsername("routed").isEmpty());
+
+                replicate();
+                assertTrue(userService.getUserByUsername("routed").isPresent());
+        }
+
+        @Test
+        public void testOnlyTheWritingClientReadsFromThePrimary() throws Exception {
+                actAs("alice");
+                userService.saveUser(newUser("written"));
+                assertTrue(userService.getUserByUsername("written").isPresent());
+
+                // Another client's reads keep going to the replica, which has not caught up yet
+                actAs("bob");
+                assertTrue(userService.getUserByUsername("written").isEmpty());
+        }
+
+        @Test
+        public void testWritesUsePrimary() throws Exception {
+                User user = userService.saveUser(newUser("writer"));
+                Thread.sleep(LAG_TOLERANCE_MS + 100);
+
+                // The replica does not have the user, the update must read it from the primary
+                UserDTO changes = new UserDTO();
+                changes.setCity("Lisbon");
+                assertEquals("Lisbon", userService.updateUserDetails(user.getId(), changes).getCity());
+        }
+
+        private static void actAs(String username) {
+                SecurityContextHolder.getContext().setAuthentication(
+                                UsernamePasswordAuthenticationToken.authenticated(username, null, Collections.emptyList()));
+        }
+
+        private static User newUser(String username) {
+                User user = new User();
+                user.setUsername(username);
+                user.setPassword("password");
+                user.setEmail(username + "@example.com");
+                user.setFirstName("Routed");
+                user.setLastName("User");
+                return user;
+        }
+
+        /**
+         * Copies the schema and data of the primary into the replica.
+         */
+        private void replicate() {
+                List<String> script = new JdbcTemplate(primaryDataSource).queryForList("script", String.class);
+                JdbcTemplate replica = new JdbcTemplate(replicaDataSource);
+                replica.execute("drop all objects");
+                script.forEach(replica::execute);
+        }
+}
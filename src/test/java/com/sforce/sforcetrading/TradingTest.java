@@ -0,0 +1,485 @@
+package com.sforce.sforcetrading;
+
+import com.sforce.sforcetrading.dto.OrderBookDTO;
+import com.sforce.sforcetrading.dto.OrderRequestDTO;
+import com.sforce.sforcetrading.dto.OrderResultDTO;
+import com.sforce.sforcetrading.model.User;
+import com.sforce.sforcetrading.repository.UserRepository;
+import com.sforce.sforcetrading.service.UserService;
+import com.sforce.sforcetrading.trading.Ledger;
+import com.sforce.sforcetrading.trading.MatchingEngine;
+import com.sforce.sforcetrading.trading.Order;
+import com.sforce.sforcetrading.trading.OrderBook;
+import com.sforce.sforcetrading.trading.OrderBookListener;
+import com.sforce.sforcetrading.trading.OrderType;
+import com.sforce.sforcetrading.trading.RiskCheck;
+import com.sforce.sforcetrading.trading.Side;
+import com.sforce.sforcetrading.trading.WaitStrategy;
+import com.sforce.sforcetrading.util.JwtUtil;
+import com.sforce.sforcetrading.util.LongObjectHashMap;
+
+import com.jayway.jsonpath.JsonPath;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.RequestBuilder;
+import org.springframework.test.web.servlet.ResultActions;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.httpBasic;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Checks order matching on the order book, the sequencer feeding the matching
+ * thread, the ledger checking orders, and the order and account endpoints.
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:trading;DB_CLOSE_DELAY=-1",
+        "security.password.bcrypt-strength=4",
+        "trading.symbols=TEST,OTHER" })
+@AutoConfigureMockMvc
+@ActiveProfiles("test")
+public class TradingTest {
+
+        private static final BigDecimal UNLIMITED = new BigDecimal("1000000000000");
+
+        @Autowired
+        private UserService userService;
+
+        @Autowired
+        private UserRepository userRepository;
+
+        @Autowired
+        private JwtUtil jwtUtil;
+
+        @Autowired
+        private MockMvc mockMvc;
+
+        @BeforeEach
+        public void setup() {
+                userRepository.deleteAll();
+        }
+
+        @Test
+        public void testLimitOrdersMatchInPriceThenTimePriority() {
+                OrderBook book = new OrderBook(0, "TEST");
+                RecordingListener listener = new RecordingListener();
+                book.submit(1, 10, Side.SELL, OrderType.LIMIT, 101, 5, listener);
+                book.submit(2, 11, Side.SELL, OrderType.LIMIT, 100, 5, listener);
+                book.submit(3, 12, Side.SELL, OrderType.LIMIT, 100, 5, listener);
+                book.submit(4, 13, Side.SELL, OrderType.LIMIT, 102, 5, listener);
+                assertEquals(100, book.getBestPrice(Side.SELL));
+                assertEquals(List.of("rested 1", "rested 2", "rested 3", "rested 4"), listener.events);
+
+                // Crosses the two orders at 100 in arrival order, then part of the one at 101
+                listener.events.clear();
+                assertEquals(13, book.submit(5, 20, Side.BUY, OrderType.LIMIT, 101, 13, listener));
+                assertEquals(List.of("trade 5/2 100x5", "trade 5/3 100x5", "trade 5/1 101x3"), listener.events);
+                assertEquals(101, book.getBestPrice(Side.SELL));
+                assertEquals(2, book.getOrder(1).getRemaining());
+                assertNull(book.getOrder(2));
+
+                // What does not trade within the limit rests as the best bid
+                listener.events.clear();
+                book.submit(6, 20, Side.BUY, OrderType.LIMIT, 101, 4, listener);
+                assertEquals(List.of("trade 6/1 101x2", "rested 6"), listener.events);
+                assertEquals(101, book.getBestPrice(Side.BUY));
+                assertEquals(102, book.getBestPrice(Side.SELL));
+                assertEquals(2, book.getOrder(6).getRemaining());
+                assertEquals(2, book.getOrderCount());
+        }
+
+        @Test
+        public void testMarketAndIocOrdersCancelWhatIsLeft() {
+                OrderBook book = new OrderBook(0, "TEST");
+                RecordingListener listener = new RecordingListener();
+                book.submit(1, 10, Side.BUY, OrderType.LIMIT, 99, 5, listener);
+                book.submit(2, 10, Side.BUY, OrderType.LIMIT, 98, 5, listener);
+                listener.events.clear();
+
+                book.submit(3, 20, Side.SELL, OrderType.IOC, 99, 8, listener);
+                assertEquals(List.of("trade 3/1 99x5", "cancelled 3 3"), listener.events);
+
+                listener.events.clear();
+                book.submit(4, 20, Side.SELL, OrderType.MARKET, 0, 8, listener);
+                assertEquals(List.of("trade 4/2 98x5", "cancelled 4 3"), listener.events);
+                assertEquals(0, book.getOrderCount());
+                assertEquals(0, book.getBestPrice(Side.BUY));
+
+                listener.events.clear();
+                book.submit(5, 20, Side.BUY, OrderType.MARKET, 0, 1, listener);
+                assertEquals(List.of("cancelled 5 1"), listener.events);
+        }
+
+        @Test
+        public void testOrdersAreOnlyCancelledByTheirOwner() {
+                OrderBook book = new OrderBook(0, "TEST");
+                RecordingListener listener = new RecordingListener();
+                book.submit(1, 10, Side.BUY, OrderType.LIMIT, 97, 5, listener);
+                book.submit(2, 10, Side.BUY, OrderType.LIMIT, 98, 5, listener);
+                book.submit(3, 10, Side.BUY, OrderType.LIMIT, 99, 5, listener);
+                listener.events.clear();
+
+                assertFalse(book.cancel(2, 11, listener));
+                assertTrue(book.cancel(2, 10, listener));
+                assertFalse(book.cancel(2, 10, listener));
+                assertEquals(List.of("cancelled 2 5"), listener.events);
+
+                // The emptied level in the middle of the book is gone
+                List<Long> prices = new ArrayList<>();
+                book.visitLevels(Side.BUY, 10, (price, quantity, orders) -> prices.add(price));
+                assertEquals(List.of(99L, 97L), prices);
+        }
+
+        @Test
+        public void testPrimitiveMapMatchesHashMap() {
+                LongObjectHashMap<Long> map = new LongObjectHashMap<>(4);
+                Map<Long, Long> expected = new HashMap<>();
+                Random random = new Random(42);
+                for (int i = 0; i < 200_000; i++) {
+                        // Few distinct keys, so removals often shift colliding keys back
+                        long key = 1 + random.nextInt(5_000);
+                        if (random.nextInt(3) == 0) {
+                                assertEquals(expected.remove(key), map.remove(key));
+                        } else {
+                                assertEquals(expected.put(key, (long) i), map.put(key, (long) i));
+                        }
+                }
+                assertEquals(expected.size(), map.size());
+                for (long key = 1; key <= 5_000; key++) {
+                        assertEquals(expected.get(key), map.get(key));
+                }
+        }
+
+        @Test
+        public void testOrderEndpoints() throws Exception {
+                String seller = token(userService.saveUser(newUser("seller")));
+                String buyer = token(userService.saveUser(newUser("buyer")));
+
+                String resting = perform(post("/api/orders").header("Authorization", "Bearer " + seller)
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .content("{\"symbol\": \"test\", \"side\": \"SELL\", \"price\": \"12.50\","
+                                                + " \"quantity\": 10}"))
+                                .andExpect(status().isOk())
+                                .andExpect(jsonPath("$.status", is("RESTING")))
+                                .andExpect(jsonPath("$.remainingQuantity", is(10)))
+                                .andReturn().getResponse().getContentAsString();
+                long orderId = ((Number) JsonPath.read(resting, "$.orderId")).longValue();
+
+                perform(post("/api/orders").header("Authorization", "Bearer " + buyer)
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .content("{\"symbol\": \"TEST\", \"side\": \"BUY\", \"type\": \"IOC\", \"price\": 13,"
+                                                + " \"quantity\": 4}"))
+                                .andExpect(status().isOk())
+                                .andExpect(jsonPath("$.status", is("FILLED")))
+                                .andExpect(jsonPath("$.fills", hasSize(1)))
+                                .andExpect(jsonPath("$.fills[0].price", is(12.5)))
+                                .andExpect(jsonPath("$.filledQuantity", is(4)));
+
+                perform(get("/api/orders/book").param("symbol", "TEST")
+                                .header("Authorization", "Bearer " + buyer))
+                                .andExpect(status().isOk())
+                                .andExpect(jsonPath("$.asks[0].quantity", is(6)))
+                                .andExpect(jsonPath("$.bids", hasSize(0)));
+
+                // Another user can neither see nor cancel the order
+                perform(get("/api/orders/TEST/" + orderId).header("Authorization", "Bearer " + buyer))
+                                .andExpect(status().isNotFound());
+                perform(delete("/api/orders/TEST/" + orderId).header("Authorization", "Bearer " + buyer))
+                                .andExpect(status().isNotFound());
+                perform(delete("/api/orders/TEST/" + orderId).with(httpBasic("seller", "password")))
+                                .andExpect(status().isOk())
+                                .andExpect(jsonPath("$.status", is("CANCELLED")))
+                                .andExpect(jsonPath("$.remainingQuantity", is(6)));
+                perform(get("/api/orders/TEST/" + orderId).header("Authorization", "Bearer " + seller))
+                                .andExpect(status().isNotFound());
+        }
+
+        @Test
+        public void testInvalidOrdersAreRejected() throws Exception {
+                String trader = token(userService.saveUser(newUser("trader")));
+                String[] invalid = {
+                                "{\"symbol\": \"NONE\", \"side\": \"BUY\", \"price\": 1, \"quantity\": 1}",
+                                "{\"symbol\": \"TEST\", \"side\": \"BUY\", \"price\": 1.005, \"quantity\": 1}",
+                                "{\"symbol\": \"TEST\", \"side\": \"BUY\", \"quantity\": 1}",
+                                "{\"symbol\": \"TEST\", \"side\": \"BUY\", \"price\": 1, \"quantity\": 0}",
+                                "{\"symbol\": \"TEST\", \"price\": 1, \"quantity\": 1}" };
+                for (String order : invalid) {
+                        perform(post("/api/orders").header("Authorization", "Bearer " + trader)
+                                        .contentType(MediaType.APPLICATION_JSON).content(order))
+                                        .andExpect(status().isBadRequest());
+                }
+                perform(post("/api/orders").contentType(MediaType.APPLICATION_JSON)
+                                .content("{\"symbol\": \"TEST\", \"side\": \"BUY\", \"price\": 1, \"quantity\": 1}"))
+                                .andExpect(status().isUnauthorized());
+                // The in-memory administrators are not users and have no orders
+                perform(post("/api/orders").with(httpBasic("theAdmin", "qwerty"))
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .content("{\"symbol\": \"TEST\", \"side\": \"BUY\", \"price\": 1, \"quantity\": 1}"))
+                                .andExpect(status().isForbidden());
+        }
+
+        @Test
+        public void testLedgerChecksOrdersAndSettlesFills() {
+                // Two symbols, 10000 ticks of initial cash, positions of 100 and orders of 5000 ticks at most
+                Ledger ledger = new Ledger(2, 10_000, 100, 5_000, 16);
+                assertEquals(RiskCheck.MAX_ORDER_NOTIONAL, ledger.check(1, 0, Side.BUY, 5_001, 1));
+                assertEquals(RiskCheck.ACCEPTED, ledger.check(1, 0, Side.BUY, 4_000, 100));
+                ledger.reserve(1, 0, Side.BUY, 40, 100);
+                // The resting buy order counts towards the position limit, not towards selling
+                assertEquals(RiskCheck.POSITION_LIMIT, ledger.check(1, 0, Side.BUY, 40, 1));
+                assertEquals(RiskCheck.ACCEPTED, ledger.check(1, 0, Side.SELL, 4_000, 100));
+                assertEquals(RiskCheck.POSITION_LIMIT, ledger.check(1, 0, Side.SELL, 4_040, 101));
+
+                // User 2 sells 60 to the resting buy order
+                ledger.release(1, 0, Side.BUY, 40, 60);
+                ledger.fill(1, 2, 0, 40, 60);
+                assertEquals(7_600, ledger.getCash(1));
+                assertEquals(1_600, ledger.getReservedCash(1));
+                assertEquals(12_400, ledger.getCash(2));
+                assertEquals(RiskCheck.POSITION_LIMIT, ledger.check(1, 0, Side.BUY, 40, 1));
+                assertEquals(RiskCheck.ACCEPTED, ledger.check(2, 0, Side.SELL, 400, 40));
+
+                // Buying power is the cash not reserved, across symbols
+                ledger.reserve(1, 1, Side.BUY, 100, 50);
+                assertEquals(RiskCheck.INSUFFICIENT_BUYING_POWER, ledger.check(1, 1, Side.BUY, 1_001, 1));
+                assertEquals(RiskCheck.ACCEPTED, ledger.check(1, 1, Side.BUY, 1_000, 10));
+
+                List<String> positions = new ArrayList<>();
+                ledger.visitPositions(1, (symbolId, quantity, openBuy, openSell) -> positions
+                                .add(symbolId + ": " + quantity + " +" + openBuy + " -" + openSell));
+                ledger.visitPositions(2, (symbolId, quantity, openBuy, openSell) -> positions
+                                .add(symbolId + ": " + quantity + " +" + openBuy + " -" + openSell));
+                assertEquals(List.of("0: 60 +40 -0", "1: 0 +50 -0", "0: -60 +0 -0"), positions);
+                assertEquals(2, ledger.getAccountCount());
+                assertEquals(3, ledger.getPositionCount());
+                assertFalse(ledger.hasAccount(3));
+                assertEquals(10_000, ledger.getCash(3));
+        }
+
+        @Test
+        public void testOrdersAreCheckedAgainstTheAccount() throws Exception {
+                User sellerUser = userService.saveUser(newUser("accountSeller"));
+                String seller = token(sellerUser);
+                User buyerUser = userService.saveUser(newUser("accountBuyer"));
+                String buyer = token(buyerUser);
+
+                perform(post("/api/orders").header("Authorization", "Bearer " + buyer)
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .content("{\"symbol\": \"OTHER\", \"side\": \"BUY\", \"price\": \"1000.01\","
+                                                + " \"quantity\": 1000}"))
+                                .andExpect(status().isUnprocessableEntity())
+                                .andExpect(jsonPath("$.status", is("REJECTED")))
+                                .andExpect(jsonPath("$.rejectReason", is("MAX_ORDER_NOTIONAL")));
+                perform(post("/api/orders").header("Authorization", "Bearer " + seller)
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .content("{\"symbol\": \"OTHER\", \"side\": \"SELL\", \"price\": \"12.50\","
+                                                + " \"quantity\": 10}"))
+                                .andExpect(status().isOk());
+                perform(post("/api/orders").header("Authorization", "Bearer " + buyer)
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .content("{\"symbol\": \"OTHER\", \"side\": \"BUY\", \"type\": \"MARKET\","
+                                                + " \"quantity\": 4}"))
+                                .andExpect(status().isOk())
+                                .andExpect(jsonPath("$.status", is("FILLED")));
+
+                perform(get("/api/accounts").header("Authorization", "Bearer " + buyer))
+                                .andExpect(status().isOk())
+                                .andExpect(jsonPath("$.userId", is(buyerUser.getId().intValue())))
+                                .andExpect(jsonPath("$.cash", is(999950.0)))
+                                .andExpect(jsonPath("$.buyingPower", is(999950.0)))
+                                .andExpect(jsonPath("$.positions", hasSize(1)))
+                                .andExpect(jsonPath("$.positions[0].symbol", is("OTHER")))
+                                .andExpect(jsonPath("$.positions[0].quantity", is(4)));
+                perform(get("/api/accounts/" + sellerUser.getId()).with(httpBasic("theAdmin", "qwerty")))
+                                .andExpect(status().isOk())
+                                .andExpect(jsonPath("$.cash", is(1000050.0)))
+                                .andExpect(jsonPath("$.positions[0].quantity", is(-4)))
+                                .andExpect(jsonPath("$.positions[0].openSellQuantity", is(6)));
+                perform(get("/api/accounts/" + sellerUser.getId()).header("Authorization", "Bearer " + buyer))
+                                .andExpect(status().isForbidden());
+                perform(get("/api/accounts/" + (buyerUser.getId() + 1000)).with(httpBasic("theAdmin", "qwerty")))
+                                .andExpect(status().isNotFound());
+
+                perform(get("/api/metrics/matching-engine").with(httpBasic("theAdmin", "qwerty")))
+                                .andExpect(status().isOk())
+                                .andExpect(jsonPath("$.ordersRejected", is(1)));
+                perform(get("/api/metrics/market-data/subscribers").header("Authorization", "Bearer " + buyer))
+                                .andExpect(status().isForbidden());
+        }
+
+        @Test
+        public void testConcurrentOrdersMatchAsTheirSequenceReplayed() throws Exception {
+                MatchingEngine engine = new MatchingEngine(List.of("TEST"), new BigDecimal("0.01"), 1_000_000, UNLIMITED,
+                                Long.MAX_VALUE, UNLIMITED, 64, 16, WaitStrategy.YIELD, null, null);
+                List<OrderRequestDTO> requests = new ArrayList<>();
+                List<OrderResultDTO> results = Collections.synchronizedList(new ArrayList<>());
+                Random random = new Random(42);
+                for (int i = 0; i < 20_000; i++) {
+                        OrderRequestDTO request = new OrderRequestDTO();
+                        request.setSymbol("TEST");
+                        request.setSide(random.nextBoolean() ? Side.BUY : Side.SELL);
+                        request.setType(OrderType.values()[random.nextInt(10) < 8 ? 0 : 1 + random.nextInt(2)]);
+                        request.setPrice(BigDecimal.valueOf(9_990 + random.nextInt(20), 2));
+                        request.setQuantity(1L + random.nextInt(50));
+                        requests.add(request);
+                }
+                // Publishers share a ring much smaller than the number of orders, so they also wait for room
+                List<Thread> threads = new ArrayList<>();
+                for (int t = 0; t < 4; t++) {
+                        long userId = t + 1;
+                        List<OrderRequestDTO> part = requests.subList(t * 5_000, (t + 1) * 5_000);
+                        Thread thread = new Thread(() -> part.forEach(request -> results.add(
+                                        engine.submit(userId, request).join())));
+                        thread.start();
+                        threads.add(thread);
+                }
+                for (Thread thread : threads) {
+                        thread.join();
+                }
+                OrderBookDTO depth = engine.getDepth("TEST", 100).join().orElseThrow();
+                engine.shutdown();
+
+                // Order IDs follow the sequence, so replaying the orders by ID gives the same outcome
+                OrderBook replay = new OrderBook(0, "TEST");
+                results.sort(Comparator.comparingLong(OrderResultDTO::getOrderId));
+                for (int i = 0; i < results.size(); i++) {
+                        OrderResultDTO result = results.get(i);
+                        assertEquals(i + 1, result.getOrderId());
+                        long price = result.getPrice() == null ? 0
+                                        : result.getPrice().movePointRight(2).longValueExact();
+                        long filled = replay.submit(result.getOrderId(), 1, result.getSide(), result.getType(), price,
+                                        result.getQuantity(), new OrderBookListener() {
+                                        });
+                        assertEquals(result.getFilledQuantity(), filled);
+                }
+                List<Long> replayed = new ArrayList<>();
+                replay.visitLevels(Side.BUY, 100, (price, quantity, orders) -> replayed.add(quantity));
+                replay.visitLevels(Side.SELL, 100, (price, quantity, orders) -> replayed.add(quantity));
+                List<Long> matched = new ArrayList<>();
+                depth.getBids().forEach(level -> matched.add(level.getQuantity()));
+                depth.getAsks().forEach(level -> matched.add(level.getQuantity()));
+                assertEquals(replayed, matched);
+        }
+
+        @Test
+        public void testEveryWaitStrategyAppliesCommands() throws Exception {
+                for (WaitStrategy waitStrategy : WaitStrategy.values()) {
+                        MatchingEngine engine = new MatchingEngine(List.of("TEST"), new BigDecimal("0.01"), 100, UNLIMITED,
+                                        Long.MAX_VALUE, UNLIMITED, 8, 4, waitStrategy, null, null);
+                        OrderRequestDTO request = new OrderRequestDTO();
+                        request.setSymbol("TEST");
+                        request.setSide(Side.BUY);
+                        request.setPrice(new BigDecimal("1.00"));
+                        request.setQuantity(10L);
+                        for (int i = 0; i < 100; i++) {
+                                assertEquals(OrderResultDTO.Status.RESTING,
+                                                engine.submit(1, request).get(5, TimeUnit.SECONDS).getStatus());
+                                // Leave the matching thread idle long enough to reach its slowest wait
+                                if (i % 10 == 0) {
+                                        Thread.sleep(5);
+                                }
+                        }
+                        assertEquals(100L, engine.getStats().get("restingOrders"));
+                        engine.shutdown();
+                }
+        }
+
+        @Test
+        public void testRepliesAreNotCompletedOnTheMatchingThread() throws Exception {
+                MatchingEngine engine = new MatchingEngine(List.of("TEST"), new BigDecimal("0.01"), 100, UNLIMITED,
+                                Long.MAX_VALUE, UNLIMITED, 1024, 16, WaitStrategy.PARK, null, null);
+                OrderRequestDTO request = new OrderRequestDTO();
+                request.setSymbol("TEST");
+                request.setSide(Side.BUY);
+                request.setPrice(new BigDecimal("1.00"));
+                request.setQuantity(10L);
+                // Chained like the controllers, before the orders are applied
+                List<CompletableFuture<String>> threads = new ArrayList<>();
+                for (int i = 0; i < 500; i++) {
+                        threads.add(engine.submit(1, request).thenApply(result -> Thread.currentThread().getName()));
+                }
+                for (CompletableFuture<String> thread : threads) {
+                        assertNotEquals("matching-engine", thread.get(5, TimeUnit.SECONDS));
+                }
+                assertEquals(500L, engine.getStats().get("restingOrders"));
+                engine.shutdown();
+        }
+
+        // Order endpoints answer asynchronously, once the matching thread has applied the request
+        private ResultActions perform(RequestBuilder request) throws Exception {
+                ResultActions actions = mockMvc.perform(request);
+                MvcResult result = actions.andReturn();
+                if (result.getRequest().isAsyncStarted()) {
+                        return mockMvc.perform(asyncDispatch(result));
+                }
+                return actions;
+        }
+
+        private String token(User user) {
+                return jwtUtil.generateToken(userService.convertToUserDetails(user), user.getId(),
+                                user.getTokenVersion());
+        }
+
+        private static User newUser(String username) {
+                User user = new User();
+                user.setUsername(username);
+                user.setPassword("password");
+                user.setEmail(username + "@example.com");
+                user.setFirstName("Trading");
+                user.setLastName("User");
+                return user;
+        }
+
+        /**
+         * Records the outcome of book commands as short strings.
+         */
+        private static class RecordingListener implements OrderBookListener {
+
+                private final List<String> events = new ArrayList<>();
+
+                @Override
+                public void onTrade(long takerOrderId, long takerUserId, long makerOrderId, long makerUserId,
+                                Side takerSide, long price, long quantity) {
+                        events.add("trade " + takerOrderId + "/" + makerOrderId + " " + price + "x" + quantity);
+                }
+
+                @Override
+                public void onRested(Order order) {
+                        events.add("rested " + order.getId());
+                }
+
+                @Override
+                public void onCancelled(long orderId, long userId, long quantity) {
+                        events.add("cancelled " + orderId + " " + quantity);
+                }
+        }
+}
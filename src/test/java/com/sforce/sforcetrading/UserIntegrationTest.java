@@ -4,29 +4,50 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.sforce.sforcetrading.dto.PasswordUpdateDTO;
 import com.sforce.sforcetrading.dto.UserCreateDTO;
 import com.sforce.sforcetrading.dto.UserDTO;
+import com.sforce.sforcetrading.exception.PasswordHashingOverloadedException;
 import com.sforce.sforcetrading.model.User;
 import com.sforce.sforcetrading.repository.UserRepository;
+import com.sforce.sforcetrading.service.PasswordHashingService;
+import com.sforce.sforcetrading.util.JwtUtil;
 import com.sforce.sforcetrading.util.RSAUtil;
 
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockHttpServletResponse;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.ResultActions;
 
+import java.nio.CharBuffer;
 import java.nio.charset.StandardCharsets;
 import java.security.PublicKey;
+import java.util.ArrayList;
 import java.util.Base64;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
 
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.hamcrest.Matchers.hasSize;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.httpBasic;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
@@ -47,6 +68,12 @@ public class UserIntegrationTest {
         @Autowired
         private ObjectMapper objectMapper;
 
+        @Autowired
+        private PasswordHashingService passwordHashingService;
+
+        @Value("${jwt.secret.key}")
+        private String legacySecretKey;
+
         private String jwtToken;
 
         @BeforeEach
@@ -67,6 +94,10 @@ public class UserIntegrationTest {
         }
 
         private String obtainJwtToken(String username, String password) throws Exception {
+                return loginResponse(username, password).getContentAsString();
+        }
+
+        private MockHttpServletResponse loginResponse(String username, String password) throws Exception {
                 // Fetch public key from the API
                 String publicKeyPem = mockMvc.perform(get("/api/public-key"))
                                 .andExpect(status().isOk())
@@ -85,14 +116,25 @@ public class UserIntegrationTest {
                 String encryptedPassword = Base64.getEncoder().encodeToString(
                                 RSAUtil.encrypt(password, publicKey));
 
-                MvcResult result = mockMvc.perform(post("/api/users/login")
-                                .contentType(MediaType.APPLICATION_JSON)
-                                .content("{\"username\": \"" + username + "\", \"password\": \"" + encryptedPassword
-                                                + "\"}"))
+                MvcResult result = performLogin("{\"username\": \"" + username + "\", \"password\": \""
+                                + encryptedPassword + "\"}")
                                 .andExpect(status().isOk())
                                 .andReturn();
 
-                return result.getResponse().getContentAsString();
+                return result.getResponse();
+        }
+
+        // The login endpoint verifies passwords asynchronously, so its response is
+        // only available after the async dispatch
+        private ResultActions performLogin(String content) throws Exception {
+                ResultActions actions = mockMvc.perform(post("/api/users/login")
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .content(content));
+                MvcResult result = actions.andReturn();
+                if (result.getRequest().isAsyncStarted()) {
+                        return mockMvc.perform(asyncDispatch(result));
+                }
+                return actions;
         }
 
         @Test
@@ -146,29 +188,88 @@ public class UserIntegrationTest {
                 String encryptedPassword = Base64.getEncoder().encodeToString(
                                 RSAUtil.encrypt("testpassword", publicKey));
 
-                mockMvc.perform(post("/api/users/login")
-                                .contentType(MediaType.APPLICATION_JSON)
-                                .content("{\"username\": \"testuser\", \"password\": \"" + encryptedPassword + "\"}"))
+                performLogin("{\"username\": \"testuser\", \"password\": \"" + encryptedPassword + "\"}")
                                 .andExpect(status().isOk())
                                 .andExpect(jsonPath("$").isNotEmpty());
 
                 // Test invalid credentials
                 encryptedPassword = Base64.getEncoder().encodeToString(
                                 RSAUtil.encrypt("wrongpassword", publicKey));
-                mockMvc.perform(post("/api/users/login")
-                                .contentType(MediaType.APPLICATION_JSON)
-                                .content("{\"username\": \"testuser\", \"password\": \"" + encryptedPassword + "\"}"))
+                performLogin("{\"username\": \"testuser\", \"password\": \"" + encryptedPassword + "\"}")
                                 .andExpect(status().isUnauthorized())
                                 .andExpect(content().string("Invalid username or password"));
 
                 // Test missing fields
-                mockMvc.perform(post("/api/users/login")
-                                .contentType(MediaType.APPLICATION_JSON)
-                                .content("{\"username\": \"\", \"password\": \"\"}"))
+                performLogin("{\"username\": \"\", \"password\": \"\"}")
                                 .andExpect(status().isBadRequest())
                                 .andExpect(content().string("Username and password must not be null"));
         }
 
+        @Test
+        public void testRefreshToken() throws Exception {
+                String publicKeyPem = mockMvc.perform(get("/api/public-key"))
+                                .andReturn()
+                                .getResponse()
+                                .getContentAsString(StandardCharsets.UTF_8);
+                PublicKey publicKey = RSAUtil.getPublicKey(publicKeyPem.replace("-----BEGIN PUBLIC KEY-----", "")
+                                .replace("-----END PUBLIC KEY-----", "")
+                                .replaceAll("\\s+", ""));
+                String encryptedPassword = Base64.getEncoder().encodeToString(
+                                RSAUtil.encrypt("testpassword", publicKey));
+
+                String refreshToken = performLogin("{\"username\": \"testuser\", \"password\": \""
+                                + encryptedPassword + "\"}")
+                                .andExpect(status().isOk())
+                                .andExpect(header().exists("X-Refresh-Token"))
+                                .andReturn()
+                                .getResponse()
+                                .getHeader("X-Refresh-Token");
+
+                String accessToken = mockMvc.perform(post("/api/users/token/refresh")
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .content("{\"refreshToken\": \"" + refreshToken + "\"}"))
+                                .andExpect(status().isOk())
+                                .andReturn()
+                                .getResponse()
+                                .getContentAsString();
+
+                mockMvc.perform(get("/api/users/getUser")
+                                .param("username", "testuser")
+                                .header("Authorization", "Bearer " + accessToken))
+                                .andExpect(status().isOk());
+
+                // A refresh token does not authenticate requests
+                mockMvc.perform(get("/api/users/getUser")
+                                .param("username", "testuser")
+                                .header("Authorization", "Bearer " + refreshToken))
+                                .andExpect(result -> assertNotEquals(200, result.getResponse().getStatus()));
+
+                // An access token cannot be used to refresh
+                mockMvc.perform(post("/api/users/token/refresh")
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .content("{\"refreshToken\": \"" + jwtToken + "\"}"))
+                                .andExpect(status().isUnauthorized());
+        }
+
+        @Test
+        public void testRefreshTokenRevokedOnAnotherNode() throws Exception {
+                String refreshToken = loginResponse("testuser", "testpassword").getHeader("X-Refresh-Token");
+                mockMvc.perform(post("/api/users/token/refresh")
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .content("{\"refreshToken\": \"" + refreshToken + "\"}"))
+                                .andExpect(status().isOk());
+
+                // Another node revokes the tokens: the row changes without this node publishing the version
+                User user = userRepository.findByUsername("testuser").orElseThrow();
+                user.setTokenVersion(user.getTokenVersion() + 1);
+                userRepository.save(user);
+
+                mockMvc.perform(post("/api/users/token/refresh")
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .content("{\"refreshToken\": \"" + refreshToken + "\"}"))
+                                .andExpect(status().isUnauthorized());
+        }
+
         @Test
         public void testGetAllUsers() throws Exception {
                 mockMvc.perform(get("/api/users/listAll")
@@ -178,6 +279,84 @@ public class UserIntegrationTest {
                                 .andExpect(jsonPath("$[0].username", is("testuser")));
         }
 
+        @Test
+        public void testGetAllUsersPagedAndStreamed() throws Exception {
+                User other = new User();
+                other.setUsername("otheruser");
+                other.setPassword(passwordEncoder.encode("otherpassword"));
+                other.setEmail("otheruser@example.com");
+                other.setFirstName("Other");
+                other.setLastName("User");
+                userRepository.save(other);
+
+                String firstPage = mockMvc.perform(get("/api/users/listAll")
+                                .param("limit", "1")
+                                .header("Authorization", "Bearer " + jwtToken))
+                                .andExpect(status().isOk())
+                                .andExpect(jsonPath("$.users", hasSize(1)))
+                                .andExpect(jsonPath("$.users[0].username", is("testuser")))
+                                .andExpect(jsonPath("$.users[0].password").doesNotExist())
+                                .andReturn()
+                                .getResponse()
+                                .getContentAsString();
+                String cursor = objectMapper.readTree(firstPage).get("nextCursor").asText();
+
+                mockMvc.perform(get("/api/users/listAll")
+                                .param("limit", "1")
+                                .param("cursor", cursor)
+                                .header("Authorization", "Bearer " + jwtToken))
+                                .andExpect(status().isOk())
+                                .andExpect(jsonPath("$.users[0].username", is("otheruser")));
+
+                mockMvc.perform(get("/api/users/listAll")
+                                .param("cursor", "not-a-cursor")
+                                .header("Authorization", "Bearer " + jwtToken))
+                                .andExpect(status().isBadRequest());
+
+                MvcResult streamed = mockMvc.perform(get("/api/users/listAll")
+                                .param("stream", "true")
+                                .header("Authorization", "Bearer " + jwtToken))
+                                .andReturn();
+                String[] lines = mockMvc.perform(asyncDispatch(streamed))
+                                .andExpect(status().isOk())
+                                .andExpect(content().contentType("application/x-ndjson"))
+                                .andReturn()
+                                .getResponse()
+                                .getContentAsString()
+                                .split("\n");
+                assertEquals(2, lines.length);
+                assertEquals("otheruser", objectMapper.readTree(lines[1]).get("username").asText());
+        }
+
+        @Test
+        public void testImportUsers() throws Exception {
+                String csv = "username,password,email,firstName,lastName\n"
+                                + "imported1,password1,imported1@example.com,Imported,One\n"
+                                + "imported2,password2,imported2@example.com,\"Imported, Jr\",Two\n"
+                                + "testuser,password3,other@example.com,Taken,Username\n"
+                                + "invalid,pw,not-an-email,Invalid,Row\n";
+
+                mockMvc.perform(post("/api/users/import")
+                                .contentType("text/csv")
+                                .content(csv)
+                                .with(httpBasic("theAdmin", "qwerty")))
+                                .andExpect(status().isOk())
+                                .andExpect(jsonPath("$.imported", is(2)))
+                                .andExpect(jsonPath("$.rejected", is(2)))
+                                .andExpect(jsonPath("$.errors[*].line", containsInAnyOrder(4, 5)));
+
+                assertEquals("Imported, Jr", userRepository.findByUsername("imported2").orElseThrow().getFirstName());
+                assertTrue(passwordEncoder.matches("password1",
+                                userRepository.findByUsername("imported1").orElseThrow().getPassword()));
+
+                // Only administrators may import users
+                mockMvc.perform(post("/api/users/import")
+                                .contentType("text/csv")
+                                .content(csv)
+                                .header("Authorization", "Bearer " + jwtToken))
+                                .andExpect(result -> assertNotEquals(200, result.getResponse().getStatus()));
+        }
+
         @Test
         public void testFindUserByEmail() throws Exception {
                 mockMvc.perform(get("/api/users/find")
@@ -201,6 +380,48 @@ public class UserIntegrationTest {
                                 .andExpect(content().string("Email should be valid"));
         }
 
+        @Test
+        public void testLookupsIgnoreCase() throws Exception {
+                UserCreateDTO newUser = new UserCreateDTO();
+                newUser.setUsername("MixedCase");
+                newUser.setPassword("mixedpassword");
+                newUser.setEmail("Mixed.Case@Example.com");
+                newUser.setFirstName("Mixed");
+                newUser.setLastName("Case");
+
+                mockMvc.perform(post("/api/users/register")
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .content(objectMapper.writeValueAsString(newUser)))
+                                .andExpect(status().isCreated());
+
+                mockMvc.perform(get("/api/users/find")
+                                .param("email", "mixed.case@example.com")
+                                .header("Authorization", "Bearer " + jwtToken))
+                                .andExpect(status().isOk())
+                                .andExpect(jsonPath("$.email", is("Mixed.Case@Example.com")));
+
+                mockMvc.perform(get("/api/users/getUser")
+                                .param("username", "MIXEDCASE")
+                                .header("Authorization", "Bearer " + jwtToken))
+                                .andExpect(status().isOk())
+                                .andExpect(jsonPath("$.username", is("MixedCase")));
+
+                // Emails and usernames differing only by case are taken
+                newUser.setEmail("mixed.case@example.com");
+                newUser.setUsername("othercase");
+                mockMvc.perform(post("/api/users/register")
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .content(objectMapper.writeValueAsString(newUser)))
+                                .andExpect(status().isConflict());
+
+                newUser.setEmail("other.case@example.com");
+                newUser.setUsername("mixedcase");
+                mockMvc.perform(post("/api/users/register")
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .content(objectMapper.writeValueAsString(newUser)))
+                                .andExpect(status().isConflict());
+        }
+
         @Test
         public void testGetUserByUsername() throws Exception {
                 mockMvc.perform(get("/api/users/getUser")
@@ -255,9 +476,6 @@ public class UserIntegrationTest {
                                 .andExpect(content().string("User ID must not be null"));
         }
 
-        // todo: update logic, keep getting error: actual 400, when debugging we see
-        // "org.springframework.dao.IncorrectResultSizeDataAccessException: Query did
-        // not return a unique result: 2 results were returned"
         @Test
         public void testUpdateUserDuplicateEmail() throws Exception {
                 // Clear existing data to prevent duplicates
@@ -281,6 +499,9 @@ public class UserIntegrationTest {
                 newUser.setLastName("User");
                 userRepository.save(objectMapper.convertValue(newUser, User.class));
 
+                // The first user was recreated, so the token issued in setup is no longer valid
+                this.jwtToken = obtainJwtToken("testuser", "testpassword");
+
                 // Update the first user with the email of the second user
                 UserDTO userDTO = new UserDTO();
                 userDTO.setId(user.getId());
@@ -297,6 +518,90 @@ public class UserIntegrationTest {
                                 .andExpect(content().string("A user with the same email or username already exists."));
         }
 
+        @Test
+        public void testUpdateUserVersionConflict() throws Exception {
+                User user = userRepository.findByUsername("testuser").orElseThrow();
+                long version = user.getVersion();
+
+                UserDTO userDTO = new UserDTO();
+                userDTO.setId(user.getId());
+                userDTO.setFirstName("First");
+                userDTO.setVersion(version);
+
+                mockMvc.perform(put("/api/users/update")
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .content(objectMapper.writeValueAsString(userDTO))
+                                .header("Authorization", "Bearer " + jwtToken))
+                                .andExpect(status().isOk())
+                                .andExpect(jsonPath("$.version", is((int) version + 1)));
+
+                // A second update based on the same version is rejected with the current user
+                userDTO.setFirstName("Second");
+                mockMvc.perform(put("/api/users/update")
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .content(objectMapper.writeValueAsString(userDTO))
+                                .header("Authorization", "Bearer " + jwtToken))
+                                .andExpect(status().isConflict())
+                                .andExpect(jsonPath("$.firstName", is("First")))
+                                .andExpect(jsonPath("$.version", is((int) version + 1)));
+
+                // Retrying on the returned version succeeds
+                userDTO.setVersion(version + 1);
+                mockMvc.perform(put("/api/users/update")
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .content(objectMapper.writeValueAsString(userDTO))
+                                .header("Authorization", "Bearer " + jwtToken))
+                                .andExpect(status().isOk())
+                                .andExpect(jsonPath("$.firstName", is("Second")));
+        }
+
+        @Test
+        public void testPatchUser() throws Exception {
+                User user = userRepository.findByUsername("testuser").orElseThrow();
+                long version = user.getVersion();
+
+                mockMvc.perform(patch("/api/users/" + user.getId())
+                                .contentType("application/merge-patch+json")
+                                .content("{\"city\": \"Lisbon\", \"phone\": \"555-0100\"}")
+                                .header("Authorization", "Bearer " + jwtToken))
+                                .andExpect(status().isOk())
+                                .andExpect(jsonPath("$.city", is("Lisbon")))
+                                .andExpect(jsonPath("$.firstName", is("Test")))
+                                .andExpect(jsonPath("$.version", is((int) version + 1)));
+
+                // Nothing changes, so nothing is written
+                mockMvc.perform(patch("/api/users/" + user.getId())
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .content("{\"city\": \"Lisbon\", \"firstName\": \"Test\"}")
+                                .header("Authorization", "Bearer " + jwtToken))
+                                .andExpect(status().isNotModified());
+                assertEquals(version + 1, userRepository.findByUsername("testuser").orElseThrow().getVersion());
+
+                // An explicit null clears an optional field
+                mockMvc.perform(patch("/api/users/" + user.getId())
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .content("{\"phone\": null}")
+                                .header("Authorization", "Bearer " + jwtToken))
+                                .andExpect(status().isOk())
+                                .andExpect(jsonPath("$.phone").doesNotExist())
+                                .andExpect(jsonPath("$.city", is("Lisbon")));
+
+                // Mandatory fields cannot be cleared
+                mockMvc.perform(patch("/api/users/" + user.getId())
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .content("{\"lastName\": null}")
+                                .header("Authorization", "Bearer " + jwtToken))
+                                .andExpect(status().isBadRequest());
+
+                // A patch based on an outdated version is rejected with the current user
+                mockMvc.perform(patch("/api/users/" + user.getId())
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .content("{\"city\": \"Porto\", \"version\": " + version + "}")
+                                .header("Authorization", "Bearer " + jwtToken))
+                                .andExpect(status().isConflict())
+                                .andExpect(jsonPath("$.city", is("Lisbon")));
+        }
+
         @Test
         public void testUpdatePassword() throws Exception {
                 User user = userRepository.findByUsername("testuser").orElseThrow();
@@ -317,6 +622,157 @@ public class UserIntegrationTest {
                 assertTrue(passwordEncoder.matches("newpassword", updatedUser.getPassword()));
         }
 
+        @Test
+        public void testUpdatePasswordRevokesIssuedTokens() throws Exception {
+                User user = userRepository.findByUsername("testuser").orElseThrow();
+
+                PasswordUpdateDTO passwordUpdateDTO = new PasswordUpdateDTO();
+                passwordUpdateDTO.setCurrentPassword("testpassword");
+                passwordUpdateDTO.setNewPassword("newpassword");
+
+                mockMvc.perform(put("/api/users/updatePassword/" + user.getId())
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .content(objectMapper.writeValueAsString(passwordUpdateDTO))
+                                .header("Authorization", "Bearer " + jwtToken))
+                                .andExpect(status().isOk());
+
+                // The token issued before the password change is no longer accepted
+                mockMvc.perform(get("/api/users/getUser")
+                                .param("username", "testuser")
+                                .header("Authorization", "Bearer " + jwtToken))
+                                .andExpect(result -> assertNotEquals(200, result.getResponse().getStatus()));
+
+                // A token issued after the change is accepted
+                String newToken = obtainJwtToken("testuser", "newpassword");
+                mockMvc.perform(get("/api/users/getUser")
+                                .param("username", "testuser")
+                                .header("Authorization", "Bearer " + newToken))
+                                .andExpect(status().isOk());
+        }
+
+        @Test
+        public void testLegacyTokenClaimsAreIgnored() throws Exception {
+                User user = userRepository.findByUsername("testuser").orElseThrow();
+                long now = System.currentTimeMillis();
+                // Signed with the shared secret before startup, but claiming to be an administrator
+                String forged = legacyToken(user, new Date(now - 3_600_000), new Date(now + 3_600_000));
+
+                // The user is loaded from the database, with its own authorities
+                mockMvc.perform(get("/api/users/getUser")
+                                .param("username", "testuser")
+                                .header("Authorization", "Bearer " + forged))
+                                .andExpect(status().isOk());
+                mockMvc.perform(get("/api/audit").header("Authorization", "Bearer " + forged))
+                                .andExpect(status().isForbidden());
+
+                // No node issues HMAC signed tokens anymore
+                mockMvc.perform(get("/api/users/getUser")
+                                .param("username", "testuser")
+                                .header("Authorization", "Bearer " + legacyToken(user, new Date(now),
+                                                new Date(now + 3_600_000))))
+                                .andExpect(status().isUnauthorized());
+        }
+
+        private String legacyToken(User user, Date issuedAt, Date expiration) {
+                return Jwts.builder()
+                                .claim(JwtUtil.CLAIM_USER_ID, user.getId())
+                                .claim(JwtUtil.CLAIM_ROLES, List.of("ROLE_USER", "ROLE_ADMIN"))
+                                .claim(JwtUtil.CLAIM_TOKEN_VERSION, 0)
+                                .setSubject(user.getUsername())
+                                .setIssuedAt(issuedAt)
+                                .setExpiration(expiration)
+                                .signWith(SignatureAlgorithm.HS256, legacySecretKey.getBytes())
+                                .compact();
+        }
+
+        @Test
+        public void testBasicAuthenticationUsesThePasswordHashingPool() throws Exception {
+                long completed = passwordHashingService.getStats().get("completed");
+                mockMvc.perform(get("/api/users/getUser")
+                                .param("username", "testuser")
+                                .with(httpBasic("testuser", "testpassword")))
+                                .andExpect(status().isOk());
+                mockMvc.perform(get("/api/users/getUser")
+                                .param("username", "testuser")
+                                .with(httpBasic("testuser", "wrongpassword")))
+                                .andExpect(status().isUnauthorized());
+                assertEquals(completed + 2, passwordHashingService.getStats().get("completed"));
+
+                // Occupy every hashing thread and queue slot with verifications that wait for a latch
+                CountDownLatch release = new CountDownLatch(1);
+                CharSequence blocking = new CharSequence() {
+                        @Override
+                        public int length() {
+                                return toString().length();
+                        }
+
+                        @Override
+                        public char charAt(int index) {
+                                return toString().charAt(index);
+                        }
+
+                        @Override
+                        public CharSequence subSequence(int start, int end) {
+                                return toString().subSequence(start, end);
+                        }
+
+                        @Override
+                        public String toString() {
+                                try {
+                                        release.await();
+                                } catch (InterruptedException e) {
+                                        Thread.currentThread().interrupt();
+                                }
+                                return "blocking";
+                        }
+                };
+                String encoded = passwordEncoder.encode("blocking");
+                List<CompletableFuture<Boolean>> blocked = new ArrayList<>();
+                try {
+                        fillHashingPool(blocking, encoded, blocked);
+                        // Refill the queue slots taken by threads that were still idle
+                        while (passwordHashingService.getStats().get("active")
+                                        < passwordHashingService.getStats().get("poolSize")) {
+                                Thread.sleep(10);
+                        }
+                        fillHashingPool(blocking, encoded, blocked);
+
+                        // Basic authentication is then rejected like a login, without hashing on the request thread
+                        mockMvc.perform(get("/api/users/getUser")
+                                        .param("username", "testuser")
+                                        .with(httpBasic("testuser", "testpassword")))
+                                        .andExpect(status().isServiceUnavailable())
+                                        .andExpect(header().exists("Retry-After"));
+                } finally {
+                        release.countDown();
+                }
+                for (CompletableFuture<Boolean> future : blocked) {
+                        assertTrue(future.join());
+                }
+        }
+
+        private void fillHashingPool(CharSequence rawPassword, String encoded,
+                        List<CompletableFuture<Boolean>> blocked) {
+                try {
+                        while (true) {
+                                blocked.add(passwordHashingService.matches(rawPassword, encoded));
+                        }
+                } catch (PasswordHashingOverloadedException e) {
+                        // Every thread and queue slot is taken
+                }
+        }
+
+        @Test
+        public void testPasswordsInCharBuffersMatchTheirStrings() {
+                // Characters outside ASCII are encoded to the same UTF-8 bytes either way
+                String password = "p\u00e4ssw\u00f6rd-\u20ac";
+                String encoded = passwordEncoder.encode(password);
+                assertTrue(passwordEncoder.matches(CharBuffer.wrap(password.toCharArray()), encoded));
+                assertFalse(passwordEncoder.matches(CharBuffer.wrap("passw\u00f6rd-\u20ac".toCharArray()), encoded));
+                assertTrue(passwordEncoder.matches(password,
+                                passwordEncoder.encode(CharBuffer.wrap(password.toCharArray()))));
+        }
+
         @Test
         public void testUpdatePasswordWrongPassword() throws Exception {
                 User user = userRepository.findByUsername("testuser").orElseThrow();
@@ -337,6 +793,74 @@ public class UserIntegrationTest {
                 assertTrue(passwordEncoder.matches("testpassword", updatedUser.getPassword()));
         }
 
+        @Test
+        public void testSearchUsers() throws Exception {
+                // Registered through the API so the users are indexed
+                registerUser("zeb", "Zebulon", "Ortiz");
+                registerUser("zephyr", "Ann", "Zed");
+                registerUser("mzed", "Zelda", "Marsh");
+
+                // Closest completions first: "zeb" and "zed", then "zelda"
+                mockMvc.perform(get("/api/users/search").param("q", "ZE")
+                                .header("Authorization", "Bearer " + jwtToken))
+                                .andExpect(status().isOk())
+                                .andExpect(jsonPath("$[*].username", contains("zeb", "zephyr", "mzed")))
+                                .andExpect(jsonPath("$[0].password").doesNotExist());
+                mockMvc.perform(get("/api/users/search").param("q", "ze").param("limit", "2")
+                                .header("Authorization", "Bearer " + jwtToken))
+                                .andExpect(status().isOk())
+                                .andExpect(jsonPath("$[*].username", contains("zeb", "zephyr")));
+
+                // Every word of the query must match
+                mockMvc.perform(get("/api/users/search").param("q", "ze marsh")
+                                .header("Authorization", "Bearer " + jwtToken))
+                                .andExpect(status().isOk())
+                                .andExpect(jsonPath("$[*].username", contains("mzed")));
+
+                // Changes and deletions are reflected
+                User mzed = userRepository.findByUsername("mzed").orElseThrow();
+                mockMvc.perform(patch("/api/users/" + mzed.getId())
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .content("{\"lastName\": \"Moss\"}")
+                                .header("Authorization", "Bearer " + jwtToken))
+                                .andExpect(status().isOk());
+                mockMvc.perform(get("/api/users/search").param("q", "marsh")
+                                .header("Authorization", "Bearer " + jwtToken))
+                                .andExpect(status().isOk())
+                                .andExpect(jsonPath("$", hasSize(0)));
+                mockMvc.perform(get("/api/users/search").param("q", "moss")
+                                .header("Authorization", "Bearer " + jwtToken))
+                                .andExpect(jsonPath("$[*].username", contains("mzed")));
+
+                User zeb = userRepository.findByUsername("zeb").orElseThrow();
+                mockMvc.perform(delete("/api/users/delete/{userId}", zeb.getId())
+                                .header("Authorization", "Bearer " + jwtToken))
+                                .andExpect(status().isOk());
+                mockMvc.perform(get("/api/users/search").param("q", "zeb")
+                                .header("Authorization", "Bearer " + jwtToken))
+                                .andExpect(jsonPath("$", hasSize(0)));
+
+                mockMvc.perform(get("/api/users/search").param("q", " ")
+                                .header("Authorization", "Bearer " + jwtToken))
+                                .andExpect(status().isBadRequest());
+                mockMvc.perform(get("/api/users/search").param("q", "ze").param("limit", "0")
+                                .header("Authorization", "Bearer " + jwtToken))
+                                .andExpect(status().isBadRequest());
+        }
+
+        private void registerUser(String username, String firstName, String lastName) throws Exception {
+                UserCreateDTO user = new UserCreateDTO();
+                user.setUsername(username);
+                user.setPassword("password");
+                user.setEmail(username + "@example.com");
+                user.setFirstName(firstName);
+                user.setLastName(lastName);
+                mockMvc.perform(post("/api/users/register")
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .content(objectMapper.writeValueAsString(user)))
+                                .andExpect(status().isCreated());
+        }
+
         @Test
         public void testDeleteUser() throws Exception {
                 User user = userRepository.findByUsername("testuser").orElseThrow();
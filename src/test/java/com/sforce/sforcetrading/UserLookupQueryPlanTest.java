@@ -0,0 +1,144 @@
+package com.sforce.sforcetrading;
+
+import com.sforce.sforcetrading.model.User;
+import com.sforce.sforcetrading.repository.UserRepository;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that email and username lookups are answered from their index: the
+ * SQL Hibernate generates for each repository lookup is captured and explained
+ * on the database of the profile. Runs on the dev profile with an in-memory H2
+ * database; {@link PostgresUserLookupQueryPlanTest} runs the same checks on the
+ * prod profile.
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:lookupplan;DB_CLOSE_DELAY=-1",
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        "security.password.bcrypt-strength=4",
+        "jwt.rsa.ephemeral-key-allowed=true",
+        UserLookupQueryPlanTest.STATEMENT_INSPECTOR,
+        UserLookupQueryPlanTest.NO_SECOND_LEVEL_CACHE,
+        UserLookupQueryPlanTest.NO_QUERY_CACHE })
+@ActiveProfiles("dev")
+public class UserLookupQueryPlanTest {
+
+        static final String STATEMENT_INSPECTOR = "spring.jpa.properties.hibernate.session_factory.statement_inspector"
+                        + "=com.sforce.sforcetrading.UserLookupQueryPlanTest$LastSelectInspector";
+
+        // Lookups answered from the cache send no SQL to explain
+        static final String NO_SECOND_LEVEL_CACHE = "spring.jpa.properties.hibernate.cache.use_second_level_cache=false";
+        static final String NO_QUERY_CACHE = "spring.jpa.properties.hibernate.cache.use_query_cache=false";
+
+        @Autowired
+        private UserRepository userRepository;
+
+        @Autowired
+        private JdbcTemplate jdbcTemplate;
+
+        @BeforeEach
+        public void setup() {
+                userRepository.deleteAll();
+
+                User user = new User();
+                user.setUsername("PlanUser");
+                user.setPassword("not-a-real-hash");
+                user.setEmail("Plan.User@Example.com");
+                user.setFirstName("Plan");
+                user.setLastName("User");
+                userRepository.save(user);
+        }
+
+        @Test
+        public void testFindByEmailUsesIndex() throws Exception {
+                assertUsesIndex(() -> userRepository.findByEmail(" PLAN.user@example.com"),
+                                User.EMAIL_LOOKUP_INDEX, "plan.user@example.com");
+                assertUsesIndex(() -> userRepository.findDTOByEmail("plan.user@EXAMPLE.com"),
+                                User.EMAIL_LOOKUP_INDEX, "plan.user@example.com");
+        }
+
+        @Test
+        public void testFindByUsernameUsesIndex() throws Exception {
+                assertUsesIndex(() -> userRepository.findByUsername("planUSER"),
+                                User.USERNAME_LOOKUP_INDEX, "planuser");
+                assertUsesIndex(() -> userRepository.findDTOByUsername("PLANUSER"),
+                                User.USERNAME_LOOKUP_INDEX, "planuser");
+        }
+
+        /**
+         * Prepares the connection the plan is explained on.
+         *
+         * @param connection the connection
+         * @throws SQLException if the connection cannot be prepared
+         */
+        protected void beforeExplain(Connection connection) throws SQLException {
+        }
+
+        /**
+         * Restores the connection once the plan is explained.
+         *
+         * @param connection the connection
+         * @throws SQLException if the connection cannot be restored
+         */
+        protected void afterExplain(Connection connection) throws SQLException {
+        }
+
+        private void assertUsesIndex(Supplier<Optional<?>> lookup, String index, String key)
+                        throws Exception {
+                LastSelectInspector.lastSelect = null;
+                assertTrue(lookup.get().isPresent(), "lookup ignoring case should find the user");
+                String sql = LastSelectInspector.lastSelect;
+                assertNotNull(sql);
+
+                String plan = jdbcTemplate.execute((ConnectionCallback<String>) connection -> {
+                        beforeExplain(connection);
+                        try (PreparedStatement statement = connection.prepareStatement("explain " + sql)) {
+                                statement.setString(1, key);
+                                StringBuilder lines = new StringBuilder();
+                                try (ResultSet resultSet = statement.executeQuery()) {
+                                        while (resultSet.next()) {
+                                                lines.append(resultSet.getString(1)).append('\n');
+                                        }
+                                }
+                                return lines.toString();
+                        } finally {
+                                afterExplain(connection);
+                        }
+                });
+                assertTrue(plan.toLowerCase(Locale.ROOT).contains(index), "expected " + index + " in plan:\n" + plan);
+        }
+
+        /**
+         * Records the last select statement sent by Hibernate.
+         */
+        public static class LastSelectInspector implements StatementInspector {
+
+                static volatile String lastSelect;
+
+                @Override
+                public String inspect(String sql) {
+                        if (sql.trim().toLowerCase(Locale.ROOT).startsWith("select")) {
+                                lastSelect = sql;
+                        }
+                        return sql;
+                }
+        }
+}
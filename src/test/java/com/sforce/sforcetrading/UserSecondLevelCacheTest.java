@@ -0,0 +1,200 @@
+package com.sforce.sforcetrading;
+
+import com.sforce.sforcetrading.dto.UserDTO;
+import com.sforce.sforcetrading.dto.UserPatchDTO;
+import com.sforce.sforcetrading.model.User;
+import com.sforce.sforcetrading.repository.UserRepository;
+import com.sforce.sforcetrading.service.UserService;
+import com.sforce.sforcetrading.util.LruCacheRegionFactory;
+
+import jakarta.persistence.EntityManagerFactory;
+
+import org.hibernate.Cache;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that username and email lookups are answered from the second-level
+ * and query caches, and that writes through {@link UserService} keep them
+ * correct. Statements sent by Hibernate are counted to tell a cache hit from a
+ * query.
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:usercache;DB_CLOSE_DELAY=-1",
+        "security.password.bcrypt-strength=4",
+        "spring.jpa.properties.hibernate.session_factory.statement_inspector"
+                + "=com.sforce.sforcetrading.UserSecondLevelCacheTest$CountingInspector" })
+@ActiveProfiles("test")
+public class UserSecondLevelCacheTest {
+
+        @Autowired
+        private UserService userService;
+
+        @Autowired
+        private UserRepository userRepository;
+
+        @Autowired
+        private EntityManagerFactory entityManagerFactory;
+
+        @Autowired
+        private JdbcTemplate jdbcTemplate;
+
+        @Autowired
+        private PasswordEncoder passwordEncoder;
+
+        private User user;
+
+        @BeforeEach
+        public void setup() {
+                userRepository.deleteAll();
+                user = userService.saveUser(newUser("CachedUser"));
+                entityManagerFactory.getCache().unwrap(Cache.class).evictAllRegions();
+        }
+
+        @Test
+        public void testUsernameLookupIsCached() {
+                assertTrue(countStatements(() -> userService.getUserByUsername("cacheduser").isPresent()) > 0);
+                assertEquals(0, countStatements(() -> userService.getUserByUsername("CACHEDUSER").isPresent()));
+                assertEquals(0, countStatements(() -> userService.getUserById(user.getId()) != null));
+        }
+
+        @Test
+        public void testEmailLookupIsCached() {
+                assertTrue(countStatements(() -> userService.getUserByEmail("cacheduser@example.com").isPresent()) > 0);
+                assertEquals(0, countStatements(() -> userService.getUserByEmail("CachedUser@Example.com").isPresent()));
+
+                assertTrue(countStatements(() -> userService.getUserDTOByEmail("cacheduser@example.com").isPresent()) > 0);
+                assertEquals(0, countStatements(() -> userService.getUserDTOByEmail("cacheduser@example.com").isPresent()));
+                assertTrue(countStatements(() -> userService.getUserDTOByUsername("cacheduser").isPresent()) > 0);
+                assertEquals(0, countStatements(() -> userService.getUserDTOByUsername("cacheduser").isPresent()));
+        }
+
+        @Test
+        public void testUpdateInvalidatesLookups() {
+                warmUp("CachedUser", "cacheduser@example.com");
+
+                UserDTO changes = new UserDTO();
+                changes.setUsername("RenamedUser");
+                changes.setEmail("renamed@example.com");
+                changes.setCity("Porto");
+                userService.updateUserDetails(user.getId(), changes);
+
+                assertTrue(userService.getUserByUsername("CachedUser").isEmpty());
+                assertTrue(userService.getUserByEmail("cacheduser@example.com").isEmpty());
+                assertTrue(userService.getUserDTOByUsername("CachedUser").isEmpty());
+                assertTrue(userService.getUserDTOByEmail("cacheduser@example.com").isEmpty());
+                assertEquals("Porto", userService.getUserByUsername("renameduser").orElseThrow().getCity());
+                assertEquals("Porto", userService.getUserByEmail("renamed@example.com").orElseThrow().getCity());
+                assertEquals("Porto", userService.getUserDTOByUsername("renameduser").orElseThrow().getCity());
+                assertEquals("Porto", userService.getUserDTOByEmail("renamed@example.com").orElseThrow().getCity());
+        }
+
+        @Test
+        public void testPatchInvalidatesLookups() {
+                warmUp("CachedUser", "cacheduser@example.com");
+
+                UserPatchDTO patch = new UserPatchDTO();
+                patch.setCity("Faro");
+                userService.patchUser(user.getId(), patch);
+
+                assertEquals("Faro", userService.getUserByUsername("cacheduser").orElseThrow().getCity());
+                assertEquals("Faro", userService.getUserByEmail("cacheduser@example.com").orElseThrow().getCity());
+                assertEquals("Faro", userService.getUserDTOByUsername("cacheduser").orElseThrow().getCity());
+                assertEquals("Faro", userService.getUserDTOByEmail("cacheduser@example.com").orElseThrow().getCity());
+        }
+
+        @Test
+        public void testInsertAndDeleteInvalidateLookups() {
+                // Cache the absence of the user before it is created
+                assertTrue(userService.getUserByEmail("newcomer@example.com").isEmpty());
+                assertTrue(userService.getUserDTOByUsername("newcomer").isEmpty());
+
+                User newcomer = userService.saveUser(newUser("Newcomer"));
+                assertTrue(userService.getUserByEmail("newcomer@example.com").isPresent());
+                assertTrue(userService.getUserDTOByUsername("newcomer").isPresent());
+
+                userService.deleteUser(newcomer.getId());
+                assertTrue(userService.getUserByUsername("newcomer").isEmpty());
+                assertTrue(userService.getUserByEmail("newcomer@example.com").isEmpty());
+                assertTrue(userService.getUserDTOByUsername("newcomer").isEmpty());
+        }
+
+        @Test
+        public void testCredentialsAreReadFromTheDatabase() {
+                warmUp("CachedUser", "cacheduser@example.com");
+                assertTrue(countStatements(() -> userService.authenticateUser("cacheduser", "password").isPresent()) > 0);
+
+                // Another node changes the password: the cached user still has the old hash
+                jdbcTemplate.update("update users set password = ? where id = ?", passwordEncoder.encode("changed"),
+                                user.getId());
+                assertTrue(userService.authenticateUser("cacheduser", "password").isEmpty());
+                assertTrue(userService.authenticateUser("cacheduser", "changed").isPresent());
+        }
+
+        @Test
+        public void testStatsCountHitsAndMisses() {
+                warmUp("CachedUser", "cacheduser@example.com");
+                warmUp("CachedUser", "cacheduser@example.com");
+
+                LruCacheRegionFactory regionFactory = (LruCacheRegionFactory) entityManagerFactory
+                                .unwrap(SessionFactoryImplementor.class).getCache().getRegionFactory();
+                Map<String, Map<String, Long>> stats = regionFactory.getStats();
+                for (String region : new String[] { User.CACHE_REGION, User.NATURAL_ID_CACHE_REGION,
+                                User.QUERY_CACHE_REGION }) {
+                        assertTrue(stats.get(region).get("hits") > 0, region + " hits: " + stats);
+                        assertTrue(stats.get(region).get("size") > 0, region + " size: " + stats);
+                }
+                assertTrue(stats.get(User.QUERY_CACHE_REGION).get("misses") > 0, "query misses: " + stats);
+        }
+
+        private void warmUp(String username, String email) {
+                userService.getUserByUsername(username);
+                userService.getUserByEmail(email);
+                userService.getUserDTOByUsername(username);
+                userService.getUserDTOByEmail(email);
+        }
+
+        private static int countStatements(BooleanSupplier lookup) {
+                int before = CountingInspector.statements.get();
+                assertTrue(lookup.getAsBoolean());
+                return CountingInspector.statements.get() - before;
+        }
+
+        private static User newUser(String username) {
+                User user = new User();
+                user.setUsername(username);
+                user.setPassword("password");
+                user.setEmail(username + "@example.com");
+                user.setFirstName("Cached");
+                user.setLastName("User");
+                return user;
+        }
+
+        /**
+         * Counts the statements sent by Hibernate.
+         */
+        public static class CountingInspector implements StatementInspector {
+
+                static final AtomicInteger statements = new AtomicInteger();
+
+                @Override
+                public String inspect(String sql) {
+                        statements.incrementAndGet();
+                        return sql;
+                }
+        }
+}